@@ -21,42 +21,193 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.PGPPublicKeyRing;
 import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
 import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.operator.PGPContentVerifierBuilderProvider;
 import org.pgpainless.exception.NotYetImplementedException;
+import org.pgpainless.implementation.CachingPBESecretKeyDecryptor;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.OpenPgpV4Fingerprint;
 import org.pgpainless.key.protection.SecretKeyRingProtector;
 import org.pgpainless.signature.SignatureUtils;
 import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
 
 /**
  * Options for decryption and signature verification.
+ *
+ * Servers which decrypt many messages using the same keys and certificates can {@link #freeze() freeze} the options
+ * once. Frozen options are immutable and can be shared between threads. Per-message state (detached signatures and
+ * the session key) is added to a lightweight copy obtained from {@link #forMessage()}.
+ * Options which are not frozen are not thread-safe.
  */
 public class ConsumerOptions {
 
+    private static final int DERIVED_KEY_CACHE_SIZE = 16;
+
     private Date verifyNotBefore;
     private Date verifyNotAfter;
 
     // Set of verification keys
-    private final Set<PGPPublicKeyRing> certificates = new HashSet<>();
-    private final Set<PGPSignature> detachedSignatures = new HashSet<>();
+    private final Set<PGPPublicKeyRing> certificates;
+    // Indexes of verification keys by key-id and fingerprint of any of their (sub-)keys
+    private final Map<Long, PGPPublicKeyRing> certificatesByKeyId;
+    private final Map<OpenPgpV4Fingerprint, PGPPublicKeyRing> certificatesByFingerprint;
+    private final Set<PGPSignature> detachedSignatures;
     private MissingPublicKeyCallback missingCertificateCallback = null;
 
     // Session key for decryption without passphrase/key
-    private byte[] sessionKey = null;
+    private SessionKey sessionKey = null;
+
+    private final Map<PGPSecretKeyRing, SecretKeyRingProtector> decryptionKeys;
+    // Index of decryption keys by key-id of any of their (sub-)keys
+    private final Map<Long, PGPSecretKeyRing> decryptionKeysByKeyId;
+    private final Set<Passphrase> decryptionPassphrases;
+
+    private boolean verifyIntegrityOnEndOfStream = false;
+    private Executor decryptionPipelineExecutor = null;
+    private SessionKeyCache sessionKeyCache = null;
+    private Executor hiddenRecipientExecutor = null;
+    private List<TrialDecryption.Candidate> trialDecryptionCandidates = null;
+    private Executor passphraseDecryptionExecutor = null;
+    private final CachingPBESecretKeyDecryptor.DerivedKeyCache derivedKeyCache;
+    private final PGPContentVerifierBuilderProvider verifierBuilderProvider;
+
+    // Frozen template these options are based on (this for the template itself), or null if the options are mutable
+    private final ConsumerOptions template;
+
+    public ConsumerOptions() {
+        this.certificates = new LinkedHashSet<>();
+        this.certificatesByKeyId = new HashMap<>();
+        this.certificatesByFingerprint = new HashMap<>();
+        this.detachedSignatures = new HashSet<>();
+        this.decryptionKeys = new LinkedHashMap<>();
+        this.decryptionKeysByKeyId = new HashMap<>();
+        this.decryptionPassphrases = new HashSet<>();
+        this.derivedKeyCache = new CachingPBESecretKeyDecryptor.DerivedKeyCache(DERIVED_KEY_CACHE_SIZE);
+        this.verifierBuilderProvider = null;
+        this.template = null;
+    }
+
+    /**
+     * Create a frozen template from the given options, or per-message options on top of the given frozen template.
+     *
+     * @param options mutable options or frozen template
+     * @param freeze true to create a frozen template, false to create per-message options
+     */
+    private ConsumerOptions(ConsumerOptions options, boolean freeze) {
+        this.verifyNotBefore = options.verifyNotBefore;
+        this.verifyNotAfter = options.verifyNotAfter;
+        this.missingCertificateCallback = options.missingCertificateCallback;
+        this.verifyIntegrityOnEndOfStream = options.verifyIntegrityOnEndOfStream;
+        this.decryptionPipelineExecutor = options.decryptionPipelineExecutor;
+        this.sessionKeyCache = options.sessionKeyCache;
+        this.hiddenRecipientExecutor = options.hiddenRecipientExecutor;
+        this.passphraseDecryptionExecutor = options.passphraseDecryptionExecutor;
+        this.derivedKeyCache = options.derivedKeyCache;
+
+        if (!freeze) {
+            // Share the immutable state of the template
+            this.certificates = options.certificates;
+            this.certificatesByKeyId = options.certificatesByKeyId;
+            this.certificatesByFingerprint = options.certificatesByFingerprint;
+            this.decryptionKeys = options.decryptionKeys;
+            this.decryptionKeysByKeyId = options.decryptionKeysByKeyId;
+            this.decryptionPassphrases = options.decryptionPassphrases;
+            this.trialDecryptionCandidates = options.trialDecryptionCandidates;
+            this.verifierBuilderProvider = options.verifierBuilderProvider;
+            this.detachedSignatures = new HashSet<>();
+            this.template = options;
+            return;
+        }
+
+        this.certificates = Collections.unmodifiableSet(new LinkedHashSet<>(options.certificates));
+        this.certificatesByKeyId = Collections.unmodifiableMap(new HashMap<>(options.certificatesByKeyId));
+        this.certificatesByFingerprint = Collections.unmodifiableMap(new HashMap<>(options.certificatesByFingerprint));
+        this.decryptionKeys = Collections.unmodifiableMap(new LinkedHashMap<>(options.decryptionKeys));
+        this.decryptionKeysByKeyId = Collections.unmodifiableMap(new HashMap<>(options.decryptionKeysByKeyId));
+        this.decryptionPassphrases = Collections.unmodifiableSet(new HashSet<>(options.decryptionPassphrases));
+        // Evaluate the decryption subkeys up front, instead of on the first message for a hidden recipient
+        this.trialDecryptionCandidates = TrialDecryption.collectCandidates(this);
+        this.detachedSignatures = Collections.emptySet();
+        this.verifierBuilderProvider = ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider();
+        this.template = this;
+    }
+
+    /**
+     * Return an immutable snapshot of these options.
+     * The snapshot contains pre-built indexes of the certificates and decryption keys, the pre-evaluated decryption
+     * subkeys and a pre-initialized signature verifier provider, and can be shared between threads.
+     * Any attempt to modify the snapshot results in an {@link IllegalStateException}.
+     *
+     * Per-message state like detached signatures or a session key cannot be part of the snapshot, since it would
+     * apply to every message decrypted with it. Use {@link #forMessage()} to add it instead.
+     *
+     * @return frozen options
+     * @throws IllegalStateException if these options contain detached signatures or a session key
+     */
+    public ConsumerOptions freeze() {
+        if (isFrozen()) {
+            return template;
+        }
+        if (sessionKey != null || !detachedSignatures.isEmpty()) {
+            throw new IllegalStateException("Detached signatures and session keys are per-message state " +
+                    "and MUST be added to the options returned by forMessage().");
+        }
+        return new ConsumerOptions(this, true);
+    }
 
-    private final Map<PGPSecretKeyRing, SecretKeyRingProtector> decryptionKeys = new HashMap<>();
-    private final Set<Passphrase> decryptionPassphrases = new HashSet<>();
+    /**
+     * Return options for the decryption of a single message, based on these frozen options.
+     * The returned options share the state of the frozen options, but allow to add detached signatures and
+     * a session key. All other modifications result in an {@link IllegalStateException}.
+     *
+     * @return per-message options
+     * @throws IllegalStateException if these options are not frozen
+     */
+    public ConsumerOptions forMessage() {
+        if (!isFrozen()) {
+            throw new IllegalStateException("Options MUST be frozen before creating per-message options.");
+        }
+        return new ConsumerOptions(template, false);
+    }
 
+    /**
+     * Return true if these options are frozen, either because they are a snapshot created by {@link #freeze()},
+     * or because they are per-message options created by {@link #forMessage()}.
+     *
+     * @return true if frozen
+     */
+    public boolean isFrozen() {
+        return template != null;
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen()) {
+            throw new IllegalStateException("Options are frozen.");
+        }
+    }
+
+    private void checkNotTemplate() {
+        if (template == this) {
+            throw new IllegalStateException("Frozen options are shared. Use forMessage() to add per-message state.");
+        }
+    }
 
     /**
      * Consider signatures made before the given timestamp invalid.
@@ -68,6 +219,7 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions verifyNotBefore(Date timestamp) {
+        checkNotFrozen();
         this.verifyNotBefore = timestamp;
         throw new NotYetImplementedException();
         // return this;
@@ -87,6 +239,7 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions verifyNotAfter(Date timestamp) {
+        checkNotFrozen();
         this.verifyNotAfter = timestamp;
         throw new NotYetImplementedException();
         // return this;
@@ -103,7 +256,24 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions addVerificationCert(PGPPublicKeyRing verificationCert) {
-        this.certificates.add(verificationCert);
+        checkNotFrozen();
+        if (!this.certificates.add(verificationCert)) {
+            return this;
+        }
+        // If multiple certificates contain the same key, the certificate which was added first takes precedence
+        Iterator<PGPPublicKey> publicKeys = verificationCert.getPublicKeys();
+        while (publicKeys.hasNext()) {
+            PGPPublicKey publicKey = publicKeys.next();
+            if (!certificatesByKeyId.containsKey(publicKey.getKeyID())) {
+                certificatesByKeyId.put(publicKey.getKeyID(), verificationCert);
+            }
+            if (publicKey.getVersion() == 4) {
+                OpenPgpV4Fingerprint fingerprint = new OpenPgpV4Fingerprint(publicKey);
+                if (!certificatesByFingerprint.containsKey(fingerprint)) {
+                    certificatesByFingerprint.put(fingerprint, verificationCert);
+                }
+            }
+        }
         return this;
     }
 
@@ -139,6 +309,7 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions addVerificationOfDetachedSignature(PGPSignature detachedSignature) {
+        checkNotTemplate();
         detachedSignatures.add(detachedSignature);
         return this;
     }
@@ -150,6 +321,7 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions setMissingCertificateCallback(MissingPublicKeyCallback callback) {
+        checkNotFrozen();
         this.missingCertificateCallback = callback;
         return this;
     }
@@ -157,19 +329,18 @@ public class ConsumerOptions {
 
     /**
      * Attempt decryption using a session key.
-     *
-     * Note: PGPainless does not yet support decryption with session keys.
-     * TODO: Add support for decryption using session key.
+     * If a session key is set, the encrypted data is decrypted directly using the session key,
+     * while any public-key or symmetric-key encrypted session key packets of the message are ignored.
      *
      * @see <a href="https://datatracker.ietf.org/doc/html/rfc4880#section-2.1">RFC4880 on Session Keys</a>
      *
      * @param sessionKey session key
      * @return options
      */
-    public ConsumerOptions setSessionKey(@Nonnull byte[] sessionKey) {
+    public ConsumerOptions setSessionKey(@Nonnull SessionKey sessionKey) {
+        checkNotTemplate();
         this.sessionKey = sessionKey;
-        throw new NotYetImplementedException();
-        // return this;
+        return this;
     }
 
     /**
@@ -177,14 +348,8 @@ public class ConsumerOptions {
      *
      * @return session key or null
      */
-    public @Nullable byte[] getSessionKey() {
-        if (sessionKey == null) {
-            return null;
-        }
-
-        byte[] sk = new byte[sessionKey.length];
-        System.arraycopy(sessionKey, 0, sk, 0, sessionKey.length);
-        return sk;
+    public @Nullable SessionKey getSessionKey() {
+        return sessionKey;
     }
 
     /**
@@ -207,7 +372,17 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions addDecryptionKey(@Nonnull PGPSecretKeyRing key, @Nonnull SecretKeyRingProtector keyRingProtector) {
+        checkNotFrozen();
         decryptionKeys.put(key, keyRingProtector);
+        trialDecryptionCandidates = null;
+        // If multiple keys contain the same subkey, the key which was added first takes precedence
+        Iterator<PGPPublicKey> publicKeys = key.getPublicKeys();
+        while (publicKeys.hasNext()) {
+            long keyId = publicKeys.next().getKeyID();
+            if (!decryptionKeysByKeyId.containsKey(keyId)) {
+                decryptionKeysByKeyId.put(keyId, key);
+            }
+        }
         return this;
     }
 
@@ -232,10 +407,161 @@ public class ConsumerOptions {
      * @return options
      */
     public ConsumerOptions addDecryptionPassphrase(@Nonnull Passphrase passphrase) {
+        checkNotFrozen();
         decryptionPassphrases.add(passphrase);
         return this;
     }
 
+    /**
+     * Verify the modification detection code of integrity protected messages as soon as the end of the
+     * plaintext is reached, instead of waiting for the {@link DecryptionStream} to get closed.
+     * If this is set to true, the read operation which hits the end of the stream throws a
+     * {@link org.pgpainless.exception.ModificationDetectionException} if the message was tampered with.
+     *
+     * @param verifyOnEndOfStream whether to verify the integrity as soon as the end of the stream is reached
+     * @return options
+     */
+    public ConsumerOptions setVerifyIntegrityOnEndOfStream(boolean verifyOnEndOfStream) {
+        checkNotFrozen();
+        this.verifyIntegrityOnEndOfStream = verifyOnEndOfStream;
+        return this;
+    }
+
+    public boolean isVerifyIntegrityOnEndOfStream() {
+        return verifyIntegrityOnEndOfStream;
+    }
+
+    /**
+     * Decrypt and decompress the message on separate workers of the given {@link Executor}, instead of processing
+     * all layers on the reading thread.
+     * The decrypted and the decompressed data are each read ahead into a bounded ring of reusable buffers, so that
+     * decryption of the next chunk overlaps with decompression of the current chunk, while the reading thread
+     * parses the plaintext and hashes it for signature verification.
+     * This is beneficial for large, compressed and encrypted messages.
+     *
+     * Each worker blocks while waiting for data of the layer below, so the executor must be able to run
+     * one task per layer concurrently (e.g. a cached thread pool). Passing null disables pipelining,
+     * which is the default.
+     *
+     * @param executor executor to run the pipeline stages on, or null
+     * @return options
+     */
+    public ConsumerOptions setDecryptionPipelineExecutor(@Nullable Executor executor) {
+        checkNotFrozen();
+        this.decryptionPipelineExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used to run the stages of a pipelined decryption, or null if pipelining is disabled.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getDecryptionPipelineExecutor() {
+        return decryptionPipelineExecutor;
+    }
+
+    /**
+     * Set a {@link SessionKeyCache} which is used to remember the session keys of decrypted messages.
+     * When a message is decrypted again, its session key is taken from the cache, so that neither the secret key
+     * needs to be unlocked, nor the public-key encrypted session key needs to be decrypted again.
+     * The cache can be shared between multiple {@link ConsumerOptions}.
+     *
+     * @param cache session key cache or null to disable caching
+     * @return options
+     */
+    public ConsumerOptions setSessionKeyCache(@Nullable SessionKeyCache cache) {
+        checkNotFrozen();
+        this.sessionKeyCache = cache;
+        return this;
+    }
+
+    /**
+     * Return the {@link SessionKeyCache}, or null if session keys are not cached.
+     *
+     * @return session key cache or null
+     */
+    public @Nullable SessionKeyCache getSessionKeyCache() {
+        return sessionKeyCache;
+    }
+
+    /**
+     * Set an {@link Executor} which is used to try the decryption keys concurrently if the message is encrypted
+     * for a hidden recipient (wildcard key-id).
+     * As soon as one key succeeds, the remaining attempts are cancelled.
+     * If no executor is set, the keys are tried one after another.
+     *
+     * @param executor executor or null
+     * @return options
+     */
+    public ConsumerOptions setHiddenRecipientExecutor(@Nullable Executor executor) {
+        checkNotFrozen();
+        this.hiddenRecipientExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used for trial decryption of messages for hidden recipients, or null.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getHiddenRecipientExecutor() {
+        return hiddenRecipientExecutor;
+    }
+
+    /**
+     * Return the encryption subkeys of all decryption keys, which are tried if a message is encrypted for a
+     * hidden recipient.
+     * The candidates are computed once and reused for all messages decrypted with these options,
+     * along with the private keys unlocked during previous trial decryptions.
+     *
+     * @return candidates for trial decryption
+     */
+    List<TrialDecryption.Candidate> getTrialDecryptionCandidates() {
+        if (trialDecryptionCandidates == null) {
+            trialDecryptionCandidates = TrialDecryption.collectCandidates(this);
+        }
+        return trialDecryptionCandidates;
+    }
+
+    /**
+     * Set an {@link Executor} which is used to try the decryption passphrases concurrently on the
+     * symmetric-key encrypted session keys of a message.
+     * As soon as one combination of passphrase and encrypted session key succeeds, the remaining attempts are cancelled.
+     * If no executor is set, the combinations are tried one after another.
+     *
+     * Passing a bounded executor limits the number of concurrent (memory- and CPU-hard) key derivations.
+     *
+     * @param executor executor or null
+     * @return options
+     */
+    public ConsumerOptions setPassphraseDecryptionExecutor(@Nullable Executor executor) {
+        checkNotFrozen();
+        this.passphraseDecryptionExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used to try the decryption passphrases concurrently, or null.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getPassphraseDecryptionExecutor() {
+        return passphraseDecryptionExecutor;
+    }
+
+    /**
+     * Return the cache of keys derived from the decryption passphrases.
+     * The most recently used derived keys are retained, so that decrypting multiple messages which were
+     * encrypted using the same S2K parameters only performs the key derivation once.
+     * Keys derived from passphrases which are cleared are wiped.
+     *
+     * @return derived key cache
+     */
+    CachingPBESecretKeyDecryptor.DerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
     public @Nonnull Set<PGPSecretKeyRing> getDecryptionKeys() {
         return Collections.unmodifiableSet(decryptionKeys.keySet());
     }
@@ -248,6 +574,38 @@ public class ConsumerOptions {
         return Collections.unmodifiableSet(certificates);
     }
 
+    /**
+     * Return the certificate which contains the (sub-)key with the given key-id.
+     * If multiple certificates contain a key with the given key-id, the one which was added first is returned.
+     *
+     * @param keyId key-id
+     * @return certificate or null
+     */
+    public @Nullable PGPPublicKeyRing getCertificate(long keyId) {
+        return certificatesByKeyId.get(keyId);
+    }
+
+    /**
+     * Return the certificate which contains the (sub-)key with the given fingerprint.
+     *
+     * @param fingerprint fingerprint
+     * @return certificate or null
+     */
+    public @Nullable PGPPublicKeyRing getCertificate(@Nonnull OpenPgpV4Fingerprint fingerprint) {
+        return certificatesByFingerprint.get(fingerprint);
+    }
+
+    /**
+     * Return the decryption key which contains the (sub-)key with the given key-id.
+     * If multiple keys contain a subkey with the given key-id, the one which was added first is returned.
+     *
+     * @param keyId key-id
+     * @return decryption key or null
+     */
+    public @Nullable PGPSecretKeyRing getDecryptionKey(long keyId) {
+        return decryptionKeysByKeyId.get(keyId);
+    }
+
     public @Nullable MissingPublicKeyCallback getMissingCertificateCallback() {
         return missingCertificateCallback;
     }
@@ -256,6 +614,19 @@ public class ConsumerOptions {
         return decryptionKeys.get(decryptionKeyRing);
     }
 
+    /**
+     * Return the provider used to initialize signatures for verification.
+     * Frozen options share a single pre-initialized provider.
+     *
+     * @return verifier builder provider
+     */
+    PGPContentVerifierBuilderProvider getVerifierBuilderProvider() {
+        if (verifierBuilderProvider != null) {
+            return verifierBuilderProvider;
+        }
+        return ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider();
+    }
+
     public @Nonnull Set<PGPSignature> getDetachedSignatures() {
         return Collections.unmodifiableSet(detachedSignatures);
     }
@@ -15,14 +15,28 @@
  */
 package org.pgpainless.decryption_verification;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 
 import org.bouncycastle.openpgp.PGPException;
+import org.pgpainless.util.ByteBufferInputStream;
 
 public class DecryptionBuilder implements DecryptionBuilderInterface {
 
+    /**
+     * Size of the intermediate buffers used when reading from and writing to files or direct byte buffers.
+     */
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+
     private InputStream inputStream;
 
     @Override
@@ -42,4 +56,183 @@ public class DecryptionBuilder implements DecryptionBuilderInterface {
             return DecryptionStreamFactory.create(inputStream, consumerOptions);
         }
     }
+
+    @Override
+    public DecryptFile onFile(@Nonnull final File ciphertextFile) {
+        return new DecryptFile() {
+            @Override
+            public DecryptToFileWith toFile(@Nonnull File plaintextFile) {
+                return new DecryptToFileWithImpl(ciphertextFile, plaintextFile);
+            }
+
+            @Override
+            public DecryptionStream withOptions(ConsumerOptions consumerOptions) throws PGPException, IOException {
+                if (consumerOptions == null) {
+                    throw new IllegalArgumentException("Consumer options cannot be null.");
+                }
+
+                FileInputStream fileIn = new FileInputStream(ciphertextFile);
+                try {
+                    DecryptionStream decryptionStream = DecryptionStreamFactory.create(openFile(fileIn), consumerOptions);
+                    decryptionStream.setSourceStream(fileIn);
+                    return decryptionStream;
+                } catch (PGPException | IOException | RuntimeException e) {
+                    fileIn.close();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public DecoderWith asDecoder(@Nonnull final MessageDecoder.Listener listener) {
+        return new DecoderWith() {
+            @Override
+            public MessageDecoder withOptions(ConsumerOptions consumerOptions) throws PGPException {
+                if (consumerOptions == null) {
+                    throw new IllegalArgumentException("Consumer options cannot be null.");
+                }
+                return new MessageDecoder(consumerOptions, listener);
+            }
+        };
+    }
+
+    @Override
+    public DecryptProcessorWith asProcessor(@Nonnull final Executor executor) {
+        return new DecryptProcessorWith() {
+            @Override
+            public DecryptionProcessor withOptions(ConsumerOptions consumerOptions) throws PGPException {
+                if (consumerOptions == null) {
+                    throw new IllegalArgumentException("Consumer options cannot be null.");
+                }
+                return new DecryptionProcessor(consumerOptions, executor);
+            }
+        };
+    }
+
+    @Override
+    public DecryptByteBuffer onByteBuffer(@Nonnull final ByteBuffer ciphertext) {
+        return new DecryptByteBuffer() {
+            @Override
+            public DecryptToByteBufferWith toByteBuffer(@Nonnull ByteBuffer plaintext) {
+                return new DecryptToByteBufferWithImpl(ciphertext, plaintext);
+            }
+        };
+    }
+
+    static class DecryptToByteBufferWithImpl implements DecryptToByteBufferWith {
+
+        private final ByteBuffer ciphertext;
+        private final ByteBuffer plaintext;
+
+        DecryptToByteBufferWithImpl(ByteBuffer ciphertext, ByteBuffer plaintext) {
+            this.ciphertext = ciphertext;
+            this.plaintext = plaintext;
+        }
+
+        @Override
+        public OpenPgpMetadata withOptions(ConsumerOptions consumerOptions) throws PGPException, IOException {
+            if (consumerOptions == null) {
+                throw new IllegalArgumentException("Consumer options cannot be null.");
+            }
+
+            int ciphertextPosition = ciphertext.position();
+            int plaintextPosition = plaintext.position();
+            boolean success = false;
+            try {
+                DecryptionStream decryptionStream = DecryptionStreamFactory.create(
+                        new ByteBufferInputStream(ciphertext), consumerOptions);
+                if (plaintext.hasArray()) {
+                    readIntoArray(decryptionStream);
+                } else {
+                    readIntoBuffer(decryptionStream);
+                }
+                if (decryptionStream.read() != -1) {
+                    throw new IOException("Output buffer is too small. Plaintext exceeds "
+                            + (plaintext.position() - plaintextPosition) + " bytes.");
+                }
+                decryptionStream.close();
+                success = true;
+                return decryptionStream.getResult();
+            } finally {
+                if (!success) {
+                    ciphertext.position(ciphertextPosition);
+                    plaintext.position(plaintextPosition);
+                }
+            }
+        }
+
+        private void readIntoArray(InputStream decryptionStream) throws IOException {
+            byte[] array = plaintext.array();
+            int read;
+            while (plaintext.hasRemaining()
+                    && (read = decryptionStream.read(array, plaintext.arrayOffset() + plaintext.position(), plaintext.remaining())) != -1) {
+                plaintext.position(plaintext.position() + read);
+            }
+        }
+
+        private void readIntoBuffer(InputStream decryptionStream) throws IOException {
+            // BouncyCastle produces byte arrays, so direct buffers are filled chunk-wise
+            byte[] chunk = new byte[Math.min(FILE_BUFFER_SIZE, Math.max(1, plaintext.remaining()))];
+            int read;
+            while (plaintext.hasRemaining()
+                    && (read = decryptionStream.read(chunk, 0, Math.min(chunk.length, plaintext.remaining()))) != -1) {
+                plaintext.put(chunk, 0, read);
+            }
+        }
+    }
+
+    private static InputStream openFile(FileInputStream fileIn) {
+        return new BufferedInputStream(Channels.newInputStream(fileIn.getChannel()), FILE_BUFFER_SIZE);
+    }
+
+    static class DecryptToFileWithImpl implements DecryptToFileWith {
+
+        private final File ciphertextFile;
+        private final File plaintextFile;
+
+        DecryptToFileWithImpl(File ciphertextFile, File plaintextFile) {
+            this.ciphertextFile = ciphertextFile;
+            this.plaintextFile = plaintextFile;
+        }
+
+        @Override
+        public OpenPgpMetadata withOptions(ConsumerOptions consumerOptions) throws PGPException, IOException {
+            if (consumerOptions == null) {
+                throw new IllegalArgumentException("Consumer options cannot be null.");
+            }
+
+            FileInputStream fileIn = new FileInputStream(ciphertextFile);
+            try {
+                DecryptionStream decryptionStream = DecryptionStreamFactory.create(openFile(fileIn), consumerOptions);
+                decrypt(decryptionStream);
+                return decryptionStream.getResult();
+            } finally {
+                fileIn.close();
+            }
+        }
+
+        private void decrypt(DecryptionStream decryptionStream) throws IOException {
+            boolean success = false;
+            FileOutputStream fileOut = new FileOutputStream(plaintextFile);
+            try {
+                FileChannel outputChannel = fileOut.getChannel();
+                byte[] buffer = new byte[FILE_BUFFER_SIZE];
+                int read;
+                while ((read = decryptionStream.read(buffer, 0, buffer.length)) != -1) {
+                    ByteBuffer slice = ByteBuffer.wrap(buffer, 0, read);
+                    while (slice.hasRemaining()) {
+                        outputChannel.write(slice);
+                    }
+                }
+                decryptionStream.close();
+                success = true;
+            } finally {
+                fileOut.close();
+                if (!success) {
+                    plaintextFile.delete();
+                }
+            }
+        }
+    }
 }
@@ -15,8 +15,11 @@
  */
 package org.pgpainless.decryption_verification;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 
 import org.bouncycastle.openpgp.PGPException;
@@ -31,6 +34,126 @@ public interface DecryptionBuilderInterface {
      */
     DecryptWith onInputStream(@Nonnull InputStream inputStream);
 
+    /**
+     * Decrypt and/or verify the contents of a file.
+     * The file is read using a {@link java.nio.channels.FileChannel}.
+     *
+     * @param ciphertextFile file containing the encrypted and/or signed data
+     * @return api handle
+     */
+    DecryptFile onFile(@Nonnull File ciphertextFile);
+
+    /**
+     * Decrypt and/or verify the remaining content of a {@link ByteBuffer}.
+     *
+     * @param ciphertext buffer containing the encrypted and/or signed data
+     * @return api handle
+     */
+    DecryptByteBuffer onByteBuffer(@Nonnull ByteBuffer ciphertext);
+
+    /**
+     * Create a {@link DecryptionProcessor}, which decrypts and/or verifies a stream of ciphertext chunks
+     * without blocking the threads of its publisher and subscriber.
+     * Processing is done by tasks submitted to the given executor.
+     *
+     * @param executor executor which runs the decryption
+     * @return api handle
+     */
+    DecryptProcessorWith asProcessor(@Nonnull Executor executor);
+
+    /**
+     * Create a {@link MessageDecoder}, which is fed with chunks of an OpenPGP message and reports the decrypted
+     * plaintext to the given listener without ever blocking.
+     *
+     * @param listener receiver of the plaintext
+     * @return api handle
+     */
+    DecoderWith asDecoder(@Nonnull MessageDecoder.Listener listener);
+
+    interface DecoderWith {
+
+        /**
+         * Create the decoder using the given options.
+         *
+         * @param consumerOptions consumer options
+         * @return message decoder
+         * @throws PGPException if the detached signatures of the options cannot be initialized
+         */
+        MessageDecoder withOptions(ConsumerOptions consumerOptions) throws PGPException;
+
+    }
+
+    interface DecryptProcessorWith {
+
+        /**
+         * Create the processor using the given options.
+         *
+         * @param consumerOptions consumer options
+         * @return decryption processor
+         * @throws PGPException if the detached signatures of the options cannot be initialized
+         */
+        DecryptionProcessor withOptions(ConsumerOptions consumerOptions) throws PGPException;
+
+    }
+
+    interface DecryptByteBuffer {
+
+        /**
+         * Write the decrypted plaintext into the given buffer, starting at its current position.
+         * Heap buffers are filled without intermediate copies.
+         *
+         * @param plaintext output buffer
+         * @return api handle
+         */
+        DecryptToByteBufferWith toByteBuffer(@Nonnull ByteBuffer plaintext);
+
+    }
+
+    interface DecryptToByteBufferWith {
+
+        /**
+         * Decrypt and/or verify the ciphertext buffer into the output buffer using the given options.
+         * On success, the position of the output buffer is advanced past the plaintext.
+         * If the output buffer is too small, an {@link IOException} is thrown and the positions of both buffers
+         * are left unchanged.
+         *
+         * @param consumerOptions consumer options
+         * @return metadata of the decrypted message
+         * @throws PGPException in case of an OpenPGP related error
+         * @throws IOException in case of an IO error or if the output buffer is too small
+         */
+        OpenPgpMetadata withOptions(ConsumerOptions consumerOptions) throws PGPException, IOException;
+
+    }
+
+    interface DecryptFile extends DecryptWith {
+
+        /**
+         * Write the decrypted plaintext into the given file instead of returning a {@link DecryptionStream}.
+         * An existing file will be overwritten.
+         *
+         * @param plaintextFile output file
+         * @return api handle
+         */
+        DecryptToFileWith toFile(@Nonnull File plaintextFile);
+
+    }
+
+    interface DecryptToFileWith {
+
+        /**
+         * Decrypt and/or verify the input file into the output file using the given options.
+         * If the operation fails, the partially written output file is deleted.
+         *
+         * @param consumerOptions consumer options
+         * @return metadata of the decrypted message
+         * @throws PGPException in case of an OpenPGP related error
+         * @throws IOException in case of an IO error
+         */
+        OpenPgpMetadata withOptions(ConsumerOptions consumerOptions) throws PGPException, IOException;
+
+    }
+
     interface DecryptWith {
 
         /**
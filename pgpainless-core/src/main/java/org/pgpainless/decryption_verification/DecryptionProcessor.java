@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.pgpainless.util.ByteBufferProcessor;
+import org.pgpainless.util.Flow;
+
+/**
+ * {@link Flow.Processor} which decrypts and/or verifies a stream of OpenPGP message chunks.
+ * The processor publishes chunks of plaintext and provides the {@link OpenPgpMetadata}
+ * via {@link #getResult()} once the downstream subscriber is completed.
+ *
+ * The message is decoded by a {@link MessageDecoder} on the {@link Executor} the processor was created with,
+ * so neither the publisher of the ciphertext nor the subscriber of the plaintext is ever blocked.
+ */
+public final class DecryptionProcessor extends ByteBufferProcessor<OpenPgpMetadata> {
+
+    private final MessageDecoder decoder;
+
+    DecryptionProcessor(@Nonnull ConsumerOptions options, @Nonnull Executor executor) throws PGPException {
+        super(executor, DEFAULT_PREFETCH);
+        this.decoder = new MessageDecoder(options, new MessageDecoder.Listener() {
+            @Override
+            public void onFileInfo(OpenPgpMetadata.FileInfo fileInfo) {
+
+            }
+
+            @Override
+            public void onPlaintext(ByteBuffer plaintext) {
+                ByteBuffer copy = ByteBuffer.allocate(plaintext.remaining());
+                copy.put(plaintext).flip();
+                emit(copy);
+            }
+        });
+    }
+
+    @Override
+    protected void process(ByteBuffer chunk) throws PGPException, IOException {
+        decoder.feed(chunk);
+    }
+
+    @Override
+    protected void finish() throws PGPException, IOException {
+        complete(decoder.finish());
+    }
+}
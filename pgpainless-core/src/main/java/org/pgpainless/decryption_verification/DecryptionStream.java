@@ -25,6 +25,7 @@ import javax.annotation.Nonnull;
 import org.bouncycastle.openpgp.PGPPublicKeyRing;
 import org.pgpainless.PGPainless;
 import org.pgpainless.signature.DetachedSignature;
+import org.pgpainless.signature.SignatureHashingEngine;
 import org.pgpainless.signature.SignatureChainValidator;
 import org.pgpainless.exception.SignatureValidationException;
 import org.pgpainless.util.IntegrityProtectedInputStream;
@@ -36,45 +37,135 @@ import org.pgpainless.util.IntegrityProtectedInputStream;
 public class DecryptionStream extends InputStream {
 
     private static final Logger LOGGER = Logger.getLogger(DecryptionStream.class.getName());
+    private static final int SKIP_BUFFER_SIZE = 1 << 13;
 
     private final InputStream inputStream;
     private final OpenPgpMetadata.Builder resultBuilder;
+    private final SignatureHashingEngine detachedSignatureHashingEngine;
     private boolean isClosed = false;
     private List<IntegrityProtectedInputStream> integrityProtectedInputStreamList;
+    private final List<PipelinedInputStream> pipelineStages;
+    private final boolean verifyIntegrityOnEndOfStream;
+    private InputStream sourceStream = null;
 
     DecryptionStream(@Nonnull InputStream wrapped, @Nonnull OpenPgpMetadata.Builder resultBuilder,
-                     List<IntegrityProtectedInputStream> integrityProtectedInputStreamList) {
+                     @Nonnull SignatureHashingEngine detachedSignatureHashingEngine,
+                     List<IntegrityProtectedInputStream> integrityProtectedInputStreamList,
+                     List<PipelinedInputStream> pipelineStages,
+                     boolean verifyIntegrityOnEndOfStream) {
         this.inputStream = wrapped;
         this.resultBuilder = resultBuilder;
+        this.detachedSignatureHashingEngine = detachedSignatureHashingEngine;
         this.integrityProtectedInputStreamList = integrityProtectedInputStreamList;
+        this.pipelineStages = pipelineStages;
+        this.verifyIntegrityOnEndOfStream = verifyIntegrityOnEndOfStream;
     }
 
     @Override
     public int read() throws IOException {
         int r = inputStream.read();
+        if (r == -1) {
+            maybeVerifyIntegrity();
+        }
         maybeUpdateDetachedSignatures(r);
         return r;
     }
 
-    private void maybeUpdateDetachedSignatures(int rByte) {
-        for (DetachedSignature s : resultBuilder.getDetachedSignatures()) {
-            if (rByte != -1) {
-                s.getSignature().update((byte) rByte);
+    @Override
+    public int read(@Nonnull byte[] bytes, int off, int len) throws IOException {
+        int read = inputStream.read(bytes, off, len);
+        if (read == -1) {
+            maybeVerifyIntegrity();
+        } else if (read > 0) {
+            maybeUpdateDetachedSignatures(bytes, off, read);
+        }
+        return read;
+    }
+
+    /**
+     * If requested via {@link ConsumerOptions#setVerifyIntegrityOnEndOfStream(boolean)}, verify the integrity
+     * of the decrypted data as soon as the end of the plaintext is reached.
+     *
+     * @throws IOException if the data was tampered with
+     */
+    private void maybeVerifyIntegrity() throws IOException {
+        if (!verifyIntegrityOnEndOfStream) {
+            return;
+        }
+        // Workers of a pipelined decryption might still read trailing data of the encrypted layer
+        DecryptionStreamFactory.closePipelineStages(pipelineStages);
+        for (IntegrityProtectedInputStream s : integrityProtectedInputStreamList) {
+            s.verifyIntegrity();
+        }
+    }
+
+    /**
+     * Skip over the next n bytes of plaintext.
+     * Since skipped data still needs to be fed into the detached signatures, the bytes are read and discarded
+     * block-wise instead of being skipped in the underlying stream.
+     *
+     * @param n number of bytes to skip
+     * @return number of actually skipped bytes
+     * @throws IOException in case of an IO error
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, n)];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                break;
             }
+            remaining -= read;
         }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
+    private void maybeUpdateDetachedSignatures(int rByte) {
+        if (rByte == -1) {
+            return;
+        }
+        detachedSignatureHashingEngine.update((byte) rByte);
+    }
+
+    private void maybeUpdateDetachedSignatures(byte[] bytes, int off, int len) {
+        detachedSignatureHashingEngine.update(bytes, off, len);
+    }
+
+    /**
+     * Set the stream the message is read from, which will be closed together with this stream.
+     * This is used if the source stream was opened by PGPainless itself, e.g. when reading a file.
+     *
+     * @param sourceStream source stream
+     */
+    void setSourceStream(InputStream sourceStream) {
+        this.sourceStream = sourceStream;
     }
 
     @Override
     public void close() throws IOException {
         inputStream.close();
-        maybeVerifyDetachedSignatures();
+        DecryptionStreamFactory.closePipelineStages(pipelineStages);
+        verifyDetachedSignatures(resultBuilder);
         for (IntegrityProtectedInputStream s : integrityProtectedInputStreamList) {
             s.close();
         }
+        if (sourceStream != null) {
+            sourceStream.close();
+        }
         this.isClosed = true;
     }
 
-    private void maybeVerifyDetachedSignatures() {
+    static void verifyDetachedSignatures(OpenPgpMetadata.Builder resultBuilder) {
         for (DetachedSignature s : resultBuilder.getDetachedSignatures()) {
             try {
                 boolean verified = SignatureChainValidator.validateSignature(s.getSignature(), (PGPPublicKeyRing) s.getSigningKeyRing(), PGPainless.getPolicy());
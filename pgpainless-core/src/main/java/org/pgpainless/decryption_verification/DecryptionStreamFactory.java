@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -36,21 +37,14 @@ import org.bouncycastle.openpgp.PGPObjectFactory;
 import org.bouncycastle.openpgp.PGPOnePassSignature;
 import org.bouncycastle.openpgp.PGPOnePassSignatureList;
 import org.bouncycastle.openpgp.PGPPBEEncryptedData;
-import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
 import org.bouncycastle.openpgp.PGPPublicKeyRing;
-import org.bouncycastle.openpgp.PGPSecretKey;
-import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSignature;
 import org.bouncycastle.openpgp.PGPUtil;
 import org.bouncycastle.openpgp.operator.KeyFingerPrintCalculator;
-import org.bouncycastle.openpgp.operator.PBEDataDecryptorFactory;
-import org.bouncycastle.openpgp.operator.PGPContentVerifierBuilderProvider;
-import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
 import org.pgpainless.PGPainless;
 import org.pgpainless.algorithm.CompressionAlgorithm;
-import org.pgpainless.algorithm.EncryptionPurpose;
 import org.pgpainless.algorithm.StreamEncoding;
 import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
 import org.pgpainless.exception.MessageNotIntegrityProtectedException;
@@ -60,26 +54,28 @@ import org.pgpainless.exception.UnacceptableAlgorithmException;
 import org.pgpainless.implementation.ImplementationFactory;
 import org.pgpainless.key.OpenPgpV4Fingerprint;
 import org.pgpainless.key.SubkeyIdentifier;
-import org.pgpainless.key.info.KeyRingInfo;
-import org.pgpainless.key.protection.UnlockSecretKey;
 import org.pgpainless.signature.DetachedSignature;
 import org.pgpainless.signature.OnePassSignature;
+import org.pgpainless.signature.SignatureHashingEngine;
+import org.pgpainless.signature.subpackets.SignatureSubpacketsUtil;
 import org.pgpainless.util.IntegrityProtectedInputStream;
-import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
 
 public final class DecryptionStreamFactory {
 
     private static final Logger LOGGER = Logger.getLogger(DecryptionStreamFactory.class.getName());
     private static final Level LEVEL = Level.FINE;
-    private static final int MAX_RECURSION_DEPTH = 16;
+    static final int MAX_RECURSION_DEPTH = 16;
 
     private final ConsumerOptions options;
 
     private final OpenPgpMetadata.Builder resultBuilder = OpenPgpMetadata.getBuilder();
-    private static final PGPContentVerifierBuilderProvider verifierBuilderProvider = ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider();
     private static final KeyFingerPrintCalculator keyFingerprintCalculator = ImplementationFactory.getInstance().getKeyFingerprintCalculator();
     private final Map<OpenPgpV4Fingerprint, OnePassSignature> verifiableOnePassSignatures = new HashMap<>();
+    // One-pass-signatures get initialized once all of them are known, which is when the literal data is reached
+    private final SignatureHashingEngine onePassSignatureHashingEngine = new SignatureHashingEngine();
     private final List<IntegrityProtectedInputStream> integrityProtectedStreams = new ArrayList<>();
+    private final List<PipelinedInputStream> pipelineStages = new ArrayList<>();
 
     public DecryptionStreamFactory(ConsumerOptions options) {
         this.options = options;
@@ -91,17 +87,7 @@ public final class DecryptionStreamFactory {
         BufferedInputStream bufferedIn = new BufferedInputStream(inputStream);
         bufferedIn.mark(200);
         DecryptionStreamFactory factory = new DecryptionStreamFactory(options);
-
-        for (PGPSignature signature : options.getDetachedSignatures()) {
-            PGPPublicKeyRing signingKeyRing = factory.findSignatureVerificationKeyRing(signature.getKeyID());
-            if (signingKeyRing == null) {
-                continue;
-            }
-            PGPPublicKey signingKey = signingKeyRing.getPublicKey(signature.getKeyID());
-            signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), signingKey);
-            factory.resultBuilder.addDetachedSignature(
-                    new DetachedSignature(signature, signingKeyRing, new SubkeyIdentifier(signingKeyRing, signature.getKeyID())));
-        }
+        SignatureHashingEngine detachedSignatureHashingEngine = factory.initializeDetachedSignatures();
 
         PGPObjectFactory objectFactory = new PGPObjectFactory(
                 PGPUtil.getDecoderStream(bufferedIn), keyFingerprintCalculator);
@@ -112,11 +98,81 @@ public final class DecryptionStreamFactory {
         } catch (MissingLiteralDataException e) {
             // Not an OpenPGP message. Reset the buffered stream to parse the message as arbitrary binary data
             //  to allow for detached signature verification.
+            closePipelineStages(factory.pipelineStages);
+            factory.pipelineStages.clear();
             bufferedIn.reset();
             inputStream = bufferedIn;
+        } catch (PGPException | IOException | RuntimeException e) {
+            closePipelineStages(factory.pipelineStages);
+            throw e;
         }
 
-        return new DecryptionStream(inputStream, factory.resultBuilder, factory.integrityProtectedStreams);
+        return new DecryptionStream(inputStream, factory.resultBuilder, detachedSignatureHashingEngine,
+                factory.integrityProtectedStreams, factory.pipelineStages, options.isVerifyIntegrityOnEndOfStream());
+    }
+
+    /**
+     * Stop the workers of the given pipeline stages.
+     * Stages are closed from the outermost to the innermost layer, since the worker of an outer stage reads
+     * from the next inner stage.
+     *
+     * @param pipelineStages stages in the order in which they were created
+     * @throws IOException if the calling thread got interrupted while waiting for a worker
+     */
+    static void closePipelineStages(List<PipelinedInputStream> pipelineStages) throws IOException {
+        for (int i = pipelineStages.size() - 1; i >= 0; i--) {
+            pipelineStages.get(i).close();
+        }
+    }
+
+    /**
+     * If pipelined decryption is enabled, read the given layer ahead on a separate worker.
+     *
+     * @param layer decrypted or decompressed data
+     * @return pipelined layer, or the layer itself if pipelining is disabled
+     */
+    private InputStream maybePipeline(InputStream layer) {
+        Executor executor = options.getDecryptionPipelineExecutor();
+        if (executor == null) {
+            return layer;
+        }
+        PipelinedInputStream stage = new PipelinedInputStream(layer, executor);
+        pipelineStages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Register the detached signatures of the consumer options for verification.
+     *
+     * @return initialized hashing engine of the detached signatures
+     * @throws PGPException if a signature cannot be initialized
+     */
+    SignatureHashingEngine initializeDetachedSignatures() throws PGPException {
+        SignatureHashingEngine detachedSignatureHashingEngine = new SignatureHashingEngine();
+        for (PGPSignature signature : options.getDetachedSignatures()) {
+            PGPPublicKeyRing signingKeyRing = findSignatureVerificationKeyRing(signature);
+            if (signingKeyRing == null) {
+                continue;
+            }
+            PGPPublicKey signingKey = signingKeyRing.getPublicKey(signature.getKeyID());
+            detachedSignatureHashingEngine.addSignature(signature, signingKey);
+            resultBuilder.addDetachedSignature(
+                    new DetachedSignature(signature, signingKeyRing, new SubkeyIdentifier(signingKeyRing, signature.getKeyID())));
+        }
+        detachedSignatureHashingEngine.initialize(options.getVerifierBuilderProvider());
+        return detachedSignatureHashingEngine;
+    }
+
+    OpenPgpMetadata.Builder getResultBuilder() {
+        return resultBuilder;
+    }
+
+    Map<OpenPgpV4Fingerprint, OnePassSignature> getVerifiableOnePassSignatures() {
+        return verifiableOnePassSignatures;
+    }
+
+    SignatureHashingEngine getOnePassSignatureHashingEngine() {
+        return onePassSignatureHashingEngine;
     }
 
     private InputStream processPGPPackets(@Nonnull PGPObjectFactory objectFactory, int depth) throws IOException, PGPException {
@@ -155,7 +211,7 @@ public final class DecryptionStreamFactory {
         LOGGER.log(LEVEL, "Encountered PGPCompressedData: " + compressionAlgorithm);
         resultBuilder.setCompressionAlgorithm(compressionAlgorithm);
 
-        InputStream dataStream = pgpCompressedData.getDataStream();
+        InputStream dataStream = maybePipeline(pgpCompressedData.getDataStream());
         PGPObjectFactory objectFactory = new PGPObjectFactory(PGPUtil.getDecoderStream(dataStream), keyFingerprintCalculator);
 
         return processPGPPackets(objectFactory, ++depth);
@@ -168,7 +224,8 @@ public final class DecryptionStreamFactory {
         return processPGPPackets(objectFactory, ++depth);
     }
 
-    private InputStream processPGPLiteralData(@Nonnull PGPObjectFactory objectFactory, PGPLiteralData pgpLiteralData) {
+    private InputStream processPGPLiteralData(@Nonnull PGPObjectFactory objectFactory, PGPLiteralData pgpLiteralData)
+            throws PGPException {
         LOGGER.log(LEVEL, "Found PGPLiteralData");
         InputStream literalDataInputStream = pgpLiteralData.getInputStream();
         OpenPgpMetadata.FileInfo fileInfo = new OpenPgpMetadata.FileInfo(
@@ -182,8 +239,9 @@ public final class DecryptionStreamFactory {
             return literalDataInputStream;
         }
 
+        onePassSignatureHashingEngine.initialize(options.getVerifierBuilderProvider());
         return new SignatureVerifyingInputStream(literalDataInputStream,
-                objectFactory, verifiableOnePassSignatures, resultBuilder);
+                objectFactory, verifiableOnePassSignatures, onePassSignatureHashingEngine, resultBuilder);
     }
 
     private InputStream decrypt(@Nonnull PGPEncryptedDataList encryptedDataList)
@@ -193,8 +251,55 @@ public final class DecryptionStreamFactory {
             throw new PGPException("Decryption failed - EncryptedDataList has no items");
         }
 
-        PGPPrivateKey decryptionKey = null;
-        PGPPublicKeyEncryptedData encryptedSessionKey = null;
+        SessionKey sessionKey = options.getSessionKey();
+        if (sessionKey != null) {
+            // All encrypted session keys share the same encrypted data, so we can skip them altogether
+            return decryptWith(encryptedDataIterator.next(), sessionKey);
+        }
+
+        List<SessionKeyRecovery.EncryptedSessionKey> publicKeySessionKeys = new ArrayList<>();
+        PGPPublicKeyEncryptedData publicKeyEncryptedData = null;
+        while (encryptedDataIterator.hasNext()) {
+            PGPEncryptedData encryptedData = encryptedDataIterator.next();
+            if (encryptedData instanceof PGPPublicKeyEncryptedData) {
+                // All encrypted session keys share the same encrypted data
+                publicKeyEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
+                publicKeySessionKeys.add(SessionKeyRecovery.EncryptedSessionKey.of(publicKeyEncryptedData));
+            }
+        }
+
+        SessionKeyRecovery recovery = new SessionKeyRecovery(options, resultBuilder);
+        sessionKey = recovery.recoverFromCache(publicKeySessionKeys);
+        if (sessionKey != null) {
+            return decryptWith(publicKeyEncryptedData, sessionKey);
+        }
+
+        InputStream passphraseDecryptedDataStream = decryptWithPassphrases(encryptedDataList);
+        if (passphraseDecryptedDataStream != null) {
+            return passphraseDecryptedDataStream;
+        }
+
+        sessionKey = recovery.recoverWithDecryptionKeys(publicKeySessionKeys);
+        if (sessionKey == null) {
+            throw new MissingDecryptionMethodException("Decryption failed - No suitable decryption key or passphrase found");
+        }
+        return decryptWith(publicKeyEncryptedData, sessionKey);
+    }
+
+    /**
+     * Try to decrypt passphrase encrypted data using the decryption passphrases.
+     * Each passphrase is tried on each symmetric-key encrypted session key, since it is unknown which passphrase
+     * belongs to which session key packet.
+     *
+     * @param encryptedDataList encrypted data
+     * @return decrypted data or null if no passphrase matches
+     * @throws MessageNotIntegrityProtectedException if the encrypted data is not integrity protected
+     */
+    private InputStream decryptWithPassphrases(PGPEncryptedDataList encryptedDataList)
+            throws PGPException {
+        List<PassphraseTrialDecryption.EncryptedSessionKey> encryptedSessionKeys = new ArrayList<>();
+        PGPPBEEncryptedData pbeEncryptedData = null;
+        Iterator<PGPEncryptedData> encryptedDataIterator = encryptedDataList.getEncryptedDataObjects();
         while (encryptedDataIterator.hasNext()) {
             PGPEncryptedData encryptedData = encryptedDataIterator.next();
 
@@ -204,108 +309,60 @@ public final class DecryptionStreamFactory {
             }
 
             // Data is passphrase encrypted
-            if (encryptedData instanceof PGPPBEEncryptedData) {
-                PGPPBEEncryptedData pbeEncryptedData = (PGPPBEEncryptedData) encryptedData;
-                for (Passphrase passphrase : options.getDecryptionPassphrases()) {
-                    PBEDataDecryptorFactory passphraseDecryptor = ImplementationFactory.getInstance()
-                            .getPBEDataDecryptorFactory(passphrase);
-                    try {
-                        InputStream decryptedDataStream = pbeEncryptedData.getDataStream(passphraseDecryptor);
-
-                        SymmetricKeyAlgorithm symmetricKeyAlgorithm = SymmetricKeyAlgorithm.fromId(
-                                pbeEncryptedData.getSymmetricAlgorithm(passphraseDecryptor));
-                        throwIfAlgorithmIsRejected(symmetricKeyAlgorithm);
-                        resultBuilder.setSymmetricKeyAlgorithm(symmetricKeyAlgorithm);
-
-                        return decryptedDataStream;
-                    } catch (PGPException e) {
-                        LOGGER.log(LEVEL, "Probable passphrase mismatch, skip PBE encrypted data block", e);
-                    }
-                }
+            if (encryptedData instanceof PGPPBEEncryptedData && !options.getDecryptionPassphrases().isEmpty()) {
+                // All encrypted session keys share the same encrypted data
+                pbeEncryptedData = (PGPPBEEncryptedData) encryptedData;
+                encryptedSessionKeys.add(PassphraseTrialDecryption.EncryptedSessionKey.of(pbeEncryptedData));
             }
+        }
+        if (pbeEncryptedData == null) {
+            return null;
+        }
 
-            // data is public key encrypted
-            else if (encryptedData instanceof PGPPublicKeyEncryptedData) {
-                if (options.getDecryptionKeys().isEmpty()) {
-
-                }
-                PGPPublicKeyEncryptedData publicKeyEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
-                long keyId = publicKeyEncryptedData.getKeyID();
-                if (!options.getDecryptionKeys().isEmpty()) {
-                    // Known key id
-                    if (keyId != 0) {
-                        LOGGER.log(LEVEL, "PGPEncryptedData is encrypted for key " + Long.toHexString(keyId));
-                        resultBuilder.addRecipientKeyId(keyId);
-                        PGPSecretKeyRing decryptionKeyRing = findDecryptionKeyRing(keyId);
-                        if (decryptionKeyRing != null) {
-                            PGPSecretKey secretKey = decryptionKeyRing.getSecretKey(keyId);
-                            LOGGER.log(LEVEL, "Found respective secret key " + Long.toHexString(keyId));
-                            // Watch out! This assignment is possibly done multiple times.
-                            encryptedSessionKey = publicKeyEncryptedData;
-                            decryptionKey = UnlockSecretKey.unlockSecretKey(secretKey, options.getSecretKeyProtector(decryptionKeyRing));
-                            resultBuilder.setDecryptionKey(new SubkeyIdentifier(decryptionKeyRing, decryptionKey.getKeyID()));
-                        }
-                    }
-
-                    // Hidden recipient
-                    else {
-                        LOGGER.log(LEVEL, "Hidden recipient detected. Try to decrypt with all available secret keys.");
-                        outerloop: for (PGPSecretKeyRing ring : options.getDecryptionKeys()) {
-                            KeyRingInfo info = new KeyRingInfo(ring);
-                            List<PGPPublicKey> encryptionSubkeys = info.getEncryptionSubkeys(EncryptionPurpose.STORAGE_AND_COMMUNICATIONS);
-                            for (PGPPublicKey pubkey : encryptionSubkeys) {
-                                PGPSecretKey key = ring.getSecretKey(pubkey.getKeyID());
-                                if (key == null) {
-                                    continue;
-                                }
-
-                                PGPPrivateKey privateKey = UnlockSecretKey.unlockSecretKey(key, options.getSecretKeyProtector(ring).getDecryptor(key.getKeyID()));
-                                PublicKeyDataDecryptorFactory decryptorFactory = ImplementationFactory.getInstance().getPublicKeyDataDecryptorFactory(privateKey);
-                                try {
-                                    publicKeyEncryptedData.getSymmetricAlgorithm(decryptorFactory); // will only succeed if we have the right secret key
-                                    LOGGER.log(LEVEL, "Found correct key " + Long.toHexString(key.getKeyID()) + " for hidden recipient decryption.");
-                                    decryptionKey = privateKey;
-                                    resultBuilder.setDecryptionKey(new SubkeyIdentifier(ring, decryptionKey.getKeyID()));
-                                    encryptedSessionKey = publicKeyEncryptedData;
-                                    break outerloop;
-                                } catch (PGPException | ClassCastException e) {
-                                    LOGGER.log(LEVEL, "Skipping wrong key " + Long.toHexString(key.getKeyID()) + " for hidden recipient decryption.", e);
-                                }
-                            }
+        final PGPPBEEncryptedData encryptedData = pbeEncryptedData;
+        return PassphraseTrialDecryption.findFirst(encryptedSessionKeys,
+                options.getDecryptionPassphrases(), options.getDerivedKeyCache(), options.getPassphraseDecryptionExecutor(),
+                new PassphraseTrialDecryption.Check<InputStream>() {
+                    @Override
+                    public InputStream check(SessionKey sessionKey) {
+                        try {
+                            // Performs the quick check, which resets the encrypted data if it fails
+                            return decryptWith(encryptedData, sessionKey);
+                        } catch (PGPException e) {
+                            LOGGER.log(LEVEL, "Probable passphrase mismatch, skip PBE encrypted data block", e);
+                            return null;
                         }
                     }
-                }
-            }
-        }
-        return decryptWith(encryptedSessionKey, decryptionKey);
+                });
     }
 
-    private InputStream decryptWith(PGPPublicKeyEncryptedData encryptedSessionKey, PGPPrivateKey decryptionKey)
+    private InputStream decryptWith(PGPEncryptedData encryptedData, SessionKey sessionKey)
             throws PGPException {
-        if (decryptionKey == null) {
-            throw new MissingDecryptionMethodException("Decryption failed - No suitable decryption key or passphrase found");
+        if (!encryptedData.isIntegrityProtected()) {
+            throw new MessageNotIntegrityProtectedException();
         }
 
-        PublicKeyDataDecryptorFactory dataDecryptor = ImplementationFactory.getInstance()
-                .getPublicKeyDataDecryptorFactory(decryptionKey);
+        SymmetricKeyAlgorithm symmetricKeyAlgorithm = sessionKey.getAlgorithm();
+        LOGGER.log(LEVEL, "Decrypt message using known session key (" + symmetricKeyAlgorithm + ")");
+        throwIfAlgorithmIsRejected(symmetricKeyAlgorithm);
 
-        SymmetricKeyAlgorithm symmetricKeyAlgorithm = SymmetricKeyAlgorithm
-                .fromId(encryptedSessionKey.getSymmetricAlgorithm(dataDecryptor));
-        if (symmetricKeyAlgorithm == SymmetricKeyAlgorithm.NULL) {
-            LOGGER.log(LEVEL, "Message is unencrypted");
+        SessionKeyDataDecryptorFactory dataDecryptor = SessionKeyDataDecryptorFactory.withSessionKey(sessionKey);
+        InputStream decryptedDataStream;
+        if (encryptedData instanceof PGPPBEEncryptedData) {
+            decryptedDataStream = ((PGPPBEEncryptedData) encryptedData).getDataStream(dataDecryptor);
         } else {
-            LOGGER.log(LEVEL, "Message is encrypted using " + symmetricKeyAlgorithm);
+            decryptedDataStream = ((PGPPublicKeyEncryptedData) encryptedData).getDataStream(dataDecryptor);
         }
-        throwIfAlgorithmIsRejected(symmetricKeyAlgorithm);
         resultBuilder.setSymmetricKeyAlgorithm(symmetricKeyAlgorithm);
+        resultBuilder.setSessionKey(sessionKey);
 
-        IntegrityProtectedInputStream integrityProtected =
-                new IntegrityProtectedInputStream(encryptedSessionKey.getDataStream(dataDecryptor), encryptedSessionKey);
+        IntegrityProtectedInputStream integrityProtected = new IntegrityProtectedInputStream(decryptedDataStream,
+                encryptedData, options.isVerifyIntegrityOnEndOfStream());
         integrityProtectedStreams.add(integrityProtected);
-        return integrityProtected;
+        return maybePipeline(integrityProtected);
     }
 
-    private void throwIfAlgorithmIsRejected(SymmetricKeyAlgorithm algorithm) throws UnacceptableAlgorithmException {
+    static void throwIfAlgorithmIsRejected(SymmetricKeyAlgorithm algorithm) throws UnacceptableAlgorithmException {
         if (!PGPainless.getPolicy().getSymmetricKeyDecryptionAlgoritmPolicy().isAcceptable(algorithm)) {
             throw new UnacceptableAlgorithmException("Data is "
                     + (algorithm == SymmetricKeyAlgorithm.NULL ? "unencrypted" : "encrypted with symmetric algorithm " + algorithm) + " which is not acceptable as per PGPainless' policy.\n" +
@@ -329,7 +386,7 @@ public final class DecryptionStreamFactory {
         }
     }
 
-    private void processOnePassSignature(PGPOnePassSignature signature) throws PGPException {
+    void processOnePassSignature(PGPOnePassSignature signature) throws PGPException {
         final long keyId = signature.getKeyID();
 
         LOGGER.log(LEVEL, "Message contains OnePassSignature from " + Long.toHexString(keyId));
@@ -342,31 +399,42 @@ public final class DecryptionStreamFactory {
         }
         PGPPublicKey verificationKey = verificationKeyRing.getPublicKey(keyId);
 
-        signature.init(verifierBuilderProvider, verificationKey);
+        onePassSignatureHashingEngine.addOnePassSignature(signature, verificationKey);
         OpenPgpV4Fingerprint fingerprint = new OpenPgpV4Fingerprint(verificationKey);
         OnePassSignature onePassSignature = new OnePassSignature(signature, verificationKeyRing);
         resultBuilder.addOnePassSignature(onePassSignature);
         verifiableOnePassSignatures.put(fingerprint, onePassSignature);
     }
 
-    private PGPSecretKeyRing findDecryptionKeyRing(long keyId) {
-        for (PGPSecretKeyRing key : options.getDecryptionKeys()) {
-            if (key.getSecretKey(keyId) != null) {
-                return key;
+    /**
+     * Find the certificate for the verification of the given signature.
+     * If the signature carries an issuer fingerprint, the certificate is looked up by fingerprint,
+     * which avoids ambiguities of key-ids. Otherwise the certificate is looked up by the key-id of the issuer.
+     *
+     * @param signature signature
+     * @return verification certificate or null
+     */
+    private PGPPublicKeyRing findSignatureVerificationKeyRing(PGPSignature signature) {
+        OpenPgpV4Fingerprint issuerFingerprint = null;
+        try {
+            issuerFingerprint = SignatureSubpacketsUtil.getIssuerFingerprintAsOpenPgpV4Fingerprint(signature);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(LEVEL, "Signature carries an issuer fingerprint which is not a v4 fingerprint.", e);
+        }
+        if (issuerFingerprint != null) {
+            PGPPublicKeyRing verificationKeyRing = options.getCertificate(issuerFingerprint);
+            if (verificationKeyRing != null && verificationKeyRing.getPublicKey(signature.getKeyID()) != null) {
+                LOGGER.log(LEVEL, "Found public key " + issuerFingerprint + " for signature verification");
+                return verificationKeyRing;
             }
         }
-        return null;
+        return findSignatureVerificationKeyRing(signature.getKeyID());
     }
 
     private PGPPublicKeyRing findSignatureVerificationKeyRing(long keyId) {
-        PGPPublicKeyRing verificationKeyRing = null;
-        for (PGPPublicKeyRing publicKeyRing : options.getCertificates()) {
-            PGPPublicKey verificationKey = publicKeyRing.getPublicKey(keyId);
-            if (verificationKey != null) {
-                LOGGER.log(LEVEL, "Found public key " + Long.toHexString(keyId) + " for signature verification");
-                verificationKeyRing = publicKeyRing;
-                break;
-            }
+        PGPPublicKeyRing verificationKeyRing = options.getCertificate(keyId);
+        if (verificationKeyRing != null) {
+            LOGGER.log(LEVEL, "Found public key " + Long.toHexString(keyId) + " for signature verification");
         }
 
         if (verificationKeyRing == null && options.getMissingCertificateCallback() != null) {
@@ -0,0 +1,1193 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.apache.bzip2.CBZip2InputStream;
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.CRC24;
+import org.bouncycastle.bcpg.Packet;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.bcpg.SymmetricKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.bouncycastle.openpgp.PGPOnePassSignature;
+import org.bouncycastle.openpgp.PGPOnePassSignatureList;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureList;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.io.Streams;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.StreamEncoding;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.exception.MessageNotIntegrityProtectedException;
+import org.pgpainless.exception.MissingDecryptionMethodException;
+import org.pgpainless.exception.MissingLiteralDataException;
+import org.pgpainless.exception.ModificationDetectionException;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.OpenPgpV4Fingerprint;
+import org.pgpainless.signature.OnePassSignature;
+import org.pgpainless.signature.SignatureHashingEngine;
+import org.pgpainless.util.SessionKey;
+
+/**
+ * Push-based decoder for OpenPGP messages.
+ *
+ * In contrast to {@link DecryptionStream}, which pulls the message from an {@link InputStream}, the decoder is fed
+ * with arbitrary chunks of the message via {@link #feed(ByteBuffer)} and never blocks. Plaintext and metadata are
+ * reported to a {@link Listener} as soon as they are available. Once the whole message was fed, {@link #finish()}
+ * verifies the integrity protection and signatures and returns the {@link OpenPgpMetadata}.
+ *
+ * Nested packets (e.g. compressed data inside encrypted data) are not parsed recursively. Instead, each nesting
+ * level is a layer of a state machine, which consumes the output of the enclosing layer.
+ *
+ * Note that plaintext is reported before the integrity of the message is verified. Consumers MUST discard the
+ * plaintext if {@link #finish()} throws.
+ * BZIP2 compressed data cannot be inflated incrementally and is therefore buffered until the compressed data packet
+ * is complete.
+ */
+public final class MessageDecoder {
+
+    /**
+     * Receiver of the decoded message.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked once the literal data packet of the message is reached.
+         *
+         * @param fileInfo information about the encrypted file
+         */
+        void onFileInfo(OpenPgpMetadata.FileInfo fileInfo);
+
+        /**
+         * Invoked with a chunk of plaintext.
+         * The buffer is only valid for the duration of the call, so its contents need to be copied if required later.
+         *
+         * @param plaintext plaintext chunk
+         */
+        void onPlaintext(ByteBuffer plaintext);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(MessageDecoder.class.getName());
+    private static final Level LEVEL = Level.FINE;
+
+    private static final int MAX_BUFFERED_PACKET_LENGTH = 1 << 20;
+    private static final int MAX_ARMOR_LINE_LENGTH = 1 << 14;
+    private static final int INFLATE_BUFFER_SIZE = 1 << 13;
+    private static final int MDC_PACKET_LENGTH = 22;
+    private static final int MAX_BLOCK_SIZE = 16;
+
+    private final ConsumerOptions options;
+    private final Listener listener;
+    private final DecryptionStreamFactory state;
+    private final OpenPgpMetadata.Builder resultBuilder;
+    private final SignatureHashingEngine detachedSignatureHashingEngine;
+
+    private Layer input = new FormatDetector();
+    private boolean literalDataFound;
+    private boolean rawData;
+    private boolean signaturesFound;
+    private boolean finished;
+
+    MessageDecoder(@Nonnull ConsumerOptions options, @Nonnull Listener listener) throws PGPException {
+        this.options = options;
+        this.listener = listener;
+        this.state = new DecryptionStreamFactory(options);
+        this.resultBuilder = state.getResultBuilder();
+        this.detachedSignatureHashingEngine = state.initializeDetachedSignatures();
+    }
+
+    /**
+     * Feed the next chunk of the message into the decoder.
+     * The remaining bytes of the chunk are consumed entirely.
+     *
+     * @param chunk chunk of the message
+     * @throws PGPException in case of an OpenPGP related error
+     * @throws IOException in case of a malformed message
+     */
+    public void feed(@Nonnull ByteBuffer chunk) throws PGPException, IOException {
+        if (finished) {
+            throw new IllegalStateException("Decoder is already finished.");
+        }
+        if (chunk.hasArray()) {
+            input.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            chunk.position(chunk.limit());
+        } else {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            input.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Signal the end of the message.
+     * This verifies the integrity protection and signatures of the message.
+     *
+     * @return metadata of the message
+     * @throws PGPException in case of an OpenPGP related error
+     * @throws IOException in case of a truncated or tampered message
+     */
+    public OpenPgpMetadata finish() throws PGPException, IOException {
+        if (finished) {
+            throw new IllegalStateException("Decoder is already finished.");
+        }
+        finished = true;
+        input.finish();
+
+        if (!rawData && !literalDataFound) {
+            throw new MissingLiteralDataException("No Literal Data Packet found");
+        }
+        if (!state.getVerifiableOnePassSignatures().isEmpty() && !signaturesFound) {
+            throw new IOException("Verification failed - No Signatures found");
+        }
+        DecryptionStream.verifyDetachedSignatures(resultBuilder);
+        return resultBuilder.build();
+    }
+
+    private void emitPlaintext(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        if (literalDataFound && !state.getVerifiableOnePassSignatures().isEmpty()) {
+            state.getOnePassSignatureHashingEngine().update(b, off, len);
+        }
+        detachedSignatureHashingEngine.update(b, off, len);
+        listener.onPlaintext(ByteBuffer.wrap(b, off, len).asReadOnlyBuffer());
+    }
+
+    /**
+     * Layer of the message, which consumes the output of the enclosing layer.
+     */
+    private abstract static class Layer {
+
+        abstract void write(byte[] b, int off, int len) throws PGPException, IOException;
+
+        /**
+         * Invoked at the end of the input of the layer.
+         */
+        abstract void finish() throws PGPException, IOException;
+    }
+
+    /**
+     * Decides whether the message is binary, ASCII armored, or not an OpenPGP message at all.
+     * The latter is the case if the plaintext of detached signatures is processed.
+     */
+    private final class FormatDetector extends Layer {
+
+        private static final String ARMOR_HEADER = "-----BEGIN PGP ";
+        private final ByteArrayOutputStream sniffed = new ByteArrayOutputStream();
+        private Layer next;
+
+        @Override
+        void write(byte[] b, int off, int len) throws PGPException, IOException {
+            if (next != null) {
+                next.write(b, off, len);
+                return;
+            }
+            sniffed.write(b, off, len);
+            if (detect(false)) {
+                flush();
+            }
+        }
+
+        @Override
+        void finish() throws PGPException, IOException {
+            if (next == null) {
+                detect(true);
+                flush();
+            }
+            next.finish();
+        }
+
+        private void flush() throws PGPException, IOException {
+            byte[] bytes = sniffed.toByteArray();
+            sniffed.reset();
+            next.write(bytes, 0, bytes.length);
+        }
+
+        private boolean detect(boolean endOfInput) {
+            byte[] bytes = sniffed.toByteArray();
+            if (bytes.length == 0) {
+                if (endOfInput) {
+                    next = new RawData();
+                }
+                return endOfInput;
+            }
+            if ((bytes[0] & 0x80) != 0) {
+                next = isMessagePacketTag(bytes[0]) ? new PacketParser(1) : new RawData();
+                return true;
+            }
+
+            int start = 0;
+            while (start < bytes.length && isWhitespace(bytes[start])) {
+                start++;
+            }
+            int available = bytes.length - start;
+            if (available < ARMOR_HEADER.length() && !endOfInput) {
+                return false;
+            }
+            String prefix = Strings.fromUTF8ByteArray(Arrays.copyOfRange(bytes, start,
+                    start + Math.min(available, ARMOR_HEADER.length())));
+            next = prefix.equals(ARMOR_HEADER) ? new ArmorDecoder(new PacketParser(1)) : new RawData();
+            return true;
+        }
+
+        private boolean isMessagePacketTag(byte header) {
+            int tag = (header & 0x40) != 0 ? header & 0x3f : (header & 0x3f) >> 2;
+            switch (tag) {
+                case PacketTags.PUBLIC_KEY_ENC_SESSION:
+                case PacketTags.SYMMETRIC_KEY_ENC_SESSION:
+                case PacketTags.SIGNATURE:
+                case PacketTags.ONE_PASS_SIGNATURE:
+                case PacketTags.COMPRESSED_DATA:
+                case PacketTags.SYMMETRIC_KEY_ENC:
+                case PacketTags.MARKER:
+                case PacketTags.LITERAL_DATA:
+                case PacketTags.SYM_ENC_INTEGRITY_PRO:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Data which is not an OpenPGP message, e.g. the plaintext of detached signatures.
+     */
+    private final class RawData extends Layer {
+
+        RawData() {
+            LOGGER.log(LEVEL, "Data is not an OpenPGP message. Process it as plaintext.");
+            rawData = true;
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) {
+            emitPlaintext(b, off, len);
+        }
+
+        @Override
+        void finish() {
+
+        }
+    }
+
+    /**
+     * Decoder for ASCII armor, which passes the decoded binary data on to the next layer.
+     */
+    private final class ArmorDecoder extends Layer {
+
+        private final Layer next;
+        private final byte[] line = new byte[MAX_ARMOR_LINE_LENGTH];
+        private int lineLength;
+        private final byte[] quad = new byte[4];
+        private int quadLength;
+        private final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        private final CRC24 crc = new CRC24();
+        private ArmorState armorState = ArmorState.HEADER_LINE;
+
+        ArmorDecoder(Layer next) {
+            this.next = next;
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws PGPException, IOException {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    processLine();
+                    lineLength = 0;
+                } else if (lineLength == line.length) {
+                    throw new IOException("ASCII armor line exceeds " + line.length + " characters.");
+                } else {
+                    line[lineLength++] = b[i];
+                }
+            }
+            flushDecoded();
+        }
+
+        @Override
+        void finish() throws PGPException, IOException {
+            if (lineLength != 0) {
+                processLine();
+                lineLength = 0;
+                flushDecoded();
+            }
+            if (armorState != ArmorState.END) {
+                throw new EOFException("Unexpected end of ASCII armor.");
+            }
+            next.finish();
+        }
+
+        private void processLine() throws IOException {
+            String text = Strings.fromUTF8ByteArray(Arrays.copyOfRange(line, 0, lineLength)).trim();
+            switch (armorState) {
+                case HEADER_LINE:
+                    if (text.startsWith("-----BEGIN PGP ")) {
+                        armorState = ArmorState.HEADERS;
+                    }
+                    break;
+                case HEADERS:
+                    if (text.isEmpty()) {
+                        armorState = ArmorState.BODY;
+                    } else if (text.indexOf(':') == -1) {
+                        // Tolerate missing separator line between armor headers and body
+                        armorState = ArmorState.BODY;
+                        processBodyLine(text);
+                    }
+                    break;
+                case BODY:
+                    processBodyLine(text);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void processBodyLine(String text) throws IOException {
+            if (text.startsWith("-----END PGP ")) {
+                decodeRemainder();
+                armorState = ArmorState.END;
+                return;
+            }
+            if (text.startsWith("=") && text.length() == 5) {
+                decodeRemainder();
+                byte[] checksum = Base64.decode(text.substring(1));
+                int expected = ((checksum[0] & 0xff) << 16) | ((checksum[1] & 0xff) << 8) | (checksum[2] & 0xff);
+                if (expected != crc.getValue()) {
+                    throw new IOException("ASCII armor checksum mismatch.");
+                }
+                return;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '\t') {
+                    continue;
+                }
+                quad[quadLength++] = (byte) c;
+                if (quadLength == 4) {
+                    decodeQuad(4);
+                }
+            }
+        }
+
+        private void decodeRemainder() throws IOException {
+            if (quadLength != 0) {
+                throw new IOException("Malformed ASCII armor.");
+            }
+        }
+
+        private void decodeQuad(int length) throws IOException {
+            int start = decoded.size();
+            try {
+                Base64.decode(quad, 0, length, decoded);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed ASCII armor.", e);
+            }
+            quadLength = 0;
+            byte[] bytes = decoded.toByteArray();
+            for (int i = start; i < bytes.length; i++) {
+                crc.update(bytes[i]);
+            }
+        }
+
+        private void flushDecoded() throws PGPException, IOException {
+            if (decoded.size() == 0) {
+                return;
+            }
+            byte[] bytes = decoded.toByteArray();
+            decoded.reset();
+            next.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private enum ArmorState {
+        HEADER_LINE,
+        HEADERS,
+        BODY,
+        END
+    }
+
+    /**
+     * Parser for a sequence of OpenPGP packets.
+     * The bodies of the packets are passed on to a {@link PacketHandler} chosen by the packet tag.
+     */
+    private final class PacketParser extends Layer {
+
+        private final int depth;
+        private final List<Packet> encryptedSessionKeys = new ArrayList<>();
+        private ParserState parserState = ParserState.TAG;
+        private final byte[] lengthOctets = new byte[5];
+        private int lengthOctetCount;
+        private boolean newFormat;
+        private int oldFormatLengthType;
+        private int tag;
+        private long remaining;
+        private boolean partial;
+        private boolean indeterminate;
+        private PacketHandler handler;
+
+        PacketParser(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws PGPException, IOException {
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                switch (parserState) {
+                    case TAG:
+                        parseTag(b[i++]);
+                        break;
+                    case LENGTH:
+                        lengthOctets[lengthOctetCount++] = b[i++];
+                        parseLength();
+                        break;
+                    case BODY:
+                        int n = indeterminate ? end - i : (int) Math.min(remaining, end - i);
+                        handler.body(b, i, n);
+                        i += n;
+                        remaining -= n;
+                        if (!indeterminate && remaining == 0) {
+                            if (partial) {
+                                parserState = ParserState.LENGTH;
+                                lengthOctetCount = 0;
+                            } else {
+                                endPacket();
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected parser state " + parserState);
+                }
+            }
+        }
+
+        @Override
+        void finish() throws PGPException, IOException {
+            if (parserState == ParserState.BODY && indeterminate) {
+                endPacket();
+            }
+            if (parserState != ParserState.TAG) {
+                throw new EOFException("Unexpected end of packet.");
+            }
+        }
+
+        private void parseTag(byte header) throws PGPException, IOException {
+            if ((header & 0x80) == 0) {
+                throw new IOException("Invalid packet header 0x" + Integer.toHexString(header & 0xff));
+            }
+            newFormat = (header & 0x40) != 0;
+            if (newFormat) {
+                tag = header & 0x3f;
+            } else {
+                tag = (header & 0x3f) >> 2;
+                oldFormatLengthType = header & 0x03;
+            }
+            lengthOctetCount = 0;
+            partial = false;
+            indeterminate = false;
+            handler = null;
+            if (!newFormat && oldFormatLengthType == 3) {
+                indeterminate = true;
+                startBody();
+            } else {
+                parserState = ParserState.LENGTH;
+            }
+        }
+
+        private void parseLength() throws PGPException, IOException {
+            if (!newFormat) {
+                int required = 1 << oldFormatLengthType;
+                if (lengthOctetCount < required) {
+                    return;
+                }
+                remaining = 0;
+                for (int i = 0; i < required; i++) {
+                    remaining = (remaining << 8) | (lengthOctets[i] & 0xff);
+                }
+                startBody();
+                return;
+            }
+
+            int first = lengthOctets[0] & 0xff;
+            if (first < 192) {
+                remaining = first;
+                partial = false;
+            } else if (first <= 223) {
+                if (lengthOctetCount < 2) {
+                    return;
+                }
+                remaining = ((first - 192) << 8) + (lengthOctets[1] & 0xff) + 192;
+                partial = false;
+            } else if (first == 255) {
+                if (lengthOctetCount < 5) {
+                    return;
+                }
+                remaining = ((long) (lengthOctets[1] & 0xff) << 24) | ((lengthOctets[2] & 0xff) << 16)
+                        | ((lengthOctets[3] & 0xff) << 8) | (lengthOctets[4] & 0xff);
+                partial = false;
+            } else {
+                remaining = 1L << (first & 0x1f);
+                partial = true;
+            }
+            startBody();
+        }
+
+        private void startBody() throws PGPException, IOException {
+            if (handler == null) {
+                handler = createHandler();
+            }
+            parserState = ParserState.BODY;
+            if (!indeterminate && remaining == 0) {
+                if (partial) {
+                    parserState = ParserState.LENGTH;
+                    lengthOctetCount = 0;
+                } else {
+                    endPacket();
+                }
+            }
+        }
+
+        private void endPacket() throws PGPException, IOException {
+            PacketHandler finishedHandler = handler;
+            handler = null;
+            parserState = ParserState.TAG;
+            finishedHandler.end();
+        }
+
+        private PacketHandler createHandler() throws PGPException {
+            switch (tag) {
+                case PacketTags.PUBLIC_KEY_ENC_SESSION:
+                case PacketTags.SYMMETRIC_KEY_ENC_SESSION:
+                case PacketTags.ONE_PASS_SIGNATURE:
+                case PacketTags.SIGNATURE:
+                case PacketTags.MARKER:
+                    return new BufferedPacketHandler(tag, this);
+                case PacketTags.SYMMETRIC_KEY_ENC:
+                    throw new MessageNotIntegrityProtectedException();
+                case PacketTags.SYM_ENC_INTEGRITY_PRO:
+                    checkDepth();
+                    List<Packet> sessionKeys = new ArrayList<>(encryptedSessionKeys);
+                    encryptedSessionKeys.clear();
+                    return new EncryptedDataHandler(sessionKeys, new PacketParser(depth + 1));
+                case PacketTags.COMPRESSED_DATA:
+                    checkDepth();
+                    return new CompressedDataHandler(new PacketParser(depth + 1));
+                case PacketTags.LITERAL_DATA:
+                    if (literalDataFound) {
+                        throw new PGPException("Message contains more than one literal data packet.");
+                    }
+                    return new LiteralDataHandler();
+                default:
+                    throw new PGPException("Unexpected packet with tag " + tag + " in message.");
+            }
+        }
+
+        private void checkDepth() throws PGPException {
+            if (depth + 1 >= DecryptionStreamFactory.MAX_RECURSION_DEPTH) {
+                throw new PGPException("Maximum recursion depth of packages exceeded.");
+            }
+        }
+
+        void addEncryptedSessionKey(Packet packet) {
+            encryptedSessionKeys.add(packet);
+        }
+    }
+
+    private enum ParserState {
+        TAG,
+        LENGTH,
+        BODY
+    }
+
+    /**
+     * Consumer of the body of a packet.
+     */
+    private abstract static class PacketHandler {
+
+        abstract void body(byte[] b, int off, int len) throws PGPException, IOException;
+
+        abstract void end() throws PGPException, IOException;
+    }
+
+    /**
+     * Handler for short packets, which are buffered and parsed as a whole.
+     */
+    private final class BufferedPacketHandler extends PacketHandler {
+
+        private final int packetTag;
+        private final PacketParser parser;
+        private final ByteArrayOutputStream packet = new ByteArrayOutputStream();
+
+        BufferedPacketHandler(int packetTag, PacketParser parser) {
+            this.packetTag = packetTag;
+            this.parser = parser;
+            // Re-encode the packet header with a definite length, which is filled in once the packet is complete
+            packet.write(0xc0 | packetTag);
+            packet.write(0xff);
+            packet.write(new byte[4], 0, 4);
+        }
+
+        @Override
+        void body(byte[] b, int off, int len) throws IOException {
+            if (packet.size() + len > MAX_BUFFERED_PACKET_LENGTH) {
+                throw new IOException("Packet with tag " + packetTag + " exceeds " + MAX_BUFFERED_PACKET_LENGTH + " bytes.");
+            }
+            packet.write(b, off, len);
+        }
+
+        @Override
+        void end() throws PGPException, IOException {
+            byte[] encoded = packet.toByteArray();
+            int bodyLength = encoded.length - 6;
+            encoded[2] = (byte) (bodyLength >> 24);
+            encoded[3] = (byte) (bodyLength >> 16);
+            encoded[4] = (byte) (bodyLength >> 8);
+            encoded[5] = (byte) bodyLength;
+
+            switch (packetTag) {
+                case PacketTags.PUBLIC_KEY_ENC_SESSION:
+                case PacketTags.SYMMETRIC_KEY_ENC_SESSION:
+                    parser.addEncryptedSessionKey(new BCPGInputStream(new ByteArrayInputStream(encoded)).readPacket());
+                    break;
+                case PacketTags.ONE_PASS_SIGNATURE:
+                    processOnePassSignatures(encoded);
+                    break;
+                case PacketTags.SIGNATURE:
+                    processSignatures(encoded);
+                    break;
+                default:
+                    LOGGER.log(LEVEL, "Skip packet with tag " + packetTag);
+                    break;
+            }
+        }
+    }
+
+    private void processOnePassSignatures(byte[] encoded) throws PGPException, IOException {
+        if (literalDataFound) {
+            throw new PGPException("Unexpected one-pass-signature after literal data.");
+        }
+        Object object = new PGPObjectFactory(encoded, ImplementationFactory.getInstance().getKeyFingerprintCalculator())
+                .nextObject();
+        for (PGPOnePassSignature onePassSignature : (PGPOnePassSignatureList) object) {
+            state.processOnePassSignature(onePassSignature);
+        }
+    }
+
+    private void processSignatures(byte[] encoded) throws IOException {
+        if (!literalDataFound) {
+            LOGGER.log(LEVEL, "Skip signature preceding the literal data.");
+            return;
+        }
+        signaturesFound = true;
+        Object object = new PGPObjectFactory(encoded, ImplementationFactory.getInstance().getKeyFingerprintCalculator())
+                .nextObject();
+        try {
+            for (PGPSignature signature : (PGPSignatureList) object) {
+                OnePassSignature onePassSignature = null;
+                for (OpenPgpV4Fingerprint fingerprint : state.getVerifiableOnePassSignatures().keySet()) {
+                    if (fingerprint.getKeyId() == signature.getKeyID()) {
+                        onePassSignature = state.getVerifiableOnePassSignatures().get(fingerprint);
+                        break;
+                    }
+                }
+                if (onePassSignature == null) {
+                    LOGGER.log(LEVEL, "Found Signature without respective OnePassSignature packet -> skip");
+                    continue;
+                }
+                SignatureVerifyingInputStream.verifySignatureOrThrowSignatureException(signature, onePassSignature);
+            }
+        } catch (PGPException | SignatureException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Handler for symmetrically encrypted integrity protected data.
+     * The session key is recovered once the first bytes of the encrypted data are available, which allows
+     * to check passphrase candidates against the quick check bytes of the encrypted prefix.
+     */
+    private final class EncryptedDataHandler extends PacketHandler {
+
+        private final List<Packet> sessionKeys;
+        private final Layer next;
+        private final byte[] header = new byte[1 + MAX_BLOCK_SIZE + 2];
+        private int headerLength;
+        private DataDecryptorFeed cipher;
+        private PGPDigestCalculator mdc;
+        private OutputStream mdcOut;
+        private int prefixRemaining;
+        // The last bytes of the decrypted data contain the modification detection code
+        private final byte[] tail = new byte[MDC_PACKET_LENGTH];
+        private int tailLength;
+        private byte[] buffer = new byte[0];
+
+        EncryptedDataHandler(List<Packet> sessionKeys, Layer next) {
+            this.sessionKeys = sessionKeys;
+            this.next = next;
+        }
+
+        @Override
+        void body(byte[] b, int off, int len) throws PGPException, IOException {
+            if (cipher == null) {
+                int n = Math.min(len, header.length - headerLength);
+                System.arraycopy(b, off, header, headerLength, n);
+                headerLength += n;
+                off += n;
+                len -= n;
+                if (headerLength < header.length) {
+                    return;
+                }
+                start();
+                decrypt(header, 1, headerLength - 1);
+            }
+            decrypt(b, off, len);
+        }
+
+        private void start() throws PGPException, IOException {
+            if (header[0] != 1) {
+                throw new PGPException("Unsupported version " + header[0] + " of encrypted data.");
+            }
+            SessionKey sessionKey = recoverSessionKey(sessionKeys, header, headerLength);
+            PGPDataDecryptor decryptor = createDataDecryptor(sessionKey);
+            cipher = new DataDecryptorFeed(decryptor);
+            mdc = decryptor.getIntegrityCalculator();
+            mdcOut = mdc.getOutputStream();
+            prefixRemaining = decryptor.getBlockSize() + 2;
+        }
+
+        private void decrypt(byte[] b, int off, int len) throws PGPException, IOException {
+            if (len == 0) {
+                return;
+            }
+            prepareBuffer(cipher.getOutputSize(len));
+            release(tailLength + cipher.update(b, off, len, buffer, tailLength));
+        }
+
+        private void prepareBuffer(int outputSize) {
+            if (buffer.length < tailLength + outputSize) {
+                buffer = new byte[tailLength + outputSize];
+            }
+            // Prepend the retained tail to the decrypted bytes
+            System.arraycopy(tail, 0, buffer, 0, tailLength);
+        }
+
+        private void release(int total) throws PGPException, IOException {
+            // Retain the last bytes, as they might be the modification detection code packet
+            int release = Math.max(0, total - MDC_PACKET_LENGTH);
+            tailLength = total - release;
+            System.arraycopy(buffer, release, tail, 0, tailLength);
+
+            mdcOut.write(buffer, 0, release);
+            int skip = Math.min(prefixRemaining, release);
+            prefixRemaining -= skip;
+            next.write(buffer, skip, release - skip);
+        }
+
+        @Override
+        void end() throws PGPException, IOException {
+            if (cipher == null) {
+                throw new EOFException("Unexpected end of encrypted data.");
+            }
+            prepareBuffer(cipher.getOutputSize(0));
+            release(tailLength + cipher.doFinal(buffer, tailLength));
+            if (tailLength != MDC_PACKET_LENGTH || prefixRemaining != 0
+                    || (tail[0] & 0xff) != 0xd3 || (tail[1] & 0xff) != 0x14) {
+                throw new ModificationDetectionException();
+            }
+            mdcOut.write(tail, 0, 2);
+            mdcOut.close();
+            byte[] digest = mdc.getDigest();
+            if (!Arrays.constantTimeAreEqual(20, digest, 0, tail, 2)) {
+                throw new ModificationDetectionException();
+            }
+            next.finish();
+        }
+    }
+
+    /**
+     * Recover the session key of the encrypted data from the preceding encrypted session key packets.
+     *
+     * @param sessionKeys public-key and symmetric-key encrypted session key packets
+     * @param header first bytes of the encrypted data (version and encrypted prefix)
+     * @param headerLength number of available header bytes
+     * @return session key
+     */
+    private SessionKey recoverSessionKey(List<Packet> sessionKeys, byte[] header, int headerLength)
+            throws PGPException {
+        SessionKey sessionKey = options.getSessionKey();
+        if (sessionKey != null) {
+            LOGGER.log(LEVEL, "Decrypt message using provided session key.");
+        } else {
+            List<SymmetricKeyEncSessionPacket> symmetricSessionKeys = new ArrayList<>();
+            List<SessionKeyRecovery.EncryptedSessionKey> publicKeySessionKeys = new ArrayList<>();
+            for (Packet packet : sessionKeys) {
+                if (packet instanceof SymmetricKeyEncSessionPacket) {
+                    symmetricSessionKeys.add((SymmetricKeyEncSessionPacket) packet);
+                } else if (packet instanceof PublicKeyEncSessionPacket) {
+                    publicKeySessionKeys.add(SessionKeyRecovery.EncryptedSessionKey.of((PublicKeyEncSessionPacket) packet));
+                }
+            }
+            SessionKeyRecovery recovery = new SessionKeyRecovery(options, resultBuilder);
+            sessionKey = recovery.recoverFromCache(publicKeySessionKeys);
+            if (sessionKey == null) {
+                // Passphrases are tried on all symmetric-key encrypted session keys at once
+                sessionKey = recoverSymmetricSessionKey(symmetricSessionKeys, header, headerLength);
+            }
+            if (sessionKey == null) {
+                sessionKey = recovery.recoverWithDecryptionKeys(publicKeySessionKeys);
+            }
+        }
+
+        if (sessionKey == null) {
+            throw new MissingDecryptionMethodException("Decryption failed - No suitable decryption key or passphrase found");
+        }
+        SymmetricKeyAlgorithm algorithm = sessionKey.getAlgorithm();
+        LOGGER.log(LEVEL, "Message is encrypted using " + algorithm);
+        DecryptionStreamFactory.throwIfAlgorithmIsRejected(algorithm);
+        resultBuilder.setSymmetricKeyAlgorithm(algorithm);
+        resultBuilder.setSessionKey(sessionKey);
+        return sessionKey;
+    }
+
+    private SessionKey recoverSymmetricSessionKey(List<SymmetricKeyEncSessionPacket> packets, final byte[] header, final int headerLength)
+            throws PGPException {
+        if (packets.isEmpty()) {
+            return null;
+        }
+        List<PassphraseTrialDecryption.EncryptedSessionKey> encryptedSessionKeys = new ArrayList<>(packets.size());
+        for (SymmetricKeyEncSessionPacket packet : packets) {
+            encryptedSessionKeys.add(PassphraseTrialDecryption.EncryptedSessionKey.of(packet));
+        }
+        return PassphraseTrialDecryption.findFirst(encryptedSessionKeys, options.getDecryptionPassphrases(),
+                options.getDerivedKeyCache(), options.getPassphraseDecryptionExecutor(),
+                new PassphraseTrialDecryption.Check<SessionKey>() {
+                    @Override
+                    public SessionKey check(SessionKey sessionKey) {
+                        try {
+                            return quickCheck(sessionKey, header, headerLength) ? sessionKey : null;
+                        } catch (PGPException e) {
+                            LOGGER.log(LEVEL, "Probable passphrase mismatch, skip PBE encrypted data block", e);
+                            return null;
+                        }
+                    }
+                });
+    }
+
+    private static PGPDataDecryptor createDataDecryptor(SessionKey sessionKey) throws PGPException {
+        try {
+            return SessionKeyDataDecryptorFactory.withSessionKey(sessionKey)
+                    .createDataDecryptor(true, sessionKey.getAlgorithm().getAlgorithmId(), sessionKey.getKey());
+        } catch (IllegalArgumentException e) {
+            throw new PGPException("Invalid session key.", e);
+        }
+    }
+
+    /**
+     * Check whether the last two bytes of the encrypted prefix repeat the two bytes before.
+     * This detects a wrong passphrase with high probability.
+     */
+    private static boolean quickCheck(SessionKey sessionKey, byte[] header, int headerLength) throws PGPException {
+        PGPDataDecryptor decryptor = createDataDecryptor(sessionKey);
+        int blockSize = decryptor.getBlockSize();
+        if (headerLength < 1 + blockSize + 2) {
+            return false;
+        }
+        byte[] prefix = new byte[blockSize + 2];
+        try {
+            InputStream prefixIn = decryptor.getInputStream(new ByteArrayInputStream(header, 1, prefix.length));
+            if (Streams.readFully(prefixIn, prefix) != prefix.length) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new PGPException("Cannot decrypt encrypted prefix.", e);
+        }
+        return prefix[blockSize - 2] == prefix[blockSize] && prefix[blockSize - 1] == prefix[blockSize + 1];
+    }
+
+    /**
+     * Push-based adapter for the pull-based {@link PGPDataDecryptor PGPDataDecryptors} of the {@link ImplementationFactory}.
+     * The ciphertext is queued in this stream, which is read by the decrypting stream of the decryptor.
+     * Plaintext is only read while at least a whole cipher block of it is outstanding, which ensures that the
+     * decrypting stream never runs out of queued ciphertext before {@link #doFinal(byte[], int)} is called.
+     */
+    private static final class DataDecryptorFeed extends InputStream {
+
+        private final InputStream plaintext;
+        private final int blockSize;
+        private byte[] queue = new byte[0];
+        private int queueOffset;
+        private int queueLength;
+        // Number of bytes, which were fed but not yet read as plaintext
+        private int outstanding;
+        private boolean finished;
+
+        DataDecryptorFeed(PGPDataDecryptor decryptor) {
+            this.plaintext = decryptor.getInputStream(this);
+            this.blockSize = decryptor.getBlockSize();
+        }
+
+        /**
+         * Return the maximum number of plaintext bytes, which are returned after feeding the given number of bytes.
+         */
+        int getOutputSize(int len) {
+            return outstanding + len;
+        }
+
+        int update(byte[] b, int off, int len, byte[] out, int outOff) throws IOException {
+            if (queue.length - queueOffset - queueLength < len) {
+                byte[] grown = queue.length < queueLength + len ? new byte[queueLength + len] : queue;
+                System.arraycopy(queue, queueOffset, grown, 0, queueLength);
+                queue = grown;
+                queueOffset = 0;
+            }
+            System.arraycopy(b, off, queue, queueOffset + queueLength, len);
+            queueLength += len;
+            outstanding += len;
+
+            int produced = 0;
+            while (outstanding >= blockSize) {
+                produced += readPlaintext(out, outOff + produced);
+            }
+            return produced;
+        }
+
+        int doFinal(byte[] out, int outOff) throws IOException {
+            finished = true;
+            int produced = 0;
+            while (outstanding > 0) {
+                produced += readPlaintext(out, outOff + produced);
+            }
+            return produced;
+        }
+
+        private int readPlaintext(byte[] out, int outOff) throws IOException {
+            int read = plaintext.read(out, outOff, outstanding);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of decrypted data.");
+            }
+            outstanding -= read;
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (queueLength == 0) {
+                if (finished) {
+                    return -1;
+                }
+                throw new IOException("Decryptor requested more ciphertext than available.");
+            }
+            int n = Math.min(len, queueLength);
+            System.arraycopy(queue, queueOffset, b, off, n);
+            queueOffset += n;
+            queueLength -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Handler for compressed data, which passes the inflated data on to the next layer.
+     */
+    private final class CompressedDataHandler extends PacketHandler {
+
+        private final Layer next;
+        private CompressionAlgorithm algorithm;
+        private Inflater inflater;
+        private ByteArrayOutputStream bzip2Data;
+        private final byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+
+        CompressedDataHandler(Layer next) {
+            this.next = next;
+        }
+
+        @Override
+        void body(byte[] b, int off, int len) throws PGPException, IOException {
+            if (len == 0) {
+                return;
+            }
+            if (algorithm == null) {
+                start(b[off] & 0xff);
+                off++;
+                len--;
+            }
+            switch (algorithm) {
+                case UNCOMPRESSED:
+                    next.write(b, off, len);
+                    break;
+                case BZIP2:
+                    bzip2Data.write(b, off, len);
+                    break;
+                default:
+                    inflate(b, off, len);
+                    break;
+            }
+        }
+
+        private void start(int algorithmId) throws PGPException {
+            algorithm = CompressionAlgorithm.fromId(algorithmId);
+            if (algorithm == null) {
+                throw new PGPException("can't recognise compression algorithm: " + algorithmId);
+            }
+            LOGGER.log(LEVEL, "Encountered PGPCompressedData: " + algorithm);
+            resultBuilder.setCompressionAlgorithm(algorithm);
+            if (algorithm == CompressionAlgorithm.ZIP) {
+                inflater = new Inflater(true);
+            } else if (algorithm == CompressionAlgorithm.ZLIB) {
+                inflater = new Inflater();
+            } else if (algorithm == CompressionAlgorithm.BZIP2) {
+                bzip2Data = new ByteArrayOutputStream();
+            }
+        }
+
+        private void inflate(byte[] b, int off, int len) throws PGPException, IOException {
+            if (inflater.finished()) {
+                return;
+            }
+            inflater.setInput(b, off, len);
+            try {
+                // Consume the input entirely, as the caller may reuse its buffer
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int inflated = inflater.inflate(buffer);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Compressed data requires a preset dictionary.");
+                    }
+                    next.write(buffer, 0, inflated);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed compressed data.", e);
+            }
+        }
+
+        @Override
+        void end() throws PGPException, IOException {
+            if (algorithm == null) {
+                throw new EOFException("Unexpected end of compressed data.");
+            }
+            if (inflater != null) {
+                boolean complete = inflater.finished();
+                inflater.end();
+                if (!complete) {
+                    throw new EOFException("Unexpected end of compressed data.");
+                }
+            }
+            if (bzip2Data != null) {
+                InputStream bzip2 = new CBZip2InputStream(new ByteArrayInputStream(bzip2Data.toByteArray()));
+                bzip2Data = null;
+                int read;
+                while ((read = bzip2.read(buffer, 0, buffer.length)) != -1) {
+                    next.write(buffer, 0, read);
+                }
+            }
+            next.finish();
+        }
+    }
+
+    /**
+     * Handler for the literal data packet, which reports the plaintext to the listener.
+     */
+    private final class LiteralDataHandler extends PacketHandler {
+
+        private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        private boolean headerComplete;
+
+        @Override
+        void body(byte[] b, int off, int len) throws PGPException, IOException {
+            if (!headerComplete) {
+                while (len > 0 && !headerComplete) {
+                    header.write(b[off++]);
+                    len--;
+                    headerComplete = isHeaderComplete();
+                }
+                if (!headerComplete) {
+                    return;
+                }
+                start();
+            }
+            emitPlaintext(b, off, len);
+        }
+
+        private boolean isHeaderComplete() {
+            byte[] bytes = header.toByteArray();
+            // format, file name length, file name, modification date
+            return bytes.length >= 2 && bytes.length == 2 + (bytes[1] & 0xff) + 4;
+        }
+
+        private void start() throws PGPException {
+            byte[] bytes = header.toByteArray();
+            int nameLength = bytes[1] & 0xff;
+            String fileName = Strings.fromUTF8ByteArray(Arrays.copyOfRange(bytes, 2, 2 + nameLength));
+            long modificationTime = 0;
+            for (int i = 2 + nameLength; i < bytes.length; i++) {
+                modificationTime = (modificationTime << 8) | (bytes[i] & 0xff);
+            }
+            StreamEncoding encoding = StreamEncoding.fromCode(bytes[0] & 0xff);
+            Date modificationDate = new Date(modificationTime * 1000);
+
+            LOGGER.log(LEVEL, "Found PGPLiteralData");
+            OpenPgpMetadata.FileInfo fileInfo = new OpenPgpMetadata.FileInfo(fileName, modificationDate, encoding);
+            resultBuilder.setFileInfo(fileInfo);
+            if (!state.getVerifiableOnePassSignatures().isEmpty()) {
+                state.getOnePassSignatureHashingEngine().initialize(options.getVerifierBuilderProvider());
+            }
+            literalDataFound = true;
+            listener.onFileInfo(fileInfo);
+        }
+
+        @Override
+        void end() throws PGPException, IOException {
+            if (!headerComplete) {
+                throw new EOFException("Unexpected end of literal data.");
+            }
+        }
+    }
+}
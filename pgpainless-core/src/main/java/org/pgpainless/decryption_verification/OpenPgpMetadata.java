@@ -35,6 +35,7 @@ import org.pgpainless.key.OpenPgpV4Fingerprint;
 import org.pgpainless.key.SubkeyIdentifier;
 import org.pgpainless.signature.DetachedSignature;
 import org.pgpainless.signature.OnePassSignature;
+import org.pgpainless.util.SessionKey;
 
 public class OpenPgpMetadata {
 
@@ -45,6 +46,7 @@ public class OpenPgpMetadata {
     private final SymmetricKeyAlgorithm symmetricKeyAlgorithm;
     private final CompressionAlgorithm compressionAlgorithm;
     private final FileInfo fileInfo;
+    private final SessionKey sessionKey;
 
     public OpenPgpMetadata(Set<Long> recipientKeyIds,
                            SubkeyIdentifier decryptionKey,
@@ -53,6 +55,18 @@ public class OpenPgpMetadata {
                            List<OnePassSignature> onePassSignatures,
                            List<DetachedSignature> detachedSignatures,
                            FileInfo fileInfo) {
+        this(recipientKeyIds, decryptionKey, symmetricKeyAlgorithm, algorithm, onePassSignatures,
+                detachedSignatures, fileInfo, null);
+    }
+
+    public OpenPgpMetadata(Set<Long> recipientKeyIds,
+                           SubkeyIdentifier decryptionKey,
+                           SymmetricKeyAlgorithm symmetricKeyAlgorithm,
+                           CompressionAlgorithm algorithm,
+                           List<OnePassSignature> onePassSignatures,
+                           List<DetachedSignature> detachedSignatures,
+                           FileInfo fileInfo,
+                           SessionKey sessionKey) {
 
         this.recipientKeyIds = Collections.unmodifiableSet(recipientKeyIds);
         this.decryptionKey = decryptionKey;
@@ -61,6 +75,7 @@ public class OpenPgpMetadata {
         this.detachedSignatures = Collections.unmodifiableList(detachedSignatures);
         this.onePassSignatures = Collections.unmodifiableList(onePassSignatures);
         this.fileInfo = fileInfo;
+        this.sessionKey = sessionKey;
     }
 
     public Set<Long> getRecipientKeyIds() {
@@ -79,6 +94,17 @@ public class OpenPgpMetadata {
         return symmetricKeyAlgorithm;
     }
 
+    /**
+     * Return the session key which was used to decrypt the message.
+     * The session key can be used to decrypt the message again later on, without access to the
+     * decryption key or passphrase, see {@link ConsumerOptions#setSessionKey(SessionKey)}.
+     *
+     * @return session key or null if the message was not encrypted
+     */
+    public SessionKey getSessionKey() {
+        return sessionKey;
+    }
+
     public CompressionAlgorithm getCompressionAlgorithm() {
         return compressionAlgorithm;
     }
@@ -244,6 +270,7 @@ public class OpenPgpMetadata {
         private SymmetricKeyAlgorithm symmetricKeyAlgorithm = SymmetricKeyAlgorithm.NULL;
         private CompressionAlgorithm compressionAlgorithm = CompressionAlgorithm.UNCOMPRESSED;
         private FileInfo fileInfo;
+        private SessionKey sessionKey;
 
         public Builder addRecipientKeyId(Long keyId) {
             this.recipientFingerprints.add(keyId);
@@ -282,10 +309,15 @@ public class OpenPgpMetadata {
             return this;
         }
 
+        public Builder setSessionKey(SessionKey sessionKey) {
+            this.sessionKey = sessionKey;
+            return this;
+        }
+
         public OpenPgpMetadata build() {
             return new OpenPgpMetadata(recipientFingerprints, decryptionKey,
                     symmetricKeyAlgorithm, compressionAlgorithm,
-                    onePassSignatures, detachedSignatures, fileInfo);
+                    onePassSignatures, detachedSignatures, fileInfo, sessionKey);
         }
     }
 }
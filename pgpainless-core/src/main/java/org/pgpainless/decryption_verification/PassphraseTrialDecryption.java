@@ -0,0 +1,288 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.bcpg.SymmetricKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPBEEncryptedData;
+import org.bouncycastle.openpgp.operator.PBEDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.implementation.CachingPBESecretKeyDecryptor.DerivedKeyCache;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
+
+/**
+ * Trial decryption of symmetric-key encrypted session keys (SKESKs) using the decryption passphrases.
+ * Since it is unknown which passphrase belongs to which SKESK, every combination needs to be tried.
+ * The expensive part of each attempt is the S2K key derivation, so the derived keys are memoized in a
+ * {@link DerivedKeyCache}, which is shared with the {@link org.pgpainless.implementation.CachingPBESecretKeyDecryptor}.
+ *
+ * If an {@link Executor} is given, the key derivations are run concurrently and the remaining attempts are
+ * cancelled as soon as one recovered session key is accepted.
+ * Recovered session keys are checked on the calling thread, since checking them usually involves reading
+ * from the (shared) encrypted data.
+ */
+final class PassphraseTrialDecryption {
+
+    private static final Logger LOGGER = Logger.getLogger(PassphraseTrialDecryption.class.getName());
+    private static final Level LEVEL = Level.FINE;
+
+    private PassphraseTrialDecryption() {
+
+    }
+
+    /**
+     * Check of a recovered session key against the encrypted data.
+     *
+     * @param <T> result type
+     */
+    interface Check<T> {
+
+        /**
+         * Check the recovered session key.
+         *
+         * @param sessionKey session key recovered from one of the SKESKs
+         * @return result or null if the session key does not match the encrypted data
+         */
+        T check(SessionKey sessionKey);
+    }
+
+    /**
+     * Contents of a symmetric-key encrypted session key packet.
+     */
+    static final class EncryptedSessionKey {
+
+        private final int encAlgorithm;
+        private final S2K s2k;
+        private final byte[] secKeyData;
+
+        private EncryptedSessionKey(int encAlgorithm, S2K s2k, byte[] secKeyData) {
+            this.encAlgorithm = encAlgorithm;
+            this.s2k = s2k;
+            this.secKeyData = secKeyData;
+        }
+
+        static EncryptedSessionKey of(SymmetricKeyEncSessionPacket packet) {
+            return new EncryptedSessionKey(packet.getEncAlgorithm(), packet.getS2K(), packet.getSecKeyData());
+        }
+
+        /**
+         * Extract the SKESK from the given encrypted data.
+         * BouncyCastle does not expose the packet, so it is captured from the arguments passed to a decryptor factory.
+         *
+         * @param encryptedData passphrase encrypted data
+         * @return encrypted session key
+         */
+        static EncryptedSessionKey of(PGPPBEEncryptedData encryptedData) throws PGPException {
+            SymmetricKeyEncSessionPacketCapture capture = new SymmetricKeyEncSessionPacketCapture();
+            encryptedData.getSymmetricAlgorithm(capture);
+            return new EncryptedSessionKey(capture.encAlgorithm, capture.s2k, capture.secKeyData);
+        }
+    }
+
+    /**
+     * Try all combinations of encrypted session keys and passphrases until a recovered session key passes the check.
+     *
+     * @param encryptedSessionKeys symmetric-key encrypted session keys
+     * @param passphrases decryption passphrases
+     * @param cache memo of derived keys
+     * @param executor executor to derive the keys concurrently, or null to try the combinations one after another
+     * @param check check of recovered session keys
+     * @param <T> result type
+     * @return result of the first successful check or null
+     */
+    static <T> T findFirst(List<EncryptedSessionKey> encryptedSessionKeys, Collection<Passphrase> passphrases,
+                           DerivedKeyCache cache, Executor executor, Check<T> check)
+            throws PGPException {
+        List<Attempt> attempts = new ArrayList<>();
+        for (EncryptedSessionKey encryptedSessionKey : encryptedSessionKeys) {
+            for (Passphrase passphrase : passphrases) {
+                if (passphrase.isValid()) {
+                    attempts.add(new Attempt(encryptedSessionKey, passphrase, cache));
+                }
+            }
+        }
+
+        if (executor == null || attempts.size() < 2) {
+            for (Attempt attempt : attempts) {
+                T result = check(attempt.recoverSessionKey(), check);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+        return findFirstConcurrently(attempts, executor, check);
+    }
+
+    private static <T> T findFirstConcurrently(List<Attempt> attempts, Executor executor, Check<T> check)
+            throws PGPException {
+        final AtomicBoolean found = new AtomicBoolean(false);
+        ExecutorCompletionService<SessionKey> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<SessionKey>> futures = new ArrayList<>(attempts.size());
+        for (final Attempt attempt : attempts) {
+            futures.add(completionService.submit(new Callable<SessionKey>() {
+                @Override
+                public SessionKey call() {
+                    if (found.get()) {
+                        return null;
+                    }
+                    return attempt.recoverSessionKey();
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<SessionKey> future;
+                try {
+                    future = completionService.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PGPException("Interrupted during passphrase decryption.", e);
+                }
+                try {
+                    T result = check(future.get(), check);
+                    if (result != null) {
+                        found.set(true);
+                        return result;
+                    }
+                } catch (CancellationException e) {
+                    // Cannot happen before a result is found
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PGPException("Interrupted during passphrase decryption.", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            found.set(true);
+            for (Future<SessionKey> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return null;
+    }
+
+    private static <T> T check(SessionKey sessionKey, Check<T> check) {
+        if (sessionKey == null) {
+            return null;
+        }
+        return check.check(sessionKey);
+    }
+
+    /**
+     * Attempt to recover the session key from a single SKESK using a single passphrase.
+     */
+    private static final class Attempt {
+
+        private final EncryptedSessionKey encryptedSessionKey;
+        private final Passphrase passphrase;
+        private final DerivedKeyCache cache;
+
+        private Attempt(EncryptedSessionKey encryptedSessionKey, Passphrase passphrase, DerivedKeyCache cache) {
+            this.encryptedSessionKey = encryptedSessionKey;
+            this.passphrase = passphrase;
+            this.cache = cache;
+        }
+
+        /**
+         * Recover the session key.
+         * Without integrity check, a wrong passphrase is only detected by the check of the caller.
+         *
+         * @return session key or null if the passphrase obviously does not match
+         */
+        SessionKey recoverSessionKey() {
+            int encAlgorithm = encryptedSessionKey.encAlgorithm;
+            try {
+                PBEDataDecryptorFactory decryptorFactory = ImplementationFactory.getInstance()
+                        .getPBEDataDecryptorFactory(passphrase);
+                S2K s2k = encryptedSessionKey.s2k;
+                byte[] key = cache.get(passphrase, encAlgorithm, s2k);
+                if (key == null) {
+                    key = decryptorFactory.makeKeyFromPassPhrase(encAlgorithm, s2k);
+                    cache.put(passphrase, encAlgorithm, s2k, key.clone());
+                }
+                // algorithm, session key
+                byte[] sessionData = decryptorFactory.recoverSessionData(encAlgorithm, key, encryptedSessionKey.secKeyData);
+                Arrays.fill(key, (byte) 0);
+                SymmetricKeyAlgorithm algorithm = SymmetricKeyAlgorithm.fromId(sessionData[0] & 0xff);
+                if (algorithm == null || sessionData.length < 2) {
+                    return null;
+                }
+                return new SessionKey(algorithm, Arrays.copyOfRange(sessionData, 1, sessionData.length));
+            } catch (PGPException | RuntimeException e) {
+                LOGGER.log(LEVEL, "Probable passphrase mismatch, skip PBE encrypted data block", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decryptor factory which captures the contents of the symmetric-key encrypted session key packet.
+     */
+    private static final class SymmetricKeyEncSessionPacketCapture extends PBEDataDecryptorFactory {
+
+        private int encAlgorithm;
+        private S2K s2k;
+        private byte[] secKeyData;
+
+        private SymmetricKeyEncSessionPacketCapture() {
+            super(null, null);
+        }
+
+        @Override
+        public byte[] makeKeyFromPassPhrase(int keyAlgorithm, S2K s2k) {
+            this.encAlgorithm = keyAlgorithm;
+            this.s2k = s2k;
+            return new byte[0];
+        }
+
+        @Override
+        public byte[] recoverSessionData(int keyAlgorithm, byte[] key, byte[] secKeyData) {
+            this.secKeyData = secKeyData;
+            return new byte[] {(byte) keyAlgorithm};
+        }
+
+        @Override
+        public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key)
+                throws PGPException {
+            throw new PGPException("Capturing decryptor factory cannot decrypt data.");
+        }
+    }
+}
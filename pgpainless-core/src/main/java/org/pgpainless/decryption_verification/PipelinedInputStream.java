@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.Nonnull;
+
+/**
+ * Stage of a pipelined decryption, which reads an upstream layer (e.g. the decrypted or decompressed data) ahead
+ * on a worker of an {@link Executor}, while the reading thread processes the previous chunks.
+ *
+ * Data is passed through a bounded ring of reusable chunks. The worker fills each chunk completely before handing
+ * it over, and blocks once all chunks are in use, so at most {@link #RING_SIZE} chunks are read ahead.
+ * The worker is started on the first read operation and stops at the end of the upstream data.
+ *
+ * This stream is not thread safe. All read operations and {@link #close()} must be called by the same thread.
+ * Closing the stage stops and joins the worker, but does not close the upstream stream, so that the
+ * upstream layer can safely be used by the closing thread afterwards. Once the end of the stream was reached,
+ * subsequent read operations keep reporting the end of the stream even after the stage got closed.
+ */
+final class PipelinedInputStream extends InputStream {
+
+    static final int RING_SIZE = 4;
+    static final int CHUNK_SIZE = 1 << 15;
+
+    // Marks the end of the upstream data or a failure of the worker, after which it no longer uses the upstream stream
+    private static final Chunk END = new Chunk(0);
+
+    private final InputStream upstream;
+    private final Executor executor;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final BlockingQueue<Chunk> filledChunks;
+    private volatile boolean closed = false;
+    // Written by the worker before END is enqueued, so the queue makes it visible to the reading thread
+    private Throwable failure;
+
+    private boolean started = false;
+    private boolean endOfStream = false;
+    private Chunk current;
+    private int position;
+
+    PipelinedInputStream(@Nonnull InputStream upstream, @Nonnull Executor executor) {
+        this(upstream, executor, CHUNK_SIZE);
+    }
+
+    PipelinedInputStream(@Nonnull InputStream upstream, @Nonnull Executor executor, int chunkSize) {
+        this.upstream = upstream;
+        this.executor = executor;
+        this.freeChunks = new ArrayBlockingQueue<>(RING_SIZE);
+        this.filledChunks = new ArrayBlockingQueue<>(RING_SIZE + 1);
+        for (int i = 0; i < RING_SIZE; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = currentChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        int b = chunk.buffer[position++] & 0xff;
+        releaseIfConsumed();
+        return b;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        Chunk chunk = currentChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.buffer, position, b, off, n);
+        position += n;
+        releaseIfConsumed();
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    /**
+     * Stop the worker and wait until it released the upstream stream.
+     * Chunks which were read ahead are discarded.
+     *
+     * @throws IOException if the calling thread got interrupted while waiting for the worker
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!started) {
+            return;
+        }
+        if (current != null) {
+            freeChunks.add(current);
+            current = null;
+        }
+        try {
+            // Hand all chunks back until the worker noticed the closing, so that it never waits for a free chunk
+            boolean workerDone = endOfStream;
+            while (!workerDone) {
+                Chunk chunk = filledChunks.take();
+                if (chunk == END) {
+                    workerDone = true;
+                } else {
+                    freeChunks.add(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the decryption pipeline to stop.");
+        }
+    }
+
+    private Chunk currentChunk() throws IOException {
+        if (current != null) {
+            return current;
+        }
+        if (endOfStream) {
+            throwIfFailed();
+            return null;
+        }
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        startIfNeeded();
+        Chunk chunk;
+        try {
+            chunk = filledChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data from the decryption pipeline.");
+        }
+        if (chunk == END) {
+            endOfStream = true;
+            throwIfFailed();
+            return null;
+        }
+        current = chunk;
+        position = 0;
+        return current;
+    }
+
+    private void releaseIfConsumed() {
+        if (position == current.length) {
+            freeChunks.add(current);
+            current = null;
+        }
+    }
+
+    private void startIfNeeded() throws IOException {
+        if (started) {
+            return;
+        }
+        started = true;
+        try {
+            executor.execute(new Worker());
+        } catch (RejectedExecutionException e) {
+            endOfStream = true;
+            failure = e;
+            throw new IOException("Cannot start decryption pipeline stage.", e);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException("Exception in decryption pipeline stage.", failure);
+    }
+
+    /**
+     * Reusable buffer, which is either owned by the worker, queued for the reading thread, or being read.
+     */
+    private static final class Chunk {
+        private final byte[] buffer;
+        private int length;
+
+        private Chunk(int size) {
+            this.buffer = new byte[size];
+        }
+    }
+
+    /**
+     * Worker which reads the upstream data into free chunks until the end of the stream is reached.
+     */
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                boolean endOfUpstream = false;
+                while (!endOfUpstream) {
+                    Chunk chunk = freeChunks.take();
+                    if (closed) {
+                        break;
+                    }
+                    endOfUpstream = fill(chunk);
+                    if (chunk.length != 0) {
+                        filledChunks.add(chunk);
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException("Decryption pipeline stage got interrupted.");
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                filledChunks.add(END);
+            }
+        }
+
+        private boolean fill(Chunk chunk) throws IOException {
+            chunk.length = 0;
+            while (chunk.length < chunk.buffer.length) {
+                int read = upstream.read(chunk.buffer, chunk.length, chunk.buffer.length - chunk.length);
+                if (read == -1) {
+                    return true;
+                }
+                chunk.length += read;
+            }
+            return false;
+        }
+    }
+}
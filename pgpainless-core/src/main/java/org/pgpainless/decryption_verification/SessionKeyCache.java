@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.openpgp.PGPKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.encoders.Hex;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.util.SessionKey;
+
+/**
+ * Bounded cache of session keys recovered from public-key encrypted session key packets (PKESKs).
+ *
+ * Entries are keyed by a SHA-256 digest of the contents of the PKESK (recipient key-id, public key algorithm and
+ * encrypted session key). When a message whose PKESK was decrypted before is decrypted again, the session key is
+ * taken from the cache, which skips both unlocking the secret key and the public-key decryption operation.
+ * The cache is only consulted if the key which originally decrypted the PKESK is still among the decryption keys
+ * of the {@link ConsumerOptions}.
+ *
+ * Entries expire after a fixed time to live. If the cache is full, the least recently used entry is evicted.
+ * The cache is thread-safe and can be shared between multiple {@link ConsumerOptions}.
+ */
+public class SessionKeyCache {
+
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final Map<String, CachedSessionKey> entries;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Create a new {@link SessionKeyCache}.
+     *
+     * @param maxSize maximum number of cached session keys
+     * @param timeToLive time after which a cached session key expires
+     * @param unit unit of the time to live
+     */
+    public SessionKeyCache(int maxSize, long timeToLive, @Nonnull TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size MUST be positive.");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live MUST be positive.");
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.entries = new LinkedHashMap<String, CachedSessionKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSessionKey> eldest) {
+                return size() > SessionKeyCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the number of lookups that were answered from the cache.
+     *
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of lookups that could not be answered from the cache.
+     *
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the number of cached session keys, including entries which expired but were not yet evicted.
+     *
+     * @return size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all session keys which were recovered using any key of the given key ring.
+     * This should be called if the key ring (or one of its subkeys) got revoked.
+     *
+     * @param keyRing key ring
+     */
+    public synchronized void invalidate(@Nonnull PGPKeyRing keyRing) {
+        Iterator<CachedSessionKey> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            SubkeyIdentifier decryptionKey = iterator.next().decryptionKey;
+            if (keyRing.getPublicKey(decryptionKey.getSubkeyId()) != null
+                    || keyRing.getPublicKey(decryptionKey.getPrimaryKeyId()) != null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all session keys from the cache.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Return the cache entry for the given PKESK digest, or null if there is no entry or the entry expired.
+     *
+     * @param digest digest of the PKESK as returned by {@link #digest(SessionKeyRecovery.EncryptedSessionKey)}
+     * @return entry or null
+     */
+    synchronized CachedSessionKey get(byte[] digest) {
+        String key = Hex.toHexString(digest);
+        CachedSessionKey entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.creationTime > timeToLiveNanos) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the session key recovered from the PKESK with the given digest.
+     *
+     * @param digest digest of the PKESK as returned by {@link #digest(SessionKeyRecovery.EncryptedSessionKey)}
+     * @param sessionKey recovered session key
+     * @param decryptionKey key which was used to decrypt the PKESK
+     */
+    synchronized void put(byte[] digest, SessionKey sessionKey, SubkeyIdentifier decryptionKey) {
+        entries.put(Hex.toHexString(digest), new CachedSessionKey(sessionKey, decryptionKey, System.nanoTime()));
+    }
+
+    /**
+     * Calculate the digest of the contents of a PKESK.
+     *
+     * @param encryptedSessionKey public-key encrypted session key
+     * @return digest
+     */
+    static byte[] digest(SessionKeyRecovery.EncryptedSessionKey encryptedSessionKey) {
+        Digest digest = new SHA256Digest();
+        long keyId = encryptedSessionKey.getKeyId();
+        for (int i = 56; i >= 0; i -= 8) {
+            digest.update((byte) (keyId >> i));
+        }
+        digest.update((byte) encryptedSessionKey.getAlgorithm());
+        for (byte[] part : encryptedSessionKey.getEncSessionKey()) {
+            digest.update((byte) (part.length >> 8));
+            digest.update((byte) part.length);
+            digest.update(part, 0, part.length);
+        }
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    /**
+     * Cached session key along with the key which was used to recover it.
+     */
+    static final class CachedSessionKey {
+
+        private final SessionKey sessionKey;
+        private final SubkeyIdentifier decryptionKey;
+        private final long creationTime;
+
+        private CachedSessionKey(SessionKey sessionKey, SubkeyIdentifier decryptionKey, long creationTime) {
+            this.sessionKey = sessionKey;
+            this.decryptionKey = decryptionKey;
+            this.creationTime = creationTime;
+        }
+
+        SessionKey getSessionKey() {
+            return sessionKey;
+        }
+
+        SubkeyIdentifier getDecryptionKey() {
+            return decryptionKey;
+        }
+
+        /**
+         * Return true if the session key was recovered using a subkey of the given secret key ring.
+         * The full fingerprints of primary key and subkey are compared, so that a different key whose subkey
+         * merely shares the key-id of the decryption key cannot make use of the cached session key.
+         *
+         * @param secretKeys secret key ring or null
+         * @return true if the decryption key belongs to the given key ring
+         */
+        boolean wasRecoveredWith(@Nullable PGPSecretKeyRing secretKeys) {
+            if (secretKeys == null || secretKeys.getPublicKey(decryptionKey.getSubkeyId()) == null) {
+                return false;
+            }
+            return decryptionKey.equals(new SubkeyIdentifier(secretKeys, decryptionKey.getSubkeyId()));
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PBEDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
+
+/**
+ * Decryptor factory which decrypts the encrypted data directly using a known {@link SessionKey}.
+ * The public-key or symmetric-key encrypted session key packet, as well as any S2K calculation, is ignored.
+ *
+ * Session keys are recovered from public-key encrypted session keys by {@link SessionKeyRecovery} and from
+ * passphrase encrypted session keys by {@link PassphraseTrialDecryption}.
+ */
+final class SessionKeyDataDecryptorFactory extends PBEDataDecryptorFactory implements PublicKeyDataDecryptorFactory {
+
+    private final SessionKey sessionKey;
+
+    private SessionKeyDataDecryptorFactory(SessionKey sessionKey) {
+        super(null, null);
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Create a factory which decrypts any encrypted data using the given session key.
+     *
+     * @param sessionKey session key
+     * @return factory
+     */
+    static SessionKeyDataDecryptorFactory withSessionKey(SessionKey sessionKey) {
+        return new SessionKeyDataDecryptorFactory(sessionKey);
+    }
+
+    @Override
+    public byte[] makeKeyFromPassPhrase(int keyAlgorithm, S2K s2k) {
+        return sessionKey.getKey();
+    }
+
+    @Override
+    public byte[] recoverSessionData(int keyAlgorithm, byte[] key, byte[] secKeyData) {
+        // algorithm, session key
+        byte[] sessionData = new byte[key.length + 1];
+        sessionData[0] = (byte) sessionKey.getAlgorithm().getAlgorithmId();
+        System.arraycopy(key, 0, sessionData, 1, key.length);
+        return sessionData;
+    }
+
+    @Override
+    public byte[] recoverSessionData(int keyAlgorithm, byte[][] secKeyData) {
+        return encodeWithChecksum(sessionKey);
+    }
+
+    @Override
+    public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key)
+            throws PGPException {
+        return ImplementationFactory.getInstance().getPBEDataDecryptorFactory(Passphrase.emptyPassphrase())
+                .createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+    }
+
+    private static byte[] encodeWithChecksum(SessionKey sessionKey) {
+        byte[] key = sessionKey.getKey();
+        // algorithm, session key, two octet checksum
+        byte[] sessionData = new byte[key.length + 3];
+        sessionData[0] = (byte) sessionKey.getAlgorithm().getAlgorithmId();
+        System.arraycopy(key, 0, sessionData, 1, key.length);
+        int checksum = 0;
+        for (byte b : key) {
+            checksum += b & 0xff;
+        }
+        sessionData[sessionData.length - 2] = (byte) (checksum >> 8);
+        sessionData[sessionData.length - 1] = (byte) checksum;
+        return sessionData;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.bouncycastle.util.Arrays;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.protection.UnlockSecretKey;
+import org.pgpainless.util.SessionKey;
+
+/**
+ * Recovery of the session key from public-key encrypted session keys (PKESKs) using the decryption keys.
+ * This is shared by the {@link DecryptionStreamFactory} and the {@link MessageDecoder}.
+ *
+ * Session keys are taken from the {@link SessionKeyCache} if possible. Otherwise the secret key of the recipient
+ * is unlocked, or all decryption keys are tried in case of a hidden recipient (see {@link TrialDecryption}).
+ * The key which recovered the session key is recorded in the metadata and in the {@link SessionKeyCache}.
+ */
+final class SessionKeyRecovery {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionKeyRecovery.class.getName());
+    private static final Level LEVEL = Level.FINE;
+
+    private final ConsumerOptions options;
+    private final OpenPgpMetadata.Builder resultBuilder;
+
+    SessionKeyRecovery(ConsumerOptions options, OpenPgpMetadata.Builder resultBuilder) {
+        this.options = options;
+        this.resultBuilder = resultBuilder;
+    }
+
+    /**
+     * Contents of a public-key encrypted session key packet.
+     */
+    static final class EncryptedSessionKey {
+
+        private final long keyId;
+        private final int algorithm;
+        private final byte[][] encSessionKey;
+
+        private EncryptedSessionKey(long keyId, int algorithm, byte[][] encSessionKey) {
+            this.keyId = keyId;
+            this.algorithm = algorithm;
+            this.encSessionKey = encSessionKey;
+        }
+
+        static EncryptedSessionKey of(PublicKeyEncSessionPacket packet) {
+            return new EncryptedSessionKey(packet.getKeyID(), packet.getAlgorithm(), packet.getEncSessionKey());
+        }
+
+        /**
+         * Extract the PKESK from the given encrypted data.
+         * BouncyCastle does not expose the packet, so it is captured from the arguments passed to a decryptor factory.
+         *
+         * @param encryptedData public-key encrypted data
+         * @return encrypted session key
+         */
+        static EncryptedSessionKey of(PGPPublicKeyEncryptedData encryptedData) throws PGPException {
+            PublicKeyEncSessionPacketCapture capture = new PublicKeyEncSessionPacketCapture();
+            encryptedData.getSymmetricAlgorithm(capture);
+            return new EncryptedSessionKey(encryptedData.getKeyID(), capture.algorithm, capture.encSessionKey);
+        }
+
+        long getKeyId() {
+            return keyId;
+        }
+
+        int getAlgorithm() {
+            return algorithm;
+        }
+
+        byte[][] getEncSessionKey() {
+            return encSessionKey;
+        }
+    }
+
+    /**
+     * Return the first session key of the given PKESKs which is found in the {@link SessionKeyCache}.
+     * Cached session keys are only used if the key which originally recovered the session key is still
+     * available for decryption.
+     *
+     * @param encryptedSessionKeys public-key encrypted session keys
+     * @return session key or null if no matching session key is cached
+     */
+    SessionKey recoverFromCache(List<EncryptedSessionKey> encryptedSessionKeys) {
+        SessionKeyCache sessionKeyCache = options.getSessionKeyCache();
+        if (sessionKeyCache == null) {
+            return null;
+        }
+        for (EncryptedSessionKey encryptedSessionKey : encryptedSessionKeys) {
+            SessionKeyCache.CachedSessionKey entry = sessionKeyCache.get(SessionKeyCache.digest(encryptedSessionKey));
+            if (entry == null || !entry.wasRecoveredWith(findDecryptionKeyRing(entry.getDecryptionKey().getSubkeyId()))) {
+                continue;
+            }
+
+            long keyId = encryptedSessionKey.getKeyId();
+            LOGGER.log(LEVEL, "Found cached session key for PGPEncryptedData encrypted for key " + Long.toHexString(keyId));
+            if (keyId != 0) {
+                resultBuilder.addRecipientKeyId(keyId);
+            }
+            resultBuilder.setDecryptionKey(entry.getDecryptionKey());
+            return entry.getSessionKey();
+        }
+        return null;
+    }
+
+    /**
+     * Recover the session key from the first of the given PKESKs that one of the decryption keys can decrypt.
+     * The key-ids of all recipients are recorded in the metadata.
+     *
+     * @param encryptedSessionKeys public-key encrypted session keys
+     * @return session key or null if none of the decryption keys matches
+     * @throws PGPException if the secret key of a recipient cannot be unlocked or fails to decrypt its PKESK
+     */
+    SessionKey recoverWithDecryptionKeys(List<EncryptedSessionKey> encryptedSessionKeys) throws PGPException {
+        if (options.getDecryptionKeys().isEmpty()) {
+            return null;
+        }
+        SessionKey sessionKey = null;
+        for (EncryptedSessionKey encryptedSessionKey : encryptedSessionKeys) {
+            long keyId = encryptedSessionKey.getKeyId();
+            if (keyId != 0) {
+                LOGGER.log(LEVEL, "PGPEncryptedData is encrypted for key " + Long.toHexString(keyId));
+                resultBuilder.addRecipientKeyId(keyId);
+            }
+            if (sessionKey == null) {
+                sessionKey = keyId != 0 ? recoverWithRecipientKey(encryptedSessionKey)
+                        : recoverWithAnyKey(encryptedSessionKey);
+            }
+        }
+        return sessionKey;
+    }
+
+    private SessionKey recoverWithRecipientKey(EncryptedSessionKey encryptedSessionKey) throws PGPException {
+        long keyId = encryptedSessionKey.getKeyId();
+        PGPSecretKeyRing decryptionKeyRing = findDecryptionKeyRing(keyId);
+        if (decryptionKeyRing == null) {
+            return null;
+        }
+        PGPSecretKey secretKey = decryptionKeyRing.getSecretKey(keyId);
+        LOGGER.log(LEVEL, "Found respective secret key " + Long.toHexString(keyId));
+        PGPPrivateKey privateKey = UnlockSecretKey.unlockSecretKey(secretKey, options.getSecretKeyProtector(decryptionKeyRing));
+        SessionKey sessionKey = recoverSessionKey(encryptedSessionKey, privateKey);
+        if (sessionKey == null) {
+            throw new PGPException("Session key checksum mismatch.");
+        }
+        recovered(encryptedSessionKey, sessionKey, new SubkeyIdentifier(decryptionKeyRing, keyId));
+        return sessionKey;
+    }
+
+    private SessionKey recoverWithAnyKey(final EncryptedSessionKey encryptedSessionKey) throws PGPException {
+        LOGGER.log(LEVEL, "Hidden recipient detected. Try to decrypt with all available secret keys.");
+        TrialDecryption.Result<SessionKey> result = TrialDecryption.findFirst(options.getTrialDecryptionCandidates(),
+                options.getHiddenRecipientExecutor(), new TrialDecryption.Attempt<SessionKey>() {
+                    @Override
+                    public SessionKey tryDecrypt(PGPPrivateKey privateKey) {
+                        return recoverSessionKey(encryptedSessionKey, privateKey);
+                    }
+                });
+        if (result == null) {
+            return null;
+        }
+        LOGGER.log(LEVEL, "Found correct key " + Long.toHexString(result.getDecryptionKey().getSubkeyId()) + " for hidden recipient decryption.");
+        recovered(encryptedSessionKey, result.getValue(), result.getDecryptionKey());
+        return result.getValue();
+    }
+
+    private void recovered(EncryptedSessionKey encryptedSessionKey, SessionKey sessionKey, SubkeyIdentifier decryptionKey) {
+        resultBuilder.setDecryptionKey(decryptionKey);
+        SessionKeyCache sessionKeyCache = options.getSessionKeyCache();
+        if (sessionKeyCache != null) {
+            sessionKeyCache.put(SessionKeyCache.digest(encryptedSessionKey), sessionKey, decryptionKey);
+        }
+    }
+
+    private PGPSecretKeyRing findDecryptionKeyRing(long keyId) {
+        PGPSecretKeyRing decryptionKeyRing = options.getDecryptionKey(keyId);
+        if (decryptionKeyRing == null || decryptionKeyRing.getSecretKey(keyId) == null) {
+            return null;
+        }
+        return decryptionKeyRing;
+    }
+
+    /**
+     * Decrypt the PKESK using the given private key.
+     *
+     * @param encryptedSessionKey public-key encrypted session key
+     * @param privateKey private key
+     * @return session key or null if the key does not match
+     */
+    private static SessionKey recoverSessionKey(EncryptedSessionKey encryptedSessionKey, PGPPrivateKey privateKey) {
+        PublicKeyDataDecryptorFactory decryptorFactory = ImplementationFactory.getInstance()
+                .getPublicKeyDataDecryptorFactory(privateKey);
+        byte[] sessionData;
+        try {
+            sessionData = decryptorFactory.recoverSessionData(encryptedSessionKey.getAlgorithm(),
+                    encryptedSessionKey.getEncSessionKey());
+        } catch (PGPException | RuntimeException e) {
+            LOGGER.log(LEVEL, "Skipping wrong key " + Long.toHexString(privateKey.getKeyID()) + " for decryption.", e);
+            return null;
+        }
+        // algorithm, session key, two octet checksum
+        if (sessionData.length < 4) {
+            return null;
+        }
+        int checksum = 0;
+        for (int i = 1; i < sessionData.length - 2; i++) {
+            checksum += sessionData[i] & 0xff;
+        }
+        if (sessionData[sessionData.length - 2] != (byte) (checksum >> 8)
+                || sessionData[sessionData.length - 1] != (byte) checksum) {
+            return null;
+        }
+        SymmetricKeyAlgorithm algorithm = SymmetricKeyAlgorithm.fromId(sessionData[0] & 0xff);
+        if (algorithm == null) {
+            return null;
+        }
+        return new SessionKey(algorithm, Arrays.copyOfRange(sessionData, 1, sessionData.length - 2));
+    }
+
+    /**
+     * Decryptor factory which records the encrypted session key instead of decrypting it.
+     */
+    private static final class PublicKeyEncSessionPacketCapture implements PublicKeyDataDecryptorFactory {
+
+        private int algorithm;
+        private byte[][] encSessionKey;
+
+        @Override
+        public byte[] recoverSessionData(int keyAlgorithm, byte[][] secKeyData) {
+            this.algorithm = keyAlgorithm;
+            this.encSessionKey = secKeyData;
+            return new byte[1];
+        }
+
+        @Override
+        public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key)
+                throws PGPException {
+            throw new PGPException("Capturing the encrypted session key does not allow decryption.");
+        }
+    }
+}
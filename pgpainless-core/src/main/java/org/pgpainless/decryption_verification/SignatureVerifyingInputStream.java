@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.SignatureException;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,6 +39,7 @@ import org.pgpainless.key.OpenPgpV4Fingerprint;
 import org.pgpainless.policy.Policy;
 import org.pgpainless.signature.OnePassSignature;
 import org.pgpainless.signature.SignatureChainValidator;
+import org.pgpainless.signature.SignatureHashingEngine;
 import org.pgpainless.exception.SignatureValidationException;
 
 public class SignatureVerifyingInputStream extends FilterInputStream {
@@ -47,32 +49,32 @@ public class SignatureVerifyingInputStream extends FilterInputStream {
 
     private final PGPObjectFactory objectFactory;
     private final Map<OpenPgpV4Fingerprint, OnePassSignature> onePassSignatures;
+    private final SignatureHashingEngine signatureHashingEngine;
     private final OpenPgpMetadata.Builder resultBuilder;
 
+    private Map<Long, OpenPgpV4Fingerprint> fingerprintsByKeyId;
     private boolean validated = false;
 
     protected SignatureVerifyingInputStream(@Nonnull InputStream inputStream,
                                             @Nonnull PGPObjectFactory objectFactory,
                                             @Nonnull Map<OpenPgpV4Fingerprint, OnePassSignature> onePassSignatures,
+                                            @Nonnull SignatureHashingEngine signatureHashingEngine,
                                             @Nonnull OpenPgpMetadata.Builder resultBuilder) {
         super(inputStream);
         this.objectFactory = objectFactory;
         this.resultBuilder = resultBuilder;
         this.onePassSignatures = onePassSignatures;
+        this.signatureHashingEngine = signatureHashingEngine;
 
         LOGGER.log(LEVEL, "Begin verifying OnePassSignatures");
     }
 
     private void updateOnePassSignatures(byte data) {
-        for (OnePassSignature signature : onePassSignatures.values()) {
-            signature.getOnePassSignature().update(data);
-        }
+        signatureHashingEngine.update(data);
     }
 
     private void updateOnePassSignatures(byte[] b, int off, int len) {
-        for (OnePassSignature signature : onePassSignatures.values()) {
-            signature.getOnePassSignature().update(b, off, len);
-        }
+        signatureHashingEngine.update(b, off, len);
     }
 
     private void validateOnePassSignaturesIfNeeded() throws IOException {
@@ -110,7 +112,7 @@ public class SignatureVerifyingInputStream extends FilterInputStream {
         }
     }
 
-    private void verifySignatureOrThrowSignatureException(PGPSignature signature, OnePassSignature onePassSignature)
+    static void verifySignatureOrThrowSignatureException(PGPSignature signature, OnePassSignature onePassSignature)
             throws PGPException, SignatureException {
         Policy policy = PGPainless.getPolicy();
         try {
@@ -156,14 +158,15 @@ public class SignatureVerifyingInputStream extends FilterInputStream {
     }
 
     private OpenPgpV4Fingerprint findFingerprintForSignature(PGPSignature signature) {
-        OpenPgpV4Fingerprint fingerprint = null;
-        for (OpenPgpV4Fingerprint f : onePassSignatures.keySet()) {
-            if (f.getKeyId() == signature.getKeyID()) {
-                fingerprint = f;
-                break;
+        if (fingerprintsByKeyId == null) {
+            fingerprintsByKeyId = new HashMap<>();
+            for (OpenPgpV4Fingerprint fingerprint : onePassSignatures.keySet()) {
+                if (!fingerprintsByKeyId.containsKey(fingerprint.getKeyId())) {
+                    fingerprintsByKeyId.put(fingerprint.getKeyId(), fingerprint);
+                }
             }
         }
-        return fingerprint;
+        return fingerprintsByKeyId.get(signature.getKeyID());
     }
 
     @Override
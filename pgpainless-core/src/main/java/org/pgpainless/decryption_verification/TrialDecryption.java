@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.pgpainless.algorithm.EncryptionPurpose;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.info.KeyRingInfo;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.protection.UnlockSecretKey;
+
+/**
+ * Trial decryption of public-key encrypted session keys for hidden recipients (wildcard key-id).
+ * Since the recipient is unknown, every encryption subkey of every decryption key needs to be tried.
+ *
+ * If an {@link Executor} is given, the attempts are run concurrently and the remaining attempts are cancelled
+ * as soon as one of them succeeds.
+ */
+final class TrialDecryption {
+
+    private TrialDecryption() {
+
+    }
+
+    /**
+     * Decryption attempt using a single key.
+     *
+     * @param <T> result type
+     */
+    interface Attempt<T> {
+
+        /**
+         * Try to decrypt using the given private key.
+         *
+         * @param privateKey private key
+         * @return result or null if the key does not match
+         */
+        T tryDecrypt(PGPPrivateKey privateKey);
+    }
+
+    /**
+     * Successful decryption attempt.
+     *
+     * @param <T> result type
+     */
+    static final class Result<T> {
+
+        private final Candidate candidate;
+        private final PGPPrivateKey privateKey;
+        private final T value;
+
+        private Result(Candidate candidate, PGPPrivateKey privateKey, T value) {
+            this.candidate = candidate;
+            this.privateKey = privateKey;
+            this.value = value;
+        }
+
+        SubkeyIdentifier getDecryptionKey() {
+            return candidate.getIdentifier();
+        }
+
+        PGPPrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        T getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Encryption subkey which might be the hidden recipient.
+     * Once unlocked, the private key is retained, so that subsequent messages do not need to unlock it again.
+     */
+    static final class Candidate {
+
+        private final PGPSecretKey secretKey;
+        private final SecretKeyRingProtector protector;
+        private final SubkeyIdentifier identifier;
+        private PGPPrivateKey privateKey;
+
+        private Candidate(PGPSecretKeyRing keyRing, PGPSecretKey secretKey, SecretKeyRingProtector protector) {
+            this.secretKey = secretKey;
+            this.protector = protector;
+            this.identifier = new SubkeyIdentifier(keyRing, secretKey.getKeyID());
+        }
+
+        SubkeyIdentifier getIdentifier() {
+            return identifier;
+        }
+
+        synchronized PGPPrivateKey unlock() throws PGPException {
+            if (privateKey == null) {
+                privateKey = UnlockSecretKey.unlockSecretKey(secretKey, protector);
+            }
+            return privateKey;
+        }
+    }
+
+    /**
+     * Collect the encryption subkeys of all decryption keys of the given options.
+     *
+     * @param options consumer options
+     * @return candidates for trial decryption
+     */
+    static List<Candidate> collectCandidates(ConsumerOptions options) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (PGPSecretKeyRing ring : options.getDecryptionKeys()) {
+            KeyRingInfo info = new KeyRingInfo(ring);
+            for (PGPPublicKey publicKey : info.getEncryptionSubkeys(EncryptionPurpose.STORAGE_AND_COMMUNICATIONS)) {
+                PGPSecretKey secretKey = ring.getSecretKey(publicKey.getKeyID());
+                if (secretKey == null) {
+                    continue;
+                }
+                candidates.add(new Candidate(ring, secretKey, options.getSecretKeyProtector(ring)));
+            }
+        }
+        return Collections.unmodifiableList(candidates);
+    }
+
+    /**
+     * Try the given candidates until the first attempt succeeds.
+     * If no attempt succeeds and a key could not be unlocked, the unlocking failure is thrown.
+     *
+     * @param candidates candidates
+     * @param executor executor to run the attempts concurrently, or null to try the candidates one after another
+     * @param attempt decryption attempt
+     * @param <T> result type
+     * @return result of the first successful attempt or null
+     * @throws PGPException if no attempt succeeded and a key could not be unlocked
+     */
+    static <T> Result<T> findFirst(List<Candidate> candidates, Executor executor, Attempt<T> attempt)
+            throws PGPException {
+        if (executor == null || candidates.size() < 2) {
+            PGPException failure = null;
+            for (Candidate candidate : candidates) {
+                try {
+                    Result<T> result = tryCandidate(candidate, attempt);
+                    if (result != null) {
+                        return result;
+                    }
+                } catch (PGPException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return findFirstConcurrently(candidates, executor, attempt);
+    }
+
+    private static <T> Result<T> findFirstConcurrently(List<Candidate> candidates, Executor executor, final Attempt<T> attempt)
+            throws PGPException {
+        final AtomicBoolean found = new AtomicBoolean(false);
+        ExecutorCompletionService<Result<T>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Result<T>>> futures = new ArrayList<>(candidates.size());
+        for (final Candidate candidate : candidates) {
+            futures.add(completionService.submit(new Callable<Result<T>>() {
+                @Override
+                public Result<T> call() throws PGPException {
+                    if (found.get()) {
+                        return null;
+                    }
+                    Result<T> result = tryCandidate(candidate, attempt);
+                    if (result != null) {
+                        found.set(true);
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        PGPException failure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Result<T>> future;
+                try {
+                    future = completionService.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PGPException("Interrupted during trial decryption.", e);
+                }
+                try {
+                    Result<T> result = future.get();
+                    if (result != null) {
+                        return result;
+                    }
+                } catch (CancellationException e) {
+                    // Cannot happen before a result is found
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PGPException("Interrupted during trial decryption.", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof PGPException) {
+                        if (failure == null) {
+                            failure = (PGPException) cause;
+                        }
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw (Error) cause;
+                    }
+                }
+            }
+        } finally {
+            found.set(true);
+            for (Future<Result<T>> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    private static <T> Result<T> tryCandidate(Candidate candidate, Attempt<T> attempt) throws PGPException {
+        PGPPrivateKey privateKey = candidate.unlock();
+        T value = attempt.tryDecrypt(privateKey);
+        if (value == null) {
+            return null;
+        }
+        return new Result<>(candidate, privateKey, value);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.util.zip.Deflater;
+
+/**
+ * Heuristic which decides whether data is worth compressing, based on a sample of its beginning.
+ *
+ * Data is considered incompressible if it starts with the signature of a format that is already compressed
+ * (e.g. images or archives), or if a fast deflate run over the sample does not save at least
+ * {@link #MIN_SAVINGS_PERCENT} percent.
+ */
+final class CompressionProbe {
+
+    static final int MIN_SAVINGS_PERCENT = 10;
+
+    private static final int[][] COMPRESSED_FORMAT_SIGNATURES = new int[][] {
+            {0xff, 0xd8, 0xff},                         // JPEG
+            {0x89, 'P', 'N', 'G'},                      // PNG
+            {'G', 'I', 'F', '8'},                       // GIF
+            {'P', 'K', 0x03, 0x04},                     // ZIP, JAR, OOXML, ODF, APK
+            {0x1f, 0x8b},                               // GZIP
+            {'B', 'Z', 'h'},                            // BZIP2
+            {0xfd, '7', 'z', 'X', 'Z', 0x00},           // XZ
+            {'7', 'z', 0xbc, 0xaf, 0x27, 0x1c},         // 7-Zip
+            {0x28, 0xb5, 0x2f, 0xfd},                   // Zstandard
+            {'R', 'a', 'r', '!'}                        // RAR
+    };
+
+    private CompressionProbe() {
+
+    }
+
+    /**
+     * Return true, if the data starting with the given sample is not worth compressing.
+     *
+     * @param sample buffer containing the sample
+     * @param length length of the sample
+     * @return true if the data is incompressible
+     */
+    static boolean isIncompressible(byte[] sample, int length) {
+        if (length == 0) {
+            return false;
+        }
+        return hasCompressedFormatSignature(sample, length) || !deflateSavesEnough(sample, length);
+    }
+
+    private static boolean hasCompressedFormatSignature(byte[] sample, int length) {
+        for (int[] signature : COMPRESSED_FORMAT_SIGNATURES) {
+            if (startsWith(sample, length, 0, signature)) {
+                return true;
+            }
+        }
+        // ISO base media files (MP4, MOV, HEIF, ...) start with the length of the ftyp box
+        if (startsWith(sample, length, 4, new int[] {'f', 't', 'y', 'p'})) {
+            return true;
+        }
+        // WebP
+        if (startsWith(sample, length, 0, new int[] {'R', 'I', 'F', 'F'})
+                && startsWith(sample, length, 8, new int[] {'W', 'E', 'B', 'P'})) {
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] sample, int length, int offset, int[] signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((sample[offset + i] & 0xff) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean deflateSavesEnough(byte[] sample, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] scratch = new byte[Math.min(length, 1 << 13) + 64];
+            long limit = (long) length * (100 - MIN_SAVINGS_PERCENT) / 100;
+            while (!deflater.finished()) {
+                deflater.deflate(scratch);
+                if (deflater.getTotalOut() > limit) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+}
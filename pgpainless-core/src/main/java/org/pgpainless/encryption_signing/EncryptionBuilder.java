@@ -15,22 +15,46 @@
  */
 package org.pgpainless.encryption_signing;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.util.Strings;
 import org.pgpainless.PGPainless;
 import org.pgpainless.algorithm.CompressionAlgorithm;
 import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
 import org.pgpainless.algorithm.negotiation.SymmetricKeyAlgorithmNegotiator;
+import org.pgpainless.implementation.ImplementationFactory;
 import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.info.KeyRingInfo;
+import org.pgpainless.util.ByteBufferOutputStream;
 
 public class EncryptionBuilder implements EncryptionBuilderInterface {
 
+    // Generous upper bounds for the size of packets, whose exact size depends on keys and algorithms
+    private static final long MAX_SIGNATURE_OVERHEAD = 512;
+    private static final long MAX_ONE_PASS_SIGNATURE_SIZE = 16;
+    private static final long MAX_PKESK_OVERHEAD = 96;
+    private static final long MAX_SKESK_SIZE = 64;
+    private static final long MAX_PUBLIC_KEY_BITS = 16384;
+    private static final long MAX_ARMOR_OVERHEAD = 512;
+
     private OutputStream outputStream;
 
     @Override
@@ -49,6 +73,244 @@ public class EncryptionBuilder implements EncryptionBuilderInterface {
         }
     }
 
+    @Override
+    public WithProcessorOptions asProcessor(@Nonnull final Executor executor) {
+        return new WithProcessorOptions() {
+            @Override
+            public EncryptionProcessor withOptions(ProducerOptions options) throws PGPException, IOException {
+                if (options == null) {
+                    throw new NullPointerException("ProducerOptions cannot be null.");
+                }
+                return new EncryptionProcessor(options, executor);
+            }
+        };
+    }
+
+    @Override
+    public ToByteBuffer onByteBuffer(@Nonnull final ByteBuffer plaintext) {
+        return new ToByteBuffer() {
+            @Override
+            public WithByteBufferOptions toByteBuffer(@Nonnull ByteBuffer ciphertext) {
+                return new WithByteBufferOptionsImpl(plaintext, ciphertext);
+            }
+
+            @Override
+            public long getMaximumOutputSize(ProducerOptions options) {
+                return EncryptionBuilder.getMaximumOutputSize(options, plaintext.remaining());
+            }
+        };
+    }
+
+    static class WithByteBufferOptionsImpl implements WithByteBufferOptions {
+
+        private final ByteBuffer plaintext;
+        private final ByteBuffer ciphertext;
+
+        WithByteBufferOptionsImpl(ByteBuffer plaintext, ByteBuffer ciphertext) {
+            this.plaintext = plaintext;
+            this.ciphertext = ciphertext;
+        }
+
+        @Override
+        public EncryptionResult withOptions(ProducerOptions options) throws PGPException, IOException {
+            if (options == null) {
+                throw new NullPointerException("ProducerOptions cannot be null.");
+            }
+            if (!options.hasKnownLength()) {
+                // Do not modify the caller's options, so that they can be reused for buffers of different size
+                options = options.copy().setKnownLength(plaintext.remaining());
+            }
+
+            int plaintextPosition = plaintext.position();
+            int ciphertextPosition = ciphertext.position();
+            boolean success = false;
+            try {
+                EncryptionStream encryptionStream = new EncryptionStream(new ByteBufferOutputStream(ciphertext), options);
+                if (plaintext.hasArray()) {
+                    encryptionStream.write(plaintext.array(), plaintext.arrayOffset() + plaintext.position(), plaintext.remaining());
+                    plaintext.position(plaintext.limit());
+                } else {
+                    // BouncyCastle consumes byte arrays, so direct buffers are copied chunk-wise
+                    byte[] chunk = new byte[Math.min(options.getBufferSize(), plaintext.remaining())];
+                    while (plaintext.hasRemaining()) {
+                        int n = Math.min(chunk.length, plaintext.remaining());
+                        plaintext.get(chunk, 0, n);
+                        encryptionStream.write(chunk, 0, n);
+                    }
+                }
+                encryptionStream.close();
+                success = true;
+                return encryptionStream.getResult();
+            } finally {
+                if (!success) {
+                    plaintext.position(plaintextPosition);
+                    ciphertext.position(ciphertextPosition);
+                }
+            }
+        }
+    }
+
+    @Override
+    public ToFile onFile(@Nonnull final File plaintextFile) {
+        return new ToFile() {
+            @Override
+            public WithFileOptions toFile(@Nonnull File ciphertextFile) {
+                return new WithFileOptionsImpl(plaintextFile, ciphertextFile);
+            }
+        };
+    }
+
+    static class WithFileOptionsImpl implements WithFileOptions {
+
+        private final File plaintextFile;
+        private final File ciphertextFile;
+
+        WithFileOptionsImpl(File plaintextFile, File ciphertextFile) {
+            this.plaintextFile = plaintextFile;
+            this.ciphertextFile = ciphertextFile;
+        }
+
+        @Override
+        public EncryptionResult withOptions(ProducerOptions options) throws PGPException, IOException {
+            if (options == null) {
+                throw new NullPointerException("ProducerOptions cannot be null.");
+            }
+
+            FileInputStream fileIn = new FileInputStream(plaintextFile);
+            try {
+                FileChannel inputChannel = fileIn.getChannel();
+                return encrypt(inputChannel, withFileMetadata(options, plaintextFile, inputChannel.size()));
+            } finally {
+                fileIn.close();
+            }
+        }
+
+        private EncryptionResult encrypt(FileChannel inputChannel, ProducerOptions options)
+                throws PGPException, IOException {
+            boolean success = false;
+            FileOutputStream fileOut = new FileOutputStream(ciphertextFile);
+            try {
+                BufferedOutputStream bufferedOut = new BufferedOutputStream(fileOut, options.getBufferSize());
+                EncryptionStream encryptionStream = new EncryptionStream(bufferedOut, options);
+
+                // Read into a heap buffer, whose backing array can be passed to the encryption stream without copying
+                ByteBuffer buffer = ByteBuffer.allocate(options.getBufferSize());
+                while (inputChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    encryptionStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    buffer.clear();
+                }
+                encryptionStream.close();
+                bufferedOut.flush();
+                success = true;
+                return encryptionStream.getResult();
+            } finally {
+                fileOut.close();
+                if (!success) {
+                    ciphertextFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a copy of the options with file name, modification date and length of the plaintext file,
+     * unless they are already set. The given options are not modified, so they can be reused for other files.
+     *
+     * @param options producer options
+     * @param plaintextFile plaintext file
+     * @param length length of the plaintext file
+     * @return options for the given file
+     */
+    static ProducerOptions withFileMetadata(ProducerOptions options, File plaintextFile, long length) {
+        ProducerOptions fileOptions = options.copy();
+        if (fileOptions.getFileName().isEmpty()) {
+            fileOptions.setFileName(plaintextFile.getName());
+        }
+        if (PGPLiteralData.NOW.equals(fileOptions.getModificationDate())) {
+            fileOptions.setModificationDate(new Date(plaintextFile.lastModified()));
+        }
+        if (!fileOptions.hasKnownLength()) {
+            fileOptions.setKnownLength(length);
+        }
+        return fileOptions;
+    }
+
+    /**
+     * Return an upper bound for the size of the message that results from processing plaintextLength bytes
+     * of data with the given options.
+     * The bound is conservative: It accounts for worst case compression expansion, partial length headers,
+     * the largest possible key sizes of the recipients and signers, as well as ASCII armor.
+     *
+     * @param options producer options
+     * @param plaintextLength length of the plaintext
+     * @return maximum size of the resulting message in bytes
+     */
+    public static long getMaximumOutputSize(ProducerOptions options, long plaintextLength) {
+        long fileNameLength = Strings.toUTF8ByteArray(options.getFileName()).length;
+        // format + name length + name + date + data
+        long size = withPacketHeader(1 + 1 + fileNameLength + 4 + plaintextLength, options.getBufferSize());
+
+        SigningOptions signingOptions = options.getSigningOptions();
+        if (signingOptions != null) {
+            for (SigningOptions.SigningMethod signingMethod : signingOptions.getSigningMethods().values()) {
+                if (!signingMethod.isDetached()) {
+                    size += MAX_ONE_PASS_SIGNATURE_SIZE + MAX_SIGNATURE_OVERHEAD
+                            + 2 * maxMpiLength(signingKeyBits(signingMethod.getSigningKey()));
+                }
+            }
+        }
+
+        if (negotiateCompressionAlgorithm(options) != CompressionAlgorithm.UNCOMPRESSED) {
+            // Worst case expansion of BZIP2, which exceeds the one of deflate
+            long compressed = 1 + size + size / 100 + 600;
+            size = withPacketHeader(compressed, options.getBufferSize());
+        }
+
+        EncryptionOptions encryptionOptions = options.getEncryptionOptions();
+        if (encryptionOptions != null && !encryptionOptions.getEncryptionMethods().isEmpty()) {
+            // version + prefix of up to 16 + 2 octets + data + MDC packet
+            size = withPacketHeader(1 + 18 + size + 22, options.getBufferSize());
+
+            Map<SubkeyIdentifier, KeyRingInfo> keyRingInfo = encryptionOptions.getKeyRingInfo();
+            Set<SubkeyIdentifier> recipients = encryptionOptions.getEncryptionKeyIdentifiers();
+            for (SubkeyIdentifier recipient : recipients) {
+                PGPPublicKey key = keyRingInfo.get(recipient).getPublicKey(recipient.getSubkeyId());
+                size += MAX_PKESK_OVERHEAD + 2 * maxMpiLength(key.getBitStrength());
+            }
+            int otherMethods = encryptionOptions.getEncryptionMethods().size() - recipients.size();
+            size += Math.max(0, otherMethods) * (MAX_SKESK_SIZE + MAX_PKESK_OVERHEAD + 2 * maxMpiLength(MAX_PUBLIC_KEY_BITS));
+        }
+
+        if (options.isAsciiArmor()) {
+            long base64Length = 4 * ((size + 2) / 3);
+            long lines = (base64Length + 63) / 64;
+            size = base64Length + 2 * lines + MAX_ARMOR_OVERHEAD;
+        }
+        return size;
+    }
+
+    private static long withPacketHeader(long bodyLength, int chunkSize) {
+        // Fixed length header of up to 6 octets, or one octet per partial length chunk plus final header
+        return bodyLength + bodyLength / chunkSize + 6;
+    }
+
+    private static long maxMpiLength(long bits) {
+        return 2 + (bits + 7) / 8;
+    }
+
+    private static long signingKeyBits(PGPPrivateKey signingKey) {
+        if (signingKey == null) {
+            return MAX_PUBLIC_KEY_BITS;
+        }
+        try {
+            return new PGPPublicKey(signingKey.getPublicKeyPacket(),
+                    ImplementationFactory.getInstance().getKeyFingerprintCalculator()).getBitStrength();
+        } catch (PGPException e) {
+            return MAX_PUBLIC_KEY_BITS;
+        }
+    }
+
     /**
      * Negotiate the {@link SymmetricKeyAlgorithm} used for message encryption.
      *
@@ -15,8 +15,11 @@
  */
 package org.pgpainless.encryption_signing;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 
 import org.bouncycastle.openpgp.PGPException;
@@ -32,6 +35,117 @@ public interface EncryptionBuilderInterface {
      */
     WithOptions onOutputStream(@Nonnull OutputStream outputStream);
 
+    /**
+     * Encrypt and/or sign the contents of a file.
+     * The file is read using a {@link java.nio.channels.FileChannel}.
+     *
+     * @param plaintextFile file containing the plain data
+     * @return api handle
+     */
+    ToFile onFile(@Nonnull File plaintextFile);
+
+    /**
+     * Encrypt and/or sign the remaining content of a {@link ByteBuffer}.
+     * Heap buffers are processed without intermediate copies.
+     *
+     * @param plaintext buffer containing the plain data
+     * @return api handle
+     */
+    ToByteBuffer onByteBuffer(@Nonnull ByteBuffer plaintext);
+
+    /**
+     * Create an {@link EncryptionProcessor}, which encrypts and/or signs a stream of plaintext chunks
+     * without blocking the threads of its publisher and subscriber.
+     * Processing is done by tasks submitted to the given executor.
+     *
+     * @param executor executor which runs the encryption
+     * @return api handle
+     */
+    WithProcessorOptions asProcessor(@Nonnull Executor executor);
+
+    interface WithProcessorOptions {
+
+        /**
+         * Create the processor using the given options.
+         *
+         * @param options options
+         * @return encryption processor
+         * @throws PGPException in case of an OpenPGP related error
+         * @throws IOException in case of an IO error
+         */
+        EncryptionProcessor withOptions(ProducerOptions options) throws PGPException, IOException;
+
+    }
+
+    interface ToByteBuffer {
+
+        /**
+         * Write the encrypted and/or signed message into the given buffer, starting at its current position.
+         *
+         * @param ciphertext output buffer
+         * @return api handle
+         */
+        WithByteBufferOptions toByteBuffer(@Nonnull ByteBuffer ciphertext);
+
+        /**
+         * Return an upper bound for the size of the message that results from processing the plaintext
+         * buffer with the given options. An output buffer with at least this many remaining bytes
+         * is guaranteed to be large enough.
+         *
+         * @param options options
+         * @return maximum output size in bytes
+         */
+        long getMaximumOutputSize(ProducerOptions options);
+
+    }
+
+    interface WithByteBufferOptions {
+
+        /**
+         * Encrypt and/or sign the plaintext buffer into the output buffer using the given options.
+         * Unless already set, the length of the plaintext is set on the options.
+         * On success, the position of the plaintext buffer is advanced to its limit and the position
+         * of the output buffer is advanced past the written message. If the output buffer is too small,
+         * an {@link IOException} is thrown and the positions of both buffers are left unchanged.
+         *
+         * @param options options
+         * @return result of the operation
+         * @throws PGPException in case of an OpenPGP related error
+         * @throws IOException in case of an IO error or if the output buffer is too small
+         */
+        EncryptionResult withOptions(ProducerOptions options) throws PGPException, IOException;
+
+    }
+
+    interface ToFile {
+
+        /**
+         * Write the encrypted and/or signed message into the given file.
+         * An existing file will be overwritten.
+         *
+         * @param ciphertextFile output file
+         * @return api handle
+         */
+        WithFileOptions toFile(@Nonnull File ciphertextFile);
+
+    }
+
+    interface WithFileOptions {
+
+        /**
+         * Encrypt and/or sign the input file into the output file using the given options.
+         * Unless already set, the file name, modification date and length of the input file are
+         * set on the options. If the operation fails, the partially written output file is deleted.
+         *
+         * @param options options
+         * @return result of the operation
+         * @throws PGPException in case of an OpenPGP related error
+         * @throws IOException in case of an IO error
+         */
+        EncryptionResult withOptions(ProducerOptions options) throws PGPException, IOException;
+
+    }
+
     interface WithOptions {
 
         /**
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.pgpainless.util.ByteBufferProcessor;
+import org.pgpainless.util.Flow;
+
+/**
+ * {@link Flow.Processor} which encrypts and/or signs a stream of plaintext chunks.
+ * The processor publishes chunks of the resulting OpenPGP message and provides the {@link EncryptionResult}
+ * via {@link #getResult()} once the downstream subscriber is completed.
+ *
+ * Encryption is performed on the {@link Executor} the processor was created with, so neither the publisher of
+ * the plaintext nor the subscriber of the ciphertext is ever blocked.
+ */
+public final class EncryptionProcessor extends ByteBufferProcessor<EncryptionResult> {
+
+    private final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+    private final EncryptionStream encryptionStream;
+    private byte[] buffer;
+
+    EncryptionProcessor(@Nonnull ProducerOptions options, @Nonnull Executor executor)
+            throws PGPException, IOException {
+        super(executor, DEFAULT_PREFETCH);
+        this.encryptionStream = new EncryptionStream(ciphertext, options);
+        // Publish the packet headers, which the encryption stream wrote upfront
+        emitCiphertext();
+    }
+
+    @Override
+    protected void process(ByteBuffer chunk) throws IOException {
+        if (chunk.hasArray()) {
+            encryptionStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            chunk.position(chunk.limit());
+        } else {
+            if (buffer == null || buffer.length < chunk.remaining()) {
+                buffer = new byte[chunk.remaining()];
+            }
+            int length = chunk.remaining();
+            chunk.get(buffer, 0, length);
+            encryptionStream.write(buffer, 0, length);
+        }
+        emitCiphertext();
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        encryptionStream.close();
+        emitCiphertext();
+        complete(encryptionStream.getResult());
+    }
+
+    @Override
+    protected void abort() {
+        buffer = null;
+    }
+
+    private void emitCiphertext() {
+        if (ciphertext.size() == 0) {
+            return;
+        }
+        emit(ByteBuffer.wrap(ciphertext.toByteArray()));
+        ciphertext.reset();
+    }
+}
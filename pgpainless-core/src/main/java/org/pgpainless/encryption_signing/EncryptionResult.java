@@ -30,6 +30,7 @@ public final class EncryptionResult {
 
     private final SymmetricKeyAlgorithm encryptionAlgorithm;
     private final CompressionAlgorithm compressionAlgorithm;
+    private final boolean compressionSkipped;
 
     private final MultiMap<SubkeyIdentifier, PGPSignature> detachedSignatures;
     private final Set<SubkeyIdentifier> recipients;
@@ -37,11 +38,13 @@ public final class EncryptionResult {
 
     private EncryptionResult(SymmetricKeyAlgorithm encryptionAlgorithm,
                              CompressionAlgorithm compressionAlgorithm,
+                             boolean compressionSkipped,
                              MultiMap<SubkeyIdentifier, PGPSignature> detachedSignatures,
                              Set<SubkeyIdentifier> recipients,
                              OpenPgpMetadata.FileInfo fileInfo) {
         this.encryptionAlgorithm = encryptionAlgorithm;
         this.compressionAlgorithm = compressionAlgorithm;
+        this.compressionSkipped = compressionSkipped;
         this.detachedSignatures = detachedSignatures;
         this.recipients = Collections.unmodifiableSet(recipients);
         this.fileInfo = fileInfo;
@@ -60,6 +63,17 @@ public final class EncryptionResult {
         return compressionAlgorithm;
     }
 
+    /**
+     * Return true, if adaptive compression found the data to be incompressible, so that it was written
+     * {@link CompressionAlgorithm#UNCOMPRESSED} instead of using the negotiated compression algorithm.
+     *
+     * @see ProducerOptions#setAdaptiveCompression(int)
+     * @return whether compression was skipped
+     */
+    public boolean isCompressionSkipped() {
+        return compressionSkipped;
+    }
+
     public MultiMap<SubkeyIdentifier, PGPSignature> getDetachedSignatures() {
         return detachedSignatures;
     }
@@ -80,6 +94,7 @@ public final class EncryptionResult {
 
         private SymmetricKeyAlgorithm encryptionAlgorithm;
         private CompressionAlgorithm compressionAlgorithm;
+        private boolean compressionSkipped = false;
 
         private final MultiMap<SubkeyIdentifier, PGPSignature> detachedSignatures = new MultiMap<>();
         private Set<SubkeyIdentifier> recipients = new HashSet<>();
@@ -95,6 +110,11 @@ public final class EncryptionResult {
             return this;
         }
 
+        public Builder setCompressionSkipped(boolean compressionSkipped) {
+            this.compressionSkipped = compressionSkipped;
+            return this;
+        }
+
         public Builder addRecipient(SubkeyIdentifier recipient) {
             this.recipients.add(recipient);
             return this;
@@ -121,7 +141,7 @@ public final class EncryptionResult {
                 throw new IllegalStateException("File info not set.");
             }
 
-            return new EncryptionResult(encryptionAlgorithm, compressionAlgorithm, detachedSignatures, recipients, fileInfo);
+            return new EncryptionResult(encryptionAlgorithm, compressionAlgorithm, compressionSkipped, detachedSignatures, recipients, fileInfo);
         }
     }
 }
@@ -15,8 +15,14 @@
  */
 package org.pgpainless.encryption_signing;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -27,15 +33,18 @@ import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPSignature;
 import org.bouncycastle.openpgp.PGPSignatureGenerator;
 import org.bouncycastle.openpgp.operator.PGPDataEncryptorBuilder;
 import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.bouncycastle.util.Strings;
 import org.pgpainless.algorithm.CompressionAlgorithm;
 import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
 import org.pgpainless.decryption_verification.OpenPgpMetadata;
 import org.pgpainless.implementation.ImplementationFactory;
 import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.signature.SignatureHashingEngine;
 import org.pgpainless.util.ArmoredOutputStreamFactory;
 
 /**
@@ -49,31 +58,69 @@ public final class EncryptionStream extends OutputStream {
 
     private final ProducerOptions options;
     private final EncryptionResult.Builder resultBuilder = EncryptionResult.builder();
+    private CompressionAlgorithm compressionAlgorithm;
+    // Hashes the data for all signing methods, sharing digests between signatures of the same hash algorithm
+    private final SignatureHashingEngine signatureHashingEngine;
+    private final Map<SubkeyIdentifier, PGPSignatureGenerator> signatureGenerators = new HashMap<>();
+    private final ParallelSignatureHasher parallelSignatureHasher;
 
     private boolean closed = false;
-    private static final int BUFFER_SIZE = 1 << 8;
+    private long bytesWritten = 0;
 
     OutputStream outermostStream;
+    private BufferedOutputStream bufferedOutputStream = null;
     private ArmoredOutputStream armorOutputStream = null;
     private OutputStream publicKeyEncryptedStream = null;
     private PGPCompressedDataGenerator compressedDataGenerator;
+    private ParallelCompressedDataOutputStream parallelCompressionStream = null;
     private BCPGOutputStream basicCompressionStream;
     private PGPLiteralDataGenerator literalDataGenerator;
     private OutputStream literalDataStream;
+    // Stages of a pipelined encryption, which are null if pipelining is disabled
+    private PipelinedOutputStream armorPipeline = null;
+    private PipelinedOutputStream encryptionPipeline = null;
+    private PipelinedOutputStream plaintextPipeline = null;
+    // Beginning of the plaintext, which is buffered until adaptive compression decided on the compression algorithm
+    private byte[] compressionSample = null;
+    private int compressionSampleLength = 0;
 
     EncryptionStream(@Nonnull OutputStream targetOutputStream,
                      @Nonnull ProducerOptions options)
             throws IOException, PGPException {
         this.options = options;
+        this.compressionAlgorithm = EncryptionBuilder.negotiateCompressionAlgorithm(options);
+        this.signatureHashingEngine = prepareSignatureHashing();
+        this.parallelSignatureHasher = prepareParallelSignatureHashing();
         outermostStream = targetOutputStream;
 
+        prepareOutputBuffer();
         prepareArmor();
         prepareEncryption();
+        if (options.getAdaptiveCompressionSampleSize() != 0 && compressionAlgorithm != CompressionAlgorithm.UNCOMPRESSED) {
+            LOGGER.log(LEVEL, "Sample " + options.getAdaptiveCompressionSampleSize() + " bytes before deciding on compression");
+            compressionSample = new byte[options.getAdaptiveCompressionSampleSize()];
+        } else {
+            preparePlaintextLayers();
+        }
+        preparePlaintextPipeline();
+    }
+
+    private void preparePlaintextLayers() throws IOException, PGPException {
         prepareCompression();
         prepareOnePassSignatures();
         prepareLiteralDataProcessing();
     }
 
+    private void prepareOutputBuffer() {
+        if (options.getOutputBufferSize() == 0) {
+            return;
+        }
+
+        LOGGER.log(LEVEL, "Buffer encryption output in chunks of " + options.getOutputBufferSize() + " bytes");
+        bufferedOutputStream = new BufferedOutputStream(outermostStream, options.getOutputBufferSize());
+        outermostStream = bufferedOutputStream;
+    }
+
     private void prepareArmor() {
         if (!options.isAsciiArmor()) {
             LOGGER.log(LEVEL, "Encryption output will be binary");
@@ -83,6 +130,11 @@ public final class EncryptionStream extends OutputStream {
         LOGGER.log(LEVEL, "Wrap encryption output in ASCII armor");
         armorOutputStream = ArmoredOutputStreamFactory.get(outermostStream);
         outermostStream = armorOutputStream;
+
+        armorPipeline = maybePipeline(armorOutputStream);
+        if (armorPipeline != null) {
+            outermostStream = armorPipeline;
+        }
     }
 
     private void prepareEncryption() throws IOException, PGPException {
@@ -110,19 +162,40 @@ public final class EncryptionStream extends OutputStream {
             resultBuilder.addRecipient(recipientSubkeyIdentifier);
         }
 
-        publicKeyEncryptedStream = encryptedDataGenerator.open(outermostStream, new byte[BUFFER_SIZE]);
+        if (options.hasKnownLength() && compressionAlgorithm == CompressionAlgorithm.UNCOMPRESSED && !hasInlineSignatures()) {
+            long encryptedDataLength = getLiteralDataPacketLength(options.getFileName(), options.getKnownLength());
+            LOGGER.log(LEVEL, "Write encrypted data packet of fixed length " + encryptedDataLength);
+            publicKeyEncryptedStream = encryptedDataGenerator.open(outermostStream, encryptedDataLength);
+        } else {
+            publicKeyEncryptedStream = encryptedDataGenerator.open(outermostStream, new byte[options.getBufferSize()]);
+        }
         outermostStream = publicKeyEncryptedStream;
+
+        encryptionPipeline = maybePipeline(publicKeyEncryptedStream);
+        if (encryptionPipeline != null) {
+            outermostStream = encryptionPipeline;
+        }
     }
 
     private void prepareCompression() throws IOException {
-        CompressionAlgorithm compressionAlgorithm = EncryptionBuilder.negotiateCompressionAlgorithm(options);
         resultBuilder.setCompressionAlgorithm(compressionAlgorithm);
         compressedDataGenerator = new PGPCompressedDataGenerator(
-                compressionAlgorithm.getAlgorithmId());
+                compressionAlgorithm.getAlgorithmId(), options.getCompressionLevel());
         if (compressionAlgorithm == CompressionAlgorithm.UNCOMPRESSED) {
             return;
         }
 
+        Executor compressionExecutor = options.getCompressionExecutor();
+        if (compressionExecutor != null && compressionAlgorithm != CompressionAlgorithm.BZIP2
+                && ParallelCompressedDataOutputStream.isAvailable()) {
+            LOGGER.log(LEVEL, "Compress using " + compressionAlgorithm + " in parallel");
+            parallelCompressionStream = new ParallelCompressedDataOutputStream(outermostStream, compressionAlgorithm,
+                    options.getCompressionLevel(), compressionExecutor);
+            basicCompressionStream = new BCPGOutputStream(parallelCompressionStream);
+            outermostStream = basicCompressionStream;
+            return;
+        }
+
         LOGGER.log(LEVEL, "Compress using " + compressionAlgorithm);
         basicCompressionStream = new BCPGOutputStream(compressedDataGenerator.open(outermostStream));
         outermostStream = basicCompressionStream;
@@ -139,7 +212,7 @@ public final class EncryptionStream extends OutputStream {
             SigningOptions.SigningMethod signingMethod = signingOptions.getSigningMethods().get(identifier);
 
             if (!signingMethod.isDetached()) {
-                PGPSignatureGenerator signatureGenerator = signingMethod.getSignatureGenerator();
+                PGPSignatureGenerator signatureGenerator = signatureGenerators.get(identifier);
                 signatureGenerator.generateOnePassVersion(false).encode(outermostStream);
             }
         }
@@ -147,31 +220,213 @@ public final class EncryptionStream extends OutputStream {
 
     private void prepareLiteralDataProcessing() throws IOException {
         literalDataGenerator = new PGPLiteralDataGenerator();
-        literalDataStream = literalDataGenerator.open(outermostStream,
-                options.getEncoding().getCode(),
-                options.getFileName(),
-                options.getModificationDate(),
-                new byte[BUFFER_SIZE]);
+        if (options.hasKnownLength()) {
+            literalDataStream = literalDataGenerator.open(outermostStream,
+                    options.getEncoding().getCode(),
+                    options.getFileName(),
+                    options.getKnownLength(),
+                    options.getModificationDate());
+        } else {
+            literalDataStream = literalDataGenerator.open(outermostStream,
+                    options.getEncoding().getCode(),
+                    options.getFileName(),
+                    options.getModificationDate(),
+                    new byte[options.getBufferSize()]);
+        }
         outermostStream = literalDataStream;
 
         resultBuilder.setFileInfo(new OpenPgpMetadata.FileInfo(
                 options.getFileName(), options.getModificationDate(), options.getEncoding()));
     }
 
+    private void preparePlaintextPipeline() {
+        // Literal data processing, signature hashing and compression run on the worker of this stage
+        plaintextPipeline = maybePipeline(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                processPlaintext(b);
+            }
+
+            @Override
+            public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+                processPlaintext(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushPlaintext();
+            }
+        });
+    }
+
+    /**
+     * Add plaintext to the compression sample. Once the sample is complete, the compression algorithm is decided on
+     * and the remaining data is passed on to the literal data stream.
+     *
+     * @param buffer buffer
+     * @param off offset
+     * @param len length
+     * @throws IOException in case of an IO error
+     */
+    private void sampleForCompression(byte[] buffer, int off, int len) throws IOException {
+        int n = Math.min(len, compressionSample.length - compressionSampleLength);
+        System.arraycopy(buffer, off, compressionSample, compressionSampleLength, n);
+        compressionSampleLength += n;
+        if (compressionSampleLength == compressionSample.length) {
+            finishCompressionSampling();
+            outermostStream.write(buffer, off + n, len - n);
+        }
+    }
+
+    private void finishCompressionSampling() throws IOException {
+        byte[] sample = compressionSample;
+        compressionSample = null;
+        if (CompressionProbe.isIncompressible(sample, compressionSampleLength)) {
+            LOGGER.log(LEVEL, "Data is incompressible. Skip " + compressionAlgorithm);
+            compressionAlgorithm = CompressionAlgorithm.UNCOMPRESSED;
+            resultBuilder.setCompressionSkipped(true);
+        }
+        try {
+            preparePlaintextLayers();
+        } catch (PGPException e) {
+            throw new IOException("Exception while preparing the literal data packet.", e);
+        }
+        outermostStream.write(sample, 0, compressionSampleLength);
+    }
+
+    private void flushPlaintext() throws IOException {
+        if (compressionSample != null) {
+            // Data cannot be flushed without starting the compressed data packet
+            finishCompressionSampling();
+        }
+        outermostStream.flush();
+    }
+
+    /**
+     * If pipelined encryption is enabled, hand data written to the given layer over to a separate worker.
+     *
+     * @param layer layer which is fed by the pipeline stage
+     * @return pipeline stage, or null if pipelining is disabled
+     */
+    private PipelinedOutputStream maybePipeline(OutputStream layer) {
+        Executor executor = options.getEncryptionPipelineExecutor();
+        if (executor == null) {
+            return null;
+        }
+        return new PipelinedOutputStream(layer, executor, options.getBufferSize());
+    }
+
+    private ParallelSignatureHasher prepareParallelSignatureHashing() {
+        if (options.getSignatureHashingExecutor() == null || signatureGenerators.isEmpty()) {
+            return null;
+        }
+
+        LOGGER.log(LEVEL, "Hash data for " + signatureGenerators.size() + " signatures in parallel");
+        return new ParallelSignatureHasher(signatureHashingEngine, options.getSignatureHashingExecutor(), options.getBufferSize());
+    }
+
+    private SignatureHashingEngine prepareSignatureHashing() throws PGPException {
+        SignatureHashingEngine engine = new SignatureHashingEngine();
+        SigningOptions signingOptions = options.getSigningOptions();
+        if (signingOptions == null) {
+            engine.initialize();
+            return engine;
+        }
+
+        List<SubkeyIdentifier> identifiers = new ArrayList<>(signingOptions.getSigningMethods().keySet());
+        for (SubkeyIdentifier identifier : identifiers) {
+            SigningOptions.SigningMethod signingMethod = signingOptions.getSigningMethods().get(identifier);
+            PGPPrivateKey signingKey = signingMethod.getSigningKey();
+            if (signingKey == null) {
+                engine.addSignatureGenerator(signingMethod.getSignatureGenerator(), null, -1, -1);
+            } else {
+                engine.addSignatureGenerator(signingMethod.getSignatureGenerator(), signingKey,
+                        signingMethod.getHashAlgorithm().getAlgorithmId(),
+                        signingMethod.getSignatureType().getSignatureType().getCode(),
+                        signingMethod.getHashedSubpackets());
+            }
+        }
+        engine.initialize();
+
+        List<PGPSignatureGenerator> generators = engine.getSignatureGenerators();
+        for (int i = 0; i < identifiers.size(); i++) {
+            signatureGenerators.put(identifiers.get(i), generators.get(i));
+        }
+        return engine;
+    }
+
+    private boolean hasInlineSignatures() {
+        SigningOptions signingOptions = options.getSigningOptions();
+        if (signingOptions == null) {
+            return false;
+        }
+        for (SigningOptions.SigningMethod signingMethod : signingOptions.getSigningMethods().values()) {
+            if (!signingMethod.isDetached()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the total length of a literal data packet containing dataLength bytes of data.
+     *
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc4880#section-5.9">RFC4880 §5.9. Literal Data Packet</a>
+     *
+     * @param fileName file name
+     * @param dataLength length of the data
+     * @return length of the packet including its header
+     */
+    private static long getLiteralDataPacketLength(String fileName, long dataLength) {
+        // format, file name length, file name, date, data
+        long bodyLength = 1 + 1 + Strings.toUTF8ByteArray(fileName).length + 4 + dataLength;
+        return getNewFormatPacketHeaderLength(bodyLength) + bodyLength;
+    }
+
+    private static int getNewFormatPacketHeaderLength(long bodyLength) {
+        // tag + one-, two- or five-octet length
+        if (bodyLength < 192) {
+            return 2;
+        }
+        if (bodyLength <= 8383) {
+            return 3;
+        }
+        return 6;
+    }
+
+    private void countBytesWritten(int len) throws IOException {
+        bytesWritten += len;
+        if (options.hasKnownLength() && bytesWritten > options.getKnownLength()) {
+            throw new IOException("Attempt to write more than the announced " + options.getKnownLength() + " bytes of data.");
+        }
+    }
+
     @Override
     public void write(int data) throws IOException {
-        outermostStream.write(data);
-        SigningOptions signingOptions = options.getSigningOptions();
-        if (signingOptions == null || signingOptions.getSigningMethods().isEmpty()) {
+        countBytesWritten(1);
+        if (plaintextPipeline != null) {
+            plaintextPipeline.write(data);
             return;
         }
+        processPlaintext(data);
+    }
 
-        for (SubkeyIdentifier signingKey : signingOptions.getSigningMethods().keySet()) {
-            SigningOptions.SigningMethod signingMethod = signingOptions.getSigningMethods().get(signingKey);
-            PGPSignatureGenerator signatureGenerator = signingMethod.getSignatureGenerator();
-            byte asByte = (byte) (data & 0xff);
-            signatureGenerator.update(asByte);
+    private void processPlaintext(int data) throws IOException {
+        if (compressionSample != null) {
+            compressionSample[compressionSampleLength++] = (byte) data;
+            if (compressionSampleLength == compressionSample.length) {
+                finishCompressionSampling();
+            }
+        } else {
+            outermostStream.write(data);
+        }
+
+        byte asByte = (byte) (data & 0xff);
+        if (parallelSignatureHasher != null) {
+            parallelSignatureHasher.update(asByte);
+            return;
         }
+        signatureHashingEngine.update(asByte);
     }
 
     @Override
@@ -182,21 +437,35 @@ public final class EncryptionStream extends OutputStream {
 
     @Override
     public void write(@Nonnull byte[] buffer, int off, int len) throws IOException {
-        outermostStream.write(buffer, 0, len);
-        SigningOptions signingOptions = options.getSigningOptions();
-        if (signingOptions == null || signingOptions.getSigningMethods().isEmpty()) {
+        countBytesWritten(len);
+        if (plaintextPipeline != null) {
+            plaintextPipeline.write(buffer, off, len);
             return;
         }
-        for (SubkeyIdentifier signingKey : signingOptions.getSigningMethods().keySet()) {
-            SigningOptions.SigningMethod signingMethod = signingOptions.getSigningMethods().get(signingKey);
-            PGPSignatureGenerator signatureGenerator = signingMethod.getSignatureGenerator();
-            signatureGenerator.update(buffer, 0, len);
+        processPlaintext(buffer, off, len);
+    }
+
+    private void processPlaintext(byte[] buffer, int off, int len) throws IOException {
+        if (compressionSample != null) {
+            sampleForCompression(buffer, off, len);
+        } else {
+            outermostStream.write(buffer, off, len);
+        }
+
+        if (parallelSignatureHasher != null) {
+            parallelSignatureHasher.update(buffer, off, len);
+            return;
         }
+        signatureHashingEngine.update(buffer, off, len);
     }
 
     @Override
     public void flush() throws IOException {
-        outermostStream.flush();
+        if (plaintextPipeline != null) {
+            plaintextPipeline.flush();
+            return;
+        }
+        flushPlaintext();
     }
 
     @Override
@@ -204,20 +473,55 @@ public final class EncryptionStream extends OutputStream {
         if (closed) {
             return;
         }
+        closed = true;
+
+        // The layers are closed even if the plaintext is incomplete, so that no pipeline worker is left behind
+        boolean hasAnnouncedLength = !options.hasKnownLength() || bytesWritten == options.getKnownLength();
+        closeLayers(hasAnnouncedLength);
+
+        if (!hasAnnouncedLength) {
+            throw new IOException("Announced " + options.getKnownLength() + " bytes of data, but "
+                    + (bytesWritten < options.getKnownLength() ? "only " + bytesWritten + " bytes were written."
+                    : "an attempt was made to write " + bytesWritten + " bytes."));
+        }
+    }
+
+    private void closeLayers(boolean sign) throws IOException {
+        // Stages of a pipelined encryption are drained before the layer they feed is closed
+        if (plaintextPipeline != null) {
+            plaintextPipeline.drain();
+        }
+        if (compressionSample != null) {
+            finishCompressionSampling();
+        }
 
         // Literal Data
         literalDataStream.flush();
         literalDataStream.close();
         literalDataGenerator.close();
 
-        try {
-            writeSignatures();
-        } catch (PGPException e) {
-            throw new IOException("Exception while writing signatures.", e);
+        if (parallelSignatureHasher != null) {
+            parallelSignatureHasher.finish();
+        }
+
+        // Signatures over incomplete plaintext are omitted
+        if (sign) {
+            try {
+                writeSignatures();
+            } catch (PGPException e) {
+                throw new IOException("Exception while writing signatures.", e);
+            }
         }
 
         // Compressed Data
         compressedDataGenerator.close();
+        if (parallelCompressionStream != null) {
+            parallelCompressionStream.close();
+        }
+
+        if (encryptionPipeline != null) {
+            encryptionPipeline.drain();
+        }
 
         // Public Key Encryption
         if (publicKeyEncryptedStream != null) {
@@ -225,12 +529,20 @@ public final class EncryptionStream extends OutputStream {
             publicKeyEncryptedStream.close();
         }
 
+        if (armorPipeline != null) {
+            armorPipeline.drain();
+        }
+
         // Armor
         if (armorOutputStream != null) {
             armorOutputStream.flush();
             armorOutputStream.close();
         }
-        closed = true;
+
+        // Output Buffer
+        if (bufferedOutputStream != null) {
+            bufferedOutputStream.flush();
+        }
     }
 
     private void writeSignatures() throws PGPException, IOException {
@@ -240,7 +552,7 @@ public final class EncryptionStream extends OutputStream {
         }
         for (SubkeyIdentifier signingKey : signingOptions.getSigningMethods().keySet()) {
             SigningOptions.SigningMethod signingMethod = signingOptions.getSigningMethods().get(signingKey);
-            PGPSignatureGenerator signatureGenerator = signingMethod.getSignatureGenerator();
+            PGPSignatureGenerator signatureGenerator = signatureGenerators.get(signingKey);
             PGPSignature signature = signatureGenerator.generate();
             if (signingMethod.isDetached()) {
                 resultBuilder.addDetachedSignature(signingKey, signature);
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+
+/**
+ * Writes a compressed data packet using {@link CompressionAlgorithm#ZIP} or {@link CompressionAlgorithm#ZLIB},
+ * while deflating independent blocks of the data in parallel on the workers of an {@link Executor}.
+ *
+ * Each block is primed with the last 32 KiB of the previous block as a preset dictionary and, except for the last
+ * block, terminated with a sync flush, which aligns it to a byte boundary without marking it as final.
+ * The compressed blocks are concatenated in order, so that the packet contains a single standard deflate stream
+ * which can be decompressed by any OpenPGP implementation.
+ *
+ * Sync flushes are only available on Java 7 / Android API 19 and above, so {@link #isAvailable()} must be checked
+ * before this class is used.
+ */
+final class ParallelCompressedDataOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 1 << 17;
+    static final int DICTIONARY_SIZE = 1 << 15;
+
+    private static final Method DEFLATE_WITH_FLUSH = findDeflateWithFlush();
+    private static final int SYNC_FLUSH = 2;
+
+    private final BCPGOutputStream packetOut;
+    private final int compressionLevel;
+    private final Executor executor;
+    private final int maxPendingBlocks;
+    // Checksum of the uncompressed data, which is only needed for ZLIB
+    private final Adler32 checksum;
+
+    private final Deque<Block> pendingBlocks = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+    private byte[] buffer;
+    private int bufferLength;
+    private Block previousBlock;
+    private boolean closed = false;
+
+    ParallelCompressedDataOutputStream(@Nonnull OutputStream out,
+                                       @Nonnull CompressionAlgorithm compressionAlgorithm,
+                                       int compressionLevel,
+                                       @Nonnull Executor executor)
+            throws IOException {
+        if (!isAvailable()) {
+            throw new IllegalStateException("Deflater does not support sync flushes.");
+        }
+        if (compressionAlgorithm != CompressionAlgorithm.ZIP && compressionAlgorithm != CompressionAlgorithm.ZLIB) {
+            throw new IllegalArgumentException("Parallel compression is not supported for " + compressionAlgorithm);
+        }
+        this.compressionLevel = compressionLevel;
+        this.executor = executor;
+        this.maxPendingBlocks = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+
+        // Same framing as PGPCompressedDataGenerator
+        this.packetOut = new BCPGOutputStream(out, PacketTags.COMPRESSED_DATA);
+        packetOut.write(compressionAlgorithm.getAlgorithmId());
+        if (compressionAlgorithm == CompressionAlgorithm.ZLIB) {
+            checksum = new Adler32();
+            writeZlibHeader(compressionLevel);
+        } else {
+            checksum = null;
+        }
+    }
+
+    /**
+     * Return true, if the Deflater of the runtime supports sync flushes, which are required for parallel compression.
+     *
+     * @return true if parallel compression is available
+     */
+    static boolean isAvailable() {
+        return DEFLATE_WITH_FLUSH != null;
+    }
+
+    private static Method findDeflateWithFlush() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        currentBuffer()[bufferLength++] = (byte) b;
+        if (bufferLength == BLOCK_SIZE) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            byte[] current = currentBuffer();
+            int n = Math.min(len, BLOCK_SIZE - bufferLength);
+            System.arraycopy(b, off, current, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+            if (bufferLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Terminate the current block early and write all compressed blocks to the packet.
+     *
+     * @throws IOException in case of an IO error
+     */
+    @Override
+    public void flush() throws IOException {
+        if (bufferLength != 0) {
+            submitBlock(false);
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        packetOut.flush();
+    }
+
+    /**
+     * Write the last block and finish the compressed data packet. The underlying stream is not closed.
+     *
+     * @throws IOException in case of an IO error
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        currentBuffer();
+        closed = true;
+        submitBlock(true);
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        if (checksum != null) {
+            long value = checksum.getValue();
+            packetOut.write((int) (value >> 24));
+            packetOut.write((int) (value >> 16));
+            packetOut.write((int) (value >> 8));
+            packetOut.write((int) value);
+        }
+        packetOut.finish();
+        packetOut.flush();
+    }
+
+    private void writeZlibHeader(int level) throws IOException {
+        // see RFC1950 and deflate.c of zlib
+        int levelFlags;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            levelFlags = 2;
+        } else if (level < 2) {
+            levelFlags = 0;
+        } else if (level < 6) {
+            levelFlags = 1;
+        } else {
+            levelFlags = 3;
+        }
+        int header = (0x78 << 8) | (levelFlags << 6);
+        header += 31 - (header % 31);
+        packetOut.write(header >> 8);
+        packetOut.write(header & 0xff);
+    }
+
+    private byte[] currentBuffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (buffer == null) {
+            buffer = freeBuffers.isEmpty() ? new byte[BLOCK_SIZE] : freeBuffers.poll();
+            bufferLength = 0;
+        }
+        return buffer;
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        if (checksum != null) {
+            checksum.update(buffer, 0, bufferLength);
+        }
+        Block block = new Block(buffer, bufferLength, previousBlock, last, compressionLevel);
+        buffer = null;
+        bufferLength = 0;
+        previousBlock = block;
+        try {
+            executor.execute(block.task);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Cannot schedule compression of block.", e);
+        }
+        pendingBlocks.add(block);
+
+        // Write finished blocks early, but never keep more than the maximum number of blocks in flight
+        while (!pendingBlocks.isEmpty()
+                && (pendingBlocks.size() > maxPendingBlocks || pendingBlocks.peek().task.isDone())) {
+            writeOldestBlock();
+        }
+    }
+
+    private void writeOldestBlock() throws IOException {
+        Block block = pendingBlocks.poll();
+        byte[] compressed;
+        try {
+            compressed = block.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression of block.");
+        } catch (ExecutionException e) {
+            throw new IOException("Exception while compressing block.", e.getCause());
+        }
+        packetOut.write(compressed);
+        freeBuffers.add(block.input);
+    }
+
+    private static int deflateWithSyncFlush(Deflater deflater, byte[] out) throws IOException {
+        try {
+            return (Integer) DEFLATE_WITH_FLUSH.invoke(deflater, out, 0, out.length, SYNC_FLUSH);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Cannot flush deflater.", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot flush deflater.", e.getCause());
+        }
+    }
+
+    /**
+     * Block of uncompressed data, which is deflated by a worker.
+     */
+    private static final class Block implements Callable<byte[]> {
+
+        private final byte[] input;
+        private final int length;
+        private final byte[] dictionary;
+        // Dictionary for the next block
+        private final byte[] tail;
+        private final boolean last;
+        private final int compressionLevel;
+        private final FutureTask<byte[]> task = new FutureTask<>(this);
+
+        private Block(byte[] input, int length, Block previous, boolean last, int compressionLevel) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = previous == null ? null : previous.tail;
+            // Copy the dictionary, since Deflater.setDictionary does not respect the offset on some Java versions.
+            // This also allows to reuse the input buffer as soon as the block is written.
+            this.tail = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+            this.last = last;
+            this.compressionLevel = compressionLevel;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                if (dictionary != null && dictionary.length != 0) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(input, 0, length);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+                byte[] chunk = new byte[1 << 14];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.write(chunk, 0, deflater.deflate(chunk));
+                    }
+                } else {
+                    // The output is complete once the deflater no longer fills the whole chunk
+                    int n;
+                    do {
+                        n = deflateWithSyncFlush(deflater, chunk);
+                        out.write(chunk, 0, n);
+                    } while (n == chunk.length);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pgpainless.signature.SignatureHashingEngine;
+
+/**
+ * Feeds data into the hashing units of a {@link SignatureHashingEngine} in parallel.
+ *
+ * Written data is copied into a bounded ring of reusable chunks. Each full chunk is handed to one worker per
+ * hashing unit, which are run on the provided {@link Executor}. Data of a single unit is always
+ * processed in order and by at most one thread at a time, while different units hash concurrently.
+ * Once the ring is exhausted, writes block until the slowest worker released a chunk.
+ *
+ * Workers never block while waiting for data, so the executor does not need to provide a thread per signer.
+ * The size of the chunks is capped at {@link #MAX_CHUNK_SIZE}, independently of the buffer size of the stream.
+ */
+final class ParallelSignatureHasher {
+
+    static final int RING_SIZE = 4;
+    static final int MAX_CHUNK_SIZE = 1 << 18;
+
+    private final SignerWorker[] workers;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Chunk current;
+    private boolean finished = false;
+
+    ParallelSignatureHasher(SignatureHashingEngine engine, Executor executor, int chunkSize) {
+        this.workers = new SignerWorker[engine.getHashingUnitCount()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new SignerWorker(engine, i, executor);
+        }
+        this.freeChunks = new ArrayBlockingQueue<>(RING_SIZE);
+        for (int i = 0; i < RING_SIZE; i++) {
+            freeChunks.add(new Chunk(Math.min(chunkSize, MAX_CHUNK_SIZE)));
+        }
+    }
+
+    /**
+     * Hash a single byte.
+     *
+     * @param b byte
+     * @throws IOException if a worker failed or the calling thread got interrupted
+     */
+    void update(byte b) throws IOException {
+        Chunk chunk = currentChunk();
+        chunk.buffer[chunk.length++] = b;
+        if (chunk.length == chunk.buffer.length) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Hash a slice of a byte array. The data is copied, so the caller is free to reuse the buffer afterwards.
+     *
+     * @param b buffer
+     * @param off offset
+     * @param len length
+     * @throws IOException if a worker failed or the calling thread got interrupted
+     */
+    void update(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            Chunk chunk = currentChunk();
+            int n = Math.min(len, chunk.buffer.length - chunk.length);
+            System.arraycopy(b, off, chunk.buffer, chunk.length, n);
+            chunk.length += n;
+            off += n;
+            len -= n;
+            if (chunk.length == chunk.buffer.length) {
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Hand over any remaining data and wait until all workers processed all chunks.
+     * Afterwards, the signature generators can safely be used by the calling thread.
+     *
+     * @throws IOException if a worker failed or the calling thread got interrupted
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (current != null && current.length != 0) {
+            dispatch();
+        }
+        // Once all chunks are back in the ring, every worker is done
+        try {
+            for (int i = 0; i < RING_SIZE; i++) {
+                freeChunks.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for signature hashing to complete.");
+        }
+        finished = true;
+        throwIfFailed();
+    }
+
+    private Chunk currentChunk() throws IOException {
+        if (finished) {
+            throw new IOException("Signature hashing already finished.");
+        }
+        if (current == null) {
+            throwIfFailed();
+            try {
+                current = freeChunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free hashing buffer.");
+            }
+            current.length = 0;
+        }
+        return current;
+    }
+
+    private void dispatch() throws IOException {
+        Chunk chunk = current;
+        current = null;
+        if (workers.length == 0) {
+            freeChunks.add(chunk);
+            return;
+        }
+        chunk.pending.set(workers.length);
+        // Enqueue the chunk for every worker, even if one of them is rejected, so that the chunk is released
+        boolean rejected = false;
+        for (SignerWorker worker : workers) {
+            rejected |= !worker.enqueue(chunk);
+        }
+        if (rejected) {
+            throwIfFailed();
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Exception while hashing data for signature generation.", t);
+        }
+    }
+
+    private void release(Chunk chunk) {
+        if (chunk.pending.decrementAndGet() == 0) {
+            freeChunks.add(chunk);
+        }
+    }
+
+    /**
+     * Reusable buffer which is shared by all workers until each of them has processed it.
+     */
+    private static final class Chunk {
+        private final byte[] buffer;
+        private int length;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private Chunk(int size) {
+            this.buffer = new byte[size];
+        }
+    }
+
+    /**
+     * Worker that feeds chunks into a single hashing unit of the {@link SignatureHashingEngine}.
+     * The worker is only scheduled on the executor while it has chunks to process.
+     */
+    private final class SignerWorker implements Runnable {
+
+        private final SignatureHashingEngine engine;
+        private final int unit;
+        private final Executor executor;
+        private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private SignerWorker(SignatureHashingEngine engine, int unit, Executor executor) {
+            this.engine = engine;
+            this.unit = unit;
+            this.executor = executor;
+        }
+
+        /**
+         * Enqueue a chunk and schedule the worker if it is not already running.
+         * If the executor rejects the worker, the failure is recorded and all chunks of this worker are released.
+         *
+         * @param chunk chunk
+         * @return false if the executor rejected the worker
+         */
+        private boolean enqueue(Chunk chunk) {
+            queue.add(chunk);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    failure.compareAndSet(null, e);
+                    Chunk queued;
+                    while ((queued = queue.poll()) != null) {
+                        release(queued);
+                    }
+                    scheduled.set(false);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            do {
+                Chunk chunk;
+                while ((chunk = queue.poll()) != null) {
+                    try {
+                        if (failure.get() == null) {
+                            engine.update(unit, chunk.buffer, 0, chunk.length);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        release(chunk);
+                    }
+                }
+                scheduled.set(false);
+                // Chunks might have been enqueued after the last poll, but before the flag was cleared
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nonnull;
+
+/**
+ * Stage of a pipelined encryption, which hands written data over to a worker of an {@link Executor}.
+ * The worker writes the data into the downstream layer (e.g. the compression, encryption or armor stream),
+ * while the writing thread continues with the next chunk.
+ *
+ * Written data is copied into a bounded ring of reusable chunks. Once the ring is exhausted, writes block until
+ * the worker released a chunk. The worker is only scheduled on the executor while it has chunks to process.
+ *
+ * This stream is not thread safe. All write operations, {@link #drain()}, {@link #flush()} and {@link #close()} must
+ * be called by the same thread. After {@link #drain()} returned, the writing thread may safely access the
+ * downstream layer itself.
+ */
+final class PipelinedOutputStream extends OutputStream {
+
+    static final int RING_SIZE = 4;
+
+    private final OutputStream downstream;
+    private final Executor executor;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final Queue<Chunk> filledChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Worker worker = new Worker();
+
+    private Chunk current;
+    private boolean closed = false;
+
+    PipelinedOutputStream(@Nonnull OutputStream downstream, @Nonnull Executor executor, int chunkSize) {
+        this.downstream = downstream;
+        this.executor = executor;
+        this.freeChunks = new ArrayBlockingQueue<>(RING_SIZE);
+        for (int i = 0; i < RING_SIZE; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        Chunk chunk = currentChunk();
+        chunk.buffer[chunk.length++] = (byte) b;
+        if (chunk.length == chunk.buffer.length) {
+            dispatch();
+        }
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            Chunk chunk = currentChunk();
+            int n = Math.min(len, chunk.buffer.length - chunk.length);
+            System.arraycopy(b, off, chunk.buffer, chunk.length, n);
+            chunk.length += n;
+            off += n;
+            len -= n;
+            if (chunk.length == chunk.buffer.length) {
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Hand over any remaining data and wait until the worker wrote all chunks into the downstream layer.
+     *
+     * @throws IOException if the worker failed or the calling thread got interrupted
+     */
+    void drain() throws IOException {
+        if (current != null) {
+            if (current.length != 0) {
+                dispatch();
+            } else {
+                freeChunks.add(current);
+                current = null;
+            }
+        }
+        // Once all chunks are back in the ring, the worker is done
+        Chunk[] chunks = new Chunk[RING_SIZE];
+        try {
+            for (int i = 0; i < RING_SIZE; i++) {
+                chunks[i] = freeChunks.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the encryption pipeline to drain.");
+        } finally {
+            for (Chunk chunk : chunks) {
+                if (chunk != null) {
+                    freeChunks.add(chunk);
+                }
+            }
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * Drain the stage and flush the downstream layer.
+     *
+     * @throws IOException if the worker failed or the downstream layer cannot be flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        downstream.flush();
+    }
+
+    /**
+     * Drain the stage and close the downstream layer.
+     *
+     * @throws IOException if the worker failed or the downstream layer cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        drain();
+        closed = true;
+        downstream.close();
+    }
+
+    private Chunk currentChunk() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (current == null) {
+            throwIfFailed();
+            try {
+                current = freeChunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free encryption pipeline buffer.");
+            }
+            current.length = 0;
+        }
+        return current;
+    }
+
+    private void dispatch() throws IOException {
+        filledChunks.add(current);
+        current = null;
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                failure.compareAndSet(null, e);
+                Chunk chunk;
+                while ((chunk = filledChunks.poll()) != null) {
+                    freeChunks.add(chunk);
+                }
+                scheduled.set(false);
+                throwIfFailed();
+            }
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        throw new IOException("Exception in encryption pipeline stage.", t);
+    }
+
+    /**
+     * Reusable buffer, which is either owned by the writing thread, queued for the worker, or being written.
+     */
+    private static final class Chunk {
+        private final byte[] buffer;
+        private int length;
+
+        private Chunk(int size) {
+            this.buffer = new byte[size];
+        }
+    }
+
+    /**
+     * Worker which writes queued chunks into the downstream layer.
+     * Once a write failed, the remaining chunks are discarded.
+     */
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            do {
+                Chunk chunk;
+                while ((chunk = filledChunks.poll()) != null) {
+                    try {
+                        if (failure.get() == null) {
+                            downstream.write(chunk.buffer, 0, chunk.length);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        freeChunks.add(chunk);
+                    }
+                }
+                scheduled.set(false);
+                // Chunks might have been enqueued after the last poll, but before the flag was cleared
+            } while (!filledChunks.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package org.pgpainless.encryption_signing;
 
 import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -26,6 +28,23 @@ import org.pgpainless.algorithm.StreamEncoding;
 
 public final class ProducerOptions {
 
+    /**
+     * Default size of the chunks in which partial length packets are written.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int MIN_BUFFER_SIZE = 1 << 9;
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    /**
+     * Marker value for plaintext of unknown length.
+     */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    /**
+     * Recommended number of bytes to sample when using adaptive compression.
+     */
+    public static final int DEFAULT_COMPRESSION_SAMPLE_SIZE = 1 << 15;
+
     private final EncryptionOptions encryptionOptions;
     private final SigningOptions signingOptions;
     private String fileName = "";
@@ -34,13 +53,45 @@ public final class ProducerOptions {
 
     private CompressionAlgorithm compressionAlgorithmOverride = PGPainless.getPolicy().getCompressionAlgorithmPolicy()
             .defaultCompressionAlgorithm();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionSampleSize = 0;
     private boolean asciiArmor = true;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int outputBufferSize = 0;
+    private long knownLength = UNKNOWN_LENGTH;
+    private Executor signatureHashingExecutor = null;
+    private Executor encryptionPipelineExecutor = null;
+    private Executor compressionExecutor = null;
 
     private ProducerOptions(EncryptionOptions encryptionOptions, SigningOptions signingOptions) {
         this.encryptionOptions = encryptionOptions;
         this.signingOptions = signingOptions;
     }
 
+    /**
+     * Return a copy of these options, which can be modified for a single operation without affecting the
+     * caller's options. Encryption and signing options are shared with the copy.
+     *
+     * @return copy
+     */
+    ProducerOptions copy() {
+        ProducerOptions copy = new ProducerOptions(encryptionOptions, signingOptions);
+        copy.fileName = fileName;
+        copy.modificationDate = modificationDate;
+        copy.streamEncoding = streamEncoding;
+        copy.compressionAlgorithmOverride = compressionAlgorithmOverride;
+        copy.compressionLevel = compressionLevel;
+        copy.compressionSampleSize = compressionSampleSize;
+        copy.asciiArmor = asciiArmor;
+        copy.bufferSize = bufferSize;
+        copy.outputBufferSize = outputBufferSize;
+        copy.knownLength = knownLength;
+        copy.signatureHashingExecutor = signatureHashingExecutor;
+        copy.encryptionPipelineExecutor = encryptionPipelineExecutor;
+        copy.compressionExecutor = compressionExecutor;
+        return copy;
+    }
+
     /**
      * Sign and encrypt some data.
      *
@@ -201,6 +252,243 @@ public final class ProducerOptions {
         return compressionAlgorithmOverride;
     }
 
+    /**
+     * Set the compression level used for {@link CompressionAlgorithm#ZIP} and {@link CompressionAlgorithm#ZLIB}.
+     * Valid levels range from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     * Defaults to {@link Deflater#DEFAULT_COMPRESSION}. The level has no effect on {@link CompressionAlgorithm#BZIP2}.
+     *
+     * @param compressionLevel deflate compression level
+     * @return builder
+     */
+    public ProducerOptions setCompressionLevel(int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+                && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * Return the deflate compression level.
+     *
+     * @return compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Compress large messages in parallel on the workers of the given {@link Executor}.
+     * If the message is compressed using {@link CompressionAlgorithm#ZIP} or {@link CompressionAlgorithm#ZLIB},
+     * the data is split into blocks of 128 KiB, which are deflated independently, each primed with the last 32 KiB
+     * of the block before. The blocks are concatenated into a single standard deflate stream, so the message can be
+     * decompressed by any OpenPGP implementation. The compression ratio is slightly worse than with sequential
+     * compression.
+     *
+     * Parallel compression requires sync flushes of the {@link java.util.zip.Deflater}, which are available on
+     * Java 7 and Android API level 19 and above. On older platforms, or for {@link CompressionAlgorithm#BZIP2},
+     * the message is compressed sequentially. Passing null disables parallel compression, which is the default.
+     *
+     * @param executor executor to run the compression workers on, or null
+     * @return builder
+     */
+    public ProducerOptions setCompressionExecutor(@Nullable Executor executor) {
+        this.compressionExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used to compress data in parallel, or null if parallel compression is disabled.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getCompressionExecutor() {
+        return compressionExecutor;
+    }
+
+    /**
+     * Decide whether to compress the message based on its content.
+     * The first sampleSize bytes of the plaintext are buffered and inspected before the compressed data packet
+     * is started. If the sample starts with the signature of an already compressed format (e.g. JPEG or ZIP),
+     * or if it does not compress well, the message is written {@link CompressionAlgorithm#UNCOMPRESSED} instead
+     * of using the negotiated compression algorithm. {@link EncryptionResult#isCompressionSkipped()} reports
+     * the decision.
+     *
+     * A sample size of 0 disables adaptive compression, which is the default.
+     * {@link #DEFAULT_COMPRESSION_SAMPLE_SIZE} is a reasonable trade-off between accuracy and latency.
+     *
+     * @param sampleSize number of bytes to sample, or 0
+     * @return builder
+     */
+    public ProducerOptions setAdaptiveCompression(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative.");
+        }
+        this.compressionSampleSize = sampleSize;
+        return this;
+    }
+
+    /**
+     * Return the number of bytes sampled by adaptive compression, or 0 if adaptive compression is disabled.
+     *
+     * @return sample size
+     */
+    public int getAdaptiveCompressionSampleSize() {
+        return compressionSampleSize;
+    }
+
+    /**
+     * Set the size of the chunks in which the encrypted data and literal data packets are written.
+     * Those packets are emitted as a sequence of partial length packets of the given size, so larger values reduce
+     * the framing overhead and the number of writes to the underlying stream at the cost of a larger buffer.
+     * The size MUST be a power of two between 512 bytes and 1 GiB.
+     * Defaults to {@link #DEFAULT_BUFFER_SIZE}.
+     *
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc4880#section-4.2.2.4">RFC4880 §4.2.2.4. Partial Body Lengths</a>
+     *
+     * @param bufferSize chunk size in bytes
+     * @return builder
+     */
+    public ProducerOptions setBufferSize(int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE || bufferSize > MAX_BUFFER_SIZE || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer size MUST be a power of two between "
+                    + MIN_BUFFER_SIZE + " and " + MAX_BUFFER_SIZE + " bytes, but was " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Return the size of the chunks in which partial length packets are written.
+     *
+     * @return buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Announce the exact number of plaintext bytes that will be written to the {@link EncryptionStream}.
+     * If the length is known up front (e.g. when encrypting a file or a byte array), the literal data packet is
+     * written with a fixed length instead of a sequence of partial length packets.
+     * If additionally no compression and no inline signatures are used, the encrypted data packet is written with a
+     * fixed length as well.
+     *
+     * Note: Writing more or less data than announced will cause the {@link EncryptionStream} to throw
+     * an {@link java.io.IOException}.
+     *
+     * @param length number of plaintext bytes
+     * @return builder
+     */
+    public ProducerOptions setKnownLength(long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length cannot be negative.");
+        }
+        this.knownLength = length;
+        return this;
+    }
+
+    /**
+     * Return the announced plaintext length, or {@link #UNKNOWN_LENGTH} if the length is not known up front.
+     *
+     * @return plaintext length
+     */
+    public long getKnownLength() {
+        return knownLength;
+    }
+
+    /**
+     * Return true if the length of the plaintext was announced via {@link #setKnownLength(long)}.
+     *
+     * @return true if the plaintext length is known
+     */
+    public boolean hasKnownLength() {
+        return knownLength != UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Hash the data for each signature on a separate worker of the given {@link Executor}, instead of feeding
+     * all signature generators sequentially on the writing thread.
+     * This is beneficial if a message is signed by multiple keys at once.
+     * Written data is copied into a bounded ring of buffers of {@link #getBufferSize()} bytes, which is handed to the
+     * workers. All workers are joined before the signatures are generated when the {@link EncryptionStream} is closed.
+     *
+     * The executor does not need to provide a dedicated thread per signature, since workers do not block while waiting
+     * for data. Passing null disables parallel hashing, which is the default.
+     *
+     * @param executor executor to run the hashing workers on, or null
+     * @return builder
+     */
+    public ProducerOptions setSignatureHashingExecutor(@Nullable Executor executor) {
+        this.signatureHashingExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used to hash the data for signatures in parallel, or null if parallel hashing
+     * is disabled.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getSignatureHashingExecutor() {
+        return signatureHashingExecutor;
+    }
+
+    /**
+     * Process the layers of the message on separate workers of the given {@link Executor}, instead of running the
+     * whole stream chain on the writing thread.
+     * The writing thread only copies the plaintext into a bounded ring of buffers of {@link #getBufferSize()} bytes.
+     * Literal data framing, signature hashing and compression, symmetric encryption, and ASCII armoring each run
+     * as a separate stage, which are connected by bounded rings of reusable buffers as well.
+     * All stages are drained and joined in order when the {@link EncryptionStream} is closed.
+     *
+     * A stage blocks while the next stage has no free buffer, so the executor must be able to run one task
+     * per stage concurrently (e.g. a cached thread pool). Passing null disables pipelining, which is the default.
+     *
+     * @param executor executor to run the pipeline stages on, or null
+     * @return builder
+     */
+    public ProducerOptions setEncryptionPipelineExecutor(@Nullable Executor executor) {
+        this.encryptionPipelineExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Return the {@link Executor} used to run the stages of a pipelined encryption, or null if pipelining is disabled.
+     *
+     * @return executor or null
+     */
+    public @Nullable Executor getEncryptionPipelineExecutor() {
+        return encryptionPipelineExecutor;
+    }
+
+    /**
+     * Buffer the output of the encryption/signing operation before writing it to the target stream.
+     * This coalesces small writes (e.g. packet headers, armor lines) into larger blocks, which is beneficial if
+     * writes to the target stream are expensive, e.g. if it is an unbuffered file or socket stream.
+     * A size of 0 disables output buffering, which is the default.
+     *
+     * @param outputBufferSize size of the output buffer in bytes, or 0
+     * @return builder
+     */
+    public ProducerOptions setOutputBufferSize(int outputBufferSize) {
+        if (outputBufferSize < 0) {
+            throw new IllegalArgumentException("Output buffer size cannot be negative.");
+        }
+        this.outputBufferSize = outputBufferSize;
+        return this;
+    }
+
+    /**
+     * Return the size of the output buffer, or 0 if the output is not buffered.
+     *
+     * @return output buffer size
+     */
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
     public @Nullable EncryptionOptions getEncryptionOptions() {
         return encryptionOptions;
     }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
+import org.bouncycastle.openpgp.operator.PGPContentSignerBuilder;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.algorithm.HashAlgorithm;
+import org.pgpainless.exception.KeyValidationException;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.OpenPgpV4Fingerprint;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.info.KeyRingInfo;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.protection.UnlockSecretKey;
+
+/**
+ * Prepared signer for a secret key ring, which can be used to sign many messages.
+ *
+ * Selection and unlocking of the signing subkeys, hash algorithm negotiation and construction of the hashed
+ * signature subpackets are done once when the handle is created. Afterwards, the handle hands out fresh
+ * {@link PGPSignatureGenerator PGPSignatureGenerators} for each message, which is cheap and can be done from
+ * multiple threads concurrently. Once one of the selected signing keys expires, the handle is prepared again
+ * transparently, so that expired signing keys are no longer used.
+ *
+ * Use {@link SigningOptions#addInlineSignature(SignerHandle)} or {@link SigningOptions#addDetachedSignature(SignerHandle)}
+ * to sign a message using the handle.
+ */
+public final class SignerHandle {
+
+    private final SecretKeyRingProtector protector;
+    private final PGPSecretKeyRing secretKeys;
+    private final String userId;
+    private final DocumentSignatureType signatureType;
+    private final HashAlgorithm hashAlgorithmOverride;
+
+    private volatile Prepared prepared;
+
+    private SignerHandle(SecretKeyRingProtector protector,
+                         PGPSecretKeyRing secretKeys,
+                         String userId,
+                         DocumentSignatureType signatureType,
+                         HashAlgorithm hashAlgorithmOverride) {
+        this.protector = protector;
+        this.secretKeys = secretKeys;
+        this.userId = userId;
+        this.signatureType = signatureType;
+        this.hashAlgorithmOverride = hashAlgorithmOverride;
+    }
+
+    /**
+     * Prepare a signer for the given secret key ring.
+     *
+     * @param protector protector to unlock the signing secret keys
+     * @param secretKeys signing key
+     * @param signatureType type of signature (binary, canonical text)
+     * @return signer handle
+     * @throws KeyValidationException if the key has no valid signing key
+     * @throws PGPException if the signing keys cannot be unlocked
+     */
+    public static SignerHandle prepare(@Nonnull SecretKeyRingProtector protector,
+                                       @Nonnull PGPSecretKeyRing secretKeys,
+                                       @Nonnull DocumentSignatureType signatureType)
+            throws KeyValidationException, PGPException {
+        return prepare(protector, secretKeys, null, signatureType, null);
+    }
+
+    /**
+     * Prepare a signer for the given secret key ring.
+     *
+     * This method uses the passed in user-id to select user-specific hash algorithms.
+     * If a hash algorithm override is given, it is used instead of negotiating a hash algorithm.
+     *
+     * @param protector protector to unlock the signing secret keys
+     * @param secretKeys signing key
+     * @param userId user-id of the signer or null
+     * @param signatureType type of signature (binary, canonical text)
+     * @param hashAlgorithmOverride hash algorithm override or null
+     * @return signer handle
+     * @throws KeyValidationException if the user-id or the key is invalid
+     * @throws PGPException if the signing keys cannot be unlocked
+     */
+    public static SignerHandle prepare(@Nonnull SecretKeyRingProtector protector,
+                                       @Nonnull PGPSecretKeyRing secretKeys,
+                                       @Nullable String userId,
+                                       @Nonnull DocumentSignatureType signatureType,
+                                       @Nullable HashAlgorithm hashAlgorithmOverride)
+            throws KeyValidationException, PGPException {
+        SignerHandle handle = new SignerHandle(protector, secretKeys, userId, signatureType, hashAlgorithmOverride);
+        handle.prepared = handle.prepare(new Date());
+        return handle;
+    }
+
+    /**
+     * Return the secret key ring of the signer.
+     *
+     * @return secret keys
+     */
+    public PGPSecretKeyRing getSecretKeys() {
+        return secretKeys;
+    }
+
+    /**
+     * Return the type of signatures created by the signer.
+     *
+     * @return signature type
+     */
+    public DocumentSignatureType getSignatureType() {
+        return signatureType;
+    }
+
+    /**
+     * Return the date on which the first of the currently selected signing keys expires,
+     * or null if none of them expires.
+     * After that date, the handle is prepared again on the next use.
+     *
+     * @return expiration date or null
+     */
+    public @Nullable Date getExpirationDate() {
+        return prepared.expirationDate;
+    }
+
+    /**
+     * Return the identifiers of the currently selected signing keys.
+     *
+     * @return signing keys
+     * @throws KeyValidationException if the key has no valid signing key anymore
+     * @throws PGPException if the signing keys cannot be unlocked
+     */
+    public Set<SubkeyIdentifier> getSigningKeys() throws KeyValidationException, PGPException {
+        return getPrepared().signers.keySet();
+    }
+
+    /**
+     * Return fresh signature generators for a single message, one for each of the currently selected signing keys.
+     * This method can be called from multiple threads concurrently.
+     *
+     * @return signature generators by signing key
+     * @throws KeyValidationException if the key has no valid signing key anymore
+     * @throws PGPException if the signing keys cannot be unlocked or the generators cannot be initialized
+     */
+    public Map<SubkeyIdentifier, PGPSignatureGenerator> createSignatureGenerators()
+            throws KeyValidationException, PGPException {
+        return createSignatureGenerators(new Date());
+    }
+
+    /**
+     * Return fresh signature generators for the signing keys which are selected at the given reference date.
+     *
+     * @param referenceDate date at which the signing keys are evaluated
+     * @return signature generators by signing key
+     */
+    Map<SubkeyIdentifier, PGPSignatureGenerator> createSignatureGenerators(Date referenceDate)
+            throws KeyValidationException, PGPException {
+        Map<SubkeyIdentifier, PGPSignatureGenerator> generators = new LinkedHashMap<>();
+        for (Map.Entry<SubkeyIdentifier, PreparedSigner> entry : getPrepared(referenceDate).signers.entrySet()) {
+            generators.put(entry.getKey(), entry.getValue().createSignatureGenerator(signatureType));
+        }
+        return generators;
+    }
+
+    /**
+     * Return the prepared signing keys.
+     * For internal use.
+     *
+     * @return prepared signers by signing key
+     * @throws KeyValidationException if the key has no valid signing key anymore
+     * @throws PGPException if the signing keys cannot be unlocked
+     */
+    Map<SubkeyIdentifier, PreparedSigner> getPreparedSigners() throws KeyValidationException, PGPException {
+        return getPrepared().signers;
+    }
+
+    private Prepared getPrepared() throws KeyValidationException, PGPException {
+        return getPrepared(new Date());
+    }
+
+    private Prepared getPrepared(Date now) throws KeyValidationException, PGPException {
+        Prepared current = prepared;
+        if (!current.isExpired(now)) {
+            return current;
+        }
+        synchronized (this) {
+            current = prepared;
+            if (current.isExpired(now)) {
+                current = prepare(now);
+                prepared = current;
+            }
+            return current;
+        }
+    }
+
+    private Prepared prepare(Date now) throws KeyValidationException, PGPException {
+        KeyRingInfo keyRingInfo = new KeyRingInfo(secretKeys, now);
+        if (userId != null) {
+            if (!keyRingInfo.isUserIdValid(userId)) {
+                throw new KeyValidationException(userId, keyRingInfo.getLatestUserIdCertification(userId), keyRingInfo.getUserIdRevocation(userId));
+            }
+        }
+
+        Map<SubkeyIdentifier, PreparedSigner> signers = new LinkedHashMap<>();
+        Date primaryKeyExpirationDate = keyRingInfo.getPrimaryKeyExpirationDate();
+        Date expirationDate = null;
+        for (PGPPublicKey signingPubKey : keyRingInfo.getSigningSubkeys()) {
+            // Contrary to one-shot signing options, the handle is long-lived, so skip keys that expired in the meantime
+            Date keyExpirationDate = earliest(primaryKeyExpirationDate,
+                    keyRingInfo.getSubkeyExpirationDate(new OpenPgpV4Fingerprint(signingPubKey)));
+            if (keyExpirationDate != null && !now.before(keyExpirationDate)) {
+                continue;
+            }
+            expirationDate = earliest(expirationDate, keyExpirationDate);
+
+            PGPSecretKey signingSecKey = secretKeys.getSecretKey(signingPubKey.getKeyID());
+            PGPPrivateKey signingSubkey = UnlockSecretKey.unlockSecretKey(signingSecKey, protector);
+            Set<HashAlgorithm> hashAlgorithms = keyRingInfo.getPreferredHashAlgorithms(userId, signingPubKey.getKeyID());
+            HashAlgorithm hashAlgorithm = SigningOptions.negotiateHashAlgorithm(hashAlgorithms, PGPainless.getPolicy(), hashAlgorithmOverride);
+
+            PGPSignatureSubpacketGenerator subpacketGenerator = new PGPSignatureSubpacketGenerator();
+            subpacketGenerator.setIssuerFingerprint(false, signingPubKey);
+            subpacketGenerator.setIssuerKeyID(false, signingPubKey.getKeyID());
+
+            PGPContentSignerBuilder signerBuilder = ImplementationFactory.getInstance()
+                    .getPGPContentSignerBuilder(signingPubKey.getAlgorithm(), hashAlgorithm.getAlgorithmId());
+            signers.put(new SubkeyIdentifier(secretKeys, signingPubKey.getKeyID()),
+                    new PreparedSigner(signingSubkey, hashAlgorithm, signerBuilder, subpacketGenerator.generate()));
+        }
+
+        if (signers.isEmpty()) {
+            throw new KeyValidationException("Key has no valid signing key.");
+        }
+        return new Prepared(Collections.unmodifiableMap(signers), expirationDate);
+    }
+
+    private static Date earliest(Date first, Date second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return first.before(second) ? first : second;
+    }
+
+    /**
+     * Immutable snapshot of the selected signing keys.
+     */
+    private static final class Prepared {
+        private final Map<SubkeyIdentifier, PreparedSigner> signers;
+        private final Date expirationDate;
+
+        private Prepared(Map<SubkeyIdentifier, PreparedSigner> signers, Date expirationDate) {
+            this.signers = signers;
+            this.expirationDate = expirationDate;
+        }
+
+        private boolean isExpired(Date now) {
+            return expirationDate != null && !now.before(expirationDate);
+        }
+    }
+
+    /**
+     * Unlocked signing key together with its negotiated hash algorithm and hashed subpackets.
+     */
+    static final class PreparedSigner {
+        private final PGPPrivateKey signingKey;
+        private final HashAlgorithm hashAlgorithm;
+        private final PGPContentSignerBuilder signerBuilder;
+        private final PGPSignatureSubpacketVector hashedSubpackets;
+
+        private PreparedSigner(PGPPrivateKey signingKey,
+                               HashAlgorithm hashAlgorithm,
+                               PGPContentSignerBuilder signerBuilder,
+                               PGPSignatureSubpacketVector hashedSubpackets) {
+            this.signingKey = signingKey;
+            this.hashAlgorithm = hashAlgorithm;
+            this.signerBuilder = signerBuilder;
+            this.hashedSubpackets = hashedSubpackets;
+        }
+
+        PGPPrivateKey getSigningKey() {
+            return signingKey;
+        }
+
+        HashAlgorithm getHashAlgorithm() {
+            return hashAlgorithm;
+        }
+
+        PGPSignatureSubpacketVector getHashedSubpackets() {
+            return hashedSubpackets;
+        }
+
+        PGPSignatureGenerator createSignatureGenerator(DocumentSignatureType signatureType) throws PGPException {
+            PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(signerBuilder);
+            signatureGenerator.init(signatureType.getSignatureType().getCode(), signingKey);
+            signatureGenerator.setHashedSubpackets(hashedSubpackets);
+            return signatureGenerator;
+        }
+    }
+}
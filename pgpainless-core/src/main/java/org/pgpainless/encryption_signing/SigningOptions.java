@@ -29,6 +29,7 @@ import org.bouncycastle.openpgp.PGPSecretKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
 import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
 import org.bouncycastle.openpgp.operator.PGPContentSignerBuilder;
 import org.pgpainless.PGPainless;
 import org.pgpainless.algorithm.DocumentSignatureType;
@@ -38,6 +39,7 @@ import org.pgpainless.implementation.ImplementationFactory;
 import org.pgpainless.key.SubkeyIdentifier;
 import org.pgpainless.key.info.KeyRingInfo;
 import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.protection.UnlockSecretKey;
 import org.pgpainless.policy.Policy;
 
 public final class SigningOptions {
@@ -48,10 +50,27 @@ public final class SigningOptions {
     public static final class SigningMethod {
         private final PGPSignatureGenerator signatureGenerator;
         private final boolean detached;
+        private final PGPPrivateKey signingKey;
+        private final HashAlgorithm hashAlgorithm;
+        private final DocumentSignatureType signatureType;
+        private final PGPSignatureSubpacketVector hashedSubpackets;
 
         private SigningMethod(PGPSignatureGenerator signatureGenerator, boolean detached) {
+            this(signatureGenerator, detached, null, null, null, null);
+        }
+
+        private SigningMethod(PGPSignatureGenerator signatureGenerator,
+                              boolean detached,
+                              PGPPrivateKey signingKey,
+                              HashAlgorithm hashAlgorithm,
+                              DocumentSignatureType signatureType,
+                              PGPSignatureSubpacketVector hashedSubpackets) {
             this.signatureGenerator = signatureGenerator;
             this.detached = detached;
+            this.signingKey = signingKey;
+            this.hashAlgorithm = hashAlgorithm;
+            this.signatureType = signatureType;
+            this.hashedSubpackets = hashedSubpackets;
         }
 
         /**
@@ -84,6 +103,34 @@ public final class SigningOptions {
         public PGPSignatureGenerator getSignatureGenerator() {
             return signatureGenerator;
         }
+
+        /**
+         * Return the unlocked signing key.
+         * This is null, if the signing method was created from a signature generator alone.
+         *
+         * @return signing key or null
+         */
+        PGPPrivateKey getSigningKey() {
+            return signingKey;
+        }
+
+        HashAlgorithm getHashAlgorithm() {
+            return hashAlgorithm;
+        }
+
+        DocumentSignatureType getSignatureType() {
+            return signatureType;
+        }
+
+        /**
+         * Return the hashed subpackets of the signature generator.
+         * This is null, if the signature generator has no hashed subpackets set.
+         *
+         * @return hashed subpackets or null
+         */
+        PGPSignatureSubpacketVector getHashedSubpackets() {
+            return hashedSubpackets;
+        }
     }
 
     private final Map<SubkeyIdentifier, SigningMethod> signingMethods = new HashMap<>();
@@ -166,7 +213,7 @@ public final class SigningOptions {
 
         for (PGPPublicKey signingPubKey : signingPubKeys) {
             PGPSecretKey signingSecKey = secretKey.getSecretKey(signingPubKey.getKeyID());
-            PGPPrivateKey signingSubkey = signingSecKey.extractPrivateKey(secretKeyDecryptor.getDecryptor(signingPubKey.getKeyID()));
+            PGPPrivateKey signingSubkey = UnlockSecretKey.unlockSecretKey(signingSecKey, secretKeyDecryptor);
             Set<HashAlgorithm> hashAlgorithms = keyRingInfo.getPreferredHashAlgorithms(userId, signingPubKey.getKeyID());
             HashAlgorithm hashAlgorithm = negotiateHashAlgorithm(hashAlgorithms, PGPainless.getPolicy());
             addSigningMethod(secretKey, signingSubkey, hashAlgorithm, signatureType, false);
@@ -247,7 +294,7 @@ public final class SigningOptions {
 
         for (PGPPublicKey signingPubKey : signingPubKeys) {
             PGPSecretKey signingSecKey = secretKey.getSecretKey(signingPubKey.getKeyID());
-            PGPPrivateKey signingSubkey = signingSecKey.extractPrivateKey(secretKeyDecryptor.getDecryptor(signingPubKey.getKeyID()));
+            PGPPrivateKey signingSubkey = UnlockSecretKey.unlockSecretKey(signingSecKey, secretKeyDecryptor);
             Set<HashAlgorithm> hashAlgorithms = keyRingInfo.getPreferredHashAlgorithms(userId, signingPubKey.getKeyID());
             HashAlgorithm hashAlgorithm = negotiateHashAlgorithm(hashAlgorithms, PGPainless.getPolicy());
             addSigningMethod(secretKey, signingSubkey, hashAlgorithm, signatureType, true);
@@ -256,6 +303,54 @@ public final class SigningOptions {
         return this;
     }
 
+    /**
+     * Add inline-signatures using a prepared signer.
+     * Contrary to {@link #addInlineSignature(SecretKeyRingProtector, PGPSecretKeyRing, DocumentSignatureType)},
+     * this does not need to validate and unlock the key, since this was done once when preparing the signer.
+     *
+     * Note: The hash algorithm override of these options does not apply to prepared signers.
+     * Use {@link SignerHandle#prepare(SecretKeyRingProtector, PGPSecretKeyRing, String, DocumentSignatureType, HashAlgorithm)}
+     * to override the hash algorithm of a signer instead.
+     *
+     * @param signer prepared signer
+     * @return this
+     * @throws KeyValidationException if the key of the signer expired and has no valid signing key anymore
+     * @throws PGPException if the signing method cannot be created
+     */
+    public SigningOptions addInlineSignature(SignerHandle signer) throws KeyValidationException, PGPException {
+        return addSigningMethods(signer, false);
+    }
+
+    /**
+     * Add detached signatures using a prepared signer.
+     * Contrary to {@link #addDetachedSignature(SecretKeyRingProtector, PGPSecretKeyRing, DocumentSignatureType)},
+     * this does not need to validate and unlock the key, since this was done once when preparing the signer.
+     *
+     * Note: The hash algorithm override of these options does not apply to prepared signers.
+     * Use {@link SignerHandle#prepare(SecretKeyRingProtector, PGPSecretKeyRing, String, DocumentSignatureType, HashAlgorithm)}
+     * to override the hash algorithm of a signer instead.
+     *
+     * @param signer prepared signer
+     * @return this
+     * @throws KeyValidationException if the key of the signer expired and has no valid signing key anymore
+     * @throws PGPException if the signing method cannot be created
+     */
+    public SigningOptions addDetachedSignature(SignerHandle signer) throws KeyValidationException, PGPException {
+        return addSigningMethods(signer, true);
+    }
+
+    private SigningOptions addSigningMethods(SignerHandle signer, boolean detached) throws PGPException {
+        DocumentSignatureType signatureType = signer.getSignatureType();
+        for (Map.Entry<SubkeyIdentifier, SignerHandle.PreparedSigner> entry : signer.getPreparedSigners().entrySet()) {
+            SignerHandle.PreparedSigner preparedSigner = entry.getValue();
+            SigningMethod signingMethod = new SigningMethod(preparedSigner.createSignatureGenerator(signatureType),
+                    detached, preparedSigner.getSigningKey(), preparedSigner.getHashAlgorithm(), signatureType,
+                    preparedSigner.getHashedSubpackets());
+            signingMethods.put(entry.getKey(), signingMethod);
+        }
+        return this;
+    }
+
     private void addSigningMethod(PGPSecretKeyRing secretKey,
                                   PGPPrivateKey signingSubkey,
                                   HashAlgorithm hashAlgorithm,
@@ -264,7 +359,7 @@ public final class SigningOptions {
             throws PGPException {
         SubkeyIdentifier signingKeyIdentifier = new SubkeyIdentifier(secretKey, signingSubkey.getKeyID());
         PGPSignatureGenerator generator = createSignatureGenerator(signingSubkey, hashAlgorithm, signatureType);
-        SigningMethod signingMethod = detached ? SigningMethod.detachedSignature(generator) : SigningMethod.inlineSignature(generator);
+        SigningMethod signingMethod = new SigningMethod(generator, detached, signingSubkey, hashAlgorithm, signatureType, null);
         signingMethods.put(signingKeyIdentifier, signingMethod);
     }
 
@@ -281,6 +376,20 @@ public final class SigningOptions {
      * @return selected hash algorithm
      */
     private HashAlgorithm negotiateHashAlgorithm(Set<HashAlgorithm> preferences, Policy policy) {
+        return negotiateHashAlgorithm(preferences, policy, hashAlgorithmOverride);
+    }
+
+    /**
+     * Negotiate, which hash algorithm to use.
+     *
+     * @param preferences preferences
+     * @param policy policy
+     * @param hashAlgorithmOverride hash algorithm override or null
+     * @return selected hash algorithm
+     */
+    static HashAlgorithm negotiateHashAlgorithm(Set<HashAlgorithm> preferences,
+                                                Policy policy,
+                                                HashAlgorithm hashAlgorithmOverride) {
         if (hashAlgorithmOverride != null) {
             return hashAlgorithmOverride;
         }
@@ -22,4 +22,8 @@ public class KeyValidationException extends AssertionError {
     public KeyValidationException(String userId, PGPSignature userIdSig, PGPSignature userIdRevocation) {
         super("User-ID '" + userId + "' is not valid: Sig: " + userIdSig + " Rev: " + userIdRevocation);
     }
+
+    public KeyValidationException(String message) {
+        super(message);
+    }
 }
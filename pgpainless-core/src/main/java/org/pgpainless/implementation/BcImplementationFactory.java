@@ -84,8 +84,9 @@ public class BcImplementationFactory extends ImplementationFactory {
 
     @Override
     public PBESecretKeyDecryptor getPBESecretKeyDecryptor(Passphrase passphrase) {
-        return new BcPBESecretKeyDecryptorBuilder(getPGPDigestCalculatorProvider())
+        PBESecretKeyDecryptor decryptor = new BcPBESecretKeyDecryptorBuilder(getPGPDigestCalculatorProvider())
                 .build(passphrase.getChars());
+        return withDerivedKeyCache(decryptor, passphrase);
     }
 
     @Override
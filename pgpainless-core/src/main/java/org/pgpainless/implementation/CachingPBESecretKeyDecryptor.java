@@ -0,0 +1,279 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.implementation;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.pgpainless.util.Passphrase;
+
+/**
+ * {@link PBESecretKeyDecryptor} which memoizes the key-encryption keys derived from the passphrase.
+ *
+ * Unlocking a secret key requires deriving the key-encryption key from the passphrase using the (iterated) S2K
+ * of the secret key, which is deliberately expensive. Derived keys are stored in a {@link DerivedKeyCache}, keyed by
+ * the identity of the {@link Passphrase} object, the S2K salt, iteration count and hash algorithm and the
+ * symmetric algorithm, so that unlocking the same key repeatedly only derives the key-encryption key once.
+ *
+ * Passphrases are referenced weakly, so that the cache does not keep passphrases alive. Derived keys of
+ * passphrases which were cleared using {@link Passphrase#clear()} or garbage collected are wiped and removed
+ * from the cache on its next access.
+ */
+public class CachingPBESecretKeyDecryptor extends PBESecretKeyDecryptor {
+
+    private final PBESecretKeyDecryptor delegate;
+    private final Passphrase passphrase;
+    private final DerivedKeyCache cache;
+
+    /**
+     * Create a caching decryptor.
+     *
+     * @param delegate decryptor which was created from the passphrase
+     * @param passphrase passphrase of the delegate
+     * @param cache cache of derived keys
+     */
+    public CachingPBESecretKeyDecryptor(@Nonnull PBESecretKeyDecryptor delegate,
+                                        @Nonnull Passphrase passphrase,
+                                        @Nonnull DerivedKeyCache cache) {
+        super(null, null);
+        this.delegate = delegate;
+        this.passphrase = passphrase;
+        this.cache = cache;
+    }
+
+    @Override
+    public PGPDigestCalculator getChecksumCalculator(int hashAlgorithm) throws PGPException {
+        return delegate.getChecksumCalculator(hashAlgorithm);
+    }
+
+    @Override
+    public byte[] makeKeyFromPassPhrase(int keyAlgorithm, S2K s2k) throws PGPException {
+        if (s2k == null || !passphrase.isValid()) {
+            return delegate.makeKeyFromPassPhrase(keyAlgorithm, s2k);
+        }
+        byte[] key = cache.get(passphrase, keyAlgorithm, s2k);
+        if (key == null) {
+            key = delegate.makeKeyFromPassPhrase(keyAlgorithm, s2k);
+            cache.put(passphrase, keyAlgorithm, s2k, key);
+            return key.clone();
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] recoverKeyData(int encAlgorithm, byte[] key, byte[] iv, byte[] keyData, int keyOff, int keyLen)
+            throws PGPException {
+        return delegate.recoverKeyData(encAlgorithm, key, iv, keyData, keyOff, keyLen);
+    }
+
+    /**
+     * Bounded cache of key-encryption keys derived from passphrases.
+     * If the cache is full, the least recently used key is evicted.
+     * Every access to the cache first wipes and removes the keys of cleared or garbage collected passphrases.
+     * Evicted keys are overwritten with zeros. The cache is thread-safe.
+     */
+    public static class DerivedKeyCache {
+
+        private final int maxSize;
+        private final Map<DerivedKeyId, byte[]> derivedKeys;
+
+        private long hitCount = 0;
+        private long missCount = 0;
+
+        /**
+         * Create a new {@link DerivedKeyCache}.
+         *
+         * @param maxSize maximum number of derived keys
+         */
+        public DerivedKeyCache(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Maximum size MUST be positive.");
+            }
+            this.maxSize = maxSize;
+            this.derivedKeys = new LinkedHashMap<DerivedKeyId, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DerivedKeyId, byte[]> eldest) {
+                    if (size() > DerivedKeyCache.this.maxSize) {
+                        Arrays.fill(eldest.getValue(), (byte) 0);
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Return the number of key derivations that were answered from the cache.
+         *
+         * @return hit count
+         */
+        public synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * Return the number of key derivations that could not be answered from the cache.
+         *
+         * @return miss count
+         */
+        public synchronized long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * Return the number of cached derived keys.
+         *
+         * @return size
+         */
+        public synchronized int size() {
+            purge();
+            return derivedKeys.size();
+        }
+
+        /**
+         * Remove and wipe all derived keys.
+         */
+        public synchronized void clear() {
+            for (byte[] key : derivedKeys.values()) {
+                Arrays.fill(key, (byte) 0);
+            }
+            derivedKeys.clear();
+        }
+
+        /**
+         * Return a copy of the key derived from the passphrase using the given S2K and symmetric key algorithm.
+         *
+         * @param passphrase passphrase
+         * @param keyAlgorithm symmetric key algorithm, which determines the length of the key
+         * @param s2k string-to-key specifier
+         * @return derived key or null if the key is not cached
+         */
+        public synchronized byte[] get(@Nonnull Passphrase passphrase, int keyAlgorithm, @Nonnull S2K s2k) {
+            purge();
+            DerivedKeyId id = new DerivedKeyId(passphrase, keyAlgorithm, s2k);
+            byte[] key = derivedKeys.get(id);
+            if (key == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return key.clone();
+        }
+
+        /**
+         * Cache the key derived from the passphrase using the given S2K and symmetric key algorithm.
+         * The cache takes ownership of the key array, which is wiped once the key is evicted.
+         * Keys of cleared passphrases are wiped right away.
+         *
+         * @param passphrase passphrase
+         * @param keyAlgorithm symmetric key algorithm, which determines the length of the key
+         * @param s2k string-to-key specifier
+         * @param key derived key
+         */
+        public synchronized void put(@Nonnull Passphrase passphrase, int keyAlgorithm, @Nonnull S2K s2k,
+                                     @Nonnull byte[] key) {
+            purge();
+            DerivedKeyId id = new DerivedKeyId(passphrase, keyAlgorithm, s2k);
+            if (id.isStale()) {
+                Arrays.fill(key, (byte) 0);
+                return;
+            }
+            byte[] previous = derivedKeys.put(id, key);
+            if (previous != null) {
+                Arrays.fill(previous, (byte) 0);
+            }
+        }
+
+        /**
+         * Wipe and remove the derived keys of passphrases which were cleared or garbage collected.
+         */
+        private void purge() {
+            Iterator<Map.Entry<DerivedKeyId, byte[]>> iterator = derivedKeys.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<DerivedKeyId, byte[]> entry = iterator.next();
+                if (entry.getKey().isStale()) {
+                    Arrays.fill(entry.getValue(), (byte) 0);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static final class DerivedKeyId {
+
+        private final WeakReference<Passphrase> passphrase;
+        private final int passphraseHash;
+        private final int keyAlgorithm;
+        private final int type;
+        private final int hashAlgorithm;
+        private final byte[] salt;
+        private final long iterationCount;
+
+        private DerivedKeyId(Passphrase passphrase, int keyAlgorithm, S2K s2k) {
+            this.passphrase = new WeakReference<>(passphrase);
+            this.passphraseHash = System.identityHashCode(passphrase);
+            this.keyAlgorithm = keyAlgorithm;
+            this.type = s2k.getType();
+            this.hashAlgorithm = s2k.getHashAlgorithm();
+            this.salt = s2k.getIV();
+            this.iterationCount = s2k.getIterationCount();
+        }
+
+        /**
+         * Return true if the passphrase was cleared or garbage collected.
+         */
+        boolean isStale() {
+            Passphrase referent = passphrase.get();
+            return referent == null || !referent.isValid();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DerivedKeyId)) {
+                return false;
+            }
+            DerivedKeyId other = (DerivedKeyId) obj;
+            Passphrase referent = passphrase.get();
+            return referent != null && referent == other.passphrase.get()
+                    && keyAlgorithm == other.keyAlgorithm
+                    && type == other.type
+                    && hashAlgorithm == other.hashAlgorithm
+                    && iterationCount == other.iterationCount
+                    && Arrays.equals(salt, other.salt);
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = passphraseHash;
+            hashCode = 31 * hashCode + keyAlgorithm;
+            hashCode = 31 * hashCode + type;
+            hashCode = 31 * hashCode + hashAlgorithm;
+            hashCode = 31 * hashCode + Arrays.hashCode(salt);
+            return 31 * hashCode + (int) (iterationCount ^ (iterationCount >>> 32));
+        }
+    }
+}
@@ -17,6 +17,7 @@ package org.pgpainless.implementation;
 
 import java.security.KeyPair;
 import java.util.Date;
+import javax.annotation.Nullable;
 
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
@@ -43,6 +44,10 @@ import org.pgpainless.util.Passphrase;
 public abstract class ImplementationFactory {
 
     private static ImplementationFactory FACTORY_IMPLEMENTATION = new BcImplementationFactory();
+    private static final int DERIVED_KEY_CACHE_SIZE = 32;
+
+    private volatile CachingPBESecretKeyDecryptor.DerivedKeyCache derivedKeyCache =
+            new CachingPBESecretKeyDecryptor.DerivedKeyCache(DERIVED_KEY_CACHE_SIZE);
 
     public static void setFactoryImplementation(ImplementationFactory implementation) {
         FACTORY_IMPLEMENTATION = implementation;
@@ -67,6 +72,47 @@ public abstract class ImplementationFactory {
 
     public abstract PBESecretKeyDecryptor getPBESecretKeyDecryptor(Passphrase passphrase) throws PGPException;
 
+    /**
+     * Return the cache of key-encryption keys derived by the {@link PBESecretKeyDecryptor PBESecretKeyDecryptors}
+     * of this factory.
+     *
+     * @return derived key cache or null if caching is disabled
+     */
+    public @Nullable CachingPBESecretKeyDecryptor.DerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
+    /**
+     * Set the cache of key-encryption keys derived by the {@link PBESecretKeyDecryptor PBESecretKeyDecryptors}
+     * of this factory. Passing null disables caching of derived keys.
+     * The keys in the previous cache are wiped.
+     *
+     * @param derivedKeyCache derived key cache or null
+     */
+    public void setDerivedKeyCache(@Nullable CachingPBESecretKeyDecryptor.DerivedKeyCache derivedKeyCache) {
+        CachingPBESecretKeyDecryptor.DerivedKeyCache previous = this.derivedKeyCache;
+        this.derivedKeyCache = derivedKeyCache;
+        if (previous != null && previous != derivedKeyCache) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Wrap the given decryptor, so that it caches its derived keys in the {@link #getDerivedKeyCache() derived key cache}.
+     * If caching is disabled, the decryptor is returned as is.
+     *
+     * @param decryptor decryptor which was created from the passphrase
+     * @param passphrase passphrase
+     * @return caching decryptor
+     */
+    protected PBESecretKeyDecryptor withDerivedKeyCache(PBESecretKeyDecryptor decryptor, Passphrase passphrase) {
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = getDerivedKeyCache();
+        if (cache == null) {
+            return decryptor;
+        }
+        return new CachingPBESecretKeyDecryptor(decryptor, passphrase, cache);
+    }
+
     public PGPDigestCalculator getPGPDigestCalculator(HashAlgorithm algorithm) throws PGPException {
         return getPGPDigestCalculator(algorithm.getAlgorithmId());
     }
@@ -68,9 +68,10 @@ public class JceImplementationFactory extends ImplementationFactory {
     }
 
     public PBESecretKeyDecryptor getPBESecretKeyDecryptor(Passphrase passphrase) throws PGPException {
-        return new JcePBESecretKeyDecryptorBuilder(getPGPDigestCalculatorProvider())
+        PBESecretKeyDecryptor decryptor = new JcePBESecretKeyDecryptorBuilder(getPGPDigestCalculatorProvider())
                 .setProvider(ProviderFactory.getProvider())
                 .build(passphrase.getChars());
+        return withDerivedKeyCache(decryptor, passphrase);
     }
 
     public PGPDigestCalculatorProvider getPGPDigestCalculatorProvider()
@@ -15,9 +15,13 @@
  */
 package org.pgpainless.key.protection;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -34,17 +38,27 @@ import org.pgpainless.util.Passphrase;
  * Implementation of the {@link SecretKeyRingProtector} which holds a map of key ids and their passwords.
  * In case the needed passphrase is not contained in the map, the {@code missingPassphraseCallback} will be consulted,
  * and the passphrase is added to the map.
+ *
+ * The protector is thread-safe and can be shared between threads. Looking up a cached passphrase does not block.
+ * If multiple threads ask for the same missing passphrase concurrently, the {@code missingPassphraseCallback} is only
+ * called once and all threads receive its result.
+ *
+ * Passphrases can be added with a time to live, after which they are no longer used.
  */
 public class CachingSecretKeyRingProtector implements SecretKeyRingProtector, SecretKeyPassphraseProvider {
 
-    private final Map<Long, Passphrase> cache = new HashMap<>();
+    private static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+    private final ConcurrentHashMap<Long, CachedPassphrase> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, FutureTask<Passphrase>> pendingCallbacks = new ConcurrentHashMap<>();
     private final SecretKeyRingProtector protector;
     private final SecretKeyPassphraseProvider provider;
+    private volatile long callbackPassphraseTimeToLiveNanos = NO_EXPIRATION;
 
     public CachingSecretKeyRingProtector(@Nonnull Map<Long, Passphrase> passphrases,
                                          @Nonnull KeyRingProtectionSettings protectionSettings,
                                          @Nullable SecretKeyPassphraseProvider missingPassphraseCallback) {
-        this.cache.putAll(passphrases);
+        addPassphrases(passphrases);
         this.protector = new PasswordBasedSecretKeyRingProtector(protectionSettings, this);
         this.provider = missingPassphraseCallback;
     }
@@ -56,7 +70,34 @@ public class CachingSecretKeyRingProtector implements SecretKeyRingProtector, Se
      * @param passphrase passphrase
      */
     public void addPassphrase(@Nonnull Long keyId, @Nullable Passphrase passphrase) {
-        this.cache.put(keyId, passphrase);
+        this.cache.put(keyId, new CachedPassphrase(passphrase, NO_EXPIRATION));
+    }
+
+    /**
+     * Add a passphrase to the cache, which is forgotten after the given time.
+     * Expired passphrases are not cleared, as the passphrase object might still be in use elsewhere.
+     *
+     * @param keyId id of the key
+     * @param passphrase passphrase
+     * @param timeToLive time after which the passphrase expires
+     * @param unit unit of the time to live
+     */
+    public void addPassphrase(@Nonnull Long keyId, @Nullable Passphrase passphrase, long timeToLive, @Nonnull TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live MUST be positive.");
+        }
+        this.cache.put(keyId, new CachedPassphrase(passphrase, unit.toNanos(timeToLive)));
+    }
+
+    /**
+     * Add all passphrases of the given map of key ids and passphrases to the cache.
+     *
+     * @param passphrases map of key ids and their respective passphrases
+     */
+    public void addPassphrases(@Nonnull Map<Long, Passphrase> passphrases) {
+        for (Map.Entry<Long, Passphrase> entry : passphrases.entrySet()) {
+            addPassphrase(entry.getKey(), entry.getValue());
+        }
     }
 
     /**
@@ -87,16 +128,32 @@ public class CachingSecretKeyRingProtector implements SecretKeyRingProtector, Se
         addPassphrase(fingerprint.getKeyId(), passphrase);
     }
 
+    /**
+     * Set the time after which passphrases which were provided by the {@code missingPassphraseCallback} expire.
+     * By default, those passphrases do not expire.
+     *
+     * @param timeToLive time to live
+     * @param unit unit of the time to live
+     */
+    public void setCallbackPassphraseTimeToLive(long timeToLive, @Nonnull TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live MUST be positive.");
+        }
+        this.callbackPassphraseTimeToLiveNanos = unit.toNanos(timeToLive);
+    }
+
     /**
      * Remove a passphrase from the cache.
      * The passphrase will be cleared and then removed.
+     * Unknown key ids are ignored.
      *
      * @param keyId id of the key
      */
     public void forgetPassphrase(@Nonnull Long keyId) {
-        Passphrase passphrase = cache.get(keyId);
-        passphrase.clear();
-        cache.remove(keyId);
+        CachedPassphrase entry = cache.remove(keyId);
+        if (entry != null && entry.passphrase != null) {
+            entry.passphrase.clear();
+        }
     }
 
     /**
@@ -124,17 +181,73 @@ public class CachingSecretKeyRingProtector implements SecretKeyRingProtector, Se
     @Override
     @Nullable
     public Passphrase getPassphraseFor(Long keyId) {
-        Passphrase passphrase = cache.get(keyId);
-        if (passphrase == null || !passphrase.isValid()) {
-            if (provider == null) {
-                return null;
+        Passphrase passphrase = getCachedPassphrase(keyId);
+        if (passphrase != null || provider == null) {
+            return passphrase;
+        }
+        return requestMissingPassphrase(keyId);
+    }
+
+    /**
+     * Return the cached passphrase for the given key, or null if it is missing, cleared or expired.
+     */
+    private Passphrase getCachedPassphrase(Long keyId) {
+        CachedPassphrase entry = cache.get(keyId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            cache.remove(keyId, entry);
+            return null;
+        }
+        if (entry.passphrase == null || !entry.passphrase.isValid()) {
+            return null;
+        }
+        return entry.passphrase;
+    }
+
+    /**
+     * Ask the {@code missingPassphraseCallback} for the passphrase of the given key.
+     * Concurrent requests for the same key share a single call to the callback.
+     */
+    private Passphrase requestMissingPassphrase(final Long keyId) {
+        FutureTask<Passphrase> request = new FutureTask<>(new Callable<Passphrase>() {
+            @Override
+            public Passphrase call() {
+                // Another thread might have added the passphrase in the meantime
+                Passphrase passphrase = getCachedPassphrase(keyId);
+                if (passphrase != null) {
+                    return passphrase;
+                }
+                passphrase = provider.getPassphraseFor(keyId);
+                if (passphrase != null) {
+                    cache.put(keyId, new CachedPassphrase(passphrase, callbackPassphraseTimeToLiveNanos));
+                }
+                return passphrase;
+            }
+        });
+        FutureTask<Passphrase> pending = pendingCallbacks.putIfAbsent(keyId, request);
+        if (pending == null) {
+            pending = request;
+            try {
+                request.run();
+            } finally {
+                pendingCallbacks.remove(keyId, request);
             }
-            passphrase = provider.getPassphraseFor(keyId);
-            if (passphrase != null) {
-                cache.put(keyId, passphrase);
+        }
+
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw (Error) cause;
         }
-        return passphrase;
     }
 
     @Override
@@ -148,4 +261,21 @@ public class CachingSecretKeyRingProtector implements SecretKeyRingProtector, Se
     public PBESecretKeyEncryptor getEncryptor(@Nonnull Long keyId) throws PGPException {
         return protector.getEncryptor(keyId);
     }
+
+    private static final class CachedPassphrase {
+
+        private final Passphrase passphrase;
+        private final boolean expires;
+        private final long expirationTime;
+
+        private CachedPassphrase(Passphrase passphrase, long timeToLiveNanos) {
+            this.passphrase = passphrase;
+            this.expires = timeToLiveNanos != NO_EXPIRATION;
+            this.expirationTime = expires ? System.nanoTime() + timeToLiveNanos : 0;
+        }
+
+        private boolean isExpired() {
+            return expires && System.nanoTime() - expirationTime > 0;
+        }
+    }
 }
@@ -27,6 +27,9 @@ public class UnlockSecretKey {
 
     public static PGPPrivateKey unlockSecretKey(PGPSecretKey secretKey, SecretKeyRingProtector protector)
             throws WrongPassphraseException {
+        if (protector instanceof UnlockedKeyCache.CachingProtector) {
+            return ((UnlockedKeyCache.CachingProtector) protector).unlock(secretKey);
+        }
         try {
             PBESecretKeyDecryptor decryptor = null;
             if (KeyInfo.isEncrypted(secretKey)) {
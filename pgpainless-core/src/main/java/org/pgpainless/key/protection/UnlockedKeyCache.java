@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.key.protection;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyRing;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
+import org.pgpainless.exception.WrongPassphraseException;
+
+/**
+ * Bounded cache of unlocked private keys, keyed by subkey id.
+ *
+ * Unlocking a secret key requires the (deliberately expensive) S2K key derivation and parsing of the private
+ * key material. Applications which repeatedly sign or decrypt using the same keys can avoid this by wrapping their
+ * {@link SecretKeyRingProtector} using {@link #protect(SecretKeyRingProtector)}. Any operation which unlocks a secret
+ * key through {@link UnlockSecretKey} using the returned protector takes the private key from the cache, if present.
+ *
+ * Entries expire if they were not accessed for the idle time to live, or once the absolute time to live after
+ * unlocking has passed. If the cache is full, the least recently used entry is evicted.
+ * Expired entries are evicted eagerly on every access of the cache. Note, that evicting an entry only drops the
+ * reference to the private key. BouncyCastle stores the private key material in immutable objects, which cannot be
+ * overwritten.
+ *
+ * Since cached private keys are handed out without asking the wrapped protector for a passphrase, the cache must
+ * only be shared between protectors which are allowed to unlock the same keys.
+ * The cache is thread-safe.
+ */
+public class UnlockedKeyCache {
+
+    private final int maxSize;
+    private final long idleTimeToLiveNanos;
+    private final long absoluteTimeToLiveNanos;
+    private final Map<Long, CachedPrivateKey> entries;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Create a new {@link UnlockedKeyCache}.
+     *
+     * @param maxSize maximum number of cached private keys
+     * @param idleTimeToLive time after which a cached private key expires if it was not used
+     * @param absoluteTimeToLive time after which a cached private key expires, regardless of its use
+     * @param unit unit of the times to live
+     */
+    public UnlockedKeyCache(int maxSize, long idleTimeToLive, long absoluteTimeToLive, @Nonnull TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size MUST be positive.");
+        }
+        if (idleTimeToLive <= 0 || absoluteTimeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live MUST be positive.");
+        }
+        this.maxSize = maxSize;
+        this.idleTimeToLiveNanos = unit.toNanos(idleTimeToLive);
+        this.absoluteTimeToLiveNanos = unit.toNanos(absoluteTimeToLive);
+        this.entries = new LinkedHashMap<Long, CachedPrivateKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedPrivateKey> eldest) {
+                if (size() > UnlockedKeyCache.this.maxSize) {
+                    evicted(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return a {@link SecretKeyRingProtector} which unlocks secret keys using the given protector and caches
+     * the unlocked private keys in this cache.
+     *
+     * @param protector protector used to unlock keys which are not cached
+     * @return caching protector
+     */
+    public SecretKeyRingProtector protect(@Nonnull SecretKeyRingProtector protector) {
+        return new CachingProtector(this, protector);
+    }
+
+    /**
+     * Return the number of lookups that were answered from the cache.
+     *
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the number of lookups that could not be answered from the cache.
+     *
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Return the number of private keys which were evicted because they expired or the cache was full.
+     * Explicitly invalidated keys are not counted.
+     *
+     * @return eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Return the number of cached private keys.
+     *
+     * @return size
+     */
+    public synchronized int size() {
+        evictExpired(System.nanoTime());
+        return entries.size();
+    }
+
+    /**
+     * Remove the private key of the (sub-)key with the given id from the cache.
+     *
+     * @param keyId key id
+     */
+    public synchronized void invalidate(long keyId) {
+        CachedPrivateKey entry = entries.remove(keyId);
+        if (entry != null) {
+            entry.wipe();
+        }
+    }
+
+    /**
+     * Remove the private keys of all (sub-)keys of the given key ring from the cache.
+     * This should be called if the key ring got revoked or its passphrase got changed.
+     *
+     * @param keyRing key ring
+     */
+    public synchronized void invalidate(@Nonnull PGPKeyRing keyRing) {
+        Iterator<PGPPublicKey> publicKeys = keyRing.getPublicKeys();
+        while (publicKeys.hasNext()) {
+            invalidate(publicKeys.next().getKeyID());
+        }
+    }
+
+    /**
+     * Remove all private keys from the cache.
+     */
+    public synchronized void invalidateAll() {
+        for (CachedPrivateKey entry : entries.values()) {
+            entry.wipe();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Return the cached private key of the given secret key, or null if it is not cached or expired.
+     *
+     * @param secretKey secret key
+     * @return private key or null
+     */
+    synchronized PGPPrivateKey get(PGPSecretKey secretKey) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        CachedPrivateKey entry = entries.get(secretKey.getKeyID());
+        // Key ids are not unique, so make sure that the cached key belongs to the given secret key
+        if (entry == null || !Arrays.equals(entry.fingerprint, secretKey.getPublicKey().getFingerprint())) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        entry.lastAccessTime = now;
+        return entry.privateKey;
+    }
+
+    /**
+     * Cache the unlocked private key of the given secret key.
+     *
+     * @param secretKey secret key
+     * @param privateKey unlocked private key
+     */
+    synchronized void put(PGPSecretKey secretKey, PGPPrivateKey privateKey) {
+        CachedPrivateKey previous = entries.put(secretKey.getKeyID(),
+                new CachedPrivateKey(secretKey.getPublicKey().getFingerprint(), privateKey, System.nanoTime()));
+        if (previous != null && previous.privateKey != privateKey) {
+            previous.wipe();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<CachedPrivateKey> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CachedPrivateKey entry = iterator.next();
+            if (now - entry.creationTime > absoluteTimeToLiveNanos || now - entry.lastAccessTime > idleTimeToLiveNanos) {
+                iterator.remove();
+                evicted(entry);
+            }
+        }
+    }
+
+    private void evicted(CachedPrivateKey entry) {
+        evictionCount++;
+        entry.wipe();
+    }
+
+    private static final class CachedPrivateKey {
+
+        private final byte[] fingerprint;
+        private final long creationTime;
+        private PGPPrivateKey privateKey;
+        private long lastAccessTime;
+
+        private CachedPrivateKey(byte[] fingerprint, PGPPrivateKey privateKey, long creationTime) {
+            this.fingerprint = fingerprint;
+            this.privateKey = privateKey;
+            this.creationTime = creationTime;
+            this.lastAccessTime = creationTime;
+        }
+
+        private void wipe() {
+            privateKey = null;
+        }
+    }
+
+    /**
+     * Protector which delegates to another protector and caches unlocked private keys.
+     * {@link UnlockSecretKey} recognizes this protector and consults the cache before unlocking a key.
+     */
+    static final class CachingProtector implements SecretKeyRingProtector {
+
+        private final UnlockedKeyCache cache;
+        private final SecretKeyRingProtector delegate;
+
+        private CachingProtector(UnlockedKeyCache cache, SecretKeyRingProtector delegate) {
+            this.cache = cache;
+            this.delegate = delegate;
+        }
+
+        @Override
+        @Nullable
+        public PBESecretKeyDecryptor getDecryptor(Long keyId) throws PGPException {
+            return delegate.getDecryptor(keyId);
+        }
+
+        @Override
+        @Nullable
+        public PBESecretKeyEncryptor getEncryptor(Long keyId) throws PGPException {
+            return delegate.getEncryptor(keyId);
+        }
+
+        PGPPrivateKey unlock(PGPSecretKey secretKey) throws WrongPassphraseException {
+            PGPPrivateKey privateKey = cache.get(secretKey);
+            if (privateKey == null) {
+                // Unlock outside of the lock, as the key derivation is expensive
+                privateKey = UnlockSecretKey.unlockSecretKey(secretKey, delegate);
+                cache.put(secretKey, privateKey);
+            }
+            return privateKey;
+        }
+    }
+}
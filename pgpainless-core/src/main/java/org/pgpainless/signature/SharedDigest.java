@@ -0,0 +1,473 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.signature;
+
+import java.io.OutputStream;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.CryptoException;
+import org.bouncycastle.crypto.CryptoServicesRegistrar;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.Signer;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA224Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.signers.DSADigestSigner;
+import org.bouncycastle.crypto.signers.DSASigner;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.operator.PGPContentSigner;
+import org.bouncycastle.openpgp.operator.PGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.PGPContentVerifier;
+import org.bouncycastle.openpgp.operator.PGPContentVerifierBuilder;
+import org.bouncycastle.openpgp.operator.PGPContentVerifierBuilderProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyConverter;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Memoable;
+import org.pgpainless.implementation.BcImplementationFactory;
+import org.pgpainless.implementation.ImplementationFactory;
+
+/**
+ * Digest over signed data, which is shared by all signatures of the same hash algorithm and signature type.
+ *
+ * The signed data is hashed only once. Signers and verifiers created by this class fork the digest state
+ * the first time they are written to, which happens when the signature generator or signature appends the
+ * signatures trailer after all data has been processed.
+ *
+ * Signers and verifiers are built from BouncyCastle's lightweight API, so digests are only shared if the
+ * {@link BcImplementationFactory} is in use (see {@link #isSupportedImplementation(ImplementationFactory)}).
+ */
+final class SharedDigest {
+
+    private static final BcPGPKeyConverter keyConverter = new BcPGPKeyConverter();
+
+    private final Digest digest;
+    private final int hashAlgorithm;
+    private final boolean canonicalText;
+    private byte lastByte;
+
+    private SharedDigest(Digest digest, int hashAlgorithm, int signatureType) {
+        this.digest = digest;
+        this.hashAlgorithm = hashAlgorithm;
+        this.canonicalText = signatureType == PGPSignature.CANONICAL_TEXT_DOCUMENT;
+    }
+
+    /**
+     * Create a shared digest for the given hash algorithm and signature type.
+     *
+     * @param hashAlgorithm hash algorithm id
+     * @param signatureType signature type
+     * @return shared digest or null, if the hash algorithm is not supported
+     */
+    static SharedDigest create(int hashAlgorithm, int signatureType) {
+        Digest digest = createDigest(hashAlgorithm);
+        if (digest == null) {
+            return null;
+        }
+        return new SharedDigest(digest, hashAlgorithm, signatureType);
+    }
+
+    /**
+     * Return true if signatures can be computed over a shared digest when using the given implementation factory.
+     * Other implementations (e.g. JCE with a custom provider) must not be silently replaced with BouncyCastle's
+     * lightweight API, so their signatures are processed individually.
+     *
+     * @param implementationFactory implementation factory
+     * @return true if supported
+     */
+    static boolean isSupportedImplementation(ImplementationFactory implementationFactory) {
+        return implementationFactory instanceof BcImplementationFactory;
+    }
+
+    /**
+     * Return true if signatures made by the given public key algorithm can be computed over a shared digest.
+     *
+     * @param keyAlgorithm public key algorithm id
+     * @return true if supported
+     */
+    static boolean isSupportedKeyAlgorithm(int keyAlgorithm) {
+        switch (keyAlgorithm) {
+            case PublicKeyAlgorithmTags.RSA_GENERAL:
+            case PublicKeyAlgorithmTags.RSA_SIGN:
+            case PublicKeyAlgorithmTags.DSA:
+            case PublicKeyAlgorithmTags.ECDSA:
+            case PublicKeyAlgorithmTags.EDDSA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return true if data can be hashed into a shared digest of the given hash algorithm.
+     *
+     * @param hashAlgorithm hash algorithm id
+     * @return true if supported
+     */
+    static boolean isSupportedHashAlgorithm(int hashAlgorithm) {
+        return createDigest(hashAlgorithm) != null;
+    }
+
+    private static Digest createDigest(int hashAlgorithm) {
+        // All returned digests implement Memoable, which is required to fork the digest state
+        switch (hashAlgorithm) {
+            case HashAlgorithmTags.MD5:
+                return new MD5Digest();
+            case HashAlgorithmTags.SHA1:
+                return new SHA1Digest();
+            case HashAlgorithmTags.RIPEMD160:
+                return new RIPEMD160Digest();
+            case HashAlgorithmTags.SHA224:
+                return new SHA224Digest();
+            case HashAlgorithmTags.SHA256:
+                return new SHA256Digest();
+            case HashAlgorithmTags.SHA384:
+                return new SHA384Digest();
+            case HashAlgorithmTags.SHA512:
+                return new SHA512Digest();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Hash a single byte of signed data.
+     * Canonical text signatures convert line endings the same way {@link PGPSignature#update(byte)} does.
+     *
+     * @param b byte
+     */
+    void update(byte b) {
+        if (!canonicalText) {
+            digest.update(b);
+            return;
+        }
+
+        if (b == '\r') {
+            digest.update((byte) '\r');
+            digest.update((byte) '\n');
+        } else if (b == '\n') {
+            if (lastByte != '\r') {
+                digest.update((byte) '\r');
+                digest.update((byte) '\n');
+            }
+        } else {
+            digest.update(b);
+        }
+        lastByte = b;
+    }
+
+    /**
+     * Hash a slice of signed data.
+     *
+     * @param b buffer
+     * @param off offset
+     * @param len length
+     */
+    void update(byte[] b, int off, int len) {
+        if (!canonicalText) {
+            digest.update(b, off, len);
+            return;
+        }
+
+        for (int i = off; i < off + len; i++) {
+            update(b[i]);
+        }
+    }
+
+    /**
+     * Return a {@link PGPContentSignerBuilder} for signatures over this digest.
+     *
+     * @param keyAlgorithm public key algorithm of the signing key
+     * @return content signer builder
+     */
+    PGPContentSignerBuilder getContentSignerBuilder(final int keyAlgorithm) {
+        return new PGPContentSignerBuilder() {
+            @Override
+            public PGPContentSigner build(final int signatureType, final PGPPrivateKey privateKey) throws PGPException {
+                final ForkedDigest forkedDigest = new ForkedDigest();
+                final Signer signer = createSigner(keyAlgorithm, forkedDigest);
+                CipherParameters keyParameters = keyConverter.getPrivateKey(privateKey);
+                if (keyAlgorithm != PublicKeyAlgorithmTags.EDDSA) {
+                    // Like BcPGPContentSignerBuilder, provide randomness for the signature nonce
+                    keyParameters = new ParametersWithRandom(keyParameters, CryptoServicesRegistrar.getSecureRandom());
+                }
+                signer.init(true, keyParameters);
+
+                return new PGPContentSigner() {
+                    @Override
+                    public OutputStream getOutputStream() {
+                        return new SignerOutputStream(signer);
+                    }
+
+                    @Override
+                    public byte[] getSignature() {
+                        try {
+                            return signer.generateSignature();
+                        } catch (CryptoException e) {
+                            throw new IllegalStateException("Unable to create signature.", e);
+                        }
+                    }
+
+                    @Override
+                    public byte[] getDigest() {
+                        return forkedDigest.getResult();
+                    }
+
+                    @Override
+                    public int getType() {
+                        return signatureType;
+                    }
+
+                    @Override
+                    public int getHashAlgorithm() {
+                        return hashAlgorithm;
+                    }
+
+                    @Override
+                    public int getKeyAlgorithm() {
+                        return keyAlgorithm;
+                    }
+
+                    @Override
+                    public long getKeyID() {
+                        return privateKey.getKeyID();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Return a {@link PGPContentVerifierBuilderProvider} for verification of signatures over this digest.
+     *
+     * @return content verifier builder provider
+     */
+    PGPContentVerifierBuilderProvider getContentVerifierBuilderProvider() {
+        return new PGPContentVerifierBuilderProvider() {
+            @Override
+            public PGPContentVerifierBuilder get(final int keyAlgorithm, int hashAlgorithm) throws PGPException {
+                if (hashAlgorithm != SharedDigest.this.hashAlgorithm) {
+                    throw new PGPException("Hash algorithm mismatch. Expected " + SharedDigest.this.hashAlgorithm
+                            + ", got " + hashAlgorithm);
+                }
+
+                return new PGPContentVerifierBuilder() {
+                    @Override
+                    public PGPContentVerifier build(final PGPPublicKey publicKey) throws PGPException {
+                        final Signer signer = createSigner(keyAlgorithm, new ForkedDigest());
+                        signer.init(false, keyConverter.getPublicKey(publicKey));
+
+                        return new PGPContentVerifier() {
+                            @Override
+                            public OutputStream getOutputStream() {
+                                return new SignerOutputStream(signer);
+                            }
+
+                            @Override
+                            public boolean verify(byte[] expected) {
+                                return signer.verifySignature(expected);
+                            }
+
+                            @Override
+                            public int getHashAlgorithm() {
+                                return SharedDigest.this.hashAlgorithm;
+                            }
+
+                            @Override
+                            public int getKeyAlgorithm() {
+                                return keyAlgorithm;
+                            }
+
+                            @Override
+                            public long getKeyID() {
+                                return publicKey.getKeyID();
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    private static Signer createSigner(int keyAlgorithm, Digest digest) throws PGPException {
+        switch (keyAlgorithm) {
+            case PublicKeyAlgorithmTags.RSA_GENERAL:
+            case PublicKeyAlgorithmTags.RSA_SIGN:
+                return new RSADigestSigner(digest);
+            case PublicKeyAlgorithmTags.DSA:
+                return new DSADigestSigner(new DSASigner(), digest);
+            case PublicKeyAlgorithmTags.ECDSA:
+                return new DSADigestSigner(new ECDSASigner(), digest);
+            case PublicKeyAlgorithmTags.EDDSA:
+                return new EdDsaSigner(new Ed25519Signer(), digest);
+            default:
+                throw new PGPException("Unsupported public key algorithm: " + keyAlgorithm);
+        }
+    }
+
+    /**
+     * Digest which starts from a copy of the shared digest state.
+     * The copy is made lazily on first use, so that all signed data has been hashed into the shared digest by then.
+     */
+    private final class ForkedDigest implements Digest {
+
+        private Digest state;
+        private byte[] result;
+
+        private Digest state() {
+            if (state == null) {
+                state = (Digest) ((Memoable) digest).copy();
+            }
+            return state;
+        }
+
+        @Override
+        public String getAlgorithmName() {
+            return digest.getAlgorithmName();
+        }
+
+        @Override
+        public int getDigestSize() {
+            return digest.getDigestSize();
+        }
+
+        @Override
+        public void update(byte in) {
+            state().update(in);
+        }
+
+        @Override
+        public void update(byte[] in, int inOff, int len) {
+            state().update(in, inOff, len);
+        }
+
+        @Override
+        public int doFinal(byte[] out, int outOff) {
+            int length = state().doFinal(out, outOff);
+            result = Arrays.copyOfRange(out, outOff, outOff + length);
+            return length;
+        }
+
+        @Override
+        public void reset() {
+            // Signers reset their digest on initialization, which must not discard the shared state
+            state = null;
+        }
+
+        /**
+         * Return the final digest value, which is used as quick check value in the signature packet.
+         *
+         * @return digest value
+         */
+        private byte[] getResult() {
+            if (result != null) {
+                return Arrays.clone(result);
+            }
+            Digest copy = (Digest) ((Memoable) state()).copy();
+            byte[] out = new byte[copy.getDigestSize()];
+            copy.doFinal(out, 0);
+            return out;
+        }
+    }
+
+    /**
+     * OpenPGP EdDSA signs the hash of the data instead of the data itself.
+     */
+    private static final class EdDsaSigner implements Signer {
+
+        private final Signer signer;
+        private final Digest digest;
+
+        private EdDsaSigner(Signer signer, Digest digest) {
+            this.signer = signer;
+            this.digest = digest;
+        }
+
+        @Override
+        public void init(boolean forSigning, CipherParameters param) {
+            signer.init(forSigning, param);
+            digest.reset();
+        }
+
+        @Override
+        public void update(byte b) {
+            digest.update(b);
+        }
+
+        @Override
+        public void update(byte[] in, int off, int len) {
+            digest.update(in, off, len);
+        }
+
+        @Override
+        public byte[] generateSignature() throws CryptoException {
+            signer.update(finish(), 0, digest.getDigestSize());
+            return signer.generateSignature();
+        }
+
+        @Override
+        public boolean verifySignature(byte[] signature) {
+            signer.update(finish(), 0, digest.getDigestSize());
+            return signer.verifySignature(signature);
+        }
+
+        private byte[] finish() {
+            byte[] hash = new byte[digest.getDigestSize()];
+            digest.doFinal(hash, 0);
+            return hash;
+        }
+
+        @Override
+        public void reset() {
+            signer.reset();
+            digest.reset();
+        }
+    }
+
+    /**
+     * {@link OutputStream} which writes into a {@link Signer}.
+     */
+    private static final class SignerOutputStream extends OutputStream {
+
+        private final Signer signer;
+
+        private SignerOutputStream(Signer signer) {
+            this.signer = signer;
+        }
+
+        @Override
+        public void write(int b) {
+            signer.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            signer.update(b, off, len);
+        }
+    }
+}
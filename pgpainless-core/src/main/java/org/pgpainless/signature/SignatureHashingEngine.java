@@ -0,0 +1,380 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.signature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPOnePassSignature;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
+import org.bouncycastle.openpgp.operator.PGPContentVerifierBuilderProvider;
+import org.pgpainless.implementation.ImplementationFactory;
+
+/**
+ * Feeds signed data into a number of signatures, while hashing the data only once per hash algorithm.
+ *
+ * Signatures over the same data only differ in their trailer, which contains the hashed subpackets.
+ * The engine therefore groups all registered signatures by hash algorithm and signature type.
+ * Groups of two or more signatures share a single digest, whose state is cloned for each signature
+ * once its trailer gets appended. Signatures that cannot share a digest (e.g. because they are the only
+ * member of their group or use an unsupported algorithm) are processed using the {@link ImplementationFactory}
+ * as usual. Digests are only shared when using the BouncyCastle implementation factory, since shared digests
+ * rely on BouncyCastle's lightweight API.
+ *
+ * Usage: Register all signatures, call {@link #initialize()} and then feed the signed data into
+ * {@link #update(byte[], int, int)}. Afterwards, the signatures can be verified or generated as usual.
+ */
+public final class SignatureHashingEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(SignatureHashingEngine.class.getName());
+    private static final Level LEVEL = Level.FINE;
+
+    private final List<Member> members = new ArrayList<>();
+    private final List<PGPSignatureGenerator> signatureGenerators = new ArrayList<>();
+    private HashingUnit[] units;
+
+    /**
+     * Register a signature (e.g. a detached signature) for verification.
+     * The signature gets initialized by {@link #initialize()}.
+     *
+     * @param signature signature
+     * @param verificationKey public key to verify the signature with
+     */
+    public void addSignature(final PGPSignature signature, final PGPPublicKey verificationKey) {
+        addMember(new Member(signature.getKeyAlgorithm(), signature.getHashAlgorithm(), signature.getSignatureType()) {
+            @Override
+            void init(PGPContentVerifierBuilderProvider verifierBuilderProvider) throws PGPException {
+                signature.init(verifierBuilderProvider, verificationKey);
+            }
+
+            @Override
+            HashingUnit standalone() {
+                return new HashingUnit() {
+                    @Override
+                    void update(byte b) {
+                        signature.update(b);
+                    }
+
+                    @Override
+                    void update(byte[] b, int off, int len) {
+                        signature.update(b, off, len);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Register a one-pass-signature for verification.
+     * The one-pass-signature gets initialized by {@link #initialize()}.
+     *
+     * @param onePassSignature one-pass-signature
+     * @param verificationKey public key to verify the signature with
+     */
+    public void addOnePassSignature(final PGPOnePassSignature onePassSignature, final PGPPublicKey verificationKey) {
+        addMember(new Member(onePassSignature.getKeyAlgorithm(), onePassSignature.getHashAlgorithm(),
+                onePassSignature.getSignatureType()) {
+            @Override
+            void init(PGPContentVerifierBuilderProvider verifierBuilderProvider) throws PGPException {
+                onePassSignature.init(verifierBuilderProvider, verificationKey);
+            }
+
+            @Override
+            HashingUnit standalone() {
+                return new HashingUnit() {
+                    @Override
+                    void update(byte b) {
+                        onePassSignature.update(b);
+                    }
+
+                    @Override
+                    void update(byte[] b, int off, int len) {
+                        onePassSignature.update(b, off, len);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Register a signature for creation.
+     * If the signature can share its digest with other signatures, a new signature generator will be created
+     * by {@link #initialize()}. Otherwise, the given generator is used.
+     * Use {@link #getSignatureGenerators()} to obtain the generators after initialization.
+     *
+     * @param signatureGenerator initialized signature generator, which is used if the digest cannot be shared
+     * @param signingKey signing key, or null if the digest must not be shared
+     * @param hashAlgorithm hash algorithm id of the signature
+     * @param signatureType signature type
+     */
+    public void addSignatureGenerator(final PGPSignatureGenerator signatureGenerator,
+                                      @Nullable final PGPPrivateKey signingKey,
+                                      int hashAlgorithm,
+                                      final int signatureType) {
+        addSignatureGenerator(signatureGenerator, signingKey, hashAlgorithm, signatureType, null);
+    }
+
+    /**
+     * Register a signature for creation.
+     * Works like {@link #addSignatureGenerator(PGPSignatureGenerator, PGPPrivateKey, int, int)}, but additionally
+     * sets the given hashed subpackets on the signature generator which is created if the digest can be shared.
+     *
+     * @param signatureGenerator initialized signature generator, which is used if the digest cannot be shared
+     * @param signingKey signing key, or null if the digest must not be shared
+     * @param hashAlgorithm hash algorithm id of the signature
+     * @param signatureType signature type
+     * @param hashedSubpackets hashed subpackets of the signature generator, or null
+     */
+    public void addSignatureGenerator(final PGPSignatureGenerator signatureGenerator,
+                                      @Nullable final PGPPrivateKey signingKey,
+                                      int hashAlgorithm,
+                                      final int signatureType,
+                                      @Nullable final PGPSignatureSubpacketVector hashedSubpackets) {
+        final int index = signatureGenerators.size();
+        signatureGenerators.add(signatureGenerator);
+        int signingKeyAlgorithm = signingKey == null ? -1 : signingKey.getPublicKeyPacket().getAlgorithm();
+
+        addMember(new Member(signingKeyAlgorithm, hashAlgorithm, signatureType) {
+            @Override
+            void init(SharedDigest sharedDigest) throws PGPException {
+                PGPSignatureGenerator generator = new PGPSignatureGenerator(sharedDigest.getContentSignerBuilder(keyAlgorithm));
+                generator.init(signatureType, signingKey);
+                if (hashedSubpackets != null) {
+                    generator.setHashedSubpackets(hashedSubpackets);
+                }
+                signatureGenerators.set(index, generator);
+            }
+
+            @Override
+            HashingUnit standalone() {
+                return new HashingUnit() {
+                    @Override
+                    void update(byte b) {
+                        signatureGenerator.update(b);
+                    }
+
+                    @Override
+                    void update(byte[] b, int off, int len) {
+                        signatureGenerator.update(b, off, len);
+                    }
+                };
+            }
+        });
+    }
+
+    private void addMember(Member member) {
+        if (units != null) {
+            throw new IllegalStateException("SignatureHashingEngine is already initialized.");
+        }
+        members.add(member);
+    }
+
+    /**
+     * Group all registered signatures and initialize them.
+     *
+     * @throws PGPException if a signature cannot be initialized
+     */
+    public void initialize() throws PGPException {
+        initialize(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider());
+    }
+
+    /**
+     * Group all registered signatures and initialize them using the given verifier builder provider.
+     *
+     * @param verifierBuilderProvider provider used to initialize signatures which do not share a digest
+     * @throws PGPException if a signature cannot be initialized
+     */
+    public void initialize(PGPContentVerifierBuilderProvider verifierBuilderProvider) throws PGPException {
+        if (units != null) {
+            throw new IllegalStateException("SignatureHashingEngine is already initialized.");
+        }
+
+        boolean shareDigests = SharedDigest.isSupportedImplementation(ImplementationFactory.getInstance());
+        Map<Integer, List<Member>> groups = new LinkedHashMap<>();
+        List<HashingUnit> hashingUnits = new ArrayList<>();
+        for (Member member : members) {
+            if (!shareDigests || !member.isShareable()) {
+                member.init(verifierBuilderProvider);
+                hashingUnits.add(member.standalone());
+                continue;
+            }
+            Integer groupKey = (member.hashAlgorithm << 8) | member.signatureType;
+            List<Member> group = groups.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(groupKey, group);
+            }
+            group.add(member);
+        }
+
+        for (List<Member> group : groups.values()) {
+            if (group.size() == 1) {
+                Member member = group.get(0);
+                member.init(verifierBuilderProvider);
+                hashingUnits.add(member.standalone());
+                continue;
+            }
+
+            Member first = group.get(0);
+            LOGGER.log(LEVEL, "Share digest of hash algorithm " + first.hashAlgorithm + " among " + group.size() + " signatures");
+            final SharedDigest sharedDigest = SharedDigest.create(first.hashAlgorithm, first.signatureType);
+            for (Member member : group) {
+                member.init(sharedDigest);
+            }
+            hashingUnits.add(new HashingUnit() {
+                @Override
+                void update(byte b) {
+                    sharedDigest.update(b);
+                }
+
+                @Override
+                void update(byte[] b, int off, int len) {
+                    sharedDigest.update(b, off, len);
+                }
+            });
+        }
+
+        units = hashingUnits.toArray(new HashingUnit[0]);
+    }
+
+    /**
+     * Return the signature generators of all signatures registered via
+     * {@link #addSignatureGenerator(PGPSignatureGenerator, PGPPrivateKey, int, int)} in order of registration.
+     *
+     * @return signature generators
+     */
+    public List<PGPSignatureGenerator> getSignatureGenerators() {
+        checkInitialized();
+        return Collections.unmodifiableList(signatureGenerators);
+    }
+
+    /**
+     * Return the number of independent hashing units (shared digests and standalone signatures).
+     * Different units can be updated concurrently using {@link #update(int, byte[], int, int)}.
+     *
+     * @return number of hashing units
+     */
+    public int getHashingUnitCount() {
+        checkInitialized();
+        return units.length;
+    }
+
+    /**
+     * Hash a single byte of signed data.
+     *
+     * @param b byte
+     */
+    public void update(byte b) {
+        for (int i = 0; i < units.length; i++) {
+            units[i].update(b);
+        }
+    }
+
+    /**
+     * Hash a slice of signed data.
+     *
+     * @param b buffer
+     * @param off offset
+     * @param len length
+     */
+    public void update(byte[] b, int off, int len) {
+        for (int i = 0; i < units.length; i++) {
+            units[i].update(b, off, len);
+        }
+    }
+
+    /**
+     * Hash a slice of signed data into a single hashing unit.
+     * Data of a single unit must be processed in order, while different units can be processed concurrently.
+     *
+     * @param unit index of the hashing unit
+     * @param b buffer
+     * @param off offset
+     * @param len length
+     */
+    public void update(int unit, byte[] b, int off, int len) {
+        units[unit].update(b, off, len);
+    }
+
+    private void checkInitialized() {
+        if (units == null) {
+            throw new IllegalStateException("SignatureHashingEngine is not yet initialized.");
+        }
+    }
+
+    /**
+     * Sink for signed data.
+     */
+    private abstract static class HashingUnit {
+
+        abstract void update(byte b);
+
+        abstract void update(byte[] b, int off, int len);
+    }
+
+    /**
+     * Registered signature.
+     */
+    private abstract static class Member {
+
+        final int keyAlgorithm;
+        final int hashAlgorithm;
+        final int signatureType;
+
+        Member(int keyAlgorithm, int hashAlgorithm, int signatureType) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.hashAlgorithm = hashAlgorithm;
+            this.signatureType = signatureType;
+        }
+
+        boolean isShareable() {
+            return SharedDigest.isSupportedKeyAlgorithm(keyAlgorithm) && SharedDigest.isSupportedHashAlgorithm(hashAlgorithm);
+        }
+
+        /**
+         * Initialize the signature for standalone processing.
+         *
+         * @param verifierBuilderProvider provider for the signature verifier
+         * @throws PGPException if the signature cannot be initialized
+         */
+        void init(PGPContentVerifierBuilderProvider verifierBuilderProvider) throws PGPException {
+            // Signature generators are already initialized
+        }
+
+        /**
+         * Initialize the signature for processing of a shared digest.
+         *
+         * @param sharedDigest shared digest
+         * @throws PGPException if the signature cannot be initialized
+         */
+        void init(SharedDigest sharedDigest) throws PGPException {
+            init(sharedDigest.getContentVerifierBuilderProvider());
+        }
+
+        abstract HashingUnit standalone();
+    }
+}
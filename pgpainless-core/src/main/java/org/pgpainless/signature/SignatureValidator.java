@@ -480,10 +480,14 @@ public abstract class SignatureValidator {
                     throw new SignatureValidationException("Primary key cannot be its own subkey.");
                 }
                 try {
-                    signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), primaryKey);
-                    boolean valid = signature.verifyCertification(primaryKey, subkey);
-                    if (!valid) {
-                        throw new SignatureValidationException("Signature is not correct.");
+                    // Self-signatures belong to certificates which may be validated by multiple threads at once,
+                    // while the signature keeps the state of the ongoing verification
+                    synchronized (signature) {
+                        signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), primaryKey);
+                        boolean valid = signature.verifyCertification(primaryKey, subkey);
+                        if (!valid) {
+                            throw new SignatureValidationException("Signature is not correct.");
+                        }
                     }
                 } catch (PGPException e) {
                     throw new SignatureValidationException("Cannot verify subkey binding signature correctness", e);
@@ -497,10 +501,12 @@ public abstract class SignatureValidator {
             @Override
             public void verify(PGPSignature signature) throws SignatureValidationException {
                 try {
-                    signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), subkey);
-                    boolean valid = signature.verifyCertification(primaryKey, subkey);
-                    if (!valid) {
-                        throw new SignatureValidationException("Primary Key Binding Signature is not correct.");
+                    synchronized (signature) {
+                        signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), subkey);
+                        boolean valid = signature.verifyCertification(primaryKey, subkey);
+                        if (!valid) {
+                            throw new SignatureValidationException("Primary Key Binding Signature is not correct.");
+                        }
                     }
                 } catch (PGPException e) {
                     throw new SignatureValidationException("Cannot verify primary key binding signature correctness", e);
@@ -514,15 +520,17 @@ public abstract class SignatureValidator {
             @Override
             public void verify(PGPSignature signature) throws SignatureValidationException {
                 try {
-                    signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), signer);
-                    boolean valid = false;
-                    if (signer.getKeyID() != signee.getKeyID()) {
-                        valid = signature.verifyCertification(signer, signee);
-                    } else {
-                        valid = signature.verifyCertification(signee);
-                    }
-                    if (!valid) {
-                        throw new SignatureValidationException("Signature is not correct.");
+                    synchronized (signature) {
+                        signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), signer);
+                        boolean valid = false;
+                        if (signer.getKeyID() != signee.getKeyID()) {
+                            valid = signature.verifyCertification(signer, signee);
+                        } else {
+                            valid = signature.verifyCertification(signee);
+                        }
+                        if (!valid) {
+                            throw new SignatureValidationException("Signature is not correct.");
+                        }
                     }
                 } catch (PGPException e) {
                     throw new SignatureValidationException("Cannot verify direct-key signature correctness", e);
@@ -563,10 +571,12 @@ public abstract class SignatureValidator {
             @Override
             public void verify(PGPSignature signature) throws SignatureValidationException {
                 try {
-                    signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), certifyingKey);
-                    boolean valid = signature.verifyCertification(userId, certifiedKey);
-                    if (!valid) {
-                        throw new SignatureValidationException("Signature over user-id '" + userId + "' is not correct.");
+                    synchronized (signature) {
+                        signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), certifyingKey);
+                        boolean valid = signature.verifyCertification(userId, certifiedKey);
+                        if (!valid) {
+                            throw new SignatureValidationException("Signature over user-id '" + userId + "' is not correct.");
+                        }
                     }
                 } catch (PGPException e) {
                     throw new SignatureValidationException("Cannot verify signature over user-id '" + userId + "'.", e);
@@ -580,10 +590,12 @@ public abstract class SignatureValidator {
             @Override
             public void verify(PGPSignature signature) throws SignatureValidationException {
                 try {
-                    signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), certifyingKey);
-                    boolean valid = signature.verifyCertification(userAttributes, certifiedKey);
-                    if (!valid) {
-                        throw new SignatureValidationException("Signature over user-attribute vector is not correct.");
+                    synchronized (signature) {
+                        signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(), certifyingKey);
+                        boolean valid = signature.verifyCertification(userAttributes, certifiedKey);
+                        if (!valid) {
+                            throw new SignatureValidationException("Signature over user-attribute vector is not correct.");
+                        }
                     }
                 } catch (PGPException e) {
                     throw new SignatureValidationException("Cannot verify signature over user-attribute vector.", e);
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link InputStream} which reads the remaining content of a {@link ByteBuffer}.
+ * Reading advances the position of the buffer.
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link OutputStream} which writes into a caller-supplied {@link ByteBuffer}.
+ * Writing advances the position of the buffer. Instead of growing the buffer,
+ * an {@link IOException} is thrown once its remaining space is exhausted.
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferOutputStream(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            throw overflow(1);
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        if (len > buffer.remaining()) {
+            throw overflow(len);
+        }
+        buffer.put(b, off, len);
+    }
+
+    private IOException overflow(int len) {
+        return new IOException("Output buffer is too small. Cannot write " + len + " bytes, only "
+                + buffer.remaining() + " bytes remaining.");
+    }
+}
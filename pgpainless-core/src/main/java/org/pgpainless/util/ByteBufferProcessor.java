@@ -0,0 +1,395 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.openpgp.PGPException;
+
+/**
+ * Base class for {@link Flow.Processor Processors} which transform a stream of {@link ByteBuffer ByteBuffers}
+ * and compute a result once the stream is complete.
+ *
+ * All signals are handled by a drain task, which is run on the given {@link Executor}. Only one drain task runs
+ * at a time, so subclasses do not need to synchronize {@link #process(ByteBuffer)} and {@link #finish()}.
+ * Signals from upstream and downstream merely enqueue work and return immediately.
+ *
+ * Backpressure is propagated in both directions: At most {@code prefetch} chunks are requested from upstream
+ * ahead of time, and no more input is processed while {@code prefetch} output chunks are waiting for demand
+ * from downstream.
+ *
+ * @param <R> type of the result
+ */
+public abstract class ByteBufferProcessor<R> implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    public static final int DEFAULT_PREFETCH = 4;
+
+    private final Executor executor;
+    private final int prefetch;
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final ArrayDeque<ByteBuffer> inbound = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super ByteBuffer> downstream;
+    private long outstanding;
+    private long demand;
+    private boolean upstreamComplete;
+    private boolean finishing;
+    private boolean cancelled;
+    private boolean terminated;
+    private boolean draining;
+    private Throwable error;
+    private R result;
+
+    protected ByteBufferProcessor(@Nonnull Executor executor, int prefetch) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch MUST be positive.");
+        }
+        this.executor = executor;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Transform a chunk of input.
+     * Output is published using {@link #emit(ByteBuffer)}.
+     *
+     * @param chunk input
+     * @throws PGPException in case of an OpenPGP related error
+     * @throws IOException in case of an IO error
+     */
+    protected abstract void process(ByteBuffer chunk) throws PGPException, IOException;
+
+    /**
+     * Invoked once all input was processed.
+     * Implementations emit their remaining output and eventually call {@link #complete(Object)}.
+     *
+     * @throws PGPException in case of an OpenPGP related error
+     * @throws IOException in case of an IO error
+     */
+    protected abstract void finish() throws PGPException, IOException;
+
+    /**
+     * Invoked if processing is aborted due to an error or cancellation.
+     * Implementations can override this method to release resources.
+     */
+    protected void abort() {
+
+    }
+
+    /**
+     * Return true, if more input can be accepted.
+     * This method is called while holding the lock of the processor and must therefore not block.
+     *
+     * @return true if the processor is ready for more input
+     */
+    protected boolean isReadyForInput() {
+        return true;
+    }
+
+    /**
+     * Signal that the processor may have become ready for more input (see {@link #isReadyForInput()}).
+     * This is intended for subclasses which consume input on a separate thread.
+     */
+    protected final void requestInput() {
+        schedule();
+    }
+
+    /**
+     * Publish a chunk of output. The chunk is handed over to the downstream subscriber once it requested it.
+     *
+     * @param chunk output
+     */
+    protected final void emit(@Nonnull ByteBuffer chunk) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            outbound.add(chunk);
+        }
+        schedule();
+    }
+
+    /**
+     * Wait until less than {@code prefetch} output chunks are waiting for demand.
+     * This is intended for subclasses which produce output on a separate thread.
+     *
+     * @throws InterruptedIOException if the thread is interrupted or processing was aborted
+     */
+    protected final synchronized void awaitOutputCapacity() throws InterruptedIOException {
+        while (!terminated && outbound.size() >= prefetch) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for downstream demand.");
+            }
+        }
+        if (terminated) {
+            throw new InterruptedIOException("Processing was aborted.");
+        }
+    }
+
+    /**
+     * Set the result of the processor.
+     * Once all output was delivered, the downstream subscriber is completed.
+     *
+     * @param processingResult result
+     */
+    protected final void complete(@Nonnull R processingResult) {
+        synchronized (this) {
+            if (result == null) {
+                result = processingResult;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Abort processing with an error, which is forwarded to the downstream subscriber.
+     *
+     * @param throwable error
+     */
+    protected final void fail(@Nonnull Throwable throwable) {
+        synchronized (this) {
+            if (error == null) {
+                error = throwable;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Return the result of the processor.
+     * The result is available once the downstream subscriber received {@link Flow.Subscriber#onComplete()}.
+     *
+     * @return result
+     */
+    public synchronized R getResult() {
+        if (result == null) {
+            throw new IllegalStateException("Processing is not yet completed.");
+        }
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(@Nonnull Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream == null && !terminated) {
+                upstream = subscription;
+                subscription = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onNext(@Nonnull ByteBuffer item) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            outstanding--;
+            inbound.add(item);
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(@Nonnull Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamComplete = true;
+        }
+        schedule();
+    }
+
+    @Override
+    public void subscribe(@Nonnull final Flow.Subscriber<? super ByteBuffer> subscriber) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = downstream == null;
+            if (accepted) {
+                downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+
+                }
+
+                @Override
+                public void cancel() {
+
+                }
+            });
+            subscriber.onError(new IllegalStateException("Processor only supports a single subscriber."));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (ByteBufferProcessor.this) {
+                    if (n <= 0) {
+                        if (error == null) {
+                            error = new IllegalArgumentException("Requested number of items MUST be positive.");
+                        }
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (ByteBufferProcessor.this) {
+                    cancelled = true;
+                }
+                schedule();
+            }
+        });
+        schedule();
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (draining) {
+                // The running drain task re-checks its state before it returns
+                return;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                draining = false;
+                if (error != null) {
+                    return;
+                }
+                error = e;
+            }
+            drain();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            ByteBuffer output = null;
+            ByteBuffer input = null;
+            Throwable failure = null;
+            Flow.Subscription upstreamToCancel = null;
+            Flow.Subscription upstreamToRequest = null;
+            long request = 0;
+            boolean callFinish = false;
+            boolean callComplete = false;
+            boolean callAbort = false;
+            Flow.Subscriber<? super ByteBuffer> subscriber;
+
+            synchronized (this) {
+                subscriber = downstream;
+                if (terminated) {
+                    draining = false;
+                    return;
+                }
+
+                if (cancelled || (error != null && subscriber != null)) {
+                    terminated = true;
+                    failure = cancelled ? null : error;
+                    callAbort = true;
+                    inbound.clear();
+                    outbound.clear();
+                    notifyAll();
+                    upstreamToCancel = upstreamComplete ? null : upstream;
+                } else if (error != null) {
+                    // Wait for the downstream subscriber to deliver the error
+                    draining = false;
+                    return;
+                } else if (subscriber != null && demand > 0 && !outbound.isEmpty()) {
+                    demand--;
+                    output = outbound.poll();
+                    notifyAll();
+                } else if (subscriber != null && result != null && outbound.isEmpty()) {
+                    terminated = true;
+                    callComplete = true;
+                    notifyAll();
+                } else if (!finishing && !inbound.isEmpty() && outbound.size() < prefetch) {
+                    input = inbound.poll();
+                } else if (!finishing && upstreamComplete && inbound.isEmpty()) {
+                    finishing = true;
+                    callFinish = true;
+                } else if (upstream != null && !upstreamComplete && isReadyForInput()
+                        && outstanding + inbound.size() < prefetch) {
+                    request = prefetch - outstanding - inbound.size();
+                    outstanding += request;
+                    upstreamToRequest = upstream;
+                } else {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (upstreamToCancel != null) {
+                upstreamToCancel.cancel();
+            }
+            if (callAbort) {
+                abort();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                }
+            } else if (output != null) {
+                subscriber.onNext(output);
+            } else if (callComplete) {
+                subscriber.onComplete();
+            } else if (upstreamToRequest != null) {
+                upstreamToRequest.request(request);
+            } else {
+                try {
+                    if (input != null) {
+                        process(input);
+                    } else if (callFinish) {
+                        finish();
+                    }
+                } catch (PGPException | IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.util;
+
+/**
+ * Interfaces of the reactive-streams specification.
+ *
+ * The interfaces mirror those of java.util.concurrent.Flow, which is not available on all platforms supported
+ * by PGPainless (e.g. older Android versions). Adapting them to java.util.concurrent.Flow or to the
+ * org.reactivestreams interfaces is a matter of delegating each method.
+ */
+public final class Flow {
+
+    private Flow() {
+
+    }
+
+    /**
+     * Producer of items which are received by {@link Subscriber Subscribers}.
+     *
+     * @param <T> type of the published items
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Subscribe the given subscriber to this publisher.
+         * The subscriber will receive a {@link Subscription} via {@link Subscriber#onSubscribe(Subscription)}.
+         *
+         * @param subscriber subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items.
+     * Items are only delivered after they were requested via {@link Subscription#request(long)}.
+     *
+     * @param <T> type of the received items
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Invoked prior to any other method with the subscription of this subscriber.
+         *
+         * @param subscription subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with the next item.
+         *
+         * @param item item
+         */
+        void onNext(T item);
+
+        /**
+         * Invoked once the publisher encountered an unrecoverable error.
+         * No other methods are invoked afterwards.
+         *
+         * @param throwable error
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked once all items were delivered.
+         * No other methods are invoked afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Link between a {@link Publisher} and a {@link Subscriber}.
+     */
+    public interface Subscription {
+
+        /**
+         * Request up to n more items.
+         *
+         * @param n number of items, must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items.
+         */
+        void cancel();
+    }
+
+    /**
+     * Component which acts as both {@link Subscriber} and {@link Publisher}.
+     *
+     * @param <T> type of the received items
+     * @param <R> type of the published items
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+
+    }
+}
@@ -22,31 +22,101 @@ import org.bouncycastle.openpgp.PGPEncryptedData;
 import org.bouncycastle.openpgp.PGPException;
 import org.pgpainless.exception.ModificationDetectionException;
 
+/**
+ * {@link InputStream} that wraps the decrypted data of a symmetrically encrypted integrity protected data packet
+ * and verifies the modification detection code once the stream gets closed.
+ * Optionally, the modification detection code can be verified as soon as the end of the stream is reached.
+ */
 public class IntegrityProtectedInputStream extends InputStream {
 
     private final InputStream inputStream;
     private final PGPEncryptedData encryptedData;
+    private final boolean verifyOnEndOfStream;
+    private boolean verified = false;
+    private IOException verificationFailure = null;
 
     public IntegrityProtectedInputStream(InputStream inputStream, PGPEncryptedData encryptedData) {
+        this(inputStream, encryptedData, false);
+    }
+
+    /**
+     * Create an {@link IntegrityProtectedInputStream}.
+     * If verifyOnEndOfStream is true, the modification detection code is verified as soon as the end of the stream is
+     * reached, so that read operations fail with a {@link ModificationDetectionException} in case of tampered data.
+     *
+     * @param inputStream decrypted data stream
+     * @param encryptedData encrypted data packet
+     * @param verifyOnEndOfStream whether to verify the integrity as soon as the end of the stream is reached
+     */
+    public IntegrityProtectedInputStream(InputStream inputStream, PGPEncryptedData encryptedData, boolean verifyOnEndOfStream) {
         this.inputStream = inputStream;
         this.encryptedData = encryptedData;
+        this.verifyOnEndOfStream = verifyOnEndOfStream;
     }
 
     @Override
     public int read() throws IOException {
-        return inputStream.read();
+        int r = inputStream.read();
+        if (r == -1 && verifyOnEndOfStream) {
+            verifyIntegrity();
+        }
+        return r;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = inputStream.read(b, off, len);
+        if (read == -1 && verifyOnEndOfStream) {
+            verifyIntegrity();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return inputStream.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return inputStream.available();
     }
 
     @Override
     public void close() throws IOException {
-        if (encryptedData.isIntegrityProtected()) {
-            try {
-                if (!encryptedData.verify()) {
-                    throw new ModificationDetectionException();
-                }
-            } catch (PGPException e) {
-                throw new IOException("Failed to verify integrity protection", e);
+        verifyIntegrity();
+    }
+
+    /**
+     * Verify the modification detection code of the encrypted data.
+     * The check is only performed once. Subsequent calls report the result of the first check.
+     *
+     * @throws ModificationDetectionException if the data was tampered with
+     * @throws IOException if the integrity protection cannot be verified
+     */
+    public void verifyIntegrity() throws IOException {
+        if (!verified) {
+            verified = true;
+            verificationFailure = checkModificationDetectionCode();
+        }
+        if (verificationFailure != null) {
+            throw verificationFailure;
+        }
+    }
+
+    private IOException checkModificationDetectionCode() {
+        if (!encryptedData.isIntegrityProtected()) {
+            return null;
+        }
+        try {
+            if (!encryptedData.verify()) {
+                return new ModificationDetectionException();
             }
+        } catch (PGPException e) {
+            return new IOException("Failed to verify integrity protection", e);
+        } catch (IOException e) {
+            return e;
         }
+        return null;
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+
+/**
+ * Symmetric session key of an encrypted message, consisting of the {@link SymmetricKeyAlgorithm}
+ * and the raw key material.
+ *
+ * The session key can be used to decrypt the message directly, without the need to decrypt one of the
+ * messages public-key or symmetric-key encrypted session key packets first.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc4880#section-2.1">RFC4880 on Session Keys</a>
+ */
+public class SessionKey {
+
+    private final SymmetricKeyAlgorithm algorithm;
+    private final byte[] key;
+
+    /**
+     * Create a new {@link SessionKey}.
+     *
+     * @param algorithm symmetric key algorithm
+     * @param key raw key material
+     */
+    public SessionKey(@Nonnull SymmetricKeyAlgorithm algorithm, @Nonnull byte[] key) {
+        this.algorithm = algorithm;
+        this.key = Arrays.copyOf(key, key.length);
+    }
+
+    /**
+     * Parse a {@link SessionKey} from its string representation.
+     * The string is expected to be of the form <pre>ALGONUM:HEXKEY</pre> as used by the
+     * Stateless OpenPGP Command Line Interface, e.g. <pre>9:FCA4BEAF687F48059CACC14FB019125CD57392BAB7037C707835925CBF9F7BCD</pre>.
+     *
+     * @param sessionKey string representation
+     * @return session key
+     * @throws IllegalArgumentException if the string is malformed or the algorithm is unknown
+     */
+    public static SessionKey fromString(@Nonnull String sessionKey) {
+        String trimmed = sessionKey.trim();
+        int separator = trimmed.indexOf(':');
+        if (separator <= 0 || separator == trimmed.length() - 1) {
+            throw new IllegalArgumentException("Malformed session key. Expected ALGONUM:HEXKEY.");
+        }
+
+        SymmetricKeyAlgorithm algorithm;
+        byte[] key;
+        try {
+            algorithm = SymmetricKeyAlgorithm.fromId(Integer.parseInt(trimmed.substring(0, separator)));
+            key = Hex.decode(trimmed.substring(separator + 1));
+        } catch (NumberFormatException | DecoderException e) {
+            throw new IllegalArgumentException("Malformed session key. Expected ALGONUM:HEXKEY.", e);
+        }
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unknown symmetric key algorithm " + trimmed.substring(0, separator));
+        }
+        return new SessionKey(algorithm, key);
+    }
+
+    /**
+     * Return the symmetric key algorithm.
+     *
+     * @return algorithm
+     */
+    public @Nonnull SymmetricKeyAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Return a copy of the raw key material.
+     *
+     * @return key
+     */
+    public @Nonnull byte[] getKey() {
+        return Arrays.copyOf(key, key.length);
+    }
+
+    @Override
+    public int hashCode() {
+        return algorithm.hashCode() * 31 + Arrays.hashCode(key);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SessionKey)) {
+            return false;
+        }
+        SessionKey other = (SessionKey) obj;
+        return getAlgorithm() == other.getAlgorithm() && Arrays.equals(key, other.key);
+    }
+
+    /**
+     * Return the string representation of the session key in the form <pre>ALGONUM:HEXKEY</pre>.
+     *
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return algorithm.getAlgorithmId() + ":" + Hex.toHexString(key).toUpperCase(Locale.ROOT);
+    }
+}
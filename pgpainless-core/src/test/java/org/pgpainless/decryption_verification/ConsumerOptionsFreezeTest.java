@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
+
+public class ConsumerOptionsFreezeTest {
+
+    private static final byte[] DATA = "Hello Template :)".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void frozenOptionsCanBeSharedBetweenThreads() throws Exception {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emilKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing emilCert = KeyRingUtils.publicKeyRingFrom(emilKeys);
+        final byte[] message = encryptAndSign(KeyRingUtils.publicKeyRingFrom(julietKeys), emilKeys);
+
+        final ConsumerOptions template = new ConsumerOptions()
+                .addDecryptionKey(julietKeys)
+                .addVerificationCert(emilCert)
+                .freeze();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<OpenPgpMetadata>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(new Callable<OpenPgpMetadata>() {
+                    @Override
+                    public OpenPgpMetadata call() throws Exception {
+                        return decrypt(message, template.forMessage());
+                    }
+                }));
+            }
+            for (Future<OpenPgpMetadata> result : results) {
+                OpenPgpMetadata metadata = result.get();
+                assertTrue(metadata.isEncrypted());
+                assertTrue(metadata.containsVerifiedSignatureFrom(emilCert));
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void frozenOptionsCannotBeModified() throws PGPException, IOException {
+        ConsumerOptions options = new ConsumerOptions();
+        assertFalse(options.isFrozen());
+        assertThrows(IllegalStateException.class, options::forMessage);
+
+        ConsumerOptions template = options.freeze();
+        assertTrue(template.isFrozen());
+        assertSame(template, template.freeze());
+        ConsumerOptions perMessage = template.forMessage();
+        assertTrue(perMessage.isFrozen());
+        assertSame(template, perMessage.freeze());
+
+        for (ConsumerOptions frozen : new ConsumerOptions[] {template, perMessage}) {
+            assertThrows(IllegalStateException.class, () -> frozen.addVerificationCert(TestKeys.getEmilPublicKeyRing()));
+            assertThrows(IllegalStateException.class, () -> frozen.addDecryptionKey(TestKeys.getJulietSecretKeyRing()));
+            assertThrows(IllegalStateException.class, () -> frozen.addDecryptionPassphrase(Passphrase.fromPassword("sw0rdf1sh")));
+            assertThrows(IllegalStateException.class, () -> frozen.setVerifyIntegrityOnEndOfStream(true));
+            assertThrows(IllegalStateException.class, () -> frozen.setSessionKeyCache(null));
+        }
+
+        // Modifying the original options does not affect the frozen snapshot
+        options.addVerificationCert(TestKeys.getEmilPublicKeyRing());
+        assertTrue(template.getCertificates().isEmpty());
+        assertNull(template.getCertificate(TestKeys.EMIL_KEY_ID));
+    }
+
+    @Test
+    public void perMessageStateDoesNotLeakIntoTemplate() throws PGPException, IOException {
+        PGPSecretKeyRing emilKeys = TestKeys.getEmilSecretKeyRing();
+        PGPSignature signature = detachedSignature(emilKeys);
+
+        ConsumerOptions template = new ConsumerOptions()
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(emilKeys))
+                .freeze();
+        assertThrows(IllegalStateException.class, () -> template.addVerificationOfDetachedSignature(signature));
+
+        // Per-message state cannot be frozen into the template
+        ConsumerOptions withSignature = new ConsumerOptions()
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(emilKeys))
+                .addVerificationOfDetachedSignature(signature);
+        assertThrows(IllegalStateException.class, withSignature::freeze);
+        ConsumerOptions withSessionKey = new ConsumerOptions()
+                .setSessionKey(new SessionKey(SymmetricKeyAlgorithm.AES_128, new byte[16]));
+        assertThrows(IllegalStateException.class, withSessionKey::freeze);
+
+        ConsumerOptions perMessage = template.forMessage()
+                .addVerificationOfDetachedSignature(signature);
+        assertEquals(1, perMessage.getDetachedSignatures().size());
+        assertTrue(template.getDetachedSignatures().isEmpty());
+        assertTrue(template.forMessage().getDetachedSignatures().isEmpty());
+
+        // Shared state is not copied
+        assertSame(template.getTrialDecryptionCandidates(), perMessage.getTrialDecryptionCandidates());
+        assertSame(template.getVerifierBuilderProvider(), perMessage.getVerifierBuilderProvider());
+        assertSame(template.getDerivedKeyCache(), perMessage.getDerivedKeyCache());
+
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(DATA))
+                .withOptions(perMessage);
+        Streams.drain(verifier);
+        verifier.close();
+        assertTrue(verifier.getResult().containsVerifiedSignatureFrom(TestKeys.EMIL_FINGERPRINT));
+    }
+
+    private static byte[] encryptAndSign(PGPPublicKeyRing recipient, PGPSecretKeyRing signer)
+            throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptCommunications().addRecipient(recipient),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), signer,
+                                DocumentSignatureType.BINARY_DOCUMENT)));
+        encryptionStream.write(DATA);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+
+    private static PGPSignature detachedSignature(PGPSecretKeyRing signer) throws PGPException, IOException {
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(new SigningOptions()
+                        .addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(), signer,
+                                DocumentSignatureType.BINARY_DOCUMENT)));
+        signingStream.write(DATA);
+        signingStream.close();
+        return signingStream.getResult().getDetachedSignatures().values().iterator().next().iterator().next();
+    }
+
+    private static OpenPgpMetadata decrypt(byte[] message, ConsumerOptions options)
+            throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+        assertArrayEquals(DATA, plaintext.toByteArray());
+        return decryptionStream.getResult();
+    }
+}
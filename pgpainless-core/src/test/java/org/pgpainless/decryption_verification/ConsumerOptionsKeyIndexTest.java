@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.key.OpenPgpV4Fingerprint;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class ConsumerOptionsKeyIndexTest {
+
+    @Test
+    public void certificatesAreIndexedByKeyIdAndFingerprint() throws PGPException, IOException {
+        PGPPublicKeyRing julietCert = TestKeys.getJulietPublicKeyRing();
+        PGPPublicKeyRing romeoCert = TestKeys.getRomeoPublicKeyRing();
+        ConsumerOptions options = new ConsumerOptions()
+                .addVerificationCert(julietCert)
+                .addVerificationCert(romeoCert);
+
+        for (PGPPublicKeyRing cert : new PGPPublicKeyRing[] {julietCert, romeoCert}) {
+            Iterator<PGPPublicKey> keys = cert.getPublicKeys();
+            while (keys.hasNext()) {
+                PGPPublicKey key = keys.next();
+                assertSame(cert, options.getCertificate(key.getKeyID()));
+                assertSame(cert, options.getCertificate(new OpenPgpV4Fingerprint(key)));
+            }
+        }
+
+        assertNull(options.getCertificate(TestKeys.EMIL_KEY_ID));
+        assertNull(options.getCertificate(TestKeys.EMIL_FINGERPRINT));
+    }
+
+    @Test
+    public void firstAddedCertificateTakesPrecedence() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing first = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        PGPPublicKeyRing second = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        assertNotSame(first, second);
+
+        ConsumerOptions options = new ConsumerOptions()
+                .addVerificationCert(first)
+                .addVerificationCert(second);
+        assertSame(first, options.getCertificate(TestKeys.JULIET_KEY_ID));
+        assertSame(first, options.getCertificate(TestKeys.JULIET_FINGERPRINT));
+        assertEquals(2, options.getCertificates().size());
+    }
+
+    @Test
+    public void decryptionKeysAreIndexedByKeyId() throws PGPException, IOException {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing romeoKeys = TestKeys.getRomeoSecretKeyRing();
+        ConsumerOptions options = new ConsumerOptions()
+                .addDecryptionKey(julietKeys)
+                .addDecryptionKey(romeoKeys)
+                .addDecryptionKey(TestKeys.getJulietSecretKeyRing());
+
+        for (PGPSecretKeyRing keys : new PGPSecretKeyRing[] {julietKeys, romeoKeys}) {
+            Iterator<PGPSecretKey> secretKeys = keys.getSecretKeys();
+            while (secretKeys.hasNext()) {
+                assertSame(keys, options.getDecryptionKey(secretKeys.next().getKeyID()));
+            }
+        }
+        assertNull(options.getDecryptionKey(TestKeys.EMIL_KEY_ID));
+    }
+}
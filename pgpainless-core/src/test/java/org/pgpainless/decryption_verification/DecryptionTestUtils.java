@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.util.io.Streams;
+import org.pgpainless.PGPainless;
+
+/**
+ * Utility class used to decrypt test messages, which contain {@link #DATA}, both using a {@link DecryptionStream}
+ * and using a {@link MessageDecoder}.
+ */
+public final class DecryptionTestUtils {
+
+    public static final byte[] DATA = "Hello, World!\nThis message is decrypted in a test.\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private DecryptionTestUtils() {
+
+    }
+
+    /**
+     * Decrypt the message using a {@link DecryptionStream} and check that the plaintext is {@link #DATA}.
+     *
+     * @param message encrypted message
+     * @param options consumer options
+     * @return metadata
+     */
+    public static OpenPgpMetadata decrypt(byte[] message, ConsumerOptions options)
+            throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+        assertArrayEquals(DATA, plaintext.toByteArray());
+        return decryptionStream.getResult();
+    }
+
+    /**
+     * Decode the encrypted message using a {@link MessageDecoder}.
+     *
+     * @param message encrypted message
+     * @param options consumer options
+     * @return plaintext
+     */
+    public static byte[] decode(byte[] message, ConsumerOptions options) throws PGPException, IOException {
+        final ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        MessageDecoder decoder = PGPainless.decryptAndOrVerify()
+                .asDecoder(new MessageDecoder.Listener() {
+                    @Override
+                    public void onFileInfo(OpenPgpMetadata.FileInfo fileInfo) {
+                    }
+
+                    @Override
+                    public void onPlaintext(ByteBuffer buffer) {
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        plaintext.write(bytes, 0, bytes.length);
+                    }
+                })
+                .withOptions(options);
+        decoder.feed(ByteBuffer.wrap(message));
+        OpenPgpMetadata metadata = decoder.finish();
+        assertNotNull(metadata.getSessionKey());
+        return plaintext.toByteArray();
+    }
+}
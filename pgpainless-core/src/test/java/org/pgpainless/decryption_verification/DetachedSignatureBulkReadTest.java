@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.encryption_signing.EncryptionResult;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+/**
+ * Test that detached signatures are correctly updated when the {@link DecryptionStream} is consumed
+ * using block reads, single byte reads and {@link DecryptionStream#skip(long)} in a mixed fashion.
+ */
+public class DetachedSignatureBulkReadTest {
+
+    @Test
+    public void verifyDetachedSignatureUsingMixedReads() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+
+        byte[] data = ("Privacy is necessary for an open society in the electronic age. " +
+                "Privacy is not secrecy. A private matter is something one doesn't want the whole world to know, " +
+                "but a secret matter is something one doesn't want anybody to know.").getBytes(StandardCharsets.UTF_8);
+
+        EncryptionStream signer = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(new SigningOptions()
+                        .addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys, DocumentSignatureType.BINARY_DOCUMENT)));
+        Streams.pipeAll(new ByteArrayInputStream(data), signer);
+        signer.close();
+
+        EncryptionResult result = signer.getResult();
+        PGPSignature signature = result.getDetachedSignatures().values().iterator().next().iterator().next();
+
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(data))
+                .withOptions(new ConsumerOptions()
+                        .addVerificationCert(publicKeys)
+                        .addVerificationOfDetachedSignature(signature));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(verifier.read());
+        byte[] buf = new byte[100];
+        int read = verifier.read(buf, 10, 50);
+        out.write(buf, 10, read);
+
+        long skipped = verifier.skip(30);
+        assertEquals(30, skipped);
+        byte[] skippedRegion = new byte[30];
+        System.arraycopy(data, 1 + read, skippedRegion, 0, skippedRegion.length);
+        out.write(skippedRegion);
+
+        Streams.pipeAll(verifier, out);
+        verifier.close();
+
+        assertArrayEquals(data, out.toByteArray());
+        assertTrue(verifier.getResult().containsVerifiedSignatureFrom(publicKeys));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.DATA;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decode;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decrypt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.EncryptionPurpose;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.exception.MissingDecryptionMethodException;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.info.KeyRingInfo;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class HiddenRecipientTrialDecryptionTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void decryptHiddenRecipientMessageConcurrently()
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        List<PGPSecretKeyRing> keys = generateKeys(6);
+        PGPSecretKeyRing recipient = keys.get(3);
+        byte[] message = encryptForHiddenRecipient(recipient);
+        SubkeyIdentifier expectedDecryptionKey = new SubkeyIdentifier(recipient, new KeyRingInfo(recipient)
+                .getEncryptionSubkeys(EncryptionPurpose.STORAGE_AND_COMMUNICATIONS).get(0).getKeyID());
+
+        ConsumerOptions options = new ConsumerOptions().setHiddenRecipientExecutor(executor);
+        for (PGPSecretKeyRing key : keys) {
+            options.addDecryptionKey(key);
+        }
+
+        OpenPgpMetadata metadata = decrypt(message, options);
+        assertEquals(0, metadata.getRecipientKeyIds().size());
+        assertEquals(expectedDecryptionKey, metadata.getDecryptionKey());
+
+        // Candidates are reused for subsequent messages
+        List<TrialDecryption.Candidate> candidates = options.getTrialDecryptionCandidates();
+        assertEquals(keys.size(), candidates.size());
+        assertEquals(expectedDecryptionKey, decrypt(encryptForHiddenRecipient(recipient), options).getDecryptionKey());
+        assertSame(candidates, options.getTrialDecryptionCandidates());
+
+        // The push-based decoder uses the same trial decryption
+        assertArrayEquals(DATA, decode(message, options));
+
+        // Without executor, the keys are tried one after another
+        options.setHiddenRecipientExecutor(null);
+        assertEquals(expectedDecryptionKey, decrypt(message, options).getDecryptionKey());
+    }
+
+    @Test
+    public void missingHiddenRecipientKeyIsReported()
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        List<PGPSecretKeyRing> keys = generateKeys(3);
+        byte[] message = encryptForHiddenRecipient(generateKeys(1).get(0));
+
+        ConsumerOptions options = new ConsumerOptions().setHiddenRecipientExecutor(executor);
+        for (PGPSecretKeyRing key : keys) {
+            options.addDecryptionKey(key);
+        }
+        assertThrows(MissingDecryptionMethodException.class, () -> decrypt(message, options));
+    }
+
+    @Test
+    public void remainingAttemptsAreSkippedAfterSuccess()
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        ConsumerOptions options = new ConsumerOptions();
+        for (PGPSecretKeyRing key : generateKeys(5)) {
+            options.addDecryptionKey(key);
+        }
+        List<TrialDecryption.Candidate> candidates = options.getTrialDecryptionCandidates();
+        final long matchingKeyId = candidates.get(0).getIdentifier().getSubkeyId();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            TrialDecryption.Result<String> result = TrialDecryption.findFirst(candidates, singleThread,
+                    new TrialDecryption.Attempt<String>() {
+                        @Override
+                        public String tryDecrypt(PGPPrivateKey privateKey) {
+                            attempts.incrementAndGet();
+                            return privateKey.getKeyID() == matchingKeyId ? "match" : null;
+                        }
+                    });
+            assertEquals("match", result.getValue());
+            assertEquals(matchingKeyId, result.getDecryptionKey().getSubkeyId());
+            assertEquals(1, attempts.get());
+
+            assertNull(TrialDecryption.findFirst(candidates, singleThread, new TrialDecryption.Attempt<String>() {
+                @Override
+                public String tryDecrypt(PGPPrivateKey privateKey) {
+                    return null;
+                }
+            }));
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    private static List<PGPSecretKeyRing> generateKeys(int count)
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        List<PGPSecretKeyRing> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(PGPainless.generateKeyRing().simpleEcKeyRing("user" + i + "@pgpainless.org"));
+        }
+        return keys;
+    }
+
+    /**
+     * Encrypt a message for the given key and replace the recipient key-id of the PKESK with the wildcard key-id.
+     */
+    private static byte[] encryptForHiddenRecipient(PGPSecretKeyRing recipient) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(recipient)))
+                        .setAsciiArmor(false));
+        encryptionStream.write(DATA);
+        encryptionStream.close();
+
+        byte[] message = out.toByteArray();
+        int offset;
+        if ((message[0] & 0x40) != 0) {
+            // new format packet header
+            int length = message[1] & 0xff;
+            offset = length < 192 ? 2 : length < 224 ? 3 : 6;
+        } else {
+            // old format packet header
+            int lengthType = message[0] & 0x03;
+            offset = lengthType == 0 ? 2 : lengthType == 1 ? 3 : 5;
+        }
+        // skip version
+        offset++;
+        for (int i = 0; i < 8; i++) {
+            message[offset + i] = 0;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.util.TestUtils.encrypt;
+import static org.pgpainless.util.TestUtils.randomText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionResult;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.exception.MissingDecryptionMethodException;
+import org.pgpainless.exception.ModificationDetectionException;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+
+public class MessageDecoderTest {
+
+    private static final Random RANDOM = new Random();
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void decodeSignedAndEncryptedMessages(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomText(100000);
+
+        for (CompressionAlgorithm compressionAlgorithm : CompressionAlgorithm.values()) {
+            for (boolean armor : new boolean[] {true, false}) {
+                ProducerOptions producerOptions = ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                                DocumentSignatureType.BINARY_DOCUMENT))
+                        .overrideCompressionAlgorithm(compressionAlgorithm)
+                        .setAsciiArmor(armor)
+                        .setFileName("data.txt");
+                byte[] message = encrypt(data, producerOptions);
+                ConsumerOptions consumerOptions = new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys);
+
+                DecodingResult result = decode(message, consumerOptions);
+                assertArrayEquals(data, result.plaintext.toByteArray());
+                assertTrue(result.metadata.containsVerifiedSignatureFrom(publicKeys));
+                assertEquals(compressionAlgorithm, result.metadata.getCompressionAlgorithm());
+                assertEquals("data.txt", result.fileInfo.getFileName());
+                assertEquals(result.fileInfo, result.metadata.getFileInfo());
+
+                // The stream based decryption yields the same result
+                OpenPgpMetadata streamMetadata = decryptStream(message, consumerOptions);
+                assertEquals(streamMetadata.getSymmetricKeyAlgorithm(), result.metadata.getSymmetricKeyAlgorithm());
+                assertEquals(streamMetadata.getDecryptionKey(), result.metadata.getDecryptionKey());
+                assertEquals(streamMetadata.getRecipientKeyIds(), result.metadata.getRecipientKeyIds());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void decodePassphraseEncryptedMessage(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        byte[] data = randomText(5000);
+        // Ciphers with 64 bit and 128 bit block size
+        for (SymmetricKeyAlgorithm algorithm : new SymmetricKeyAlgorithm[] {
+                SymmetricKeyAlgorithm.CAMELLIA_256, SymmetricKeyAlgorithm.AES_128, SymmetricKeyAlgorithm.CAST5}) {
+            EncryptionOptions encryptionOptions = EncryptionOptions.encryptCommunications()
+                    .addPassphrase(Passphrase.fromPassword("sw0rdf1sh"));
+            encryptionOptions.overrideEncryptionAlgorithm(algorithm);
+            byte[] message = encrypt(data, ProducerOptions.encrypt(encryptionOptions));
+
+            DecodingResult result = decode(message, new ConsumerOptions()
+                    .addDecryptionPassphrase(Passphrase.fromPassword("password123"))
+                    .addDecryptionPassphrase(Passphrase.fromPassword("sw0rdf1sh")));
+            assertArrayEquals(data, result.plaintext.toByteArray());
+            assertEquals(algorithm, result.metadata.getSymmetricKeyAlgorithm());
+
+            assertThrows(MissingDecryptionMethodException.class, () -> decode(message, new ConsumerOptions()
+                    .addDecryptionPassphrase(Passphrase.fromPassword("password123"))));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void tamperedMessageIsDetected(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encrypt(randomText(5000), ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                .setAsciiArmor(false));
+        message[message.length - 1] ^= 1;
+
+        assertThrows(ModificationDetectionException.class, () -> decode(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void decodeOldFormatPacketsWithIndeterminateLength(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        byte[] data = randomText(3000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PGPCompressedDataGenerator compressor = new PGPCompressedDataGenerator(PGPCompressedData.ZLIB);
+        OutputStream compressed = compressor.open(out);
+        PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator(true);
+        OutputStream literal = literalDataGenerator.open(compressed, PGPLiteralData.TEXT, "old.txt", data.length,
+                new Date(1600000000000L));
+        literal.write(data);
+        literalDataGenerator.close();
+        compressor.close();
+
+        DecodingResult result = decode(out.toByteArray(), new ConsumerOptions());
+        assertArrayEquals(data, result.plaintext.toByteArray());
+        assertEquals("old.txt", result.fileInfo.getFileName());
+        assertEquals(1600000000000L, result.fileInfo.getModificationDate().getTime());
+        assertEquals(CompressionAlgorithm.ZLIB, result.metadata.getCompressionAlgorithm());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void decodeRawDataWithDetachedSignature(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomText(150);
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(new SigningOptions().addDetachedSignature(
+                        SecretKeyRingProtector.unprotectedKeys(), secretKeys, DocumentSignatureType.BINARY_DOCUMENT)));
+        signingStream.write(data);
+        signingStream.close();
+        EncryptionResult signingResult = signingStream.getResult();
+        List<PGPSignature> signatures = new ArrayList<>();
+        for (Set<PGPSignature> set : signingResult.getDetachedSignatures().values()) {
+            signatures.addAll(set);
+        }
+
+        DecodingResult result = decode(data, new ConsumerOptions()
+                .addVerificationOfDetachedSignatures(signatures)
+                .addVerificationCert(publicKeys));
+        assertArrayEquals(data, result.plaintext.toByteArray());
+        assertTrue(result.metadata.containsVerifiedSignatureFrom(publicKeys));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void excessiveNestingIsRejected(ImplementationFactory implementationFactory) throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        byte[] message = randomText(100);
+        for (int i = 0; i < DecryptionStreamFactory.MAX_RECURSION_DEPTH + 1; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PGPCompressedDataGenerator compressor = new PGPCompressedDataGenerator(PGPCompressedData.UNCOMPRESSED);
+            OutputStream compressed = compressor.open(out);
+            if (i == 0) {
+                PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
+                OutputStream literal = literalDataGenerator.open(compressed, PGPLiteralData.BINARY, "", message.length,
+                        new Date());
+                literal.write(message);
+                literalDataGenerator.close();
+            } else {
+                compressed.write(message);
+            }
+            compressor.close();
+            message = out.toByteArray();
+        }
+
+        byte[] nested = message;
+        assertThrows(PGPException.class, () -> decode(nested, new ConsumerOptions()));
+    }
+
+    private static DecodingResult decode(byte[] message, ConsumerOptions options) throws PGPException, IOException {
+        final DecodingResult result = new DecodingResult();
+        MessageDecoder decoder = PGPainless.decryptAndOrVerify()
+                .asDecoder(new MessageDecoder.Listener() {
+                    @Override
+                    public void onFileInfo(OpenPgpMetadata.FileInfo fileInfo) {
+                        result.fileInfo = fileInfo;
+                    }
+
+                    @Override
+                    public void onPlaintext(ByteBuffer plaintext) {
+                        byte[] bytes = new byte[plaintext.remaining()];
+                        plaintext.get(bytes);
+                        result.plaintext.write(bytes, 0, bytes.length);
+                    }
+                })
+                .withOptions(options);
+
+        // Feed the message in chunks of random size, including single bytes
+        int off = 0;
+        while (off < message.length) {
+            int len = Math.min(message.length - off, RANDOM.nextInt(3) == 0 ? 1 : RANDOM.nextInt(200) + 1);
+            ByteBuffer chunk = RANDOM.nextBoolean() ? ByteBuffer.wrap(message, off, len) : ByteBuffer.allocateDirect(len);
+            if (chunk.isDirect()) {
+                chunk.put(message, off, len).flip();
+            }
+            decoder.feed(chunk);
+            assertEquals(0, chunk.remaining());
+            off += len;
+        }
+        result.metadata = decoder.finish();
+        return result;
+    }
+
+    private static OpenPgpMetadata decryptStream(byte[] message, ConsumerOptions options)
+            throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        Streams.drain(decryptionStream);
+        decryptionStream.close();
+        return decryptionStream.getResult();
+    }
+
+    private static class DecodingResult {
+        private final ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        private OpenPgpMetadata.FileInfo fileInfo;
+        private OpenPgpMetadata metadata;
+    }
+}
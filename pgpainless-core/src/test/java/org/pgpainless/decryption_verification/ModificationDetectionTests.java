@@ -33,6 +33,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
 import org.pgpainless.exception.MessageNotIntegrityProtectedException;
 import org.pgpainless.exception.ModificationDetectionException;
 import org.pgpainless.implementation.ImplementationFactory;
@@ -227,6 +231,38 @@ public class ModificationDetectionTests {
         assertThrows(ModificationDetectionException.class, decryptionStream::close);
     }
 
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void tamperedMDCIsDetectedOnEndOfStreamTest(ImplementationFactory implementationFactory) throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        String message = "-----BEGIN PGP MESSAGE-----\n" +
+                "\n" +
+                "wcDMA3wvqk35PDeyAQwAnTmchA6ve/aF7cPEnyJSb9Ot61LSIMrU3+RaEdA90qn4\n" +
+                "iC+yA7rH+nBX4t9nYSLI4EbQibSfzgxj0Bon1sAwfUfU88UMHypnL1HYsZRoiiLe\n" +
+                "crRr/9Vot2X1firhSu6kwqPZw5eIbvPPhHojZxWo7Plv7lDsXdtgRXc544jKA+Cx\n" +
+                "4Rt9D0WG7sWDifHUaitNHC4klZbvO29qmaND1F+RNUpO6H1j63UCPvHqSEvfV+kT\n" +
+                "vQXtOqk34SLo8SOfpni8Dy1wUePIbuaXyqe5uwSprWoAAmRZOjskv6z28pj9jVs3\n" +
+                "dWRkWca5Mmm3VQZlmxcNeFyTAgSth0GNalwWSVNcPK9W/VaDX8ecw7xYU04cpbQr\n" +
+                "a4JF9oc33bhgn4ZDdcvcP8/QUQP+TyN4vGjp1k9+AgkIsJjLanqHE29chsh7ZcVF\n" +
+                "GDjq3DppEo/Hh647rYRqXpxLfJB6fsDyYLmqNKsBcgtBqE9DtiXQ16GuGFrePxd2\n" +
+                "nRKcSWQbisEa1LHr8G4d0kwBMjIoPiEhw4sgEt1ZCiQPO1HXqaK7VN3PhPOqjyjf\n" +
+                "Rt6lN5kVA3+Dd2DRov9NQ83TQPJdg7KD5cXqlEliiMR4G0gWh8QZ4oAp540A\n" +
+                "=ucHU\n" +
+                "-----END PGP MESSAGE-----\n";
+
+        ByteArrayInputStream in = new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8));
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(in)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKeys(getDecryptionKey(), SecretKeyRingProtector.unprotectedKeys())
+                        .setVerifyIntegrityOnEndOfStream(true)
+                );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(ModificationDetectionException.class, () -> Streams.pipeAll(decryptionStream, out));
+        assertThrows(ModificationDetectionException.class, decryptionStream::close);
+    }
+
     @Test
     public void decryptMessageWithSEDPacket() throws IOException, PGPException {
         Passphrase passphrase = Passphrase.fromPassword("flowcrypt compatibility tests");
@@ -392,6 +428,39 @@ public class ModificationDetectionTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void tamperedPassphraseEncryptedCiphertextTest(ImplementationFactory implementationFactory)
+            throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        Passphrase passphrase = Passphrase.fromPassword("sw0rdf1sh");
+        ByteArrayOutputStream ciphertextOut = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(ciphertextOut)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications().addPassphrase(passphrase))
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                        .setAsciiArmor(false));
+        encryptionStream.write(new byte[1000]);
+        encryptionStream.close();
+        byte[] ciphertext = ciphertextOut.toByteArray();
+        ciphertext[ciphertext.length / 2] ^= 1;
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(ciphertext))
+                .withOptions(new ConsumerOptions().addDecryptionPassphrase(passphrase));
+        Streams.pipeAll(decryptionStream, new ByteArrayOutputStream());
+        assertThrows(ModificationDetectionException.class, decryptionStream::close);
+
+        DecryptionStream verifyingOnEndOfStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(ciphertext))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionPassphrase(passphrase)
+                        .setVerifyIntegrityOnEndOfStream(true));
+        assertThrows(ModificationDetectionException.class,
+                () -> Streams.pipeAll(verifyingOnEndOfStream, new ByteArrayOutputStream()));
+        assertThrows(ModificationDetectionException.class, verifyingOnEndOfStream::close);
+    }
+
     private PGPSecretKeyRingCollection getDecryptionKey() throws IOException, PGPException {
         PGPSecretKeyRing secretKeys = PGPainless.readKeyRing().secretKeyRing(keyAscii);
         return new PGPSecretKeyRingCollection(Collections.singletonList(secretKeys));
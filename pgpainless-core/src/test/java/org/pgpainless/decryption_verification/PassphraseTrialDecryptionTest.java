@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.DATA;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decode;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decrypt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.exception.MissingDecryptionMethodException;
+import org.pgpainless.implementation.CachingPBESecretKeyDecryptor;
+import org.pgpainless.util.Passphrase;
+
+public class PassphraseTrialDecryptionTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void decryptWithPassphrasesConcurrently() throws PGPException, IOException {
+        byte[] message = encrypt("p1", "p2", "p3");
+        ConsumerOptions options = new ConsumerOptions()
+                .setPassphraseDecryptionExecutor(executor)
+                .addDecryptionPassphrase(Passphrase.fromPassword("wrong"))
+                .addDecryptionPassphrase(Passphrase.fromPassword("also wrong"))
+                .addDecryptionPassphrase(Passphrase.fromPassword("p3"));
+
+        OpenPgpMetadata metadata = decrypt(message, options);
+        assertNotNull(metadata.getSessionKey());
+        assertEquals(metadata.getSymmetricKeyAlgorithm(), metadata.getSessionKey().getAlgorithm());
+
+        // The push-based decoder uses the same trial decryption
+        assertArrayEquals(DATA, decode(message, options));
+
+        // Without executor, the combinations are tried one after another
+        options.setPassphraseDecryptionExecutor(null);
+        assertEquals(metadata.getSessionKey(), decrypt(message, options).getSessionKey());
+    }
+
+    @Test
+    public void derivedKeysAreMemoized() throws PGPException, IOException {
+        byte[] message = encrypt("p1", "p2");
+        Passphrase passphrase = Passphrase.fromPassword("p2");
+        ConsumerOptions options = new ConsumerOptions()
+                .addDecryptionPassphrase(Passphrase.fromPassword("wrong"))
+                .addDecryptionPassphrase(passphrase);
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = options.getDerivedKeyCache();
+
+        decrypt(message, options);
+        int derivedKeys = cache.size();
+        assertTrue(derivedKeys > 0);
+
+        // Decrypting the same message again does not derive any new keys
+        decrypt(message, options);
+        assertArrayEquals(DATA, decode(message, options));
+        assertEquals(derivedKeys, cache.size());
+
+        // Keys derived from a cleared passphrase are removed
+        passphrase.clear();
+        assertTrue(cache.size() < derivedKeys);
+    }
+
+    @Test
+    public void missingPassphraseIsReported() throws PGPException, IOException {
+        byte[] message = encrypt("p1", "p2");
+        ConsumerOptions options = new ConsumerOptions()
+                .setPassphraseDecryptionExecutor(executor)
+                .addDecryptionPassphrase(Passphrase.fromPassword("wrong"))
+                .addDecryptionPassphrase(Passphrase.fromPassword("also wrong"));
+
+        assertThrows(MissingDecryptionMethodException.class, () -> decrypt(message, options));
+    }
+
+    private static byte[] encrypt(String... passphrases) throws PGPException, IOException {
+        EncryptionOptions encryptionOptions = EncryptionOptions.encryptCommunications();
+        for (String passphrase : passphrases) {
+            encryptionOptions.addPassphrase(Passphrase.fromPassword(passphrase));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(encryptionOptions).setAsciiArmor(false));
+        encryptionStream.write(DATA);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.util.TestUtils.encrypt;
+import static org.pgpainless.util.TestUtils.randomText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.exception.ModificationDetectionException;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+
+public class PipelinedDecryptionTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void decryptLargeSignedMessage() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomText(1 << 20);
+
+        for (CompressionAlgorithm compressionAlgorithm : CompressionAlgorithm.values()) {
+            byte[] message = encrypt(data, ProducerOptions.signAndEncrypt(
+                    EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                    new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                            DocumentSignatureType.BINARY_DOCUMENT))
+                    .overrideCompressionAlgorithm(compressionAlgorithm));
+
+            DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                    .onInputStream(new ByteArrayInputStream(message))
+                    .withOptions(new ConsumerOptions()
+                            .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                            .addVerificationCert(publicKeys)
+                            .setDecryptionPipelineExecutor(executor));
+            ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+            Streams.pipeAll(decryptionStream, plaintext);
+            decryptionStream.close();
+
+            assertArrayEquals(data, plaintext.toByteArray());
+            OpenPgpMetadata metadata = decryptionStream.getResult();
+            assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+            assertEquals(compressionAlgorithm, metadata.getCompressionAlgorithm());
+        }
+    }
+
+    @Test
+    public void decryptPassphraseEncryptedMessage() throws PGPException, IOException {
+        byte[] data = randomText(200000);
+        byte[] message = encrypt(data, ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addPassphrase(Passphrase.fromPassword("sw0rdf1sh"))));
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionPassphrase(Passphrase.fromPassword("sw0rdf1sh"))
+                        .setDecryptionPipelineExecutor(executor));
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+
+        assertArrayEquals(data, plaintext.toByteArray());
+    }
+
+    @Test
+    public void tamperedMessageIsDetected() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encrypt(randomText(200000), ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                .setAsciiArmor(false));
+        message[message.length - 1] ^= 1;
+
+        // Detected as soon as the end of the stream is reached
+        DecryptionStream onEndOfStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .setVerifyIntegrityOnEndOfStream(true)
+                        .setDecryptionPipelineExecutor(executor));
+        assertThrows(ModificationDetectionException.class, () -> Streams.drain(onEndOfStream));
+
+        // Detected when the stream gets closed
+        DecryptionStream onClose = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .setDecryptionPipelineExecutor(executor));
+        Streams.drain(onClose);
+        assertThrows(ModificationDetectionException.class, onClose::close);
+    }
+
+    @Test
+    public void closingEarlyStopsWorkers() throws PGPException, IOException, InterruptedException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encrypt(randomText(1 << 20), ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys))));
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .setDecryptionPipelineExecutor(executor));
+        assertEquals(100, decryptionStream.read(new byte[100]));
+        // Once the workers are stopped, the remaining data is read by the integrity check
+        decryptionStream.close();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void upstreamFailureIsPropagated() {
+        IOException failure = new IOException("Broken upstream");
+        InputStream upstream = new InputStream() {
+            private int remaining = 3 * PipelinedInputStream.CHUNK_SIZE;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- == 0) {
+                    throw failure;
+                }
+                return 'a';
+            }
+        };
+
+        PipelinedInputStream pipelined = new PipelinedInputStream(upstream, executor);
+        assertSame(failure, assertThrows(IOException.class, () -> Streams.drain(pipelined)));
+        assertSame(failure, assertThrows(IOException.class, () -> pipelined.read()));
+    }
+}
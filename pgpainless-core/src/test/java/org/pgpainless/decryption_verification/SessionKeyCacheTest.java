@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.DATA;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decode;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decrypt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.exception.MissingDecryptionMethodException;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.OpenPgpV4Fingerprint;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.SessionKey;
+
+public class SessionKeyCacheTest {
+
+    @Test
+    public void repeatedDecryptionSkipsUnlockingTheKey() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getCryptieSecretKeyRing();
+        byte[] message = encryptFor(secretKeys);
+        SessionKeyCache cache = new SessionKeyCache(10, 1, TimeUnit.HOURS);
+        CountingProtector protector = new CountingProtector(
+                SecretKeyRingProtector.unlockAllKeysWith(TestKeys.CRYPTIE_PASSPHRASE, secretKeys));
+
+        OpenPgpMetadata first = decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, protector)
+                .setSessionKeyCache(cache));
+        assertEquals(1, protector.unlockCount.get());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        OpenPgpMetadata second = decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, protector)
+                .setSessionKeyCache(cache));
+        assertEquals(1, protector.unlockCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(first.getSessionKey(), second.getSessionKey());
+        assertEquals(first.getDecryptionKey(), second.getDecryptionKey());
+        assertEquals(first.getRecipientKeyIds(), second.getRecipientKeyIds());
+
+        // The push-based decoder shares the cache
+        assertArrayEquals(DATA, decode(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, protector)
+                .setSessionKeyCache(cache)));
+        assertEquals(1, protector.unlockCount.get());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void cachedSessionKeyRequiresDecryptionKey() throws PGPException, IOException {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encryptFor(julietKeys);
+        SessionKeyCache cache = new SessionKeyCache(10, 1, TimeUnit.HOURS);
+        decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(julietKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache));
+
+        assertThrows(MissingDecryptionMethodException.class, () -> decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(TestKeys.getRomeoSecretKeyRing(), SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache)));
+    }
+
+    @Test
+    public void cachedSessionKeyRequiresMatchingFingerprint() throws PGPException, IOException {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encryptFor(julietKeys);
+        PGPEncryptedDataList encryptedDataList = (PGPEncryptedDataList) new PGPObjectFactory(
+                PGPUtil.getDecoderStream(new ByteArrayInputStream(message)),
+                ImplementationFactory.getInstance().getKeyFingerprintCalculator()).nextObject();
+        PGPPublicKeyEncryptedData encryptedData = (PGPPublicKeyEncryptedData) encryptedDataList.get(0);
+
+        // Cache a bogus session key, which was recovered by a different key with a colliding key-id
+        SubkeyIdentifier decryptionKey = new SubkeyIdentifier(julietKeys, encryptedData.getKeyID());
+        String fingerprint = decryptionKey.getSubkeyFingerprint().toString();
+        OpenPgpV4Fingerprint collidingFingerprint = new OpenPgpV4Fingerprint(
+                (fingerprint.charAt(0) == 'A' ? 'B' : 'A') + fingerprint.substring(1));
+        SubkeyIdentifier collidingKey = new SubkeyIdentifier(decryptionKey.getPrimaryKeyFingerprint(), collidingFingerprint);
+        assertEquals(decryptionKey.getSubkeyId(), collidingKey.getSubkeyId());
+
+        byte[] digest = SessionKeyCache.digest(SessionKeyRecovery.EncryptedSessionKey.of(encryptedData));
+        SessionKeyCache cache = new SessionKeyCache(10, 1, TimeUnit.HOURS);
+        cache.put(digest, new SessionKey(SymmetricKeyAlgorithm.AES_256, new byte[32]),
+                collidingKey);
+
+        ConsumerOptions options = new ConsumerOptions()
+                .addDecryptionKey(julietKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache);
+        // The bogus entry is ignored and replaced with the session key recovered by the actual decryption key
+        assertArrayEquals(DATA, decode(message, options));
+        assertEquals(decryptionKey, cache.get(digest).getDecryptionKey());
+
+        cache.put(digest, new SessionKey(SymmetricKeyAlgorithm.AES_256, new byte[32]),
+                collidingKey);
+        OpenPgpMetadata metadata = decrypt(message, options);
+        assertEquals(decryptionKey, metadata.getDecryptionKey());
+        assertEquals(decryptionKey, cache.get(digest).getDecryptionKey());
+    }
+
+    @Test
+    public void entriesAreEvicted() throws PGPException, IOException, InterruptedException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message1 = encryptFor(secretKeys);
+        byte[] message2 = encryptFor(secretKeys);
+
+        // Least recently used entry is evicted
+        SessionKeyCache cache = new SessionKeyCache(1, 1, TimeUnit.HOURS);
+        ConsumerOptions options = new ConsumerOptions()
+                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache);
+        decrypt(message1, options);
+        decrypt(message2, options);
+        assertEquals(1, cache.size());
+        decrypt(message1, options);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        // Expired entry is evicted
+        SessionKeyCache expiringCache = new SessionKeyCache(10, 1, TimeUnit.MILLISECONDS);
+        options.setSessionKeyCache(expiringCache);
+        decrypt(message1, options);
+        Thread.sleep(20);
+        decrypt(message1, options);
+        assertEquals(0, expiringCache.getHitCount());
+        assertEquals(2, expiringCache.getMissCount());
+    }
+
+    @Test
+    public void invalidateRevokedKey() throws PGPException, IOException {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing romeoKeys = TestKeys.getRomeoSecretKeyRing();
+        SessionKeyCache cache = new SessionKeyCache(10, 1, TimeUnit.HOURS);
+        decrypt(encryptFor(julietKeys), new ConsumerOptions()
+                .addDecryptionKey(julietKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache));
+        decrypt(encryptFor(romeoKeys), new ConsumerOptions()
+                .addDecryptionKey(romeoKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKeyCache(cache));
+        assertEquals(2, cache.size());
+
+        cache.invalidate(KeyRingUtils.publicKeyRingFrom(julietKeys));
+        assertEquals(1, cache.size());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidArgumentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SessionKeyCache(0, 1, TimeUnit.HOURS));
+        assertThrows(IllegalArgumentException.class, () -> new SessionKeyCache(10, 0, TimeUnit.HOURS));
+    }
+
+    private static byte[] encryptFor(PGPSecretKeyRing secretKeys) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys))));
+        encryptionStream.write(DATA);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Protector which counts how often a key gets unlocked.
+     */
+    private static class CountingProtector implements SecretKeyRingProtector {
+
+        private final SecretKeyRingProtector delegate;
+        private final AtomicInteger unlockCount = new AtomicInteger();
+
+        CountingProtector(SecretKeyRingProtector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PBESecretKeyDecryptor getDecryptor(Long keyId) throws PGPException {
+            unlockCount.incrementAndGet();
+            return delegate.getDecryptor(keyId);
+        }
+
+        @Override
+        public PBESecretKeyEncryptor getEncryptor(Long keyId) throws PGPException {
+            return delegate.getEncryptor(keyId);
+        }
+    }
+}
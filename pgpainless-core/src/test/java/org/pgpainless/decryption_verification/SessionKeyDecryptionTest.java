@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.decryption_verification;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.DATA;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decode;
+import static org.pgpainless.decryption_verification.DecryptionTestUtils.decrypt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.SymmetricKeyAlgorithm;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+import org.pgpainless.util.SessionKey;
+
+public class SessionKeyDecryptionTest {
+
+    @Test
+    public void decryptPublicKeyEncryptedMessageWithSessionKey() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        EncryptionOptions encryptionOptions = EncryptionOptions.encryptCommunications()
+                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys));
+        encryptionOptions.overrideEncryptionAlgorithm(SymmetricKeyAlgorithm.AES_192);
+        byte[] message = encrypt(encryptionOptions);
+
+        OpenPgpMetadata metadata = decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys()));
+        SessionKey sessionKey = metadata.getSessionKey();
+        assertNotNull(sessionKey);
+        assertEquals(SymmetricKeyAlgorithm.AES_192, sessionKey.getAlgorithm());
+        assertEquals(24, sessionKey.getKey().length);
+
+        // Neither key nor passphrase required
+        OpenPgpMetadata sessionKeyMetadata = decrypt(message, new ConsumerOptions().setSessionKey(sessionKey));
+        assertEquals(sessionKey, sessionKeyMetadata.getSessionKey());
+        assertEquals(SymmetricKeyAlgorithm.AES_192, sessionKeyMetadata.getSymmetricKeyAlgorithm());
+        assertNull(sessionKeyMetadata.getDecryptionKey());
+
+        // The session key takes precedence over the decryption key
+        decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                .setSessionKey(sessionKey));
+
+        assertArrayEquals(DATA, decode(message, new ConsumerOptions().setSessionKey(sessionKey)));
+    }
+
+    @Test
+    public void decryptPassphraseEncryptedMessageWithSessionKey() throws PGPException, IOException {
+        Passphrase passphrase = Passphrase.fromPassword("sw0rdf1sh");
+        byte[] message = encrypt(EncryptionOptions.encryptCommunications().addPassphrase(passphrase));
+
+        SessionKey sessionKey = decrypt(message, new ConsumerOptions().addDecryptionPassphrase(passphrase))
+                .getSessionKey();
+        assertNotNull(sessionKey);
+        assertEquals(sessionKey, decrypt(message, new ConsumerOptions().setSessionKey(sessionKey)).getSessionKey());
+
+        // The push-based decoder reports the same session key
+        ConsumerOptions decoderOptions = new ConsumerOptions().addDecryptionPassphrase(passphrase);
+        assertArrayEquals(DATA, decode(message, decoderOptions));
+        assertArrayEquals(DATA, decode(message, new ConsumerOptions().setSessionKey(sessionKey)));
+    }
+
+    @Test
+    public void wrongSessionKeyIsRejected() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] message = encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)));
+        SessionKey sessionKey = decrypt(message, new ConsumerOptions()
+                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())).getSessionKey();
+
+        byte[] key = sessionKey.getKey();
+        key[0] ^= 1;
+        SessionKey wrongSessionKey = new SessionKey(sessionKey.getAlgorithm(), key);
+        // Depending on the garbage produced by the wrong key, decryption fails either while parsing or
+        // latest when the integrity check is performed
+        try {
+            decrypt(message, new ConsumerOptions().setSessionKey(wrongSessionKey));
+            fail("Decryption with wrong session key must fail.");
+        } catch (PGPException | IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sessionKeyStringRepresentation() {
+        String string = "9:FCA4BEAF687F48059CACC14FB019125CD57392BAB7037C707835925CBF9F7BCD";
+        SessionKey sessionKey = SessionKey.fromString(string);
+        assertEquals(SymmetricKeyAlgorithm.AES_256, sessionKey.getAlgorithm());
+        assertEquals(32, sessionKey.getKey().length);
+        assertEquals(string, sessionKey.toString());
+        assertEquals(sessionKey, SessionKey.fromString(string.toLowerCase() + "\n"));
+
+        assertThrows(IllegalArgumentException.class, () -> SessionKey.fromString("FCA4BEAF687F4805"));
+        assertThrows(IllegalArgumentException.class, () -> SessionKey.fromString("9:"));
+        assertThrows(IllegalArgumentException.class, () -> SessionKey.fromString("9:XYZ"));
+        assertThrows(IllegalArgumentException.class, () -> SessionKey.fromString("99:FCA4BEAF687F4805"));
+    }
+
+    private static byte[] encrypt(EncryptionOptions encryptionOptions) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(encryptionOptions));
+        encryptionStream.write(DATA);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+}
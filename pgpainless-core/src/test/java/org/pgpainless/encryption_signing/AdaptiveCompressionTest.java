@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.util.TestUtils.encrypt;
+import static org.pgpainless.util.TestUtils.randomText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class AdaptiveCompressionTest {
+
+    private static final Random RANDOM = new Random();
+
+    @Test
+    public void randomDataIsNotCompressed() throws PGPException, IOException {
+        byte[] data = new byte[100000];
+        RANDOM.nextBytes(data);
+
+        EncryptionResult result = encryptAndDecrypt(data, CompressionAlgorithm.ZLIB);
+        assertEquals(CompressionAlgorithm.UNCOMPRESSED, result.getCompressionAlgorithm());
+        assertTrue(result.isCompressionSkipped());
+    }
+
+    @Test
+    public void textIsCompressed() throws PGPException, IOException {
+        EncryptionResult result = encryptAndDecrypt(randomText(100000), CompressionAlgorithm.BZIP2);
+        assertEquals(CompressionAlgorithm.BZIP2, result.getCompressionAlgorithm());
+        assertFalse(result.isCompressionSkipped());
+    }
+
+    @Test
+    public void compressedFormatsAreDetectedBySignature() throws PGPException, IOException {
+        byte[] jpeg = randomText(100000);
+        jpeg[0] = (byte) 0xff;
+        jpeg[1] = (byte) 0xd8;
+        jpeg[2] = (byte) 0xff;
+        assertTrue(encryptAndDecrypt(jpeg, CompressionAlgorithm.ZIP).isCompressionSkipped());
+
+        byte[] zip = randomText(100000);
+        System.arraycopy(new byte[] {'P', 'K', 3, 4}, 0, zip, 0, 4);
+        assertTrue(encryptAndDecrypt(zip, CompressionAlgorithm.ZIP).isCompressionSkipped());
+    }
+
+    @Test
+    public void messageShorterThanSampleIsDecidedOnClose() throws PGPException, IOException {
+        byte[] data = new byte[1000];
+        RANDOM.nextBytes(data);
+        assertTrue(encryptAndDecrypt(data, CompressionAlgorithm.ZLIB).isCompressionSkipped());
+        assertFalse(encryptAndDecrypt(randomText(1000), CompressionAlgorithm.ZLIB).isCompressionSkipped());
+        assertFalse(encryptAndDecrypt(new byte[0], CompressionAlgorithm.ZLIB).isCompressionSkipped());
+    }
+
+    @Test
+    public void compressionLevelIsApplied() throws PGPException, IOException {
+        byte[] data = randomText(100000);
+        int stored = encrypt(data, ProducerOptions.noEncryptionNoSigning()
+                .overrideCompressionAlgorithm(CompressionAlgorithm.ZIP)
+                .setCompressionLevel(Deflater.NO_COMPRESSION)).length;
+        int compressed = encrypt(data, ProducerOptions.noEncryptionNoSigning()
+                .overrideCompressionAlgorithm(CompressionAlgorithm.ZIP)
+                .setCompressionLevel(Deflater.BEST_COMPRESSION)).length;
+        assertTrue(stored > data.length);
+        assertTrue(compressed < data.length);
+
+        assertThrows(IllegalArgumentException.class, () -> ProducerOptions.noEncryptionNoSigning().setCompressionLevel(10));
+        assertThrows(IllegalArgumentException.class, () -> ProducerOptions.noEncryptionNoSigning().setAdaptiveCompression(-1));
+    }
+
+    private static EncryptionResult encryptAndDecrypt(byte[] data, CompressionAlgorithm compressionAlgorithm)
+            throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        ProducerOptions producerOptions = ProducerOptions.signAndEncrypt(
+                EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                        DocumentSignatureType.BINARY_DOCUMENT))
+                .overrideCompressionAlgorithm(compressionAlgorithm)
+                .setAdaptiveCompression(ProducerOptions.DEFAULT_COMPRESSION_SAMPLE_SIZE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(producerOptions);
+        // Mix single byte and bulk writes
+        if (data.length != 0) {
+            encryptionStream.write(data[0]);
+            encryptionStream.write(data, 1, data.length - 1);
+        }
+        encryptionStream.close();
+        EncryptionResult result = encryptionStream.getResult();
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(out.toByteArray()))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys));
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+
+        assertArrayEquals(data, plaintext.toByteArray());
+        OpenPgpMetadata metadata = decryptionStream.getResult();
+        assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+        assertEquals(result.getCompressionAlgorithm(), metadata.getCompressionAlgorithm());
+        return result;
+    }
+}
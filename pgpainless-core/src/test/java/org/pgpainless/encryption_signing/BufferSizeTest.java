@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class BufferSizeTest {
+
+    private static final byte[] data = new byte[300000];
+
+    static {
+        new Random().nextBytes(data);
+    }
+
+    @Test
+    public void rejectInvalidBufferSizes() {
+        ProducerOptions options = ProducerOptions.noEncryptionNoSigning();
+        assertThrows(IllegalArgumentException.class, () -> options.setBufferSize(256));
+        assertThrows(IllegalArgumentException.class, () -> options.setBufferSize(1000));
+        assertThrows(IllegalArgumentException.class, () -> options.setBufferSize(-1024));
+        assertThrows(IllegalArgumentException.class, () -> options.setOutputBufferSize(-1));
+    }
+
+    @Test
+    public void roundTripWithDifferentBufferSizes() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+
+        byte[] small = encrypt(secretKeys, 512, 0);
+        byte[] large = encrypt(secretKeys, 1 << 20, 8192);
+
+        assertArrayEquals(data, decrypt(secretKeys, small));
+        assertArrayEquals(data, decrypt(secretKeys, large));
+        // Larger chunks mean less partial length packet headers
+        assertTrue(large.length < small.length);
+    }
+
+    private static byte[] encrypt(PGPSecretKeyRing secretKeys, int bufferSize, int outputBufferSize)
+            throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                                .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                        .setAsciiArmor(false)
+                        .setBufferSize(bufferSize)
+                        .setOutputBufferSize(outputBufferSize));
+        Streams.pipeAll(new ByteArrayInputStream(data), encryptionStream);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(PGPSecretKeyRing secretKeys, byte[] ciphertext) throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(ciphertext))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, out);
+        decryptionStream.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+
+public class ByteBufferEncryptionTest {
+
+    @Test
+    public void heapBufferRoundTrip() throws PGPException, IOException {
+        roundTrip(false);
+    }
+
+    @Test
+    public void directBufferRoundTrip() throws PGPException, IOException {
+        roundTrip(true);
+    }
+
+    private void roundTrip(boolean direct) throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomBytes(100000);
+
+        ByteBuffer plaintext = allocate(data.length, direct);
+        plaintext.put(data).flip();
+        ProducerOptions producerOptions = signAndEncryptOptions(secretKeys, publicKeys);
+        long maxSize = PGPainless.encryptAndOrSign()
+                .onByteBuffer(plaintext)
+                .getMaximumOutputSize(producerOptions);
+        ByteBuffer ciphertext = allocate((int) maxSize, direct);
+
+        PGPainless.encryptAndOrSign()
+                .onByteBuffer(plaintext)
+                .toByteBuffer(ciphertext)
+                .withOptions(producerOptions);
+        assertEquals(0, plaintext.remaining());
+        ciphertext.flip();
+
+        ByteBuffer decrypted = allocate(data.length, direct);
+        OpenPgpMetadata metadata = PGPainless.decryptAndOrVerify()
+                .onByteBuffer(ciphertext)
+                .toByteBuffer(decrypted)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys));
+
+        assertEquals(0, ciphertext.remaining());
+        assertEquals(data.length, decrypted.position());
+        decrypted.flip();
+        byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+        assertArrayEquals(data, result);
+        assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+    }
+
+    @Test
+    public void optionsCanBeReusedForBuffersOfDifferentSize() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        ProducerOptions producerOptions = ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(publicKeys));
+
+        for (int length : new int[] {1000, 3000}) {
+            ByteBuffer plaintext = ByteBuffer.wrap(randomBytes(length));
+            ByteBuffer ciphertext = ByteBuffer.allocate((int) PGPainless.encryptAndOrSign()
+                    .onByteBuffer(plaintext)
+                    .getMaximumOutputSize(producerOptions));
+            PGPainless.encryptAndOrSign()
+                    .onByteBuffer(plaintext)
+                    .toByteBuffer(ciphertext)
+                    .withOptions(producerOptions);
+            assertEquals(0, plaintext.remaining());
+        }
+        // The length of the buffer is not written into the caller's options
+        assertFalse(producerOptions.hasKnownLength());
+    }
+
+    @Test
+    public void outputDoesNotExceedMaximumSize() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        // Random data is incompressible, so compression expands it
+        byte[] data = randomBytes(70000);
+
+        ProducerOptions[] configurations = new ProducerOptions[] {
+                ProducerOptions.noEncryptionNoSigning(),
+                ProducerOptions.noEncryptionNoSigning().setAsciiArmor(false),
+                ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(publicKeys)
+                        .addPassphrase(Passphrase.fromPassword("sw0rdf1sh")))
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.BZIP2),
+                ProducerOptions.sign(new SigningOptions().addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(),
+                        secretKeys, DocumentSignatureType.BINARY_DOCUMENT))
+                        .setAsciiArmor(false),
+                signAndEncryptOptions(secretKeys, publicKeys)
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.ZIP)
+                        .setFileName("a-rather-long-file-name.bin")
+        };
+
+        for (ProducerOptions options : configurations) {
+            ByteBuffer plaintext = ByteBuffer.wrap(data);
+            long maxSize = EncryptionBuilder.getMaximumOutputSize(options, data.length);
+            ByteBuffer ciphertext = ByteBuffer.allocate((int) maxSize);
+            PGPainless.encryptAndOrSign()
+                    .onByteBuffer(plaintext)
+                    .toByteBuffer(ciphertext)
+                    .withOptions(options);
+            assertTrue(ciphertext.position() <= maxSize);
+        }
+    }
+
+    @Test
+    public void tooSmallEncryptionOutputBufferThrows() throws PGPException, IOException {
+        byte[] data = randomBytes(5000);
+        ByteBuffer plaintext = ByteBuffer.wrap(data);
+        ByteBuffer ciphertext = ByteBuffer.allocate(1000);
+        ciphertext.position(10);
+
+        assertThrows(IOException.class, () -> PGPainless.encryptAndOrSign()
+                .onByteBuffer(plaintext)
+                .toByteBuffer(ciphertext)
+                .withOptions(ProducerOptions.noEncryptionNoSigning()));
+        assertEquals(0, plaintext.position());
+        assertEquals(10, ciphertext.position());
+    }
+
+    @Test
+    public void tooSmallDecryptionOutputBufferThrows() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        byte[] data = randomBytes(5000);
+        ByteBuffer ciphertext = ByteBuffer.allocate(10000);
+        PGPainless.encryptAndOrSign()
+                .onByteBuffer(ByteBuffer.wrap(data))
+                .toByteBuffer(ciphertext)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys))));
+        ciphertext.flip();
+
+        ByteBuffer plaintext = ByteBuffer.allocate(data.length - 1);
+        assertThrows(IOException.class, () -> PGPainless.decryptAndOrVerify()
+                .onByteBuffer(ciphertext)
+                .toByteBuffer(plaintext)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())));
+        assertEquals(0, ciphertext.position());
+        assertEquals(0, plaintext.position());
+    }
+
+    private static ProducerOptions signAndEncryptOptions(PGPSecretKeyRing secretKeys, PGPPublicKeyRing publicKeys)
+            throws PGPException {
+        return ProducerOptions.signAndEncrypt(
+                EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                        DocumentSignatureType.BINARY_DOCUMENT));
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+}
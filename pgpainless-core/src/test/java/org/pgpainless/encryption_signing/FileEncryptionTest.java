@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.TestUtils;
+
+public class FileEncryptionTest {
+
+    @Test
+    public void encryptAndDecryptFileToFile() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+
+        File dir = TestUtils.createTempDirectory();
+        File plaintextFile = new File(dir, "backup.tar");
+        File ciphertextFile = new File(dir, "backup.tar.gpg");
+        File decryptedFile = new File(dir, "restored.tar");
+
+        byte[] data = new byte[300000];
+        new Random().nextBytes(data);
+        writeFile(plaintextFile, data);
+        long modificationTime = 1600000000000L;
+        assertTrue(plaintextFile.setLastModified(modificationTime));
+
+        EncryptionResult encryptionResult = PGPainless.encryptAndOrSign()
+                .onFile(plaintextFile)
+                .toFile(ciphertextFile)
+                .withOptions(ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptDataAtRest().addRecipient(publicKeys),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                                DocumentSignatureType.BINARY_DOCUMENT))
+                        .setAsciiArmor(false));
+        assertEquals("backup.tar", encryptionResult.getFileInfo().getFileName());
+
+        OpenPgpMetadata metadata = PGPainless.decryptAndOrVerify()
+                .onFile(ciphertextFile)
+                .toFile(decryptedFile)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys));
+
+        assertArrayEquals(data, readFile(decryptedFile));
+        assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+        assertEquals("backup.tar", metadata.getFileInfo().getFileName());
+        assertEquals(modificationTime, metadata.getFileInfo().getModificationDate().getTime());
+    }
+
+    @Test
+    public void decryptFileAsStream() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+
+        File dir = TestUtils.createTempDirectory();
+        File plaintextFile = new File(dir, "message.txt");
+        File ciphertextFile = new File(dir, "message.txt.asc");
+        byte[] data = "Hello, World!\n".getBytes("UTF-8");
+        writeFile(plaintextFile, data);
+
+        PGPainless.encryptAndOrSign()
+                .onFile(plaintextFile)
+                .toFile(ciphertextFile)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications().addRecipient(publicKeys)));
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onFile(ciphertextFile)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, out);
+        decryptionStream.close();
+
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals("message.txt", decryptionStream.getResult().getFileInfo().getFileName());
+    }
+
+    @Test
+    public void failedDecryptionDeletesOutputFile() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        File dir = TestUtils.createTempDirectory();
+        File plaintextFile = new File(dir, "message.txt");
+        File ciphertextFile = new File(dir, "message.txt.gpg");
+        File decryptedFile = new File(dir, "decrypted.txt");
+        writeFile(plaintextFile, new byte[10000]);
+
+        PGPainless.encryptAndOrSign()
+                .onFile(plaintextFile)
+                .toFile(ciphertextFile)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                        .setAsciiArmor(false));
+
+        // Tamper with the modification detection code
+        byte[] ciphertext = readFile(ciphertextFile);
+        ciphertext[ciphertext.length - 1] ^= 1;
+        writeFile(ciphertextFile, ciphertext);
+
+        assertThrows(IOException.class, () -> PGPainless.decryptAndOrVerify()
+                .onFile(ciphertextFile)
+                .toFile(decryptedFile)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())));
+        assertFalse(decryptedFile.exists());
+    }
+
+    @Test
+    public void optionsCanBeReusedForMultipleFiles() throws IOException, PGPException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        File dir = TestUtils.createTempDirectory();
+        File first = new File(dir, "first.txt");
+        File second = new File(dir, "second.txt");
+        writeFile(first, new byte[1000]);
+        writeFile(second, new byte[2000]);
+
+        ProducerOptions options = ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                .addRecipient(publicKeys));
+        EncryptionResult firstResult = PGPainless.encryptAndOrSign()
+                .onFile(first)
+                .toFile(new File(dir, "first.txt.asc"))
+                .withOptions(options);
+        EncryptionResult secondResult = PGPainless.encryptAndOrSign()
+                .onFile(second)
+                .toFile(new File(dir, "second.txt.asc"))
+                .withOptions(options);
+
+        assertEquals("first.txt", firstResult.getFileInfo().getFileName());
+        assertEquals("second.txt", secondResult.getFileInfo().getFileName());
+        // The file metadata is not written into the caller's options
+        assertEquals("", options.getFileName());
+        assertFalse(options.hasKnownLength());
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        Streams.pipeAll(in, out);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class KnownLengthTest {
+
+    private static final byte[] data = new byte[100000];
+
+    static {
+        new Random().nextBytes(data);
+    }
+
+    @Test
+    public void literalDataPacketHasFixedLength() throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.noEncryptionNoSigning()
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                        .setAsciiArmor(false)
+                        .setFileName("data.bin")
+                        .setKnownLength(data.length));
+        Streams.pipeAll(new ByteArrayInputStream(data), encryptionStream);
+        encryptionStream.close();
+
+        // header (tag + 5 octet length) + format + name length + name + date + data
+        assertEquals(6 + 1 + 1 + 8 + 4 + data.length, out.size());
+    }
+
+    @Test
+    public void encryptedDataRoundTrip() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+
+        ProducerOptions fixedLength = ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(publicKeys))
+                .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                .setKnownLength(data.length);
+        ProducerOptions partialLength = ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(publicKeys))
+                .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                .setBufferSize(512);
+
+        byte[] fixedCiphertext = encrypt(fixedLength);
+        byte[] partialCiphertext = encrypt(partialLength);
+        assertTrue(fixedCiphertext.length < partialCiphertext.length);
+
+        assertArrayEquals(data, decrypt(secretKeys, fixedCiphertext));
+    }
+
+    @Test
+    public void compressedAndSignedRoundTrip() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+
+        ProducerOptions options = ProducerOptions.signAndEncrypt(
+                EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                        DocumentSignatureType.BINARY_DOCUMENT))
+                .overrideCompressionAlgorithm(CompressionAlgorithm.ZIP)
+                .setKnownLength(data.length);
+
+        assertArrayEquals(data, decrypt(secretKeys, encrypt(options)));
+    }
+
+    @Test
+    public void writingLessThanAnnouncedFails() throws PGPException, IOException {
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.noEncryptionNoSigning()
+                        .setKnownLength(data.length + 1));
+        Streams.pipeAll(new ByteArrayInputStream(data), encryptionStream);
+        IOException e = assertThrows(IOException.class, encryptionStream::close);
+        assertTrue(e.getMessage().contains("only " + data.length + " bytes"));
+        // The stream is closed nevertheless
+        encryptionStream.close();
+    }
+
+    @Test
+    public void incompletePipelinedMessageIsClosed() throws PGPException, IOException, InterruptedException {
+        PGPPublicKeyRing publicKeys = TestKeys.getEmilPublicKeyRing();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                    .onOutputStream(out)
+                    .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                                    .addRecipient(publicKeys))
+                            .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                            .setEncryptionPipelineExecutor(executor)
+                            .setKnownLength(data.length + 1));
+            Streams.pipeAll(new ByteArrayInputStream(data), encryptionStream);
+            assertThrows(IOException.class, encryptionStream::close);
+            // The pipeline was drained into the output
+            assertTrue(out.size() > data.length);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void writingMoreThanAnnouncedFails() throws PGPException, IOException {
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.noEncryptionNoSigning()
+                        .setKnownLength(data.length - 1));
+        assertThrows(IOException.class, () -> encryptionStream.write(data));
+        IOException e = assertThrows(IOException.class, encryptionStream::close);
+        assertFalse(e.getMessage().contains("only"));
+    }
+
+    private static byte[] encrypt(ProducerOptions options) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(options);
+        Streams.pipeAll(new ByteArrayInputStream(data), encryptionStream);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(PGPSecretKeyRing secretKeys, byte[] ciphertext) throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(ciphertext))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(KeyRingUtils.publicKeyRingFrom(secretKeys)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, out);
+        decryptionStream.close();
+        return out.toByteArray();
+    }
+}
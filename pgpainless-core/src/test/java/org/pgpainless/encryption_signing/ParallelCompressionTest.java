@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.util.TestUtils.encrypt;
+import static org.pgpainless.util.TestUtils.randomText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class ParallelCompressionTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void parallelCompressionIsCompatible() throws PGPException, IOException {
+        assertTrue(ParallelCompressedDataOutputStream.isAvailable());
+        // Full blocks, a trailing partial block, and data ending exactly at a block boundary
+        int[] lengths = new int[] {10, 5 * ParallelCompressedDataOutputStream.BLOCK_SIZE + 12345,
+                3 * ParallelCompressedDataOutputStream.BLOCK_SIZE};
+
+        for (CompressionAlgorithm compressionAlgorithm : new CompressionAlgorithm[] {CompressionAlgorithm.ZIP, CompressionAlgorithm.ZLIB}) {
+            for (int level : new int[] {Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+                for (int length : lengths) {
+                    byte[] data = randomText(length);
+                    ProducerOptions options = ProducerOptions.noEncryptionNoSigning()
+                            .overrideCompressionAlgorithm(compressionAlgorithm)
+                            .setCompressionLevel(level)
+                            .setAsciiArmor(false);
+                    byte[] sequential = encrypt(data, options);
+                    byte[] parallel = encrypt(data, options.setCompressionExecutor(executor));
+
+                    assertArrayEquals(data, decompress(parallel, compressionAlgorithm));
+                    // Restarting the dictionary at block boundaries only costs a little compression
+                    assertTrue(parallel.length < sequential.length * 1.05 + 64);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void signedAndEncryptedMessageWithFlush() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomText(3 * ParallelCompressedDataOutputStream.BLOCK_SIZE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                                DocumentSignatureType.BINARY_DOCUMENT))
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.ZLIB)
+                        .setCompressionExecutor(executor));
+        // Flushing terminates blocks early, which are then used as shorter dictionaries
+        encryptionStream.write(data, 0, 1000);
+        encryptionStream.flush();
+        encryptionStream.write(data, 1000, ParallelCompressedDataOutputStream.BLOCK_SIZE);
+        encryptionStream.flush();
+        encryptionStream.write(data, 1000 + ParallelCompressedDataOutputStream.BLOCK_SIZE,
+                data.length - 1000 - ParallelCompressedDataOutputStream.BLOCK_SIZE);
+        encryptionStream.close();
+
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(out.toByteArray()))
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys));
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+
+        assertArrayEquals(data, plaintext.toByteArray());
+        OpenPgpMetadata metadata = decryptionStream.getResult();
+        assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+        assertEquals(CompressionAlgorithm.ZLIB, metadata.getCompressionAlgorithm());
+    }
+
+    @Test
+    public void bzip2FallsBackToSequentialCompression() throws PGPException, IOException {
+        byte[] data = randomText(300000);
+        byte[] message = encrypt(data, ProducerOptions.noEncryptionNoSigning()
+                .overrideCompressionAlgorithm(CompressionAlgorithm.BZIP2)
+                .setCompressionExecutor(executor));
+        assertArrayEquals(data, decompress(message, CompressionAlgorithm.BZIP2));
+    }
+
+    private static byte[] decompress(byte[] message, CompressionAlgorithm expectedAlgorithm)
+            throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(new ConsumerOptions());
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(decryptionStream, plaintext);
+        decryptionStream.close();
+        assertEquals(expectedAlgorithm, decryptionStream.getResult().getCompressionAlgorithm());
+        return plaintext.toByteArray();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class ParallelSignatureHashingTest {
+
+    @Test
+    public void signWithThreeKeysOnTwoThreads() throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        PGPSecretKeyRing alice = PGPainless.generateKeyRing().modernKeyRing("alice", null);
+
+        byte[] data = new byte[(1 << 12) * 10 + 123];
+        new Random().nextBytes(data);
+
+        // Fewer threads than signers must not cause a deadlock
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream signingStream;
+        try {
+            signingStream = PGPainless.encryptAndOrSign()
+                    .onOutputStream(out)
+                    .withOptions(ProducerOptions.sign(new SigningOptions()
+                                    .addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), juliet, DocumentSignatureType.BINARY_DOCUMENT)
+                                    .addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), emil, DocumentSignatureType.BINARY_DOCUMENT)
+                                    .addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(), alice, DocumentSignatureType.BINARY_DOCUMENT))
+                            .setBufferSize(1 << 12)
+                            .setSignatureHashingExecutor(executor));
+            // mix single byte writes with block writes
+            signingStream.write(data[0]);
+            signingStream.write(data, 1, 5000);
+            Streams.pipeAll(new ByteArrayInputStream(data, 5001, data.length - 5001), signingStream);
+            signingStream.close();
+        } finally {
+            executor.shutdown();
+        }
+
+        EncryptionResult result = signingStream.getResult();
+        assertEquals(1, result.getDetachedSignatures().size());
+        PGPSignature detached = result.getDetachedSignatures().values().iterator().next().iterator().next();
+
+        PGPPublicKeyRing julietCert = KeyRingUtils.publicKeyRingFrom(juliet);
+        PGPPublicKeyRing emilCert = KeyRingUtils.publicKeyRingFrom(emil);
+        PGPPublicKeyRing aliceCert = KeyRingUtils.publicKeyRingFrom(alice);
+
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(out.toByteArray()))
+                .withOptions(new ConsumerOptions()
+                        .addVerificationCert(julietCert)
+                        .addVerificationCert(emilCert));
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(verifier, plaintext);
+        verifier.close();
+
+        assertArrayEquals(data, plaintext.toByteArray());
+        OpenPgpMetadata metadata = verifier.getResult();
+        assertTrue(metadata.containsVerifiedSignatureFrom(julietCert));
+        assertTrue(metadata.containsVerifiedSignatureFrom(emilCert));
+
+        detached.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(),
+                aliceCert.getPublicKey(detached.getKeyID()));
+        detached.update(data);
+        assertTrue(detached.verify());
+    }
+
+    @Test
+    public void rejectedExecutionFailsInsteadOfBlocking() throws PGPException, IOException {
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        byte[] data = new byte[(1 << 12) * 10];
+
+        // A shut down executor rejects all hashing workers
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        final EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(new SigningOptions()
+                                .addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), juliet, DocumentSignatureType.BINARY_DOCUMENT))
+                        .setBufferSize(1 << 12)
+                        .setSignatureHashingExecutor(executor));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertThrows(IOException.class, () -> signingStream.write(data));
+            assertThrows(IOException.class, signingStream::close);
+        });
+    }
+}
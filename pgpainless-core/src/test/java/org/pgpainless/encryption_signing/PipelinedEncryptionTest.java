@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pgpainless.util.TestUtils.randomText;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.CompressionAlgorithm;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class PipelinedEncryptionTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void encryptAndSignLargeMessage() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = randomText(1 << 20);
+
+        for (CompressionAlgorithm compressionAlgorithm : CompressionAlgorithm.values()) {
+            for (boolean armor : new boolean[] {true, false}) {
+                ProducerOptions producerOptions = ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                                DocumentSignatureType.BINARY_DOCUMENT))
+                        .overrideCompressionAlgorithm(compressionAlgorithm)
+                        .setAsciiArmor(armor)
+                        .setEncryptionPipelineExecutor(executor);
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                        .onOutputStream(out)
+                        .withOptions(producerOptions);
+                // Write in odd sized pieces, so that chunks are split across writes
+                for (int off = 0; off < data.length; off += 1000) {
+                    encryptionStream.write(data, off, Math.min(1000, data.length - off));
+                }
+                encryptionStream.write('\n');
+                encryptionStream.close();
+                assertEquals(compressionAlgorithm, encryptionStream.getResult().getCompressionAlgorithm());
+
+                DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                        .onInputStream(new ByteArrayInputStream(out.toByteArray()))
+                        .withOptions(new ConsumerOptions()
+                                .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                                .addVerificationCert(publicKeys));
+                ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+                Streams.pipeAll(decryptionStream, plaintext);
+                decryptionStream.close();
+
+                byte[] expected = new byte[data.length + 1];
+                System.arraycopy(data, 0, expected, 0, data.length);
+                expected[data.length] = '\n';
+                assertArrayEquals(expected, plaintext.toByteArray());
+                OpenPgpMetadata metadata = decryptionStream.getResult();
+                assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+                assertEquals(compressionAlgorithm, metadata.getCompressionAlgorithm());
+            }
+        }
+    }
+
+    @Test
+    public void flushWritesAllDataWrittenSoFar() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                        .overrideCompressionAlgorithm(CompressionAlgorithm.UNCOMPRESSED)
+                        .setAsciiArmor(false)
+                        .setEncryptionPipelineExecutor(executor));
+
+        byte[] data = randomText(300000);
+        encryptionStream.write(data);
+        encryptionStream.flush();
+        // Apart from the partial packet buffers of the literal and the encrypted data packet, no data is held back
+        int flushed = out.size();
+        assertTrue(flushed >= data.length - 2 * ProducerOptions.DEFAULT_BUFFER_SIZE);
+        encryptionStream.close();
+        assertTrue(out.size() > flushed);
+    }
+
+    @Test
+    public void failureOfTargetStreamIsReported() throws PGPException, IOException {
+        PGPSecretKeyRing secretKeys = TestKeys.getJulietSecretKeyRing();
+        IOException failure = new IOException("Disk full");
+        OutputStream brokenTarget = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw failure;
+            }
+        };
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(brokenTarget)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys)))
+                        .setEncryptionPipelineExecutor(executor));
+
+        assertThrows(IOException.class, () -> {
+            byte[] data = randomText(1 << 20);
+            encryptionStream.write(data);
+            encryptionStream.close();
+        });
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionProcessor;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Flow;
+
+public class ProcessorTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void encryptAndDecryptWithProcessors() throws Exception {
+        PGPSecretKeyRing secretKeys = TestKeys.getEmilSecretKeyRing();
+        PGPPublicKeyRing publicKeys = KeyRingUtils.publicKeyRingFrom(secretKeys);
+        byte[] data = new byte[200000];
+        new Random().nextBytes(data);
+
+        EncryptionProcessor encryptionProcessor = PGPainless.encryptAndOrSign()
+                .asProcessor(executor)
+                .withOptions(ProducerOptions.signAndEncrypt(
+                        EncryptionOptions.encryptCommunications().addRecipient(publicKeys),
+                        new SigningOptions().addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                                DocumentSignatureType.BINARY_DOCUMENT)));
+        DecryptionProcessor decryptionProcessor = PGPainless.decryptAndOrVerify()
+                .asProcessor(executor)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(secretKeys, SecretKeyRingProtector.unprotectedKeys())
+                        .addVerificationCert(publicKeys));
+
+        ChunkPublisher publisher = new ChunkPublisher(data, 1000);
+        CollectingSubscriber subscriber = new CollectingSubscriber(1);
+        publisher.subscribe(encryptionProcessor);
+        encryptionProcessor.subscribe(decryptionProcessor);
+        decryptionProcessor.subscribe(subscriber);
+
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertArrayEquals(data, subscriber.data.toByteArray());
+
+        EncryptionResult encryptionResult = encryptionProcessor.getResult();
+        assertEquals(1, encryptionResult.getRecipients().size());
+        OpenPgpMetadata metadata = decryptionProcessor.getResult();
+        assertTrue(metadata.isEncrypted());
+        assertTrue(metadata.containsVerifiedSignatureFrom(publicKeys));
+    }
+
+    @Test
+    public void processorPropagatesBackpressure() throws PGPException, IOException, InterruptedException {
+        EncryptionProcessor processor = PGPainless.encryptAndOrSign()
+                .asProcessor(executor)
+                .withOptions(ProducerOptions.noEncryptionNoSigning().setAsciiArmor(false));
+
+        ChunkPublisher publisher = new ChunkPublisher(new byte[1000000], ProducerOptions.DEFAULT_BUFFER_SIZE);
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        // Without downstream demand, the processor stops requesting after a bounded number of chunks
+        long requested = publisher.awaitRequestsSettled(EncryptionProcessor.DEFAULT_PREFETCH, 100, 30000);
+        assertTrue(requested >= EncryptionProcessor.DEFAULT_PREFETCH);
+        assertTrue(requested < 3 * EncryptionProcessor.DEFAULT_PREFETCH);
+        assertEquals(0, subscriber.data.size());
+
+        subscriber.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertNotNull(processor.getResult());
+    }
+
+    @Test
+    public void decryptionErrorIsSignalled() throws PGPException, IOException, InterruptedException {
+        DecryptionProcessor processor = PGPainless.decryptAndOrVerify()
+                .asProcessor(executor)
+                .withOptions(new ConsumerOptions()
+                        .addDecryptionKey(TestKeys.getJulietSecretKeyRing(), SecretKeyRingProtector.unprotectedKeys()));
+
+        byte[] garbage = ("-----BEGIN PGP MESSAGE-----\n\nhQEMA3wvqk35PDeyAQf/\n-----END PGP MESSAGE-----\n").getBytes();
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        new ChunkPublisher(garbage, 10).subscribe(processor);
+        processor.subscribe(subscriber);
+
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertNotNull(subscriber.error);
+    }
+
+    /**
+     * Publisher which emits slices of a byte array in response to demand.
+     */
+    private static class ChunkPublisher implements Flow.Publisher<ByteBuffer> {
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long requested;
+        private int next;
+        private boolean emitting;
+
+        ChunkPublisher(byte[] data, int chunkSize) {
+            for (int off = 0; off < data.length; off += chunkSize) {
+                chunks.add(ByteBuffer.wrap(data, off, Math.min(chunkSize, data.length - off)).slice());
+            }
+        }
+
+        /**
+         * Wait until at least minimum items were requested and no further request arrived for quietMillis.
+         * Gives up once timeoutMillis have passed.
+         *
+         * @param minimum minimum number of requested items
+         * @param quietMillis time without requests after which the requests are considered settled
+         * @param timeoutMillis maximum time to wait
+         * @return number of requested items
+         * @throws InterruptedException if interrupted
+         */
+        synchronized long awaitRequestsSettled(long minimum, long quietMillis, long timeoutMillis)
+                throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (requested < minimum && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            long last;
+            do {
+                last = requested;
+                wait(quietMillis);
+            } while (requested != last && System.currentTimeMillis() < deadline);
+            return requested;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private long demand;
+                private boolean done;
+
+                @Override
+                public void request(long n) {
+                    synchronized (ChunkPublisher.this) {
+                        requested += n;
+                        demand += n;
+                        ChunkPublisher.this.notifyAll();
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                    }
+                    while (true) {
+                        ByteBuffer chunk = null;
+                        boolean complete = false;
+                        synchronized (ChunkPublisher.this) {
+                            if (next < chunks.size() && demand > 0) {
+                                demand--;
+                                chunk = chunks.get(next++);
+                            } else if (next == chunks.size() && !done) {
+                                done = true;
+                                complete = true;
+                            } else {
+                                emitting = false;
+                                return;
+                            }
+                        }
+                        if (complete) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onNext(chunk);
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    synchronized (ChunkPublisher.this) {
+                        done = true;
+                        next = chunks.size();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Subscriber which collects all received data.
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long batchSize;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        CollectingSubscriber(long batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        void request(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batchSize > 0) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            synchronized (data) {
+                data.write(bytes, 0, bytes.length);
+            }
+            if (batchSize > 0 && batchSize != Long.MAX_VALUE) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
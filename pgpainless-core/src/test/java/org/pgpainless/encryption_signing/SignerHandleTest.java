@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.encryption_signing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.algorithm.HashAlgorithm;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.exception.KeyValidationException;
+import org.pgpainless.key.SubkeyIdentifier;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class SignerHandleTest {
+
+    private static final byte[] DATA = "Hello Signer :)".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void signManyMessagesConcurrently() throws Exception {
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        final SignerHandle julietSigner = SignerHandle.prepare(SecretKeyRingProtector.unprotectedKeys(), juliet,
+                DocumentSignatureType.BINARY_DOCUMENT);
+        final SignerHandle emilSigner = SignerHandle.prepare(SecretKeyRingProtector.unprotectedKeys(), emil,
+                DocumentSignatureType.BINARY_DOCUMENT);
+        ConsumerOptions verificationOptions = new ConsumerOptions()
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(juliet))
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(emil))
+                .freeze();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> messages = new ArrayList<>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                messages.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return sign(new SigningOptions()
+                                .addInlineSignature(julietSigner)
+                                .addInlineSignature(emilSigner));
+                    }
+                }));
+            }
+            for (Future<byte[]> message : messages) {
+                OpenPgpMetadata metadata = verify(message.get(), verificationOptions.forMessage());
+                assertTrue(metadata.containsVerifiedSignatureFrom(TestKeys.JULIET_FINGERPRINT));
+                assertTrue(metadata.containsVerifiedSignatureFrom(TestKeys.EMIL_FINGERPRINT));
+
+                // Hashed subpackets survive digest sharing between the two signers
+                for (PGPSignature signature : metadata.getVerifiedSignatures().values()) {
+                    assertNotNull(signature.getHashedSubPackets().getIssuerFingerprint());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void detachedSignatureWithHashAlgorithmOverride() throws PGPException, IOException {
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        SignerHandle signer = SignerHandle.prepare(SecretKeyRingProtector.unprotectedKeys(), emil, null,
+                DocumentSignatureType.BINARY_DOCUMENT, HashAlgorithm.SHA384);
+
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(new SigningOptions().addDetachedSignature(signer)));
+        signingStream.write(DATA);
+        signingStream.close();
+
+        PGPSignature signature = signingStream.getResult().getDetachedSignatures().values().iterator().next().iterator().next();
+        assertEquals(HashAlgorithm.SHA384.getAlgorithmId(), signature.getHashAlgorithm());
+        assertEquals(TestKeys.EMIL_KEY_ID, signature.getKeyID());
+
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(DATA))
+                .withOptions(new ConsumerOptions()
+                        .addVerificationCert(TestKeys.getEmilPublicKeyRing())
+                        .addVerificationOfDetachedSignature(signature));
+        Streams.drain(verifier);
+        verifier.close();
+        assertTrue(verifier.getResult().containsVerifiedSignatureFrom(TestKeys.EMIL_FINGERPRINT));
+    }
+
+    @Test
+    public void signatureGeneratorsAreFreshForEachMessage() throws PGPException, IOException {
+        SignerHandle signer = SignerHandle.prepare(SecretKeyRingProtector.unprotectedKeys(),
+                TestKeys.getJulietSecretKeyRing(), DocumentSignatureType.BINARY_DOCUMENT);
+        assertNull(signer.getExpirationDate());
+
+        Map<SubkeyIdentifier, PGPSignatureGenerator> first = signer.createSignatureGenerators();
+        Map<SubkeyIdentifier, PGPSignatureGenerator> second = signer.createSignatureGenerators();
+        assertEquals(signer.getSigningKeys(), first.keySet());
+        assertEquals(first.keySet(), second.keySet());
+        for (SubkeyIdentifier signingKey : first.keySet()) {
+            assertNotSame(first.get(signingKey), second.get(signingKey));
+        }
+    }
+
+    @Test
+    public void signerIsPreparedAgainAfterExpiration()
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing secretKeys = PGPainless.generateKeyRing().modernKeyRing("alice", null);
+        secretKeys = PGPainless.modifyKeyRing(secretKeys)
+                .setExpirationDate(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)),
+                        SecretKeyRingProtector.unprotectedKeys())
+                .done();
+
+        SignerHandle signer = SignerHandle.prepare(SecretKeyRingProtector.unprotectedKeys(), secretKeys,
+                DocumentSignatureType.BINARY_DOCUMENT);
+        Date expirationDate = signer.getExpirationDate();
+        assertNotNull(expirationDate);
+        assertEquals(1, signer.createSignatureGenerators().size());
+        assertEquals(1, signer.createSignatureGenerators(new Date(expirationDate.getTime() - 1000)).size());
+
+        // After the expiration date, the key is evaluated again, which reveals that it has no valid signing key anymore
+        Date afterExpiration = new Date(expirationDate.getTime() + 1000);
+        assertThrows(KeyValidationException.class, () -> signer.createSignatureGenerators(afterExpiration));
+    }
+
+    private static byte[] sign(SigningOptions signingOptions) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.sign(signingOptions));
+        signingStream.write(DATA);
+        signingStream.close();
+        return out.toByteArray();
+    }
+
+    private static OpenPgpMetadata verify(byte[] message, ConsumerOptions options) throws PGPException, IOException {
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(verifier, plaintext);
+        verifier.close();
+        assertArrayEquals(DATA, plaintext.toByteArray());
+        return verifier.getResult();
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.pgpainless.encryption_signing;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -113,6 +114,39 @@ public class SigningTest {
         assertFalse(metadata.containsVerifiedSignatureFrom(julietKeys));
     }
 
+    @Test
+    public void testSignSlicesOfLargerBuffer() throws PGPException, IOException {
+        PGPSecretKeyRing julietKeys = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emilKeys = TestKeys.getEmilSecretKeyRing();
+        byte[] buffer = "HEADER|This is the signed part of the buffer.|TRAILER".getBytes(StandardCharsets.UTF_8);
+        int off = "HEADER|".length();
+        int len = buffer.length - off - "|TRAILER".length();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.sign(new SigningOptions()
+                        .addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), julietKeys, DocumentSignatureType.BINARY_DOCUMENT)
+                        .addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), emilKeys, DocumentSignatureType.BINARY_DOCUMENT)));
+        signingStream.write(buffer, off, 5);
+        signingStream.write(buffer, off + 5, len - 5);
+        signingStream.close();
+
+        DecryptionStream verificationStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(out.toByteArray()))
+                .withOptions(new ConsumerOptions()
+                        .addVerificationCert(KeyRingUtils.publicKeyRingFrom(julietKeys))
+                        .addVerificationCert(KeyRingUtils.publicKeyRingFrom(emilKeys)));
+        ByteArrayOutputStream plaintextOut = new ByteArrayOutputStream();
+        Streams.pipeAll(verificationStream, plaintextOut);
+        verificationStream.close();
+
+        assertArrayEquals(Arrays.copyOfRange(buffer, off, off + len), plaintextOut.toByteArray());
+        OpenPgpMetadata metadata = verificationStream.getResult();
+        assertTrue(metadata.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(julietKeys)));
+        assertTrue(metadata.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(emilKeys)));
+    }
+
     @Test
     public void testSignWithInvalidUserIdFails() throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
         PGPSecretKeyRing secretKeys = PGPainless.generateKeyRing()
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.implementation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.util.Arrays;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.util.Passphrase;
+
+public class CachingPBESecretKeyDecryptorTest {
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void repeatedUnlockDerivesKeyOnce(ImplementationFactory implementationFactory)
+            throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing secretKeys = TestKeys.getCryptieSecretKeyRing();
+        PGPSecretKey secretKey = secretKeys.getSecretKey();
+        Passphrase passphrase = Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD);
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = implementationFactory.getDerivedKeyCache();
+        cache.clear();
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(secretKey.extractPrivateKey(implementationFactory.getPBESecretKeyDecryptor(passphrase)));
+        }
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(hits + 2, cache.getHitCount());
+        assertEquals(1, cache.size());
+
+        // Derived keys are bound to the identity of the passphrase
+        assertNotNull(secretKey.extractPrivateKey(implementationFactory.getPBESecretKeyDecryptor(
+                Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD))));
+        assertEquals(misses + 2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void wrongPassphraseStillFails(ImplementationFactory implementationFactory)
+            throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKey secretKey = TestKeys.getCryptieSecretKeyRing().getSecretKey();
+        Passphrase wrongPassphrase = Passphrase.fromPassword("wrong");
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(PGPException.class, () -> secretKey.extractPrivateKey(
+                    implementationFactory.getPBESecretKeyDecryptor(wrongPassphrase)));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void clearedPassphraseIsNotCached(ImplementationFactory implementationFactory)
+            throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKey secretKey = TestKeys.getCryptieSecretKeyRing().getSecretKey();
+        Passphrase passphrase = Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD);
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = new CachingPBESecretKeyDecryptor.DerivedKeyCache(4);
+        CachingPBESecretKeyDecryptor decryptor = new CachingPBESecretKeyDecryptor(
+                implementationFactory.getPBESecretKeyDecryptor(passphrase), passphrase, cache);
+
+        secretKey.extractPrivateKey(decryptor);
+        assertEquals(1, cache.getMissCount());
+
+        // The delegate retains a copy of the passphrase, but the cache is no longer consulted
+        CachingPBESecretKeyDecryptor secondDecryptor = new CachingPBESecretKeyDecryptor(
+                implementationFactory.getPBESecretKeyDecryptor(passphrase), passphrase, cache);
+        passphrase.clear();
+        secretKey.extractPrivateKey(secondDecryptor);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void derivedKeyIsWipedWhenPassphraseIsCleared(ImplementationFactory implementationFactory)
+            throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKey secretKey = TestKeys.getCryptieSecretKeyRing().getSecretKey();
+        Passphrase passphrase = Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD);
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = new CachingPBESecretKeyDecryptor.DerivedKeyCache(4);
+        RecordingDecryptor delegate = new RecordingDecryptor(implementationFactory.getPBESecretKeyDecryptor(passphrase));
+
+        secretKey.extractPrivateKey(new CachingPBESecretKeyDecryptor(delegate, passphrase, cache));
+        assertEquals(1, cache.size());
+        assertNotNull(delegate.derivedKey);
+        assertFalse(Arrays.areAllZeroes(delegate.derivedKey, 0, delegate.derivedKey.length));
+
+        passphrase.clear();
+        assertEquals(0, cache.size());
+        assertTrue(Arrays.areAllZeroes(delegate.derivedKey, 0, delegate.derivedKey.length));
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void cacheCanBeDisabled(ImplementationFactory implementationFactory) throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKey secretKey = TestKeys.getCryptieSecretKeyRing().getSecretKey();
+        Passphrase passphrase = Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD);
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = implementationFactory.getDerivedKeyCache();
+        assertNotNull(cache);
+        secretKey.extractPrivateKey(implementationFactory.getPBESecretKeyDecryptor(passphrase));
+        assertTrue(cache.size() > 0);
+
+        try {
+            implementationFactory.setDerivedKeyCache(null);
+            assertEquals(0, cache.size());
+            PBESecretKeyDecryptor decryptor = implementationFactory.getPBESecretKeyDecryptor(passphrase);
+            assertFalse(decryptor instanceof CachingPBESecretKeyDecryptor);
+            assertNotNull(secretKey.extractPrivateKey(decryptor));
+            assertEquals(0, cache.size());
+        } finally {
+            implementationFactory.setDerivedKeyCache(cache);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void cacheIsBounded(ImplementationFactory implementationFactory) throws IOException, PGPException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKey secretKey = TestKeys.getCryptieSecretKeyRing().getSecretKey();
+        CachingPBESecretKeyDecryptor.DerivedKeyCache cache = new CachingPBESecretKeyDecryptor.DerivedKeyCache(2);
+        for (int i = 0; i < 3; i++) {
+            Passphrase passphrase = Passphrase.fromPassword(TestKeys.CRYPTIE_PASSWORD);
+            secretKey.extractPrivateKey(new CachingPBESecretKeyDecryptor(
+                    implementationFactory.getPBESecretKeyDecryptor(passphrase), passphrase, cache));
+        }
+        assertEquals(2, cache.size());
+        assertTrue(cache.getMissCount() >= 3);
+        assertThrows(IllegalArgumentException.class, () -> new CachingPBESecretKeyDecryptor.DerivedKeyCache(0));
+    }
+
+    /**
+     * Decryptor which remembers the last key it derived.
+     */
+    private static class RecordingDecryptor extends PBESecretKeyDecryptor {
+
+        private final PBESecretKeyDecryptor delegate;
+        private byte[] derivedKey;
+
+        RecordingDecryptor(PBESecretKeyDecryptor delegate) {
+            super(null, null);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PGPDigestCalculator getChecksumCalculator(int hashAlgorithm) throws PGPException {
+            return delegate.getChecksumCalculator(hashAlgorithm);
+        }
+
+        @Override
+        public byte[] makeKeyFromPassPhrase(int keyAlgorithm, S2K s2k) throws PGPException {
+            derivedKey = delegate.makeKeyFromPassPhrase(keyAlgorithm, s2k);
+            return derivedKey;
+        }
+
+        @Override
+        public byte[] recoverKeyData(int encAlgorithm, byte[] key, byte[] iv, byte[] keyData, int keyOff, int keyLen)
+                throws PGPException {
+            return delegate.recoverKeyData(encAlgorithm, key, iv, keyData, keyOff, keyLen);
+        }
+    }
+}
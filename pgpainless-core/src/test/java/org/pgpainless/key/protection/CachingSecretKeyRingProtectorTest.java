@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.key.protection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+import org.junit.jupiter.api.Test;
+import org.pgpainless.key.protection.passphrase_provider.SecretKeyPassphraseProvider;
+import org.pgpainless.util.Passphrase;
+
+public class CachingSecretKeyRingProtectorTest {
+
+    @Test
+    public void forgetUnknownPassphraseIsIgnored() {
+        CachingSecretKeyRingProtector protector = new CachingSecretKeyRingProtector(new HashMap<>(),
+                KeyRingProtectionSettings.secureDefaultSettings(), null);
+        protector.forgetPassphrase(42L);
+        assertNull(protector.getPassphraseFor(42L));
+    }
+
+    @Test
+    public void addPassphrases() {
+        CachingSecretKeyRingProtector protector = new CachingSecretKeyRingProtector(new HashMap<>(),
+                KeyRingProtectionSettings.secureDefaultSettings(), null);
+        Map<Long, Passphrase> passphrases = new HashMap<>();
+        passphrases.put(1L, Passphrase.fromPassword("one"));
+        passphrases.put(2L, Passphrase.fromPassword("two"));
+        passphrases.put(3L, null);
+        protector.addPassphrases(passphrases);
+
+        assertEquals(Passphrase.fromPassword("one"), protector.getPassphraseFor(1L));
+        assertEquals(Passphrase.fromPassword("two"), protector.getPassphraseFor(2L));
+        assertNull(protector.getPassphraseFor(3L));
+    }
+
+    @Test
+    public void passphrasesExpire() throws InterruptedException {
+        AtomicInteger callbackCount = new AtomicInteger();
+        CachingSecretKeyRingProtector protector = new CachingSecretKeyRingProtector(new HashMap<>(),
+                KeyRingProtectionSettings.secureDefaultSettings(), new SecretKeyPassphraseProvider() {
+            @Nullable
+            @Override
+            public Passphrase getPassphraseFor(Long keyId) {
+                callbackCount.incrementAndGet();
+                return keyId == 1L ? Passphrase.fromPassword("provided") : null;
+            }
+        });
+        protector.setCallbackPassphraseTimeToLive(20, TimeUnit.MILLISECONDS);
+        protector.addPassphrase(2L, Passphrase.fromPassword("short-lived"), 20, TimeUnit.MILLISECONDS);
+        protector.addPassphrase(3L, Passphrase.fromPassword("long-lived"), 1, TimeUnit.HOURS);
+
+        assertEquals(Passphrase.fromPassword("provided"), protector.getPassphraseFor(1L));
+        assertEquals(Passphrase.fromPassword("provided"), protector.getPassphraseFor(1L));
+        assertEquals(1, callbackCount.get());
+        assertEquals(Passphrase.fromPassword("short-lived"), protector.getPassphraseFor(2L));
+
+        Thread.sleep(50);
+        assertEquals(Passphrase.fromPassword("provided"), protector.getPassphraseFor(1L));
+        assertEquals(2, callbackCount.get());
+        assertNull(protector.getPassphraseFor(2L));
+        assertEquals(Passphrase.fromPassword("long-lived"), protector.getPassphraseFor(3L));
+
+        assertThrows(IllegalArgumentException.class, () -> protector.setCallbackPassphraseTimeToLive(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentRequestsShareCallback() throws InterruptedException, ExecutionException {
+        final int threads = 8;
+        final AtomicInteger callbackCount = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CachingSecretKeyRingProtector protector = new CachingSecretKeyRingProtector(new HashMap<>(),
+                KeyRingProtectionSettings.secureDefaultSettings(), new SecretKeyPassphraseProvider() {
+            @Nullable
+            @Override
+            public Passphrase getPassphraseFor(Long keyId) {
+                callbackCount.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Passphrase.fromPassword("provided");
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Passphrase>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Passphrase>() {
+                    @Override
+                    public Passphrase call() {
+                        started.countDown();
+                        return protector.getPassphraseFor(42L);
+                    }
+                }));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            release.countDown();
+
+            Passphrase first = results.get(0).get();
+            for (Future<Passphrase> result : results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(1, callbackCount.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
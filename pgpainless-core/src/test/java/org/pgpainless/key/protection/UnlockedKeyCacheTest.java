@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.key.protection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PBESecretKeyEncryptor;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.Test;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.encryption_signing.EncryptionOptions;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.key.util.KeyRingUtils;
+import org.pgpainless.util.Passphrase;
+
+public class UnlockedKeyCacheTest {
+
+    private static final Passphrase PASSPHRASE = Passphrase.fromPassword("sw0rdf1sh");
+
+    @Test
+    public void signingAndEditingReuseUnlockedKey()
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing secretKeys = generateKey();
+        UnlockedKeyCache cache = new UnlockedKeyCache(10, 1, 1, TimeUnit.HOURS);
+        CountingProtector counter = new CountingProtector(SecretKeyRingProtector.unlockAllKeysWith(PASSPHRASE, secretKeys));
+        SecretKeyRingProtector protector = cache.protect(counter);
+
+        SigningOptions.get().addInlineSignature(protector, secretKeys, DocumentSignatureType.BINARY_DOCUMENT);
+        SigningOptions.get().addInlineSignature(protector, secretKeys, DocumentSignatureType.BINARY_DOCUMENT);
+        assertEquals(1, counter.unlockCount.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // The editor certifies the new user-id using the cached primary key
+        PGPainless.modifyKeyRing(secretKeys)
+                .addUserId("cheshirecat@wonderland.lit", protector)
+                .done();
+        assertEquals(1, counter.unlockCount.get());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void decryptionReusesUnlockedKey()
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing secretKeys = generateKey();
+        UnlockedKeyCache cache = new UnlockedKeyCache(10, 1, 1, TimeUnit.HOURS);
+        CountingProtector counter = new CountingProtector(SecretKeyRingProtector.unlockAllKeysWith(PASSPHRASE, secretKeys));
+        SecretKeyRingProtector protector = cache.protect(counter);
+
+        for (int i = 0; i < 3; i++) {
+            decrypt(encryptFor(secretKeys), new ConsumerOptions().addDecryptionKey(secretKeys, protector));
+        }
+        assertEquals(1, counter.unlockCount.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesAreEvicted()
+            throws PGPException, InterruptedException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing secretKeys = generateKey();
+        Iterator<PGPSecretKey> iterator = secretKeys.getSecretKeys();
+        PGPSecretKey primaryKey = iterator.next();
+        PGPSecretKey subkey = iterator.next();
+        SecretKeyRingProtector unlocker = SecretKeyRingProtector.unlockAllKeysWith(PASSPHRASE, secretKeys);
+
+        // Least recently used entry is evicted
+        UnlockedKeyCache cache = new UnlockedKeyCache(1, 1, 1, TimeUnit.HOURS);
+        SecretKeyRingProtector protector = cache.protect(unlocker);
+        UnlockSecretKey.unlockSecretKey(primaryKey, protector);
+        UnlockSecretKey.unlockSecretKey(subkey, protector);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        UnlockSecretKey.unlockSecretKey(primaryKey, protector);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        // Idle entry is evicted
+        UnlockedKeyCache idleCache = new UnlockedKeyCache(10, 10, 1000, TimeUnit.MILLISECONDS);
+        protector = idleCache.protect(unlocker);
+        PGPPrivateKey privateKey = UnlockSecretKey.unlockSecretKey(primaryKey, protector);
+        assertSame(privateKey, UnlockSecretKey.unlockSecretKey(primaryKey, protector));
+        Thread.sleep(50);
+        assertEquals(0, idleCache.size());
+        assertEquals(1, idleCache.getEvictionCount());
+
+        // Entry is evicted after the absolute time to live, even if it is used
+        UnlockedKeyCache absoluteCache = new UnlockedKeyCache(10, 1000, 10, TimeUnit.MILLISECONDS);
+        protector = absoluteCache.protect(unlocker);
+        UnlockSecretKey.unlockSecretKey(primaryKey, protector);
+        Thread.sleep(50);
+        UnlockSecretKey.unlockSecretKey(primaryKey, protector);
+        assertEquals(0, absoluteCache.getHitCount());
+        assertEquals(2, absoluteCache.getMissCount());
+    }
+
+    @Test
+    public void invalidateKeyRing()
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        PGPSecretKeyRing secretKeys = generateKey();
+        UnlockedKeyCache cache = new UnlockedKeyCache(10, 1, 1, TimeUnit.HOURS);
+        SecretKeyRingProtector protector = cache.protect(SecretKeyRingProtector.unlockAllKeysWith(PASSPHRASE, secretKeys));
+        for (PGPSecretKey secretKey : secretKeys) {
+            UnlockSecretKey.unlockSecretKey(secretKey, protector);
+        }
+        assertEquals(2, cache.size());
+
+        cache.invalidate(secretKeys.getPublicKey().getKeyID());
+        assertEquals(1, cache.size());
+        cache.invalidate(secretKeys);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new UnlockedKeyCache(0, 1, 1, TimeUnit.HOURS));
+        assertThrows(IllegalArgumentException.class, () -> new UnlockedKeyCache(10, 0, 1, TimeUnit.HOURS));
+        assertThrows(IllegalArgumentException.class, () -> new UnlockedKeyCache(10, 1, 0, TimeUnit.HOURS));
+    }
+
+    private static PGPSecretKeyRing generateKey()
+            throws PGPException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        return PGPainless.generateKeyRing().simpleEcKeyRing("alice@wonderland.lit", "sw0rdf1sh");
+    }
+
+    private static byte[] encryptFor(PGPSecretKeyRing secretKeys) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.encrypt(EncryptionOptions.encryptCommunications()
+                        .addRecipient(KeyRingUtils.publicKeyRingFrom(secretKeys))));
+        encryptionStream.write("Hello :)".getBytes(StandardCharsets.UTF_8));
+        encryptionStream.close();
+        return out.toByteArray();
+    }
+
+    private static void decrypt(byte[] message, ConsumerOptions options) throws PGPException, IOException {
+        DecryptionStream decryptionStream = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        Streams.drain(decryptionStream);
+        decryptionStream.close();
+    }
+
+    private static class CountingProtector implements SecretKeyRingProtector {
+
+        private final SecretKeyRingProtector delegate;
+        private final AtomicInteger unlockCount = new AtomicInteger();
+
+        CountingProtector(SecretKeyRingProtector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PBESecretKeyDecryptor getDecryptor(Long keyId) throws PGPException {
+            unlockCount.incrementAndGet();
+            return delegate.getDecryptor(keyId);
+        }
+
+        @Override
+        public PBESecretKeyEncryptor getEncryptor(Long keyId) throws PGPException {
+            return delegate.getEncryptor(keyId);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2021 Paul Schaub.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pgpainless.signature;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.pgpainless.PGPainless;
+import org.pgpainless.algorithm.DocumentSignatureType;
+import org.pgpainless.algorithm.HashAlgorithm;
+import org.pgpainless.decryption_verification.ConsumerOptions;
+import org.pgpainless.decryption_verification.DecryptionStream;
+import org.pgpainless.decryption_verification.OpenPgpMetadata;
+import org.pgpainless.encryption_signing.EncryptionResult;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
+import org.pgpainless.encryption_signing.SigningOptions;
+import org.pgpainless.implementation.BcImplementationFactory;
+import org.pgpainless.implementation.ImplementationFactory;
+import org.pgpainless.key.TestKeys;
+import org.pgpainless.key.generation.type.rsa.RsaLength;
+import org.pgpainless.key.protection.SecretKeyRingProtector;
+import org.pgpainless.key.util.KeyRingUtils;
+
+public class SignatureHashingEngineTest {
+
+    private static final byte[] text = ("Line one\nLine two\r\nLine three\rLine four\r\n\n\rend")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void signaturesOfSameHashAlgorithmShareDigest(ImplementationFactory implementationFactory)
+            throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        List<PGPSignature> signatures = signDetached(HashAlgorithm.SHA512, juliet, emil);
+
+        SignatureHashingEngine engine = new SignatureHashingEngine();
+        for (PGPSignature signature : signatures) {
+            engine.addSignature(signature, findCert(signature.getKeyID(), juliet, emil).getPublicKey(signature.getKeyID()));
+        }
+        engine.initialize();
+        // Both signatures are computed over a single digest, unless a different implementation than BC is used
+        assertEquals(implementationFactory instanceof BcImplementationFactory ? 1 : 2, engine.getHashingUnitCount());
+
+        engine.update(text[0]);
+        engine.update(text, 1, text.length - 1);
+        for (PGPSignature signature : signatures) {
+            assertTrue(signature.verify());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void signaturesOfDifferentHashAlgorithmsDoNotShareDigest(ImplementationFactory implementationFactory)
+            throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        List<PGPSignature> signatures = new ArrayList<>();
+        signatures.addAll(signDetached(HashAlgorithm.SHA256, juliet));
+        signatures.addAll(signDetached(HashAlgorithm.SHA512, emil));
+
+        SignatureHashingEngine engine = new SignatureHashingEngine();
+        for (PGPSignature signature : signatures) {
+            engine.addSignature(signature, findCert(signature.getKeyID(), juliet, emil).getPublicKey(signature.getKeyID()));
+        }
+        engine.initialize();
+        assertEquals(2, engine.getHashingUnitCount());
+
+        engine.update(text, 0, text.length);
+        for (PGPSignature signature : signatures) {
+            assertTrue(signature.verify());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void inlineAndDetachedSignaturesWithSharedDigest(ImplementationFactory implementationFactory)
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        roundTrip(DocumentSignatureType.BINARY_DOCUMENT);
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void canonicalTextSignaturesWithSharedDigest(ImplementationFactory implementationFactory)
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        roundTrip(DocumentSignatureType.CANONICAL_TEXT_DOCUMENT);
+    }
+
+    private void roundTrip(DocumentSignatureType signatureType)
+            throws PGPException, IOException, InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+        // EdDSA, ECDSA and RSA keys
+        List<PGPSecretKeyRing> inlineSigners = new ArrayList<>();
+        inlineSigners.add(PGPainless.generateKeyRing().modernKeyRing("alice", null));
+        inlineSigners.add(PGPainless.generateKeyRing().simpleEcKeyRing("bob"));
+        inlineSigners.add(PGPainless.generateKeyRing().simpleRsaKeyRing("erin", RsaLength._2048));
+        List<PGPSecretKeyRing> detachedSigners = new ArrayList<>();
+        detachedSigners.add(PGPainless.generateKeyRing().simpleEcKeyRing("carol"));
+        detachedSigners.add(PGPainless.generateKeyRing().modernKeyRing("dave", null));
+
+        SigningOptions signingOptions = new SigningOptions()
+                .overrideHashAlgorithm(HashAlgorithm.SHA256);
+        for (PGPSecretKeyRing key : inlineSigners) {
+            signingOptions.addInlineSignature(SecretKeyRingProtector.unprotectedKeys(), key, signatureType);
+        }
+        for (PGPSecretKeyRing key : detachedSigners) {
+            signingOptions.addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(), key, signatureType);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(ProducerOptions.sign(signingOptions));
+        signingStream.write(text[0]);
+        signingStream.write(text, 1, text.length - 1);
+        signingStream.close();
+
+        EncryptionResult result = signingStream.getResult();
+        List<PGPSignature> detachedSignatures = new ArrayList<>();
+        for (Set<PGPSignature> signatures : result.getDetachedSignatures().values()) {
+            detachedSignatures.addAll(signatures);
+        }
+        assertEquals(2, detachedSignatures.size());
+
+        // Verify inline signatures, which share a digest during verification
+        ConsumerOptions inlineOptions = new ConsumerOptions();
+        for (PGPSecretKeyRing key : inlineSigners) {
+            inlineOptions.addVerificationCert(KeyRingUtils.publicKeyRingFrom(key));
+        }
+        OpenPgpMetadata inlineResult = verify(out.toByteArray(), text, inlineOptions);
+        for (PGPSecretKeyRing key : inlineSigners) {
+            assertTrue(inlineResult.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(key)));
+        }
+
+        // Verify detached signatures, which share a digest during verification
+        ConsumerOptions detachedOptions = new ConsumerOptions()
+                .addVerificationOfDetachedSignatures(detachedSignatures);
+        for (PGPSecretKeyRing key : detachedSigners) {
+            detachedOptions.addVerificationCert(KeyRingUtils.publicKeyRingFrom(key));
+        }
+        OpenPgpMetadata detachedResult = verify(text, detachedOptions);
+        for (PGPSecretKeyRing key : detachedSigners) {
+            assertTrue(detachedResult.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(key)));
+        }
+
+        // Verify detached signatures without digest sharing
+        for (PGPSignature signature : detachedSignatures) {
+            PGPPublicKeyRing cert = findCert(signature.getKeyID(), detachedSigners.toArray(new PGPSecretKeyRing[0]));
+            signature.init(ImplementationFactory.getInstance().getPGPContentVerifierBuilderProvider(),
+                    cert.getPublicKey(signature.getKeyID()));
+            signature.update(text);
+            assertTrue(signature.verify());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("org.pgpainless.util.TestImplementationFactoryProvider#provideImplementationFactories")
+    public void tamperedDataIsDetectedWithSharedDigest(ImplementationFactory implementationFactory)
+            throws PGPException, IOException {
+        ImplementationFactory.setFactoryImplementation(implementationFactory);
+        PGPSecretKeyRing juliet = TestKeys.getJulietSecretKeyRing();
+        PGPSecretKeyRing emil = TestKeys.getEmilSecretKeyRing();
+        List<PGPSignature> signatures = signDetached(HashAlgorithm.SHA512, juliet, emil);
+
+        byte[] tampered = text.clone();
+        tampered[3] ^= 1;
+        OpenPgpMetadata result = verify(tampered, new ConsumerOptions()
+                .addVerificationOfDetachedSignatures(signatures)
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(juliet))
+                .addVerificationCert(KeyRingUtils.publicKeyRingFrom(emil)));
+        assertFalse(result.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(juliet)));
+        assertFalse(result.containsVerifiedSignatureFrom(KeyRingUtils.publicKeyRingFrom(emil)));
+    }
+
+    private static List<PGPSignature> signDetached(HashAlgorithm hashAlgorithm, PGPSecretKeyRing... keys)
+            throws PGPException, IOException {
+        SigningOptions signingOptions = new SigningOptions().overrideHashAlgorithm(hashAlgorithm);
+        for (PGPSecretKeyRing key : keys) {
+            signingOptions.addDetachedSignature(SecretKeyRingProtector.unprotectedKeys(), key, DocumentSignatureType.BINARY_DOCUMENT);
+        }
+        EncryptionStream signingStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(new ByteArrayOutputStream())
+                .withOptions(ProducerOptions.sign(signingOptions));
+        signingStream.write(text);
+        signingStream.close();
+
+        List<PGPSignature> signatures = new ArrayList<>();
+        for (Set<PGPSignature> set : signingStream.getResult().getDetachedSignatures().values()) {
+            signatures.addAll(set);
+        }
+        return signatures;
+    }
+
+    private static OpenPgpMetadata verify(byte[] message, ConsumerOptions options) throws PGPException, IOException {
+        return verify(message, message, options);
+    }
+
+    private static OpenPgpMetadata verify(byte[] message, byte[] expectedPlaintext, ConsumerOptions options)
+            throws PGPException, IOException {
+        DecryptionStream verifier = PGPainless.decryptAndOrVerify()
+                .onInputStream(new ByteArrayInputStream(message))
+                .withOptions(options);
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        Streams.pipeAll(verifier, plaintext);
+        verifier.close();
+        assertArrayEquals(expectedPlaintext, plaintext.toByteArray());
+        return verifier.getResult();
+    }
+
+    private static PGPPublicKeyRing findCert(long keyId, PGPSecretKeyRing... keys) {
+        for (PGPSecretKeyRing key : keys) {
+            if (key.getSecretKey(keyId) != null) {
+                return KeyRingUtils.publicKeyRingFrom(key);
+            }
+        }
+        throw new AssertionError("Missing key " + Long.toHexString(keyId));
+    }
+}
@@ -16,6 +16,7 @@
 package org.pgpainless.util;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -25,6 +26,10 @@ import java.util.Random;
 
 import org.bouncycastle.bcpg.BCPGInputStream;
 import org.bouncycastle.bcpg.MarkerPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.pgpainless.PGPainless;
+import org.pgpainless.encryption_signing.EncryptionStream;
+import org.pgpainless.encryption_signing.ProducerOptions;
 
 public class TestUtils {
 
@@ -61,4 +66,35 @@ public class TestUtils {
         pgpIn.close();
         return markerPacket;
     }
+
+    /**
+     * Return random lower-case text of the given length, which is broken into lines at random.
+     *
+     * @param length number of bytes
+     * @return random text
+     */
+    public static byte[] randomText(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (RANDOM.nextInt(10) == 0 ? '\n' : 'a' + RANDOM.nextInt(26));
+        }
+        return bytes;
+    }
+
+    /**
+     * Encrypt and/or sign the data using the given producer options.
+     *
+     * @param data plaintext
+     * @param options producer options
+     * @return message
+     */
+    public static byte[] encrypt(byte[] data, ProducerOptions options) throws PGPException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionStream encryptionStream = PGPainless.encryptAndOrSign()
+                .onOutputStream(out)
+                .withOptions(options);
+        encryptionStream.write(data);
+        encryptionStream.close();
+        return out.toByteArray();
+    }
 }
@@ -19,9 +19,11 @@ import static org.pgpainless.sop.Print.err_ln;
 import static org.pgpainless.sop.SopKeyUtil.loadKeysFromFiles;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.List;
@@ -37,6 +39,7 @@ import org.pgpainless.decryption_verification.DecryptionStream;
 import org.pgpainless.decryption_verification.OpenPgpMetadata;
 import org.pgpainless.key.SubkeyIdentifier;
 import org.pgpainless.sop.SopKeyUtil;
+import org.pgpainless.util.SessionKey;
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "decrypt",
@@ -101,19 +104,27 @@ public class Decrypt implements Runnable {
             System.exit(23);
         }
 
-        if (sessionKeyOut != null || withSessionKey != null) {
-            err_ln("session key in and out are not yet supported.");
-            System.exit(1);
-        }
-
         ConsumerOptions options = new ConsumerOptions();
 
+        if (withSessionKey != null) {
+            // Only a single session key is supported, since the ciphertext is read only once
+            try {
+                options.setSessionKey(readSessionKey(withSessionKey[0]));
+            } catch (IOException | IllegalArgumentException e) {
+                err_ln("Cannot read session key: " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+
         List<PGPPublicKeyRing> verifyWith = null;
         try {
 
-            List<PGPSecretKeyRing> secretKeyRings = loadKeysFromFiles(keys);
-            for (PGPSecretKeyRing secretKey : secretKeyRings) {
-                options.addDecryptionKey(secretKey);
+            if (keys != null) {
+                List<PGPSecretKeyRing> secretKeyRings = loadKeysFromFiles(keys);
+                for (PGPSecretKeyRing secretKey : secretKeyRings) {
+                    options.addDecryptionKey(secretKey);
+                }
             }
 
             if (certs != null) {
@@ -148,11 +159,24 @@ public class Decrypt implements Runnable {
             err_ln("Unable to decrypt: " + e.getMessage());
             System.exit(29);
         }
+
+        OpenPgpMetadata metadata = decryptionStream.getResult();
+        if (sessionKeyOut != null && metadata.getSessionKey() != null) {
+            try {
+                PrintStream sessionKeyPrinter = new PrintStream(new FileOutputStream(sessionKeyOut));
+                // CHECKSTYLE:OFF
+                sessionKeyPrinter.println(metadata.getSessionKey());
+                // CHECKSTYLE:ON
+                sessionKeyPrinter.close();
+            } catch (IOException e) {
+                err_ln("Error writing session key file: " + e);
+            }
+        }
+
         if (verifyOut == null) {
             return;
         }
 
-        OpenPgpMetadata metadata = decryptionStream.getResult();
         StringBuilder sb = new StringBuilder();
 
         if (verifyWith != null) {
@@ -175,4 +199,10 @@ public class Decrypt implements Runnable {
             }
         }
     }
+
+    private static SessionKey readSessionKey(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            return SessionKey.fromString(new String(Streams.readAll(inputStream), StandardCharsets.UTF_8));
+        }
+    }
 }
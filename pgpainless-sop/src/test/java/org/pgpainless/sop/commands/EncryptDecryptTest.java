@@ -102,18 +102,32 @@ public class EncryptDecryptTest {
         File verifyFile = new File(tempDir, "verify.txt");
         assertTrue(verifyFile.createNewFile());
 
+        File sessionKeyFile = new File(tempDir, "session.key");
+
         FileInputStream msgAscIn = new FileInputStream(msgAscFile);
         System.setIn(msgAscIn);
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         PrintStream pOut = new PrintStream(out);
         System.setOut(pOut);
         new CommandLine(new PGPainlessCLI()).execute("decrypt",
+                "--session-key-out", sessionKeyFile.getAbsolutePath(),
                 "--verify-out", verifyFile.getAbsolutePath(),
                 "--verify-with", romeoCertFile.getAbsolutePath(),
                 julietKeyFile.getAbsolutePath());
         msgAscIn.close();
 
         assertEquals(msg, out.toString());
+
+        // Decrypt again using only the session key
+        msgAscIn = new FileInputStream(msgAscFile);
+        System.setIn(msgAscIn);
+        out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        new CommandLine(new PGPainlessCLI()).execute("decrypt",
+                "--with-session-key", sessionKeyFile.getAbsolutePath());
+        msgAscIn.close();
+
+        assertEquals(msg, out.toString());
     }
 
     @AfterAll